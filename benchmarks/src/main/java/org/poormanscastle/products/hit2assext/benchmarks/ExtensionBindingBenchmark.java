@@ -0,0 +1,94 @@
+package org.poormanscastle.products.hit2assext.benchmarks;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.transform.stream.StreamSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.poormanscastle.products.hit2assext.RenderSessionManager;
+import org.poormanscastle.products.hit2assext.saxon.Hit2assextFunctionLibrary;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.sxpath.XPathEvaluator;
+import net.sf.saxon.sxpath.XPathExpression;
+import net.sf.saxon.trans.XPathException;
+
+/**
+ * Compares XPath expressions calling hit2assext functions through Saxon's reflective binding of the static
+ * RenderSessionManager methods with the same expressions bound natively by Hit2assextFunctionLibrary. Both
+ * measure the evaluation of a compiled expression, the way DocBase evaluates the expressions of a template.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ExtensionBindingBenchmark {
+
+    @Param({"reflective", "native"})
+    public String binding;
+
+    private String uuid;
+
+    private NodeInfo document;
+
+    private XPathExpression getListValueAt;
+
+    private XPathExpression whileLoopIteration;
+
+    @Setup(Level.Trial)
+    public void setUp() throws XPathException {
+        Configuration configuration = new Configuration();
+        if ("native".equals(binding)) {
+            Hit2assextFunctionLibrary.register(configuration);
+        }
+        XPathEvaluator evaluator = new XPathEvaluator(configuration);
+        evaluator.getStaticContext().declareNamespace("hit2assext", RenderSessionManager.class.getName());
+        document = evaluator.build(new StreamSource(new StringReader("<UserData/>")));
+
+        uuid = RenderSessionManager.createRenderSessionContext();
+        RenderSessionManager.createList(uuid, "names");
+        for (int index = 0; index < 100; index++) {
+            RenderSessionManager.addListValue(uuid, "names", "name" + index);
+        }
+        evaluator.getStaticContext().declareVariable("uuid").setValue(uuid);
+        getListValueAt = evaluator.createExpression("hit2assext:getListValueAt($uuid, 'names', 42)");
+        whileLoopIteration = evaluator.createExpression("(hit2assext:setScalarVariableValue($uuid, 'lelement', "
+                + "hit2assext:getListValueAt($uuid, 'names', hit2assext:getXmlSequence($uuid) mod 100 + 1)), "
+                + "hit2assext:incrementXmlSequence($uuid))");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        RenderSessionManager.cleanUpRenderSessionContext(uuid);
+    }
+
+    @Benchmark
+    public Object getListValueAt() throws XPathException {
+        return getListValueAt.evaluateSingle(document);
+    }
+
+    /**
+     * one iteration of a WHILE loop reading a list, i.e. four hit2assext calls.
+     */
+    @Benchmark
+    public Object whileLoopIteration() throws XPathException {
+        return whileLoopIteration.evaluate(document);
+    }
+
+}
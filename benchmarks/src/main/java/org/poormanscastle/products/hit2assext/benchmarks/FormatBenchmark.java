@@ -0,0 +1,146 @@
+package org.poormanscastle.products.hit2assext.benchmarks;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.poormanscastle.products.hit2assext.format.HitClouFormats;
+
+/**
+ * Compares the HitClouFormats functions with the implementations they replaced, i.e. the former
+ * RenderSessionManager.convert_TMJJJJ_DateToIso8601Format() and getSubstring(), and with DecimalFormat for
+ * German numbers. Run with -prof gc to compare the allocation rates, too.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FormatBenchmark {
+
+    private final static int ROWS = 1000;
+
+    private final String[] dates = new String[ROWS];
+
+    private final double[] amounts = new double[ROWS];
+
+    private List<String> dateList;
+
+    private DecimalFormat germanFormat;
+
+    private int cursor;
+
+    @Setup
+    public void setUp() {
+        dateList = new ArrayList<>(ROWS);
+        for (int row = 0; row < ROWS; row++) {
+            dates[row] = StringUtils.join(row % 28 + 1, ".", row % 12 + 1, ".", 2000 + row % 17);
+            amounts[row] = row * 1234.567d - 50000d;
+            dateList.add(dates[row]);
+        }
+        germanFormat = new DecimalFormat("#,##0.00", DecimalFormatSymbols.getInstance(Locale.GERMANY));
+    }
+
+    private int next() {
+        cursor = cursor == ROWS - 1 ? 0 : cursor + 1;
+        return cursor;
+    }
+
+    @Benchmark
+    public String convertDateLegacy() {
+        return legacyConvertDate(dates[next()]);
+    }
+
+    @Benchmark
+    public String convertDate() {
+        return HitClouFormats.convertDateToIso8601(dates[next()]);
+    }
+
+    @Benchmark
+    public List<String> convertDatesPerRowLegacy() {
+        List<String> result = new ArrayList<>(ROWS);
+        for (String date : dateList) {
+            result.add(legacyConvertDate(date));
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List<String> convertDatesSetAtATime() {
+        return HitClouFormats.convertDatesToIso8601(dateList);
+    }
+
+    @Benchmark
+    public String substringLegacy() {
+        return legacySubstring(dates[next()], 1, 3);
+    }
+
+    @Benchmark
+    public String substring() {
+        return HitClouFormats.substring(dates[next()], 1, 3);
+    }
+
+    @Benchmark
+    public String formatGermanNumberDecimalFormat() {
+        return germanFormat.format(amounts[next()]);
+    }
+
+    @Benchmark
+    public String formatGermanNumber() {
+        return HitClouFormats.formatGermanNumber(amounts[next()], 2);
+    }
+
+    @Benchmark
+    public double parseGermanNumber() {
+        return HitClouFormats.parseGermanNumber("1.234.567,89");
+    }
+
+    /**
+     * the former RenderSessionManager.convert_TMJJJJ_DateToIso8601Format(), without its logging.
+     */
+    private static String legacyConvertDate(String dateString) {
+        StringBuilder result = new StringBuilder();
+        String[] dateItems = dateString.split("\\.");
+        checkArgument(dateItems.length == 3, StringUtils.join("Invalid dateString ", dateString,
+                " - it should be in the format T.M.JJJJ"));
+        boolean flag = false;
+        for (int counter = 0; counter < 3; counter++) {
+            result.append(StringUtils.join(flag ? "-" : "", StringUtils.leftPad(dateItems[2 - counter], 2, "0")));
+            flag = true;
+        }
+        return result.toString();
+    }
+
+    /**
+     * the former RenderSessionManager.getSubstring().
+     */
+    private static String legacySubstring(String inputString, int startIndex, int endIndex) {
+        checkNotNull(inputString, "Input to getSubstring() was null.");
+        checkArgument(startIndex > 0 && endIndex > 0, StringUtils.join("startIndex ", startIndex,
+                " and endIndex ", endIndex, " must both be positive numbers."));
+        checkArgument(startIndex <= endIndex, StringUtils.join("startIndex ", startIndex,
+                " must be smaller or equal to endIndex ", endIndex));
+        checkArgument(endIndex <= inputString.length(), "endIndex ", endIndex,
+                " cannot be greated then input string length ", inputString.length());
+        return inputString.substring(startIndex - 1, endIndex);
+    }
+
+}
@@ -0,0 +1,155 @@
+package org.poormanscastle.products.hit2assext.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.poormanscastle.products.hit2assext.RenderSessionManager;
+
+/**
+ * Measures indexed reads and writes of hit2assext lists of various sizes, as done by translated HIT/CLOU
+ * FOR loops, appending values and lists, finding values with indexOfListValue() compared with reading the
+ * list value by value, and summing up a list with sumListValues() compared with reading it value by value. Each
+ * benchmark thread works in its own render session.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ListAccessBenchmark {
+
+    @Param({"10", "1000", "20000"})
+    public int listSize;
+
+    private String uuid;
+
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        uuid = RenderSessionManager.createRenderSessionContext();
+        RenderSessionManager.createList(uuid, "strings");
+        RenderSessionManager.createList(uuid, "numbers");
+        RenderSessionManager.createList(uuid, "section");
+        for (int index = 0; index < listSize; index++) {
+            RenderSessionManager.addListValue(uuid, "strings", "value " + index);
+            RenderSessionManager.addListValue(uuid, "numbers", (long) index);
+        }
+        for (int index = 0; index < 100; index++) {
+            RenderSessionManager.addListValue(uuid, "section", "section value " + index);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        RenderSessionManager.cleanUpRenderSessionContext(uuid);
+    }
+
+    /**
+     * the appendList benchmarks grow their target list, so it is reset before each iteration.
+     */
+    @Setup(Level.Iteration)
+    public void resetTarget() {
+        RenderSessionManager.createList(uuid, "target");
+    }
+
+    private int nextIndex() {
+        // hit2assext lists use 1-based indexes
+        cursor = cursor == listSize ? 1 : cursor + 1;
+        return cursor;
+    }
+
+    @Benchmark
+    public Object getListValueAt() {
+        return RenderSessionManager.getListValueAt(uuid, "strings", nextIndex());
+    }
+
+    @Benchmark
+    public Object getNumericListValueAt() {
+        return RenderSessionManager.getListValueAt(uuid, "numbers", nextIndex());
+    }
+
+    @Benchmark
+    public void setListValueAt() {
+        int index = nextIndex();
+        RenderSessionManager.setListValueAt(uuid, "strings", index, "new value");
+    }
+
+    @Benchmark
+    public void setNumericListValueAt() {
+        int index = nextIndex();
+        RenderSessionManager.setListValueAt(uuid, "numbers", index, (long) index);
+    }
+
+    @Benchmark
+    public Integer getListLength() {
+        return RenderSessionManager.getListLength(uuid, "strings");
+    }
+
+    @Benchmark
+    public void addListValue() {
+        RenderSessionManager.addListValue(uuid, "target", "value");
+    }
+
+    @Benchmark
+    public void appendList() {
+        RenderSessionManager.appendList(uuid, "section", "target");
+    }
+
+    @Benchmark
+    public int indexOfListValue() {
+        return RenderSessionManager.indexOfListValue(uuid, "numbers", (long) (nextIndex() - 1));
+    }
+
+    /**
+     * the WHILE loop templates use to find a value without indexOfListValue().
+     */
+    @Benchmark
+    public int indexOfListValueByScan() {
+        Long value = (long) (nextIndex() - 1);
+        for (int index = 1; index <= listSize; index++) {
+            if (value.equals(RenderSessionManager.getListValueAt(uuid, "numbers", index))) {
+                return index;
+            }
+        }
+        return 0;
+    }
+
+    @Benchmark
+    public Number sumListValues() {
+        return RenderSessionManager.sumListValues(uuid, "numbers");
+    }
+
+    /**
+     * the WHILE loop templates use to sum up a list without sumListValues().
+     */
+    @Benchmark
+    public long sumListValuesByScan() {
+        long sum = 0;
+        for (int index = 1; index <= listSize; index++) {
+            sum += (Long) RenderSessionManager.getListValueAt(uuid, "numbers", index);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Object getListValueAtContended() {
+        return RenderSessionManager.getListValueAt(uuid, "strings", nextIndex());
+    }
+
+}
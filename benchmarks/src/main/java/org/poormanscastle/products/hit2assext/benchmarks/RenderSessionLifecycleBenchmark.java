@@ -0,0 +1,50 @@
+package org.poormanscastle.products.hit2assext.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.poormanscastle.products.hit2assext.RenderSessionManager;
+
+/**
+ * Measures the throughput of creating and cleaning up render sessions, once per document, both in a single
+ * thread and with many render threads contending for the session registry.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderSessionLifecycleBenchmark {
+
+    @Benchmark
+    @Threads(1)
+    public String createAndCleanUp() {
+        String uuid = RenderSessionManager.createRenderSessionContext();
+        RenderSessionManager.cleanUpRenderSessionContext(uuid);
+        return uuid;
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String createAndCleanUpContended() {
+        String uuid = RenderSessionManager.createRenderSessionContext();
+        RenderSessionManager.cleanUpRenderSessionContext(uuid);
+        return uuid;
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String createAndCleanUpHandleContended() {
+        String handle = RenderSessionManager.createRenderSessionHandle();
+        RenderSessionManager.cleanUpRenderSessionContext(handle);
+        return handle;
+    }
+
+}
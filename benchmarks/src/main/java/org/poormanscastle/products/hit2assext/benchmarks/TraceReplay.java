@@ -0,0 +1,349 @@
+package org.poormanscastle.products.hit2assext.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.poormanscastle.products.hit2assext.RenderSessionManager;
+import org.poormanscastle.products.hit2assext.domain.ExtensionFunction;
+import org.poormanscastle.products.hit2assext.metrics.LatencyHistogram;
+import org.poormanscastle.products.hit2assext.recording.CallRecording;
+import org.poormanscastle.products.hit2assext.recording.RecordedCall;
+
+import net.sf.saxon.trans.XPathException;
+
+/**
+ * Replays call recordings written by the CallRecorder against hit2assext from a configurable number of
+ * threads, and reports throughput, latency percentiles per extension function, allocation rate and peak heap
+ * usage. Each round replays every recording once, each recording as a render session of its own.
+ * <p></p>
+ * Usage: java -cp benchmarks.jar org.poormanscastle.products.hit2assext.benchmarks.TraceReplay
+ * &lt;recording directory or file&gt; [threads] [rounds] [warmup rounds]
+ * <p></p>
+ * Nodes are recorded as their string values, so indexUserDataLines() is replayed with a freshly built
+ * /UserData/payload/line tree holding the recorded values. exportSymbolSnapshot() and dumpCallTrace() are not
+ * replayed, since they only write diagnostics.
+ */
+public final class TraceReplay {
+
+    private final List<CallRecording> recordings;
+
+    private final Map<Object, List> lineNodes = new IdentityHashMap<>();
+
+    private final Map<ExtensionFunction, LatencyHistogram> latencies = new EnumMap<>(ExtensionFunction.class);
+
+    private final Map<ExtensionFunction, AtomicLong> failures = new EnumMap<>(ExtensionFunction.class);
+
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    private TraceReplay(List<CallRecording> recordings) throws XPathException {
+        this.recordings = recordings;
+        for (ExtensionFunction function : ExtensionFunction.values()) {
+            latencies.put(function, new LatencyHistogram());
+            failures.put(function, new AtomicLong());
+        }
+        for (CallRecording recording : recordings) {
+            for (RecordedCall call : recording.getCalls()) {
+                if (call.getFunction() == ExtensionFunction.INDEX_USER_DATA_LINES && call.getValue() instanceof List) {
+                    lineNodes.put(call.getValue(), UserDataDocuments.evaluate(UserDataDocuments.createUserData(
+                            (List<?>) call.getValue()), "/UserData/payload/line"));
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: TraceReplay <recording directory or file> [threads] [rounds] [warmup rounds]");
+            System.exit(1);
+        }
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int warmupRounds = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+        List<CallRecording> recordings = CallRecording.readAll(args[0]);
+        if (recordings.isEmpty()) {
+            System.err.println("No call recordings found in " + args[0]);
+            System.exit(1);
+        }
+        TraceReplay replay = new TraceReplay(recordings);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int round = 0; round < warmupRounds; round++) {
+                replay.runRound(executor);
+            }
+            replay.reset();
+            long start = System.nanoTime();
+            for (int round = 0; round < rounds; round++) {
+                replay.runRound(executor);
+            }
+            replay.report(System.nanoTime() - start, threads, rounds);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void reset() {
+        for (ExtensionFunction function : ExtensionFunction.values()) {
+            latencies.get(function).reset();
+            failures.get(function).set(0);
+        }
+        allocatedBytes.set(0);
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private void runRound(ExecutorService executor) throws Exception {
+        List<Future<?>> futures = new ArrayList<>(recordings.size());
+        for (final CallRecording recording : recordings) {
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    long allocatedBefore = getAllocatedBytes();
+                    replay(recording);
+                    long allocatedAfter = getAllocatedBytes();
+                    if (allocatedBefore >= 0 && allocatedAfter >= 0) {
+                        allocatedBytes.addAndGet(allocatedAfter - allocatedBefore);
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+    }
+
+    private void replay(CallRecording recording) {
+        String uuid = null;
+        for (RecordedCall call : recording.getCalls()) {
+            ExtensionFunction function = call.getFunction();
+            if (function == ExtensionFunction.EXPORT_SYMBOL_SNAPSHOT || function == ExtensionFunction.DUMP_CALL_TRACE) {
+                continue;
+            }
+            long start = System.nanoTime();
+            try {
+                if (function == ExtensionFunction.CREATE_RENDER_SESSION_CONTEXT) {
+                    uuid = RenderSessionManager.createRenderSessionContext(call.getSymbol());
+                } else {
+                    replay(uuid, call);
+                    if (function == ExtensionFunction.CLEAN_UP_RENDER_SESSION_CONTEXT) {
+                        uuid = null;
+                    }
+                }
+            } catch (RuntimeException exception) {
+                failures.get(function).incrementAndGet();
+            }
+            latencies.get(function).record(System.nanoTime() - start);
+        }
+        if (uuid != null) {
+            RenderSessionManager.cleanUpRenderSessionContext(uuid);
+        }
+    }
+
+    private void replay(String uuid, RecordedCall call) {
+        String symbol = call.getSymbol();
+        int number = (int) call.getNumber();
+        Object value = call.getValue();
+        switch (call.getFunction()) {
+            case CLEAN_UP_RENDER_SESSION_CONTEXT:
+                RenderSessionManager.cleanUpRenderSessionContext(uuid);
+                break;
+            case CREATE_LIST:
+                RenderSessionManager.createList(uuid, symbol);
+                break;
+            case ADD_LIST_VALUE:
+                RenderSessionManager.addListValue(uuid, symbol, value);
+                break;
+            case ADD_LIST_VALUES:
+                RenderSessionManager.addListValues(uuid, symbol, (List<?>) value);
+                break;
+            case SET_LIST_VALUES:
+                RenderSessionManager.setListValues(uuid, symbol, (List<?>) value);
+                break;
+            case APPEND_LIST:
+                RenderSessionManager.appendList(uuid, symbol, call.getSecondSymbol());
+                break;
+            case GET_LIST_VALUE_AT:
+                RenderSessionManager.getListValueAt(uuid, symbol, number);
+                break;
+            case SET_LIST_VALUE_AT:
+                RenderSessionManager.setListValueAt(uuid, symbol, number, value);
+                break;
+            case GET_LIST_LENGTH:
+                RenderSessionManager.getListLength(uuid, symbol);
+                break;
+            case GET_LIST_MEMORY_FOOTPRINT:
+                RenderSessionManager.getListMemoryFootprint(uuid, symbol);
+                break;
+            case INDEX_OF_LIST_VALUE:
+                RenderSessionManager.indexOfListValue(uuid, symbol, value);
+                break;
+            case CONTAINS_LIST_VALUE:
+                RenderSessionManager.containsListValue(uuid, symbol, value);
+                break;
+            case COUNT_LIST_VALUE:
+                RenderSessionManager.countListValue(uuid, symbol, value);
+                break;
+            case SUM_LIST_VALUES:
+                RenderSessionManager.sumListValues(uuid, symbol);
+                break;
+            case MIN_LIST_VALUE:
+                RenderSessionManager.minListValue(uuid, symbol);
+                break;
+            case MAX_LIST_VALUE:
+                RenderSessionManager.maxListValue(uuid, symbol);
+                break;
+            case COUNT_LIST_NUMBERS:
+                RenderSessionManager.countListNumbers(uuid, symbol);
+                break;
+            case SORT_LIST_BY_NUMBER:
+                RenderSessionManager.sortListByNumber(uuid, symbol, call.getSecondSymbol(), number != 0);
+                break;
+            case SORT_LIST_BY_TEXT:
+                RenderSessionManager.sortListByText(uuid, symbol, call.getSecondSymbol(), (String) value, number != 0);
+                break;
+            case DISTINCT_LIST_VALUES:
+                RenderSessionManager.distinctListValues(uuid, symbol, call.getSecondSymbol());
+                break;
+            case GET_XML_SEQUENCE:
+                RenderSessionManager.getXmlSequence(uuid);
+                break;
+            case INCREMENT_XML_SEQUENCE:
+                RenderSessionManager.incrementXmlSequence(uuid);
+                break;
+            case GET_CURSOR_POSITION:
+                RenderSessionManager.getCursorPosition(uuid, symbol);
+                break;
+            case ADVANCE_CURSOR:
+                RenderSessionManager.advanceCursor(uuid, symbol);
+                break;
+            case SEEK_CURSOR:
+                RenderSessionManager.seekCursor(uuid, symbol, number);
+                break;
+            case RESET_CURSOR:
+                RenderSessionManager.resetCursor(uuid, symbol);
+                break;
+            case INDEX_USER_DATA_LINES:
+                RenderSessionManager.indexUserDataLines(uuid, lineNodes.get(value));
+                break;
+            case HAS_USER_DATA_LINE:
+                RenderSessionManager.hasUserDataLine(uuid, symbol);
+                break;
+            case GET_CURRENT_USER_DATA_LINE:
+                RenderSessionManager.getCurrentUserDataLine(uuid, symbol);
+                break;
+            case NEXT_USER_DATA_LINE:
+                RenderSessionManager.nextUserDataLine(uuid, symbol);
+                break;
+            case OPEN_DATA_FILE:
+                RenderSessionManager.openDataFile(uuid, symbol, call.getSecondSymbol());
+                break;
+            case HAS_NEXT_LINE:
+                RenderSessionManager.hasNextLine(uuid, symbol);
+                break;
+            case PEEK_LINE:
+                RenderSessionManager.peekLine(uuid, symbol);
+                break;
+            case READ_NEXT_LINE:
+                RenderSessionManager.readNextLine(uuid, symbol);
+                break;
+            case CREATE_SCALAR_VARIABLE:
+                RenderSessionManager.createScalarVariable(uuid, symbol, value);
+                break;
+            case SET_SCALAR_VARIABLE_VALUE:
+                RenderSessionManager.setScalarVariableValue(uuid, symbol, value);
+                break;
+            case GET_SCALAR_VARIABLE_VALUE:
+                RenderSessionManager.getScalarVariableValue(uuid, symbol);
+                break;
+            case INCREMENT_SCALAR_VARIABLE:
+                RenderSessionManager.incrementScalarVariable(uuid, symbol, call.getNumber());
+                break;
+            case CONVERT_LIST_ELEMENTS_TO_VARS:
+                RenderSessionManager.convertListElementsToVars(uuid);
+                break;
+            case EXECUTE_MACRO_COMMAND:
+                RenderSessionManager.executeMacroCommand(uuid, symbol);
+                break;
+            case CONVERT_LIST_DATES_TO_ISO8601_FORMAT:
+                RenderSessionManager.convertListDatesToIso8601Format(uuid, symbol);
+                break;
+            case FORMAT_LIST_NUMBERS:
+                RenderSessionManager.formatListNumbers(uuid, symbol, number);
+                break;
+            case PUBLISH_GLOBAL_SYMBOLS:
+                RenderSessionManager.publishGlobalSymbols(uuid);
+                break;
+            case LOAD_SYMBOL_SNAPSHOT:
+                RenderSessionManager.loadSymbolSnapshot(uuid, symbol);
+                break;
+            case PRINT_LOG_STATEMENT:
+                RenderSessionManager.printLogStatement(uuid, symbol);
+                break;
+            default:
+                throw new IllegalArgumentException("Cannot replay " + call);
+        }
+    }
+
+    /**
+     * @return the bytes allocated by the current thread so far, or -1 if the JVM does not tell.
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private void report(long wallNanos, int threads, int rounds) {
+        long sessions = (long) recordings.size() * rounds;
+        long calls = 0;
+        for (LatencyHistogram histogram : latencies.values()) {
+            calls += histogram.getCount();
+        }
+        double seconds = wallNanos / 1e9;
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+        System.out.println(String.format(Locale.ROOT, "replayed %d recordings, %d rounds, %d threads",
+                recordings.size(), rounds, threads));
+        System.out.println(String.format(Locale.ROOT, "sessions: %d, calls: %d, wall time: %.3f s",
+                sessions, calls, seconds));
+        System.out.println(String.format(Locale.ROOT, "throughput: %.0f calls/s, %.1f sessions/s",
+                calls / seconds, sessions / seconds));
+        System.out.println(String.format(Locale.ROOT, "allocation rate: %.1f MB/s, peak heap: %.1f MB",
+                allocatedBytes.get() / seconds / (1 << 20), peakHeap / (double) (1 << 20)));
+        System.out.println(String.format(Locale.ROOT, "%-36s %10s %8s %10s %10s %10s",
+                "function", "calls", "failed", "p50 ns", "p99 ns", "p999 ns"));
+        for (ExtensionFunction function : ExtensionFunction.values()) {
+            LatencyHistogram histogram = latencies.get(function);
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            System.out.println(String.format(Locale.ROOT, "%-36s %10d %8d %10d %10d %10d",
+                    function.getFunctionName(), histogram.getCount(), failures.get(function).get(),
+                    histogram.getPercentileNanos(50), histogram.getPercentileNanos(99),
+                    histogram.getPercentileNanos(99.9)));
+        }
+    }
+
+}
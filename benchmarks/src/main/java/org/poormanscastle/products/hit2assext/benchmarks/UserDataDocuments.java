@@ -0,0 +1,50 @@
+package org.poormanscastle.products.hit2assext.benchmarks;
+
+import java.io.StringReader;
+import java.util.List;
+
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.commons.lang3.StringEscapeUtils;
+
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.sxpath.XPathEvaluator;
+import net.sf.saxon.trans.XPathException;
+
+/**
+ * Builds Saxon trees resembling the /UserData/payload/line XML which hit2ass creates from HIT/CLOU
+ * business data files, so the benchmarks can hand real NodeInfo instances to hit2assext.
+ */
+final class UserDataDocuments {
+
+    private UserDataDocuments() {
+    }
+
+    static NodeInfo createUserData(int lineCount) throws XPathException {
+        StringBuilder xml = new StringBuilder("<UserData><payload>");
+        for (int lineNr = 1; lineNr <= lineCount; lineNr++) {
+            xml.append("<line lineNr=\"").append(lineNr).append("\">value of line ").append(lineNr).append("</line>");
+        }
+        xml.append("</payload></UserData>");
+        return new XPathEvaluator().build(new StreamSource(new StringReader(xml.toString())));
+    }
+
+    /**
+     * @param lineValues the text of each line, e.g. as recorded by a CallRecorder
+     */
+    static NodeInfo createUserData(List<?> lineValues) throws XPathException {
+        StringBuilder xml = new StringBuilder("<UserData><payload>");
+        for (int lineNr = 1; lineNr <= lineValues.size(); lineNr++) {
+            Object value = lineValues.get(lineNr - 1);
+            xml.append("<line lineNr=\"").append(lineNr).append("\">")
+                    .append(StringEscapeUtils.escapeXml10(value == null ? "" : value.toString())).append("</line>");
+        }
+        xml.append("</payload></UserData>");
+        return new XPathEvaluator().build(new StreamSource(new StringReader(xml.toString())));
+    }
+
+    static List evaluate(NodeInfo document, String xpath) throws XPathException {
+        return new XPathEvaluator().createExpression(xpath).evaluate(document);
+    }
+
+}
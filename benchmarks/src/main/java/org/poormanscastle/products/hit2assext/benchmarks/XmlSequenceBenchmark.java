@@ -0,0 +1,141 @@
+package org.poormanscastle.products.hit2assext.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.poormanscastle.products.hit2assext.RenderSessionManager;
+
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.trans.XPathException;
+
+/**
+ * Measures the hit2assext calls made by the HIT/CLOU WHILE loop idiom documented in the README:
+ * <p></p>
+ * hit2assext:setScalarVariableValue(uuid, 'lelement', /UserData/payload/line[@lineNr = hit2assext:getXmlSequence(uuid)]/text())
+ * | hit2assext:incrementXmlSequence(uuid)
+ * <p></p>
+ * and scalar variable writes with Saxon nodes which need to be atomized.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class XmlSequenceBenchmark {
+
+    @Param({"1000"})
+    public int lineCount;
+
+    private String uuid;
+
+    private List lines;
+
+    private NodeInfo firstLine;
+
+    @Setup(Level.Trial)
+    public void setUp() throws XPathException {
+        NodeInfo userData = UserDataDocuments.createUserData(lineCount);
+        lines = UserDataDocuments.evaluate(userData, "/UserData/payload/line");
+        firstLine = (NodeInfo) lines.get(0);
+        uuid = RenderSessionManager.createRenderSessionContext();
+        RenderSessionManager.indexUserDataLines(uuid, lines);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        RenderSessionManager.cleanUpRenderSessionContext(uuid);
+    }
+
+    @Benchmark
+    public int getXmlSequence() {
+        return RenderSessionManager.getXmlSequence(uuid);
+    }
+
+    @Benchmark
+    public void incrementXmlSequence() {
+        RenderSessionManager.incrementXmlSequence(uuid);
+    }
+
+    /**
+     * one iteration of the WHILE loop idiom. Saxon evaluates the predicate itself; what is measured here are
+     * the hit2assext calls and the atomization of the selected line.
+     */
+    @Benchmark
+    public void whileLoopIteration() {
+        int lineNr = RenderSessionManager.getXmlSequence(uuid);
+        Object line = lines.get((lineNr - 1) % lineCount);
+        RenderSessionManager.setScalarVariableValue(uuid, "lelement", line);
+        RenderSessionManager.incrementXmlSequence(uuid);
+    }
+
+    /**
+     * one iteration of the indexed WHILE loop idiom, which resolves the line in O(1) instead of letting Saxon
+     * scan all lines for the predicate. At the end of the user data, a new render session indexes the lines again,
+     * which is amortized over lineCount iterations.
+     */
+    @Benchmark
+    public void indexedWhileLoopIteration() {
+        if (!RenderSessionManager.hasUserDataLine(uuid)) {
+            RenderSessionManager.cleanUpRenderSessionContext(uuid);
+            uuid = RenderSessionManager.createRenderSessionContext();
+            RenderSessionManager.indexUserDataLines(uuid, lines);
+        }
+        RenderSessionManager.setScalarVariableValue(uuid, "lelement", RenderSessionManager.nextUserDataLine(uuid));
+    }
+
+    /**
+     * fills a list from lineCount nodes using one addListValue() call per node, the way templates do it today.
+     */
+    @Benchmark
+    public int fillListPerNode() throws XPathException {
+        RenderSessionManager.createList(uuid, "lines");
+        for (int index = 0; index < lineCount; index++) {
+            RenderSessionManager.addListValue(uuid, "lines", ((NodeInfo) lines.get(index)).atomize());
+        }
+        return RenderSessionManager.getListLength(uuid, "lines");
+    }
+
+    /**
+     * fills a list from lineCount nodes using a single setListValues() call.
+     */
+    @Benchmark
+    public int fillListInBulk() {
+        return RenderSessionManager.setListValues(uuid, "lines", lines);
+    }
+
+    @Benchmark
+    public void setScalarVariableValueString() {
+        RenderSessionManager.setScalarVariableValue(uuid, "firstName", "John");
+    }
+
+    @Benchmark
+    public void setScalarVariableValueNodeInfo() {
+        RenderSessionManager.setScalarVariableValue(uuid, "lelement", firstLine);
+    }
+
+    @Benchmark
+    public void setScalarVariableValueNodeList() {
+        RenderSessionManager.setScalarVariableValue(uuid, "lelement", lines);
+    }
+
+    @Benchmark
+    public Object setAndGetScalarVariableValueNodeInfo() {
+        RenderSessionManager.setScalarVariableValue(uuid, "lelement", firstLine);
+        return RenderSessionManager.getScalarVariableValue(uuid, "lelement");
+    }
+
+}
@@ -2,21 +2,51 @@ package org.poormanscastle.products.hit2assext;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
+import org.poormanscastle.products.hit2assext.domain.CallTrace;
+import org.poormanscastle.products.hit2assext.domain.ExtensionFunction;
+import org.poormanscastle.products.hit2assext.domain.GlobalSymbols;
+import org.poormanscastle.products.hit2assext.domain.MacroCommand;
+import org.poormanscastle.products.hit2assext.domain.MemoryAccount;
+import org.poormanscastle.products.hit2assext.domain.MemoryBudget;
 import org.poormanscastle.products.hit2assext.domain.RenderSessionContext;
-import org.poormanscastle.products.hit2assext.domain.RenderSessionContexts;
+import org.poormanscastle.products.hit2assext.domain.RenderSessionContextPool;
+import org.poormanscastle.products.hit2assext.domain.RenderSessionReaper;
+import org.poormanscastle.products.hit2assext.domain.RenderSessionRegistry;
+import org.poormanscastle.products.hit2assext.domain.SymbolLayout;
+import org.poormanscastle.products.hit2assext.domain.SymbolSnapshot;
+import org.poormanscastle.products.hit2assext.domain.UserDataFile;
+import org.poormanscastle.products.hit2assext.domain.UserDataLineIndex;
+import org.poormanscastle.products.hit2assext.format.HitClouFormats;
+import org.poormanscastle.products.hit2assext.metrics.MetricsListener;
+import org.poormanscastle.products.hit2assext.metrics.RenderSessionMetrics;
+import org.poormanscastle.products.hit2assext.metrics.RenderSessionMetricsMBean;
+import org.poormanscastle.products.hit2assext.recording.CallRecorder;
+import org.poormanscastle.products.hit2assext.saxon.Hit2assextFunctionLibrary;
 
+import net.sf.saxon.expr.XPathContext;
 import net.sf.saxon.om.NodeInfo;
 import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.value.Value;
 
+import com.google.common.base.Function;
+
 /**
  * A RenderSessionManager manages the RenderSessionContext instances.
  * There exists exactly one RenderSessionManager within application scope. The application is the render
@@ -30,7 +60,194 @@ public final class RenderSessionManager {
 
     private final static Logger logger = Logger.getLogger(RenderSessionManager.class);
 
-    private final static Map<String, RenderSessionContext> contextMap = new HashMap<>();
+    /**
+     * all render threads of the render engine share this registry. See RenderSessionRegistry on how it
+     * deals with concurrent access.
+     */
+    private final static RenderSessionRegistry registry = new RenderSessionRegistry();
+
+    /**
+     * evicts render sessions that were never cleaned up, e.g. because the rendering failed before the
+     * Dynamic Content element calling cleanUpRenderSessionContext() was reached. The reaper can be
+     * configured using these Java system properties of the render engine:
+     * <ul>
+     * <li>hit2assext.reaper.maxAgeSeconds: render sessions older than this are evicted. Default 3600, 0 disables.</li>
+     * <li>hit2assext.reaper.maxIdleSeconds: render sessions not accessed for this long are evicted. Default 600, 0 disables.</li>
+     * <li>hit2assext.reaper.intervalSeconds: the time between two sweeps. Default 30, 0 disables the reaper.</li>
+     * </ul>
+     */
+    private final static RenderSessionReaper reaper = new RenderSessionReaper(registry,
+            TimeUnit.SECONDS.toMillis(Long.getLong("hit2assext.reaper.maxAgeSeconds", 3600)),
+            TimeUnit.SECONDS.toMillis(Long.getLong("hit2assext.reaper.maxIdleSeconds", 600)),
+            new RenderSessionReaper.EvictionHandler() {
+                @Override
+                public void onEvicted(RenderSessionContext context) {
+                    // the template of an evicted render session might still be running, so its context is not reused
+                    endRenderSession(context, false);
+                }
+            });
+
+    /**
+     * recycles the contexts of render sessions that have been cleaned up. The number of pooled contexts can be
+     * configured using the Java system property hit2assext.pool.size, 0 disables pooling.
+     */
+    private final static RenderSessionContextPool pool = new RenderSessionContextPool(
+            Integer.getInteger("hit2assext.pool.size", 64));
+
+    /**
+     * limits the memory and the number of the render sessions, so a runaway template fails its own render session
+     * instead of driving the render engine into an OutOfMemoryError. The budget can be configured using these
+     * Java system properties of the render engine:
+     * <ul>
+     * <li>hit2assext.session.maxBytes: the memory a single render session may allocate for its lists and scalar
+     * variables, in bytes. Default 0, i.e. unlimited.</li>
+     * <li>hit2assext.memory.maxBytes: the memory all render sessions together may allocate, in bytes. Default 0,
+     * i.e. unlimited.</li>
+     * <li>hit2assext.session.maxConcurrent: the number of render sessions which may be alive at the same time.
+     * Further calls to createRenderSessionContext() wait for a render session to end. Default 0, i.e. unlimited.</li>
+     * <li>hit2assext.session.admissionTimeoutMillis: how long createRenderSessionContext() waits before it fails.
+     * Default 30000.</li>
+     * </ul>
+     */
+    private final static MemoryBudget memoryBudget = new MemoryBudget(
+            Long.getLong("hit2assext.session.maxBytes", 0), Long.getLong("hit2assext.memory.maxBytes", 0),
+            Integer.getInteger("hit2assext.session.maxConcurrent", 0),
+            Long.getLong("hit2assext.session.admissionTimeoutMillis", 30000));
+
+    /**
+     * the metrics of hit2assext are exposed via JMX under this name, unless the Java system property
+     * hit2assext.jmx.enabled is set to false.
+     */
+    public final static String METRICS_OBJECT_NAME = "org.poormanscastle.products.hit2assext:type=RenderSessionMetrics";
+
+    private final static RenderSessionMetrics metrics = new RenderSessionMetrics(registry, reaper);
+
+    /**
+     * an optional listener forwarding the metrics to a metrics system of choice.
+     */
+    private static volatile MetricsListener metricsListener;
+
+    static {
+        long reaperInterval = Long.getLong("hit2assext.reaper.intervalSeconds", 30);
+        if (reaperInterval > 0) {
+            reaper.start(TimeUnit.SECONDS.toMillis(reaperInterval));
+        }
+        if (Boolean.parseBoolean(System.getProperty("hit2assext.jmx.enabled", "true"))) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(METRICS_OBJECT_NAME));
+            } catch (JMException | RuntimeException exception) {
+                // e.g. if hit2assext is deployed to several web applications of the same JVM
+                logger.warn(StringUtils.join("Could not register ", METRICS_OBJECT_NAME, " with the platform MBean server: ",
+                        exception.getMessage()));
+            }
+        }
+        String listenerClassName = System.getProperty("hit2assext.metrics.listener");
+        if (!StringUtils.isBlank(listenerClassName)) {
+            try {
+                metricsListener = (MetricsListener) Class.forName(listenerClassName.trim()).getDeclaredConstructor()
+                        .newInstance();
+            } catch (ReflectiveOperationException | ClassCastException exception) {
+                logger.error(StringUtils.join("Could not instantiate MetricsListener ", listenerClassName), exception);
+            }
+        }
+    }
+
+    /**
+     * plugs a listener into the RenderSessionManager which is notified about each extension function call
+     * and about the life cycle of each render session. This method is meant for Java code integrating
+     * hit2assext with a metrics system, not for templates.
+     *
+     * @param listener the new listener, or null to remove the current listener.
+     */
+    public static void setMetricsListener(MetricsListener listener) {
+        metricsListener = listener;
+    }
+
+    /**
+     * @return the metrics of hit2assext, which are also exposed via JMX.
+     */
+    public static RenderSessionMetricsMBean getRenderSessionMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the memory budget limiting the render sessions, including its current usage.
+     */
+    public static MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * records the calls of the render sessions while a recording is running, see startCallRecording().
+     */
+    private static volatile CallRecorder callRecorder;
+
+    /**
+     * if the Java system property hit2assext.recording.directory names a directory, the calls of all render
+     * sessions are recorded to this directory from the start.
+     */
+    static {
+        String recordingDirectory = System.getProperty("hit2assext.recording.directory");
+        if (!StringUtils.isBlank(recordingDirectory)) {
+            try {
+                startCallRecording(recordingDirectory);
+            } catch (RuntimeException exception) {
+                logger.error(StringUtils.join("Could not start recording calls to ", recordingDirectory, ": ",
+                        exception.getMessage()), exception);
+            }
+        }
+    }
+
+    /**
+     * Starts recording the extension function calls of all render sessions created from now on, one file per
+     * render session in the given directory. The recordings can be replayed against any release of hit2assext
+     * using the TraceReplay driver of the benchmarks module. A recording already running is stopped first.
+     * Recording slows the render sessions down, so use it for limited periods of time only.
+     *
+     * @param directory the directory to write the recordings to, which is created if it does not exist
+     */
+    public static void startCallRecording(String directory) {
+        CallRecorder recorder = new CallRecorder(directory);
+        stopCallRecording();
+        callRecorder = recorder;
+        logger.info(StringUtils.join("Recording the calls of new render sessions to ", recorder.getDirectory()));
+    }
+
+    /**
+     * Stops recording calls and completes the recordings of the render sessions still alive.
+     *
+     * @return the number of render sessions recorded, or 0 if no recording was running.
+     */
+    public static long stopCallRecording() {
+        CallRecorder recorder = callRecorder;
+        if (recorder == null) {
+            return 0;
+        }
+        callRecorder = null;
+        recorder.close();
+        logger.info(StringUtils.join("Recorded ", recorder.getRecordedCallCount(), " calls of ",
+                recorder.getRecordedSessionCount(), " render sessions to ", recorder.getDirectory()));
+        return recorder.getRecordedSessionCount();
+    }
+
+    /**
+     * looks up the RenderSessionContext for the given uuid.
+     *
+     * @param renderSessionContextUuid the id of the render session of interest
+     * @return the RenderSessionContext for the given uuid
+     * @throws IllegalStateException if no render session is registered for the given uuid
+     */
+    private static RenderSessionContext getRenderSessionContext(String renderSessionContextUuid) {
+        RenderSessionContext context = registry.lookup(renderSessionContextUuid);
+        if (context == null) {
+            // built on failure only, this lookup serves every extension function call
+            throw new IllegalStateException(StringUtils.join("hit2assext:ERROR: No RenderSession for uuid ",
+                    renderSessionContextUuid, " was found. Was it created using createRenderSessionContext()",
+                    " and has it not been cleaned up yet?"));
+        }
+        context.touch();
+        return context;
+    }
 
     /**
      * Implements the HIT/CLOU substring feature.
@@ -45,15 +262,7 @@ public final class RenderSessionManager {
      * @return the resulting substring
      */
     public static String getSubstring(String inputString, int startIndex, int endIndex) {
-        checkNotNull(inputString, "Input to getSubstring() was null.");
-        checkArgument(startIndex > 00 && endIndex > 0x0, StringUtils.join("startIndex ", startIndex,
-                " and endIndex ", endIndex, " must both be positive numbers."));
-        checkArgument(startIndex <= endIndex, StringUtils.join("startIndex ", startIndex,
-                " must be smaller or equal to endIndex ", endIndex));
-        checkArgument(endIndex <= inputString.length(), "endIndex ", endIndex,
-                " cannot be greated then input string length ", inputString.length());
-
-        return inputString.substring(startIndex - 1, endIndex);
+        return HitClouFormats.substring(inputString, startIndex, endIndex);
     }
 
     /**
@@ -71,295 +280,1455 @@ public final class RenderSessionManager {
         return "Hello, World!";
     }
 
+    /**
+     * registers the hit2assext functions called most often as native Saxon extension functions with the Saxon
+     * configuration of the render engine, see Hit2assextFunctionLibrary. XPath expressions compiled afterwards
+     * call these functions without reflection, expressions compiled before are not affected. Saxon passes the
+     * XPathContext itself, so the call in a template takes no arguments:
+     * <p></p>
+     * hit2assext:bindNativeFunctions()
+     *
+     * @param context the XPath context of the calling expression, supplied by Saxon
+     * @return true if the functions were registered, false if they were registered before.
+     */
+    public static boolean bindNativeFunctions(XPathContext context) {
+        return Hit2assextFunctionLibrary.register(context.getConfiguration());
+    }
+
+    /**
+     * if the Java system property hit2assext.session.compactIds is set to true, createRenderSessionContext()
+     * returns compact handles instead of uuids.
+     */
+    private final static boolean compactIds = Boolean.getBoolean("hit2assext.session.compactIds");
+
     /**
      * create a new RenderSessionContext and register it with the RenderSessionManager.
      * This method is intended to be called during render time by the render engine, e.g.
      * DocDesign's desktop server, or a productive DocBase service, etc.
      *
-     * @return a new RenderSessionContext instance.
+     * @return the uuid of the new RenderSessionContext, or its compact handle if the Java system
+     * property hit2assext.session.compactIds is set to true.
      */
     public static String createRenderSessionContext() {
-        RenderSessionContext context = RenderSessionContexts.createDefaultRenderSessionContext();
-        contextMap.put(context.getUuid(), context);
-        if (logger.isInfoEnabled()) {
-            logger.info(StringUtils.join("Created new RenderSessionContext with uuid ", context.getUuid()));
-        }
-        return context.getUuid();
+        return compactIds ? createRenderSessionHandle() : registerRenderSessionContext(null).getUuid();
     }
 
     /**
-     * Using this method, the render engine can signal the RenderSessionManager that
-     * the render session is not needed any more. Use this at the end of a DocBase
-     * render session or else we have a memory leak.
-     * TODO you could implement a garbage collector that discards RenderSession older than 5 seconds to avoid memory leaks.
+     * create a new RenderSessionContext for the given symbol layout and register it with the RenderSessionManager.
+     * The render session keeps the symbols of the layout in flat arrays instead of hash maps. If no layout
+     * was registered under the given name, the render session keeps all symbols in hash maps.
      *
-     * @param uuid the unique of the render session which shall be discarded.
+     * @param symbolLayoutName the name of a symbol layout registered using registerSymbolLayout()
+     * @return the uuid of the new RenderSessionContext, or its compact handle if the Java system
+     * property hit2assext.session.compactIds is set to true.
      */
-    public static void cleanUpRenderSessionContext(String uuid) {
-        if (logger.isInfoEnabled()) {
-            logger.info(StringUtils.join("Cleaning up RenderSessionContext with uuid ", uuid));
-        }
-        Object foundObject = contextMap.remove(uuid);
-        if (foundObject == null) {
-            logger.warn(StringUtils.join("No RenderSession for uuid ", uuid, " was found."));
-        }
+    public static String createRenderSessionContext(String symbolLayoutName) {
+        RenderSessionContext context = registerRenderSessionContext(getSymbolLayout(symbolLayoutName));
+        return compactIds ? registry.lookupHandle(context.getUuid()) : context.getUuid();
     }
 
     /**
-     * creates a new, empty list object. a list is a symbol that can hold several values
-     * which can be addressed using the name of the variable and an index given in brackets [].
+     * create a new RenderSessionContext and register it with the RenderSessionManager, just like
+     * createRenderSessionContext() does. Instead of the uuid, this method returns a compact handle like
+     * "@17:3" which can be used wherever a render session uuid is expected, and which can be resolved
+     * faster than the uuid.
      *
-     * @param renderSessionContextUuid the render session that will be the scope of the new list
-     * @param listName                 the name of the new list
+     * @return the compact handle of the new RenderSessionContext. If too many render sessions are alive
+     * to hand out another handle, the uuid is returned instead.
      */
-    public static void createList(String renderSessionContextUuid, String listName) {
-        List<Object> list = new LinkedList<>();
-        if (logger.isInfoEnabled()) {
-            logger.info(StringUtils.join("Creating new list with name ", listName, " in RenderSessionContext with uuid ", renderSessionContextUuid, "."));
-        }
-        contextMap.get(renderSessionContextUuid).addListVariable(listName);
+    public static String createRenderSessionHandle() {
+        RenderSessionContext context = registerRenderSessionContext(null);
+        return registry.lookupHandle(context.getUuid());
     }
 
     /**
-     * appends the given value at the end of the list identified by the given name
-     * belonging to the given RenderSessionContext.
-     * Nota bene: before adding values to a list, the list must have been created
-     * using method addListVariable(String) beforehand.
+     * create a new RenderSessionContext for the given symbol layout, see createRenderSessionContext(String),
+     * and return its compact handle, see createRenderSessionHandle().
      *
-     * @param renderSessionContextUuid the render session in which this list exists
-     * @param listName                 the name of the list
-     * @param value                    the new value to be added to the list
+     * @param symbolLayoutName the name of a symbol layout registered using registerSymbolLayout()
+     * @return the compact handle of the new RenderSessionContext, or its uuid if no handle is available.
      */
-    public static void addListValue(String renderSessionContextUuid, String listName, Object value) {
-        contextMap.get(renderSessionContextUuid).addListValue(listName, value);
+    public static String createRenderSessionHandle(String symbolLayoutName) {
+        RenderSessionContext context = registerRenderSessionContext(getSymbolLayout(symbolLayoutName));
+        return registry.lookupHandle(context.getUuid());
+    }
+
+    private static RenderSessionContext registerRenderSessionContext(SymbolLayout symbolLayout) {
+        long start = System.nanoTime();
+        // waits for another render session to end if the maximum number of render sessions is alive
+        MemoryAccount memoryAccount;
+        try {
+            memoryAccount = memoryBudget.openAccount();
+        } catch (IllegalStateException exception) {
+            logger.error(exception.getMessage());
+            throw exception;
+        }
+        RenderSessionContext context;
+        String handle;
+        try {
+            context = pool.acquire(symbolLayout);
+            context.setMemoryAccount(memoryAccount);
+            handle = registry.register(context);
+        } catch (RuntimeException | Error exception) {
+            // hand the admission back, or createRenderSessionContext() would eventually wait forever
+            memoryAccount.close();
+            throw exception;
+        }
+        record(context, ExtensionFunction.CREATE_RENDER_SESSION_CONTEXT,
+                symbolLayout == null ? null : symbolLayout.getName(), null, 0, null);
         if (logger.isInfoEnabled()) {
-            logger.info(StringUtils.join("Adding value ", value, " to list with name ", listName, " in RenderSessionContext with uuid ", renderSessionContextUuid, "."));
+            logger.info(StringUtils.join("Created new RenderSessionContext with uuid ", context.getUuid(),
+                    " and handle ", handle));
         }
+        metrics.onRenderSessionCreated(context.getUuid());
+        MetricsListener listener = metricsListener;
+        if (listener != null) {
+            listener.onRenderSessionCreated(context.getUuid());
+        }
+        trace(context, ExtensionFunction.CREATE_RENDER_SESSION_CONTEXT,
+                symbolLayout == null ? null : symbolLayout.getName(), null, CallTrace.NO_INDEX, start);
+        return context;
     }
 
-    public static void appendList(String renderSessionContextUuid, String sourceListName, String targetListName) {
-        if (logger.isInfoEnabled()) {
-            logger.info(StringUtils.join("Append list ", sourceListName, " to the end of ", targetListName, "."));
+    /**
+     * the symbol layouts registered by the templates, by name.
+     */
+    private final static ConcurrentMap<String, SymbolLayout> symbolLayouts = new ConcurrentHashMap<>();
+
+    /**
+     * Registers the names of the lists and scalar variables a template uses, so the render sessions created
+     * for the template using createRenderSessionContext(symbolLayoutName) can keep them in flat arrays. hit2ass
+     * knows these names when it translates a HIT/CLOU template. Registering the same layout again, e.g. once
+     * per rendered document, costs a map lookup only. If the names differ from the names registered before,
+     * e.g. because the template was deployed anew, the new layout replaces the old one for new render sessions.
+     * <p></p>
+     * hit2assext:registerSymbolLayout('letter', 'abraxas customers', 'zähler listind element lelement')
+     *
+     * @param symbolLayoutName the name of the layout, usually the name of the template
+     * @param listNames        the names of the lists, separated by whitespace or commas
+     * @param scalarNames      the names of the scalar variables, separated by whitespace or commas
+     * @return the number of symbols in the layout
+     */
+    public static int registerSymbolLayout(String symbolLayoutName, String listNames, String scalarNames) {
+        List<String> lists = splitSymbolNames(listNames);
+        List<String> scalars = splitSymbolNames(scalarNames);
+        SymbolLayout layout = symbolLayouts.get(symbolLayoutName);
+        if (layout == null || !layout.getListNames().equals(lists) || !layout.getScalarNames().equals(scalars)) {
+            layout = registerSymbolLayout(new SymbolLayout(symbolLayoutName, lists, scalars));
         }
-        contextMap.get(renderSessionContextUuid).appendList(sourceListName, targetListName);
+        return layout.getListNames().size() + layout.getScalarNames().size();
     }
 
     /**
-     * this method can be used to retrieve the value at the specified index from
-     * the list referenced by the given name.
+     * Registers the given symbol layout, replacing any layout registered under the same name before.
+     * This method is meant for Java code, e.g. hit2ass deploying a template.
      *
-     * @param renderSessionContextUuid the render session in which the given list exists
-     * @param listName                 the name of the list
-     * @param index                    the index of the value of interest
-     * @return the value of interest
+     * @param symbolLayout the new layout
+     * @return the given layout
      */
-    public static Object getListValueAt(String renderSessionContextUuid, String listName, int index) {
+    public static SymbolLayout registerSymbolLayout(SymbolLayout symbolLayout) {
+        checkNotNull(symbolLayout, "symbolLayout cannot be null.");
+        symbolLayouts.put(symbolLayout.getName(), symbolLayout);
         if (logger.isInfoEnabled()) {
-            logger.info(StringUtils.join("Received call: getListValueAt('", renderSessionContextUuid, "', ",
-                    listName, "[", index, "]"));
+            logger.info(StringUtils.join("Registered ", symbolLayout));
         }
-        Object value = contextMap.get(renderSessionContextUuid).getListValueAt(listName, index - 1);
-        if (logger.isInfoEnabled()) {
-            logger.info(StringUtils.join("Looking up value ", listName, "[", index - 1, "]=", value));
+        return symbolLayout;
+    }
+
+    private final static String SYMBOL_NAME_SEPARATORS = " \t\r\n,";
+
+    private static List<String> splitSymbolNames(String names) {
+        return names == null ? Collections.<String>emptyList()
+                : Arrays.asList(StringUtils.split(names, SYMBOL_NAME_SEPARATORS));
+    }
+
+    private static SymbolLayout getSymbolLayout(String symbolLayoutName) {
+        SymbolLayout layout = symbolLayoutName == null ? null : symbolLayouts.get(symbolLayoutName);
+        if (layout == null && logger.isDebugEnabled()) {
+            logger.debug(StringUtils.join("No symbol layout named ", symbolLayoutName,
+                    " was registered, the render session keeps its symbols in hash maps."));
         }
-        return value;
+        return layout;
     }
 
     /**
-     * this method can be used to set the list item at the specified index. The previous
-     * item at this index will be replaced with the specified value.
+     * Publishes the lists and scalar variables of the given render session as global symbols, which all render
+     * sessions created afterwards can read as if they were their own. This way, lookup lists like postcodes or
+     * tariff tables are loaded once instead of once per document. Writing to a global symbol changes a copy
+     * of it within the writing render session only. Publishing again replaces the global symbols atomically;
+     * render sessions already running keep seeing the global symbols they started with.
+     * <p></p>
+     * hit2assext:publishGlobalSymbols(var:read('renderSessionUuid'))
      *
-     * @param renderSessionContextUuid the render session in which the given list exists
-     * @param listName                 the name of the list
-     * @param index                    the index of the list that shall be set to the new value
-     * @param value                    the new value that shall be stored in the given list
+     * @param renderSessionContextUuid the render session holding the symbols to publish
+     * @return the version of the new global symbols
      */
-    public static void setListValueAt(String renderSessionContextUuid, String listName, int index, Object value) {
-        if (logger.isInfoEnabled()) {
-            logger.info(StringUtils.join("Received call: setListValueAt('", renderSessionContextUuid, "', ",
-                    listName, "[", index - 1, "]=", value));
+    public static long publishGlobalSymbols(String renderSessionContextUuid) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.PUBLISH_GLOBAL_SYMBOLS, null, null, 0, null);
+        GlobalSymbols globalSymbols;
+        try {
+            globalSymbols = context.publishGlobalSymbols();
+        } catch (RuntimeException exception) {
+            throw failed(context, ExtensionFunction.PUBLISH_GLOBAL_SYMBOLS, null, null, CallTrace.NO_INDEX, start,
+                    exception);
         }
-        Object oldValue = contextMap.get(renderSessionContextUuid).setListValueAt(listName, index - 1, value);
         if (logger.isInfoEnabled()) {
-            logger.info(StringUtils.join("Replacing ", listName, "[", index - 1, "]=", oldValue, " with newValue ", value));
+            logger.info(StringUtils.join("Render session ", context.getUuid(), " published global symbols version ",
+                    globalSymbols.getVersion(), " with ", globalSymbols.getListCount(), " lists and ",
+                    globalSymbols.getScalarCount(), " scalar variables."));
         }
+        trace(context, ExtensionFunction.PUBLISH_GLOBAL_SYMBOLS, null, null, CallTrace.NO_INDEX, start);
+        return globalSymbols.getVersion();
     }
 
-    public static int getXmlSequence(String renderSessionContextUuid) {
-        int lastQueriedXmlSequence = contextMap.get(renderSessionContextUuid).getLastQueriedXmlSequence();
-        int val = contextMap.get(renderSessionContextUuid).getXmlSequence();
-        if (logger.isInfoEnabled() && lastQueriedXmlSequence != val) {
-            logger.info(StringUtils.join("Received (potentially multiple) call: getXmlSequence('", renderSessionContextUuid, "')=", val));
-        }
-        return val;
+    /**
+     * @return true if global symbols have been published, e.g. to decide whether a template has to load them.
+     */
+    public static boolean hasGlobalSymbols() {
+        return !GlobalSymbols.getCurrent().isEmpty();
     }
 
-    public static void incrementXmlSequence(String renderSessionContextUuid) {
-        int oldXmlSequence = contextMap.get(renderSessionContextUuid).getXmlSequence();
-        int newXmlSequence = contextMap.get(renderSessionContextUuid).incrementXmlSequence();
-        if (logger.isInfoEnabled()) {
-            logger.info(StringUtils.join("Received call: incrementXmlSequence('", renderSessionContextUuid, "') ",
-                    oldXmlSequence, "->", newXmlSequence));
+    /**
+     * @return the version of the current global symbols, or 0 if none have been published.
+     */
+    public static long getGlobalSymbolsVersion() {
+        return GlobalSymbols.getCurrent().getVersion();
+    }
+
+    /**
+     * drops the global symbols. Render sessions created afterwards see no global symbols.
+     */
+    public static void clearGlobalSymbols() {
+        GlobalSymbols.clear();
+    }
+
+    /**
+     * if the Java system property hit2assext.globalSymbols.snapshot names a symbol snapshot file, it is loaded
+     * as the global symbols when hit2assext is loaded by the render engine.
+     */
+    static {
+        String snapshotFileName = System.getProperty("hit2assext.globalSymbols.snapshot");
+        if (!StringUtils.isBlank(snapshotFileName)) {
+            try {
+                loadGlobalSymbols(snapshotFileName);
+            } catch (RuntimeException exception) {
+                logger.error(StringUtils.join("Could not load the global symbols from ", snapshotFileName, ": ",
+                        exception.getMessage()), exception);
+            }
         }
     }
 
-    public static void createScalarVariable(String renderSessionContextUuid, String variableName, Object value) {
+    /**
+     * loads the global symbols from the given symbol snapshot file, e.g. at engine startup, and publishes them
+     * like publishGlobalSymbols() does. The file is mapped into memory, no XML is parsed.
+     *
+     * @param fileName a file written by exportGlobalSymbols() or exportSymbolSnapshot()
+     * @return the version of the new global symbols
+     */
+    public static long loadGlobalSymbols(String fileName) {
+        long start = System.nanoTime();
+        GlobalSymbols globalSymbols = SymbolSnapshot.readFrom(fileName).publish();
         if (logger.isInfoEnabled()) {
-            logger.info(StringUtils.join("Creating new scalar variable with name ", variableName, " in RenderSessionContext with uuid ", renderSessionContextUuid, ". Delegating to RenderSessionManager.setScalarVariable()"));
+            logger.info(StringUtils.join("Loaded global symbols version ", globalSymbols.getVersion(), " with ",
+                    globalSymbols.getListCount(), " lists and ", globalSymbols.getScalarCount(),
+                    " scalar variables from ", fileName, " in ",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), "ms."));
         }
-        RenderSessionManager.setScalarVariableValue(renderSessionContextUuid, variableName, value);
+        return globalSymbols.getVersion();
     }
 
     /**
-     * This method implements support for the HIT/CLOU customer specific notion of converting lists into scalar
-     * variables. Example: Given a list "list" with n elements, the customer wants - for what reasons ever - to access
-     * the list elements by using scalar variables listelement#, where listelement1 hast the value of list[1],
-     * listelement2 hast the value of list[2]. To this end, the customer wrote a ClOU module which generates a sort
-     * of MACRO dynamically:
-     * <p></p>
-     * #$ element
-     * <p></p>
-     * where element holds the dynamically created value, e.g.
-     * <p></p>
-     * #= listelem1 list[listind]
-     * <p></p>
-     * where listind is an IdVariable obiously holding the same value as the number value in the variable name listelem1.
-     * The command to be executed is expected to be found in a render session variable called element.
+     * writes the current global symbols to the given symbol snapshot file.
      *
-     * @param renderSessionContextUuid
+     * @return the size of the file in bytes
      */
-    public static void convertListElementsToVars(String renderSessionContextUuid) {
-        String command = (String) getScalarVariableValue(renderSessionContextUuid, "element");
-        // command should be something like: #= listelem1 list[listind]
-        //int index = Integer.parseInt(command.substring(11, 12));
-        Object indexObject = getScalarVariableValue(renderSessionContextUuid, "zähler");
-        int index = 0;
-        if (indexObject instanceof Long) {
-            index = ((Long) indexObject).intValue();
-        } else if (indexObject instanceof Double) {
-            index = ((Double) indexObject).intValue();
-        } else {
-            throw new IllegalStateException(StringUtils.join("indexObject should be Long or Double, but it was ", indexObject.getClass().getName()));
-        }
-        int listIndex = ((Double) getScalarVariableValue(renderSessionContextUuid, "listind")).intValue();
-        int posBracket = command.indexOf("[");
-        String listName = command.substring(13, posBracket);
-        String varName = StringUtils.join("listelem", index);
-        logger.info(StringUtils.join("ConvertListElementsToVars is retrieving the value ", listName, "[", index,
-                "] and going to write it to ", varName, "."));
-        Object value = getListValueAt(renderSessionContextUuid, listName, listIndex);
-        setScalarVariableValue(renderSessionContextUuid, varName, value);
+    public static long exportGlobalSymbols(String fileName) {
+        return GlobalSymbols.getCurrent().createSymbolSnapshot().writeTo(fileName);
     }
 
-    public static void setScalarVariableValue(String renderSessionContextUuid, String variableName, Object value) {
-        if (logger.isInfoEnabled()) {
-            logger.info(StringUtils.join("Received call: setScalarVariableValue(", renderSessionContextUuid, ", ", variableName, ", ", value, ")"));
-        }
-        // check that argument is not an empty list
-        if (value instanceof List && ((List) value).size() == 0) {
-            throw new IllegalArgumentException(StringUtils.join("hit2assext:ERROR setScalarVariable('", renderSessionContextUuid, "', '",
-                    variableName, "', value) received empty List. Maybe the line with the given number is missing in the user data XML? Current XML sequence value is ",
-                    getXmlSequence(renderSessionContextUuid), "."));
+    /**
+     * writes the lists and scalar variables of the given render session to the given symbol snapshot file,
+     * e.g. to reproduce a slow render offline or to prepare the global symbols.
+     * <p></p>
+     * hit2assext:exportSymbolSnapshot(var:read('renderSessionUuid'), '/tmp/letter.h2as')
+     *
+     * @param renderSessionContextUuid the render session of interest
+     * @param fileName                 the file to write
+     * @return the size of the file in bytes
+     */
+    public static long exportSymbolSnapshot(String renderSessionContextUuid, String fileName) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.EXPORT_SYMBOL_SNAPSHOT, fileName, null, 0, null);
+        long size;
+        try {
+            size = context.createSymbolSnapshot().writeTo(fileName);
+        } catch (RuntimeException exception) {
+            throw failed(context, ExtensionFunction.EXPORT_SYMBOL_SNAPSHOT, fileName, null, CallTrace.NO_INDEX, start,
+                    exception);
         }
+        trace(context, ExtensionFunction.EXPORT_SYMBOL_SNAPSHOT, fileName, null, CallTrace.NO_INDEX, start);
+        return size;
+    }
+
+    /**
+     * copies the lists and scalar variables of the given symbol snapshot file into the given render session,
+     * replacing symbols of the same names.
+     *
+     * @param renderSessionContextUuid the render session of interest
+     * @param fileName                 a file written by exportSymbolSnapshot() or exportGlobalSymbols()
+     * @return the number of symbols loaded
+     */
+    public static int loadSymbolSnapshot(String renderSessionContextUuid, String fileName) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.LOAD_SYMBOL_SNAPSHOT, fileName, null, 0, null);
+        int symbolCount;
         try {
-            if (value instanceof List && ((List) value).get(0) instanceof NodeInfo) {
-                value = ((NodeInfo) ((List) value).get(0)).atomize();
-                if (logger.isInfoEnabled()) {
-                    logger.info(StringUtils.join("Autoconverting the 1st element of List<NodeInfo> to atomic value: ", ((Value) value).getStringValue()));
-                }
-            } else if (value instanceof NodeInfo) {
-                value = ((NodeInfo) value).atomize();
-                if (logger.isInfoEnabled()) {
-                    logger.info(StringUtils.join("Autoconverting the NodeInfo to atomic value: ", ((Value) value).getStringValue()));
-                }
-            } else {
-                if (logger.isInfoEnabled()) {
-                    logger.info("No need to convert to atomic value");
-                }
-            }
-        } catch (XPathException e) {
-            if (logger.isInfoEnabled()) {
-                logger.error("Could not transform saxon node type to saxon value type.");
-            }
+            SymbolSnapshot snapshot = SymbolSnapshot.readFrom(fileName);
+            snapshot.loadInto(context);
+            symbolCount = snapshot.getListCount() + snapshot.getScalarCount();
+        } catch (RuntimeException exception) {
+            throw failed(context, ExtensionFunction.LOAD_SYMBOL_SNAPSHOT, fileName, null, CallTrace.NO_INDEX, start,
+                    exception);
         }
-        contextMap.get(renderSessionContextUuid).setScalarVariableValue(variableName, value);
+        trace(context, ExtensionFunction.LOAD_SYMBOL_SNAPSHOT, fileName, null, CallTrace.NO_INDEX, start);
+        return symbolCount;
     }
 
-    public static Object getScalarVariableValue(String renderSessionContextUuid, String variableName) {
-        Object value = contextMap.get(renderSessionContextUuid).getScalarVariableValue(variableName);
-        if (logger.isInfoEnabled()) {
-            logger.info(StringUtils.join("Received call: getScalarVariableValue(", renderSessionContextUuid, ", ",
-                    variableName, ")->", value.toString()));
+    /**
+     * records the given call and its arguments if a call recording is running, see startCallRecording().
+     */
+    private static void record(RenderSessionContext context, ExtensionFunction function, String symbol,
+                               String secondSymbol, long number, Object value) {
+        CallRecorder recorder = callRecorder;
+        if (recorder != null) {
+            recorder.record(context.getUuid(), function, symbol, secondSymbol, number, value);
         }
-        return value;
     }
 
-    public static void printLogStatement(String renderSessionContextUuid, String logMessage) {
-        if (logger.isInfoEnabled()) {
-            logger.info(StringUtils.join("Received call: printLogStatement(", renderSessionContextUuid, ", ", logMessage));
+    /**
+     * records the given call in the call trace of the given render session and in the metrics.
+     */
+    private static void trace(RenderSessionContext context, ExtensionFunction function, String symbol,
+                              String secondSymbol, int index, long startNanos) {
+        long duration = System.nanoTime() - startNanos;
+        context.getCallTrace().record(function, symbol, secondSymbol, index, duration, false);
+        metrics.onCall(function, duration, false);
+        MetricsListener listener = metricsListener;
+        if (listener != null) {
+            listener.onCall(function, duration, false);
         }
     }
 
     /**
-     * Using this method the length of a list that has been registered in the RenderSessionContext
-     * for the given renderSessionContextUuid can be retrieved. The list must have been registered
-     * beforehand using the createList() method.
+     * records the given failed call in the call trace of the given render session and logs the call trace,
+     * so the calls leading to the error can be analyzed.
      *
-     * @param renderSessionContextUuid the render session in which the given list exists
-     * @param listName                 the name of the list
-     * @return the length of the list corresponding to the given render session and listName
+     * @return the given exception, so the caller can rethrow it.
      */
-    public static Integer getListLength(String renderSessionContextUuid, String listName) {
-        Integer length = contextMap.get(renderSessionContextUuid).getListLength(listName);
-        if (logger.isInfoEnabled()) {
-            logger.info(StringUtils.join("Received call: getListLength('", renderSessionContextUuid, "', '",
-                    listName, "')->", length));
+    private static RuntimeException failed(RenderSessionContext context, ExtensionFunction function, String symbol,
+                                           String secondSymbol, int index, long startNanos, RuntimeException exception) {
+        long duration = System.nanoTime() - startNanos;
+        context.getCallTrace().record(function, symbol, secondSymbol, index, duration, true);
+        metrics.onCall(function, duration, true);
+        MetricsListener listener = metricsListener;
+        if (listener != null) {
+            listener.onCall(function, duration, true);
         }
-        return length;
+        logger.error(StringUtils.join("hit2assext:ERROR: ", function.getFunctionName(), "() failed in RenderSessionContext with uuid ",
+                context.getUuid(), ": ", exception.getMessage(), "\n", context.getCallTrace().dump()));
+        return exception;
     }
 
     /**
-     * Using this method the template composer can reach into the Java runtime of the render engine
-     * and query for the Java system properties.
+     * Using this method, the render engine can signal the RenderSessionManager that
+     * the render session is not needed any more. Use this at the end of a DocBase
+     * render session or else we have a memory leak - at least until the RenderSessionReaper evicts the
+     * abandoned render session.
+     * If logging is enabled on the DEBUG level, the call trace of the render session is logged.
      *
-     * @param systemPropertyName the name of the system property of interest
-     * @return the value of the given system property
+     * @param uuid the unique id or the compact handle of the render session which shall be discarded.
      */
-    public static String getSystemProperty(String systemPropertyName) {
+    public static void cleanUpRenderSessionContext(String uuid) {
+        long start = System.nanoTime();
         if (logger.isInfoEnabled()) {
-            logger.info(StringUtils.join("Received call: getSystemProperty('", systemPropertyName, "')"));
+            logger.info(StringUtils.join("Cleaning up RenderSessionContext with uuid ", uuid));
         }
-        return System.getProperty(systemPropertyName);
+        RenderSessionContext context = registry.remove(uuid);
+        if (context == null) {
+            logger.warn(StringUtils.join("No RenderSession for uuid ", uuid, " was found."));
+            return;
+        }
+        record(context, ExtensionFunction.CLEAN_UP_RENDER_SESSION_CONTEXT, null, null, 0, null);
+        trace(context, ExtensionFunction.CLEAN_UP_RENDER_SESSION_CONTEXT, null, null, CallTrace.NO_INDEX, start);
+        if (logger.isDebugEnabled()) {
+            logger.debug(StringUtils.join("RenderSessionContext with uuid ", context.getUuid(), " cleaned up. ",
+                    context.getCallTrace().dump()));
+        }
+        endRenderSession(context, true);
     }
 
     /**
-     * accepts date in the format T.M.JJJJ and converts it to ISO8601, e.b. 2016-10-20.
-     * This format yields the advantage that it is supported by XPath date functions.
-     * The hard-to-read method name shall support readability.
+     * ends the given render session after it was removed from the registry, be it cleaned up by the template
+     * or evicted by the RenderSessionReaper: completes its call recording, releases its resources and reports
+     * it to the metrics.
      *
-     * @param dateString a string conveying a date in the format T.M.JJJJ. This means the date
-     *                   contains 3 value separated by "." dots where the first item represents
-     *                   a day in month, the second a month, the third a year. In fact it does
-     *                   not matter how many digits each data item has, as long as they are
-     *                   numeric values and meaningful in the context of dates. Month counting is
-     *                   1-based, i.d. January is represented by the 1, February by 2, and so
-     *                   on through to December represented by 16.
-     * @return a String representing the same date as the input string in the ISO8601 format.
+     * @param recycle true to return the context to the pool, false to leave it to the garbage collector.
      */
-    public static String convert_TMJJJJ_DateToIso8601Format(String dateString) {
-        if (logger.isInfoEnabled()) {
-            logger.info(StringUtils.join("Received Call convert_TMJJJJ_DateToIso8601Format('", dateString, "')"));
-        }
-        StringBuilder result = new StringBuilder();
-        String[] dateItems = dateString.split("\\.");
-        checkArgument(dateItems.length == 3, StringUtils.join("Invalid dateString ", dateString,
-                " - it should be in the format T.M.JJJJ"));
-        boolean flag = false;
-        for (int counter = 0; counter < 3; counter++) {
-            result.append(StringUtils.join(flag ? "-" : "", StringUtils.leftPad(dateItems[2 - counter], 2, "0")));
-            flag = true;
-        }
-        return result.toString();
+    private static void endRenderSession(RenderSessionContext context, boolean recycle) {
+        CallRecorder recorder = callRecorder;
+        if (recorder != null) {
+            recorder.finish(context.getUuid());
+        }
+        context.release();
+        long ageMillis = System.currentTimeMillis() - context.getCreationTimeMillis();
+        metrics.onRenderSessionCleanedUp(context.getUuid(), ageMillis);
+        MetricsListener listener = metricsListener;
+        if (listener != null) {
+            listener.onRenderSessionCleanedUp(context.getUuid(), ageMillis);
+        }
+        if (recycle) {
+            // the context gets a new id when it is reused, so the uuid of this render session cannot reach it anymore
+            pool.recycle(context);
+        }
+    }
+
+    /**
+     * Sweeps the render sessions right away instead of waiting for the next scheduled sweep of the
+     * RenderSessionReaper.
+     *
+     * @return the number of render sessions evicted.
+     */
+    public static int reapAbandonedRenderSessionContexts() {
+        return reapAbandonedRenderSessionContexts(System.currentTimeMillis());
+    }
+
+    static int reapAbandonedRenderSessionContexts(long nowMillis) {
+        return reaper.sweep(nowMillis);
+    }
+
+    /**
+     * @return the number of contexts currently kept in the pool for reuse.
+     */
+    static int getPooledRenderSessionContextCount() {
+        return pool.size();
+    }
+
+    /**
+     * @return the number of abandoned render sessions evicted by the RenderSessionReaper so far.
+     */
+    public static long getEvictedRenderSessionCount() {
+        return reaper.getEvictedSessionCount();
+    }
+
+    /**
+     * Logs the most recent calls the given render session received on the INFO level. Use this to debug
+     * templates: instead of logging each call, hit2assext records the calls in a fixed-size call trace
+     * per render session, which costs next to nothing until the call trace is dumped.
+     *
+     * @param renderSessionContextUuid the render session of interest
+     * @return the call trace as text, one line per call.
+     */
+    public static String dumpCallTrace(String renderSessionContextUuid) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.DUMP_CALL_TRACE, null, null, 0, null);
+        String dump = context.getCallTrace().dump();
+        logger.info(StringUtils.join("RenderSessionContext with uuid ", context.getUuid(), ": ", dump));
+        trace(context, ExtensionFunction.DUMP_CALL_TRACE, null, null, CallTrace.NO_INDEX, start);
+        return dump;
+    }
+
+    /**
+     * creates a new, empty list object. a list is a symbol that can hold several values
+     * which can be addressed using the name of the variable and an index given in brackets [].
+     *
+     * @param renderSessionContextUuid the render session that will be the scope of the new list
+     * @param listName                 the name of the new list
+     */
+    public static void createList(String renderSessionContextUuid, String listName) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.CREATE_LIST, listName, null, 0, null);
+        try {
+            context.addListVariable(listName);
+        } catch (RuntimeException exception) {
+            throw failed(context, ExtensionFunction.CREATE_LIST, listName, null, CallTrace.NO_INDEX, start, exception);
+        }
+        trace(context, ExtensionFunction.CREATE_LIST, listName, null, CallTrace.NO_INDEX, start);
+    }
+
+    /**
+     * appends the given value at the end of the list identified by the given name
+     * belonging to the given RenderSessionContext.
+     * Nota bene: before adding values to a list, the list must have been created
+     * using method addListVariable(String) beforehand.
+     *
+     * @param renderSessionContextUuid the render session in which this list exists
+     * @param listName                 the name of the list
+     * @param value                    the new value to be added to the list
+     */
+    public static void addListValue(String renderSessionContextUuid, String listName, Object value) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.ADD_LIST_VALUE, listName, null, 0, value);
+        try {
+            context.addListValue(listName, value);
+        } catch (RuntimeException exception) {
+            throw failed(context, ExtensionFunction.ADD_LIST_VALUE, listName, null, CallTrace.NO_INDEX, start, exception);
+        }
+        trace(context, ExtensionFunction.ADD_LIST_VALUE, listName, null, CallTrace.NO_INDEX, start);
+    }
+
+    /**
+     * appends all values of the given sequence at the end of the given list in a single call, instead of calling
+     * addListValue() for each value. Nodes are atomized, just like setScalarVariableValue() does. If the list
+     * does not exist yet, it is created.
+     * <p></p>
+     * hit2assext:addListValues(var:read('renderSessionUuid'), 'abraxas', /UserData/payload/customer/name)
+     *
+     * @param renderSessionContextUuid the render session in which this list exists
+     * @param listName                 the name of the list
+     * @param values                   the new values, e.g. a node sequence
+     * @return the length of the list after appending the values
+     */
+    public static int addListValues(String renderSessionContextUuid, String listName, List<?> values) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.ADD_LIST_VALUES, listName, null, 0, values);
+        int length;
+        try {
+            length = context.addListValues(listName, values);
+        } catch (RuntimeException exception) {
+            throw failed(context, ExtensionFunction.ADD_LIST_VALUES, listName, null, CallTrace.NO_INDEX, start, exception);
+        }
+        trace(context, ExtensionFunction.ADD_LIST_VALUES, listName, null, values.size(), start);
+        return length;
+    }
+
+    /**
+     * replaces the values of the given list with the values of the given sequence in a single call. Nodes are
+     * atomized, just like setScalarVariableValue() does. If the list does not exist yet, it is created.
+     *
+     * @param renderSessionContextUuid the render session in which this list exists
+     * @param listName                 the name of the list
+     * @param values                   the new values, e.g. a node sequence
+     * @return the length of the list
+     */
+    public static int setListValues(String renderSessionContextUuid, String listName, List<?> values) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.SET_LIST_VALUES, listName, null, 0, values);
+        int length;
+        try {
+            length = context.setListValues(listName, values);
+        } catch (RuntimeException exception) {
+            throw failed(context, ExtensionFunction.SET_LIST_VALUES, listName, null, CallTrace.NO_INDEX, start, exception);
+        }
+        trace(context, ExtensionFunction.SET_LIST_VALUES, listName, null, length, start);
+        return length;
+    }
+
+    public static void appendList(String renderSessionContextUuid, String sourceListName, String targetListName) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.APPEND_LIST, sourceListName, targetListName, 0, null);
+        try {
+            context.appendList(sourceListName, targetListName);
+        } catch (RuntimeException exception) {
+            throw failed(context, ExtensionFunction.APPEND_LIST, sourceListName, targetListName, CallTrace.NO_INDEX,
+                    start, exception);
+        }
+        trace(context, ExtensionFunction.APPEND_LIST, sourceListName, targetListName, CallTrace.NO_INDEX, start);
+    }
+
+    /**
+     * this method can be used to retrieve the value at the specified index from
+     * the list referenced by the given name.
+     *
+     * @param renderSessionContextUuid the render session in which the given list exists
+     * @param listName                 the name of the list
+     * @param index                    the index of the value of interest
+     * @return the value of interest
+     */
+    public static Object getListValueAt(String renderSessionContextUuid, String listName, int index) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.GET_LIST_VALUE_AT, listName, null, index, null);
+        Object value;
+        try {
+            value = context.getListValueAt(listName, index - 1);
+        } catch (RuntimeException exception) {
+            throw failed(context, ExtensionFunction.GET_LIST_VALUE_AT, listName, null, index, start, exception);
+        }
+        trace(context, ExtensionFunction.GET_LIST_VALUE_AT, listName, null, index, start);
+        return value;
+    }
+
+    /**
+     * this method can be used to set the list item at the specified index. The previous
+     * item at this index will be replaced with the specified value.
+     *
+     * @param renderSessionContextUuid the render session in which the given list exists
+     * @param listName                 the name of the list
+     * @param index                    the index of the list that shall be set to the new value
+     * @param value                    the new value that shall be stored in the given list
+     */
+    public static void setListValueAt(String renderSessionContextUuid, String listName, int index, Object value) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.SET_LIST_VALUE_AT, listName, null, index, value);
+        try {
+            context.setListValueAt(listName, index - 1, value);
+        } catch (RuntimeException exception) {
+            throw failed(context, ExtensionFunction.SET_LIST_VALUE_AT, listName, null, index, start, exception);
+        }
+        trace(context, ExtensionFunction.SET_LIST_VALUE_AT, listName, null, index, start);
+    }
+
+    public static int getXmlSequence(String renderSessionContextUuid) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.GET_XML_SEQUENCE, null, null, 0, null);
+        int xmlSequence = context.getXmlSequence();
+        trace(context, ExtensionFunction.GET_XML_SEQUENCE, null, null, xmlSequence, start);
+        return xmlSequence;
+    }
+
+    public static void incrementXmlSequence(String renderSessionContextUuid) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.INCREMENT_XML_SEQUENCE, null, null, 0, null);
+        int xmlSequence = context.incrementXmlSequence();
+        trace(context, ExtensionFunction.INCREMENT_XML_SEQUENCE, null, null, xmlSequence, start);
+    }
+
+    /**
+     * Returns the position of the given cursor. Cursors let nested or consecutive read loops over different
+     * data sources keep their own position, e.g. one cursor for the user data lines and one for a business data
+     * file opened with openDataFile(). Each cursor starts at line 1 and is created when it is used for the first
+     * time. The cursor named xmlSequence is the XML sequence, i.e. getCursorPosition(uuid, 'xmlSequence')
+     * equals getXmlSequence(uuid).
+     *
+     * @param renderSessionContextUuid the render session owning the cursor
+     * @param cursorName               the name of the cursor
+     * @return the position of the cursor
+     */
+    public static int getCursorPosition(String renderSessionContextUuid, String cursorName) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.GET_CURSOR_POSITION, cursorName, null, 0, null);
+        int position = context.getCursorPosition(cursorName);
+        trace(context, ExtensionFunction.GET_CURSOR_POSITION, cursorName, null, position, start);
+        return position;
+    }
+
+    /**
+     * advances the given cursor to the next line, see getCursorPosition().
+     */
+    public static void advanceCursor(String renderSessionContextUuid, String cursorName) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.ADVANCE_CURSOR, cursorName, null, 0, null);
+        int position = context.advanceCursor(cursorName);
+        trace(context, ExtensionFunction.ADVANCE_CURSOR, cursorName, null, position, start);
+    }
+
+    /**
+     * moves the given cursor to the given line, see getCursorPosition().
+     *
+     * @param position the new position of the cursor, starting with 1
+     */
+    public static void seekCursor(String renderSessionContextUuid, String cursorName, int position) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.SEEK_CURSOR, cursorName, null, position, null);
+        try {
+            context.seekCursor(cursorName, position);
+        } catch (RuntimeException exception) {
+            throw failed(context, ExtensionFunction.SEEK_CURSOR, cursorName, null, position, start, exception);
+        }
+        trace(context, ExtensionFunction.SEEK_CURSOR, cursorName, null, position, start);
+    }
+
+    /**
+     * moves the given cursor back to the first line, e.g. to read the user data lines a second time.
+     */
+    public static void resetCursor(String renderSessionContextUuid, String cursorName) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.RESET_CURSOR, cursorName, null, 0, null);
+        context.resetCursor(cursorName);
+        trace(context, ExtensionFunction.RESET_CURSOR, cursorName, null, 1, start);
+    }
+
+    /**
+     * Indexes the user data lines by their lineNr attribute, so they can be read sequentially using
+     * nextUserDataLine() in O(1) per line instead of selecting each line with the XPath predicate
+     * [@lineNr = hit2assext:getXmlSequence(...)], which visits all lines on each iteration.
+     * Call this method once per render session, e.g. right after creating the render session:
+     * <p></p>
+     * hit2assext:indexUserDataLines(var:read('renderSessionUuid'), /UserData/payload/line)
+     *
+     * @param renderSessionContextUuid the render session which reads the user data lines
+     * @param lineNodes                the line elements of the user data XML
+     * @return the number of lines indexed
+     */
+    public static int indexUserDataLines(String renderSessionContextUuid, List<?> lineNodes) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.INDEX_USER_DATA_LINES, null, null, 0, lineNodes);
+        UserDataLineIndex index;
+        try {
+            index = new UserDataLineIndex(lineNodes);
+        } catch (RuntimeException exception) {
+            throw failed(context, ExtensionFunction.INDEX_USER_DATA_LINES, null, null, CallTrace.NO_INDEX, start, exception);
+        }
+        context.setUserDataLineIndex(index);
+        trace(context, ExtensionFunction.INDEX_USER_DATA_LINES, null, null, index.getLineCount(), start);
+        return index.getLineCount();
+    }
+
+    /**
+     * Use this method to find out if the user data line the XML sequence points to exists, e.g. to terminate
+     * a WHILE loop at the end of the user data. The user data lines must have been indexed beforehand using
+     * indexUserDataLines().
+     *
+     * @param renderSessionContextUuid the render session which reads the user data lines
+     * @return true if there is a user data line whose lineNr equals the current XML sequence value.
+     */
+    public static boolean hasUserDataLine(String renderSessionContextUuid) {
+        return hasUserDataLine(renderSessionContextUuid, null);
+    }
+
+    /**
+     * Works like hasUserDataLine(renderSessionContextUuid), but reads at the position of the given
+     * cursor instead of the XML sequence, see getCursorPosition().
+     */
+    public static boolean hasUserDataLine(String renderSessionContextUuid, String cursorName) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.HAS_USER_DATA_LINE, cursorName, null, 0, null);
+        int position = context.getCursorPosition(cursorName);
+        boolean result;
+        try {
+            result = getUserDataLineIndex(context).hasLine(position);
+        } catch (RuntimeException exception) {
+            throw failed(context, ExtensionFunction.HAS_USER_DATA_LINE, cursorName, null, position, start, exception);
+        }
+        trace(context, ExtensionFunction.HAS_USER_DATA_LINE, cursorName, null, position, start);
+        return result;
+    }
+
+    /**
+     * Returns the atomized value of the user data line the XML sequence points to, without advancing the
+     * XML sequence. The user data lines must have been indexed beforehand using indexUserDataLines().
+     *
+     * @param renderSessionContextUuid the render session which reads the user data lines
+     * @return the value of the current user data line
+     */
+    public static Value getCurrentUserDataLine(String renderSessionContextUuid) {
+        return getCurrentUserDataLine(renderSessionContextUuid, null);
+    }
+
+    /**
+     * Works like getCurrentUserDataLine(renderSessionContextUuid), but reads at the position of the given
+     * cursor instead of the XML sequence, see getCursorPosition().
+     */
+    public static Value getCurrentUserDataLine(String renderSessionContextUuid, String cursorName) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.GET_CURRENT_USER_DATA_LINE, cursorName, null, 0, null);
+        int position = context.getCursorPosition(cursorName);
+        Value value;
+        try {
+            value = getUserDataLineIndex(context).getAtomizedLine(position);
+        } catch (RuntimeException exception) {
+            throw failed(context, ExtensionFunction.GET_CURRENT_USER_DATA_LINE, cursorName, null, position, start, exception);
+        }
+        trace(context, ExtensionFunction.GET_CURRENT_USER_DATA_LINE, cursorName, null, position, start);
+        return value;
+    }
+
+    /**
+     * Returns the atomized value of the user data line the XML sequence points to and advances the XML sequence
+     * to the next line, all in O(1). This replaces the WHILE loop idiom
+     * <p></p>
+     * hit2assext:setScalarVariableValue(uuid, 'lelement', /UserData/payload/line[@lineNr = hit2assext:getXmlSequence(uuid)]/text())
+     * | hit2assext:incrementXmlSequence(uuid)
+     * <p></p>
+     * with
+     * <p></p>
+     * hit2assext:setScalarVariableValue(uuid, 'lelement', hit2assext:nextUserDataLine(uuid))
+     * <p></p>
+     * The user data lines must have been indexed beforehand using indexUserDataLines().
+     *
+     * @param renderSessionContextUuid the render session which reads the user data lines
+     * @return the value of the current user data line
+     */
+    public static Value nextUserDataLine(String renderSessionContextUuid) {
+        return nextUserDataLine(renderSessionContextUuid, null);
+    }
+
+    /**
+     * Works like nextUserDataLine(renderSessionContextUuid), but reads at the position of the given
+     * cursor instead of the XML sequence, see getCursorPosition().
+     */
+    public static Value nextUserDataLine(String renderSessionContextUuid, String cursorName) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.NEXT_USER_DATA_LINE, cursorName, null, 0, null);
+        int position = context.getCursorPosition(cursorName);
+        Value value;
+        try {
+            value = getUserDataLineIndex(context).getAtomizedLine(position);
+        } catch (RuntimeException exception) {
+            throw failed(context, ExtensionFunction.NEXT_USER_DATA_LINE, cursorName, null, position, start, exception);
+        }
+        context.advanceCursor(cursorName);
+        trace(context, ExtensionFunction.NEXT_USER_DATA_LINE, cursorName, null, position, start);
+        return value;
+    }
+
+    private static UserDataLineIndex getUserDataLineIndex(RenderSessionContext context) {
+        UserDataLineIndex index = context.getUserDataLineIndex();
+        checkState(index != null, "hit2assext:ERROR: The user data lines have not been indexed. Please call "
+                + "indexUserDataLines(renderSessionUuid, /UserData/payload/line) before reading them.");
+        return index;
+    }
+
+    /**
+     * the encoding of business data files if the template does not name one. Can be configured using the
+     * Java system property hit2assext.dataFile.encoding.
+     */
+    private final static String DEFAULT_DATA_FILE_ENCODING = System.getProperty("hit2assext.dataFile.encoding",
+            "ISO-8859-1");
+
+    /**
+     * Opens the given HIT/CLOU business data file for reading it line by line using readNextLine() and peekLine(),
+     * instead of converting it to /UserData/payload/line XML first. The file is memory mapped and its lines are
+     * indexed lazily, so neither the file nor a tree model of it occupies the Java heap. The lines are read at
+     * the position of the XML sequence, just like the WHILE loop idiom does. The file is closed when the render
+     * session is cleaned up.
+     *
+     * @param renderSessionContextUuid the render session which reads the business data file
+     * @param fileName                 the path of the business data file
+     * @param encoding                 the encoding of the business data file, e.g. ISO-8859-1, windows-1252,
+     *                                 IBM850 or UTF-8. If empty, the encoding configured in the Java system
+     *                                 property hit2assext.dataFile.encoding is used, which defaults to ISO-8859-1.
+     */
+    public static void openDataFile(String renderSessionContextUuid, String fileName, String encoding) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.OPEN_DATA_FILE, fileName, encoding, 0, null);
+        try {
+            context.setUserDataFile(new UserDataFile(fileName,
+                    StringUtils.isBlank(encoding) ? DEFAULT_DATA_FILE_ENCODING : encoding));
+        } catch (RuntimeException exception) {
+            throw failed(context, ExtensionFunction.OPEN_DATA_FILE, fileName, encoding, CallTrace.NO_INDEX, start, exception);
+        }
+        trace(context, ExtensionFunction.OPEN_DATA_FILE, fileName, encoding, CallTrace.NO_INDEX, start);
+    }
+
+    /**
+     * @param renderSessionContextUuid the render session which reads the business data file
+     * @return true if the business data file has a line at the position of the XML sequence.
+     */
+    public static boolean hasNextLine(String renderSessionContextUuid) {
+        return hasNextLine(renderSessionContextUuid, null);
+    }
+
+    /**
+     * Works like hasNextLine(renderSessionContextUuid), but reads at the position of the given
+     * cursor instead of the XML sequence, see getCursorPosition().
+     */
+    public static boolean hasNextLine(String renderSessionContextUuid, String cursorName) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.HAS_NEXT_LINE, cursorName, null, 0, null);
+        int position = context.getCursorPosition(cursorName);
+        boolean result;
+        try {
+            result = getUserDataFile(context).hasLine(position);
+        } catch (RuntimeException exception) {
+            throw failed(context, ExtensionFunction.HAS_NEXT_LINE, cursorName, null, position, start, exception);
+        }
+        trace(context, ExtensionFunction.HAS_NEXT_LINE, cursorName, null, position, start);
+        return result;
+    }
+
+    /**
+     * Returns the line of the business data file at the position of the XML sequence without advancing the
+     * XML sequence.
+     *
+     * @param renderSessionContextUuid the render session which reads the business data file
+     * @return the current line of the business data file, without its line separator
+     */
+    public static String peekLine(String renderSessionContextUuid) {
+        return peekLine(renderSessionContextUuid, null);
+    }
+
+    /**
+     * Works like peekLine(renderSessionContextUuid), but reads at the position of the given
+     * cursor instead of the XML sequence, see getCursorPosition().
+     */
+    public static String peekLine(String renderSessionContextUuid, String cursorName) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.PEEK_LINE, cursorName, null, 0, null);
+        int position = context.getCursorPosition(cursorName);
+        String line;
+        try {
+            line = getUserDataFile(context).getLine(position);
+        } catch (RuntimeException exception) {
+            throw failed(context, ExtensionFunction.PEEK_LINE, cursorName, null, position, start, exception);
+        }
+        trace(context, ExtensionFunction.PEEK_LINE, cursorName, null, position, start);
+        return line;
+    }
+
+    /**
+     * Returns the line of the business data file at the position of the XML sequence and advances the
+     * XML sequence to the next line.
+     *
+     * @param renderSessionContextUuid the render session which reads the business data file
+     * @return the current line of the business data file, without its line separator
+     */
+    public static String readNextLine(String renderSessionContextUuid) {
+        return readNextLine(renderSessionContextUuid, null);
+    }
+
+    /**
+     * Works like readNextLine(renderSessionContextUuid), but reads at the position of the given
+     * cursor instead of the XML sequence, see getCursorPosition().
+     */
+    public static String readNextLine(String renderSessionContextUuid, String cursorName) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.READ_NEXT_LINE, cursorName, null, 0, null);
+        int position = context.getCursorPosition(cursorName);
+        String line;
+        try {
+            line = getUserDataFile(context).getLine(position);
+        } catch (RuntimeException exception) {
+            throw failed(context, ExtensionFunction.READ_NEXT_LINE, cursorName, null, position, start, exception);
+        }
+        context.advanceCursor(cursorName);
+        trace(context, ExtensionFunction.READ_NEXT_LINE, cursorName, null, position, start);
+        return line;
+    }
+
+    private static UserDataFile getUserDataFile(RenderSessionContext context) {
+        UserDataFile userDataFile = context.getUserDataFile();
+        checkState(userDataFile != null, "hit2assext:ERROR: No business data file has been opened. Please call "
+                + "openDataFile(renderSessionUuid, fileName, encoding) before reading it.");
+        return userDataFile;
+    }
+
+    public static void createScalarVariable(String renderSessionContextUuid, String variableName, Object value) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.CREATE_SCALAR_VARIABLE, variableName, null, 0, value);
+        setScalarVariableValue(context, ExtensionFunction.CREATE_SCALAR_VARIABLE, variableName, value, start);
+    }
+
+    /**
+     * This method implements support for the HIT/CLOU customer specific notion of converting lists into scalar
+     * variables. Example: Given a list "list" with n elements, the customer wants - for what reasons ever - to access
+     * the list elements by using scalar variables listelement#, where listelement1 hast the value of list[1],
+     * listelement2 hast the value of list[2]. To this end, the customer wrote a ClOU module which generates a sort
+     * of MACRO dynamically:
+     * <p></p>
+     * #$ element
+     * <p></p>
+     * where element holds the dynamically created value, e.g.
+     * <p></p>
+     * #= listelem1 list[listind]
+     * <p></p>
+     * where listind is an IdVariable obiously holding the same value as the number value in the variable name listelem1.
+     * The command to be executed is expected to be found in a render session variable called element.
+     * <p></p>
+     * Each command text is compiled once into a MacroCommand, which is cached and run for all render sessions.
+     *
+     * @param renderSessionContextUuid
+     */
+    public static void convertListElementsToVars(String renderSessionContextUuid) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.CONVERT_LIST_ELEMENTS_TO_VARS, null, null, 0, null);
+        executeMacroCommand(context, ExtensionFunction.CONVERT_LIST_ELEMENTS_TO_VARS,
+                readMacroCommandText(context, "element"), start);
+    }
+
+    /**
+     * runs the given HIT/CLOU assignment macro, like the #$ command does in HIT/CLOU, e.g.
+     * <p></p>
+     * hit2assext:executeMacroCommand(var:read('renderSessionUuid'), '#= listelem1 list[listind]')
+     * <p></p>
+     * The value assigned can be a list element indexed by a scalar variable or a number, a scalar variable,
+     * a number or a quoted string. Each command text is compiled only once.
+     *
+     * @param renderSessionContextUuid the render session in which the command is run
+     * @param command                  the assignment macro
+     */
+    public static void executeMacroCommand(String renderSessionContextUuid, String command) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.EXECUTE_MACRO_COMMAND, command, null, 0, null);
+        executeMacroCommand(context, ExtensionFunction.EXECUTE_MACRO_COMMAND, command, start);
+    }
+
+    private static void executeMacroCommand(RenderSessionContext context, ExtensionFunction function, String text,
+                                            long start) {
+        MacroCommand command = null;
+        int index = CallTrace.NO_INDEX;
+        try {
+            command = MacroCommand.compile(text);
+            index = command.resolveIndex(context);
+            command.execute(context, index);
+        } catch (RuntimeException exception) {
+            throw failed(context, function, command == null ? null : command.getSourceName(),
+                    command == null ? null : command.getTarget(), index, start, exception);
+        }
+        trace(context, function, command.getSourceName(), command.getTarget(), index, start);
+    }
+
+    /**
+     * @return the macro command stored in the given scalar variable, which might hold a string or an atomized node.
+     */
+    private static String readMacroCommandText(RenderSessionContext context, String variableName) {
+        Object command = context.getScalarVariableValue(variableName);
+        if (command instanceof Value) {
+            try {
+                return ((Value) command).getStringValue();
+            } catch (XPathException exception) {
+                throw new IllegalStateException(StringUtils.join("hit2assext:ERROR: Could not read the macro command ",
+                        "stored in variable ", variableName, ": ", exception.getMessage()), exception);
+            }
+        }
+        return command == null ? null : command.toString();
+    }
+
+    public static void setScalarVariableValue(String renderSessionContextUuid, String variableName, Object value) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.SET_SCALAR_VARIABLE_VALUE, variableName, null, 0, value);
+        setScalarVariableValue(context, ExtensionFunction.SET_SCALAR_VARIABLE_VALUE, variableName, value, start);
+    }
+
+    private static void setScalarVariableValue(RenderSessionContext context, ExtensionFunction function,
+                                               String variableName, Object value, long start) {
+        // check that argument is not an empty list
+        if (value instanceof List && ((List) value).size() == 0) {
+            throw failed(context, function, variableName, null, CallTrace.NO_INDEX, start,
+                    new IllegalArgumentException(StringUtils.join("hit2assext:ERROR setScalarVariable('", context.getUuid(), "', '",
+                            variableName, "', value) received empty List. Maybe the line with the given number is missing in the user data XML? Current XML sequence value is ",
+                            context.getXmlSequence(), ".")));
+        }
+        // nodes are atomized by the render session when the variable is read for the first time
+        if (value instanceof List && ((List) value).get(0) instanceof NodeInfo) {
+            value = ((List) value).get(0);
+        }
+        context.setScalarVariableValue(variableName, value);
+        trace(context, function, variableName, null, CallTrace.NO_INDEX, start);
+    }
+
+    /**
+     * adds the given delta to the value of the given scalar variable in place, e.g. to count a HIT/CLOU loop
+     * counter up or down without reading and writing it. Long and Double values keep their type, empty or
+     * integer strings become Long values. If the variable does not exist yet, it is created.
+     * <p></p>
+     * hit2assext:incrementScalarVariable(var:read('renderSessionUuid'), 'zähler', 1)
+     *
+     * @param renderSessionContextUuid the render session in which the variable exists
+     * @param variableName             the name of the variable
+     * @param delta                    the value to add, negative values decrement the variable
+     */
+    public static void incrementScalarVariable(String renderSessionContextUuid, String variableName, long delta) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.INCREMENT_SCALAR_VARIABLE, variableName, null, delta, null);
+        try {
+            context.incrementScalarVariable(variableName, delta);
+        } catch (RuntimeException exception) {
+            throw failed(context, ExtensionFunction.INCREMENT_SCALAR_VARIABLE, variableName, null, CallTrace.NO_INDEX,
+                    start, exception);
+        }
+        trace(context, ExtensionFunction.INCREMENT_SCALAR_VARIABLE, variableName, null, CallTrace.NO_INDEX, start);
+    }
+
+    public static Object getScalarVariableValue(String renderSessionContextUuid, String variableName) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.GET_SCALAR_VARIABLE_VALUE, variableName, null, 0, null);
+        Object value = context.getScalarVariableValue(variableName);
+        trace(context, ExtensionFunction.GET_SCALAR_VARIABLE_VALUE, variableName, null, CallTrace.NO_INDEX, start);
+        return value;
+    }
+
+    public static void printLogStatement(String renderSessionContextUuid, String logMessage) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.PRINT_LOG_STATEMENT, logMessage, null, 0, null);
+        if (logger.isInfoEnabled()) {
+            logger.info(StringUtils.join("Received call: printLogStatement(", renderSessionContextUuid, ", ", logMessage));
+        }
+        trace(context, ExtensionFunction.PRINT_LOG_STATEMENT, null, null, CallTrace.NO_INDEX, start);
+    }
+
+    /**
+     * Using this method the length of a list that has been registered in the RenderSessionContext
+     * for the given renderSessionContextUuid can be retrieved. The list must have been registered
+     * beforehand using the createList() method.
+     *
+     * @param renderSessionContextUuid the render session in which the given list exists
+     * @param listName                 the name of the list
+     * @return the length of the list corresponding to the given render session and listName
+     */
+    public static Integer getListLength(String renderSessionContextUuid, String listName) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.GET_LIST_LENGTH, listName, null, 0, null);
+        int length = context.getListLength(listName);
+        trace(context, ExtensionFunction.GET_LIST_LENGTH, listName, null, length, start);
+        return length;
+    }
+
+    /**
+     * Using this method the estimated memory footprint of a list can be retrieved, e.g. to find out which
+     * lists of a template are responsible for high memory consumption of the render engine.
+     *
+     * @param renderSessionContextUuid the render session in which the given list exists
+     * @param listName                 the name of the list
+     * @return the estimated number of bytes occupied by the values of the given list, or -1 if there is no such list
+     */
+    public static long getListMemoryFootprint(String renderSessionContextUuid, String listName) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.GET_LIST_MEMORY_FOOTPRINT, listName, null, 0, null);
+        long footprint = context.getListMemoryFootprint(listName);
+        trace(context, ExtensionFunction.GET_LIST_MEMORY_FOOTPRINT, listName, null, CallTrace.NO_INDEX, start);
+        return footprint;
+    }
+
+    /**
+     * Finds a value in a list in O(1), replacing WHILE loops which read the list value by value using
+     * getListValueAt(). The first lookup builds an index of the list, which is kept up to date as the list
+     * changes. Numbers are found no matter if they are stored as whole or decimal numbers, nodes are compared
+     * by their string value, but a number never equals a string.
+     *
+     * @param renderSessionContextUuid the render session in which the given list exists
+     * @param listName                 the name of the list to search
+     * @param value                    the value to find
+     * @return the index of the first occurrence of the value, starting with 1, or 0 if the list does not hold it.
+     */
+    public static int indexOfListValue(String renderSessionContextUuid, String listName, Object value) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.INDEX_OF_LIST_VALUE, listName, null, 0, value);
+        int index;
+        try {
+            index = context.indexOfListValue(listName, value) + 1;
+        } catch (RuntimeException exception) {
+            throw failed(context, ExtensionFunction.INDEX_OF_LIST_VALUE, listName, null, CallTrace.NO_INDEX, start, exception);
+        }
+        trace(context, ExtensionFunction.INDEX_OF_LIST_VALUE, listName, null, index, start);
+        return index;
+    }
+
+    /**
+     * @return true if the given list holds the given value, see indexOfListValue().
+     */
+    public static boolean containsListValue(String renderSessionContextUuid, String listName, Object value) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.CONTAINS_LIST_VALUE, listName, null, 0, value);
+        boolean result;
+        try {
+            result = context.indexOfListValue(listName, value) >= 0;
+        } catch (RuntimeException exception) {
+            throw failed(context, ExtensionFunction.CONTAINS_LIST_VALUE, listName, null, CallTrace.NO_INDEX, start, exception);
+        }
+        trace(context, ExtensionFunction.CONTAINS_LIST_VALUE, listName, null, CallTrace.NO_INDEX, start);
+        return result;
+    }
+
+    /**
+     * @return the number of times the given list holds the given value, see indexOfListValue().
+     */
+    public static int countListValue(String renderSessionContextUuid, String listName, Object value) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.COUNT_LIST_VALUE, listName, null, 0, value);
+        int count;
+        try {
+            count = context.countListValue(listName, value);
+        } catch (RuntimeException exception) {
+            throw failed(context, ExtensionFunction.COUNT_LIST_VALUE, listName, null, CallTrace.NO_INDEX, start, exception);
+        }
+        trace(context, ExtensionFunction.COUNT_LIST_VALUE, listName, null, CallTrace.NO_INDEX, start);
+        return count;
+    }
+
+    /**
+     * Sums up the numbers in a list in a single call, instead of reading the list value by value using
+     * getListValueAt(). Nodes and strings holding a number like '12' or '-3.5' count as that number, null and
+     * blank values are skipped, any other value fails the call.
+     *
+     * @param renderSessionContextUuid the render session in which the given list exists
+     * @param listName                 the name of the list
+     * @return the sum, a whole number as long as all numbers in the list are whole numbers.
+     */
+    public static Number sumListValues(String renderSessionContextUuid, String listName) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.SUM_LIST_VALUES, listName, null, 0, null);
+        Number result;
+        try {
+            result = context.sumListValues(listName);
+        } catch (RuntimeException exception) {
+            throw failed(context, ExtensionFunction.SUM_LIST_VALUES, listName, null, CallTrace.NO_INDEX, start, exception);
+        }
+        trace(context, ExtensionFunction.SUM_LIST_VALUES, listName, null, CallTrace.NO_INDEX, start);
+        return result;
+    }
+
+    /**
+     * @return the smallest number in the given list, or the empty sequence if it holds no numbers. See
+     * sumListValues().
+     */
+    public static Number minListValue(String renderSessionContextUuid, String listName) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.MIN_LIST_VALUE, listName, null, 0, null);
+        Number result;
+        try {
+            result = context.minListValue(listName);
+        } catch (RuntimeException exception) {
+            throw failed(context, ExtensionFunction.MIN_LIST_VALUE, listName, null, CallTrace.NO_INDEX, start, exception);
+        }
+        trace(context, ExtensionFunction.MIN_LIST_VALUE, listName, null, CallTrace.NO_INDEX, start);
+        return result;
+    }
+
+    /**
+     * @return the greatest number in the given list, or the empty sequence if it holds no numbers. See
+     * sumListValues().
+     */
+    public static Number maxListValue(String renderSessionContextUuid, String listName) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.MAX_LIST_VALUE, listName, null, 0, null);
+        Number result;
+        try {
+            result = context.maxListValue(listName);
+        } catch (RuntimeException exception) {
+            throw failed(context, ExtensionFunction.MAX_LIST_VALUE, listName, null, CallTrace.NO_INDEX, start, exception);
+        }
+        trace(context, ExtensionFunction.MAX_LIST_VALUE, listName, null, CallTrace.NO_INDEX, start);
+        return result;
+    }
+
+    /**
+     * @return the number of numbers in the given list, i.e. its length not counting null and blank values. See
+     * sumListValues().
+     */
+    public static int countListNumbers(String renderSessionContextUuid, String listName) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.COUNT_LIST_NUMBERS, listName, null, 0, null);
+        int result;
+        try {
+            result = context.countListNumbers(listName);
+        } catch (RuntimeException exception) {
+            throw failed(context, ExtensionFunction.COUNT_LIST_NUMBERS, listName, null, CallTrace.NO_INDEX, start, exception);
+        }
+        trace(context, ExtensionFunction.COUNT_LIST_NUMBERS, listName, null, CallTrace.NO_INDEX, start);
+        return result;
+    }
+
+    /**
+     * Stores the values of the source list ordered by the numbers they stand for in the target list, see
+     * sumListValues(). Null and blank values are moved to the end, values with the same number keep their order.
+     *
+     * @param renderSessionContextUuid the render session in which the given lists exist
+     * @param sourceListName           the list to sort
+     * @param targetListName           the list to store the sorted values in, replacing it if it exists. May be
+     *                                 the source list.
+     * @param descending               true to put the greatest number first
+     * @return the length of the target list
+     */
+    public static int sortListByNumber(String renderSessionContextUuid, String sourceListName, String targetListName,
+                                       boolean descending) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.SORT_LIST_BY_NUMBER, sourceListName, targetListName, descending ? 1 : 0, null);
+        int length;
+        try {
+            length = context.sortListByNumber(sourceListName, targetListName, descending);
+        } catch (RuntimeException exception) {
+            throw failed(context, ExtensionFunction.SORT_LIST_BY_NUMBER, sourceListName, targetListName,
+                    CallTrace.NO_INDEX, start, exception);
+        }
+        trace(context, ExtensionFunction.SORT_LIST_BY_NUMBER, sourceListName, targetListName, length, start);
+        return length;
+    }
+
+    /**
+     * Stores the values of the source list ordered alphabetically in the target list. The order follows the
+     * collation rules of the given language, e.g. 'de' sorts umlauts like their base letters.
+     *
+     * @param renderSessionContextUuid the render session in which the given lists exist
+     * @param sourceListName           the list to sort
+     * @param targetListName           the list to store the sorted values in, replacing it if it exists. May be
+     *                                 the source list.
+     * @param language                 an IETF language tag like 'de' or 'de-AT'. If empty, the default locale of
+     *                                 the JVM is used.
+     * @param descending               true to reverse the order
+     * @return the length of the target list
+     */
+    public static int sortListByText(String renderSessionContextUuid, String sourceListName, String targetListName,
+                                     String language, boolean descending) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.SORT_LIST_BY_TEXT, sourceListName, targetListName, descending ? 1 : 0,
+                language);
+        int length;
+        try {
+            length = context.sortListByText(sourceListName, targetListName,
+                    StringUtils.isBlank(language) ? Locale.getDefault() : Locale.forLanguageTag(language), descending);
+        } catch (RuntimeException exception) {
+            throw failed(context, ExtensionFunction.SORT_LIST_BY_TEXT, sourceListName, targetListName,
+                    CallTrace.NO_INDEX, start, exception);
+        }
+        trace(context, ExtensionFunction.SORT_LIST_BY_TEXT, sourceListName, targetListName, length, start);
+        return length;
+    }
+
+    /**
+     * Stores each value of the source list once, in the order of their first occurrence, in the target list.
+     * Values are compared like indexOfListValue() compares them.
+     *
+     * @param renderSessionContextUuid the render session in which the given lists exist
+     * @param sourceListName           the list holding duplicate values
+     * @param targetListName           the list to store the distinct values in, replacing it if it exists. May be
+     *                                 the source list.
+     * @return the length of the target list
+     */
+    public static int distinctListValues(String renderSessionContextUuid, String sourceListName, String targetListName) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.DISTINCT_LIST_VALUES, sourceListName, targetListName, 0, null);
+        int length;
+        try {
+            length = context.distinctListValues(sourceListName, targetListName);
+        } catch (RuntimeException exception) {
+            throw failed(context, ExtensionFunction.DISTINCT_LIST_VALUES, sourceListName, targetListName,
+                    CallTrace.NO_INDEX, start, exception);
+        }
+        trace(context, ExtensionFunction.DISTINCT_LIST_VALUES, sourceListName, targetListName, length, start);
+        return length;
+    }
+
+    /**
+     * Using this method the template composer can reach into the Java runtime of the render engine
+     * and query for the Java system properties.
+     *
+     * @param systemPropertyName the name of the system property of interest
+     * @return the value of the given system property
+     */
+    public static String getSystemProperty(String systemPropertyName) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(StringUtils.join("Received call: getSystemProperty('", systemPropertyName, "')"));
+        }
+        return System.getProperty(systemPropertyName);
+    }
+
+    /**
+     * accepts date in the format T.M.JJJJ and converts it to ISO8601, e.b. 2016-10-20.
+     * This format yields the advantage that it is supported by XPath date functions.
+     * The hard-to-read method name shall support readability.
+     *
+     * @param dateString a string conveying a date in the format T.M.JJJJ. This means the date
+     *                   contains 3 value separated by "." dots where the first item represents
+     *                   a day in month, the second a month, the third a year. In fact it does
+     *                   not matter how many digits each data item has, as long as they are
+     *                   numeric values and meaningful in the context of dates. Month counting is
+     *                   1-based, i.d. January is represented by the 1, February by 2, and so
+     *                   on through to December represented by 16.
+     * @return a String representing the same date as the input string in the ISO8601 format.
+     */
+    public static String convert_TMJJJJ_DateToIso8601Format(String dateString) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(StringUtils.join("Received Call convert_TMJJJJ_DateToIso8601Format('", dateString, "')"));
+        }
+        return HitClouFormats.convertDateToIso8601(dateString);
+    }
+
+    /**
+     * converts each value of the given list from the date format T.M.JJJJ to ISO8601 in place, e.g. after
+     * the list has been filled from the business data using addListValues().
+     *
+     * @param renderSessionContextUuid the render session in which the list exists
+     * @param listName                 the name of the list
+     * @return the length of the list
+     */
+    public static int convertListDatesToIso8601Format(String renderSessionContextUuid, String listName) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.CONVERT_LIST_DATES_TO_ISO8601_FORMAT, listName, null, 0, null);
+        int length;
+        try {
+            length = context.convertListValues(listName, DATE_TO_ISO8601);
+        } catch (RuntimeException exception) {
+            throw failed(context, ExtensionFunction.CONVERT_LIST_DATES_TO_ISO8601_FORMAT, listName, null,
+                    CallTrace.NO_INDEX, start, exception);
+        }
+        trace(context, ExtensionFunction.CONVERT_LIST_DATES_TO_ISO8601_FORMAT, listName, null, CallTrace.NO_INDEX, start);
+        return length;
+    }
+
+    /**
+     * formats each value of the given list in the German number format in place, e.g. 1234.5 becomes 1.234,50
+     * given two fraction digits.
+     *
+     * @param renderSessionContextUuid the render session in which the list exists
+     * @param listName                 the name of the list
+     * @param fractionDigits           the number of fraction digits, between 0 and 9
+     * @return the length of the list
+     */
+    public static int formatListNumbers(String renderSessionContextUuid, String listName, int fractionDigits) {
+        long start = System.nanoTime();
+        RenderSessionContext context = getRenderSessionContext(renderSessionContextUuid);
+        record(context, ExtensionFunction.FORMAT_LIST_NUMBERS, listName, null, fractionDigits, null);
+        int length;
+        try {
+            length = context.convertListValues(listName, germanNumberFormat(fractionDigits));
+        } catch (RuntimeException exception) {
+            throw failed(context, ExtensionFunction.FORMAT_LIST_NUMBERS, listName, null, CallTrace.NO_INDEX, start,
+                    exception);
+        }
+        trace(context, ExtensionFunction.FORMAT_LIST_NUMBERS, listName, null, CallTrace.NO_INDEX, start);
+        return length;
+    }
+
+    private final static Function<Object, String> DATE_TO_ISO8601 = new Function<Object, String>() {
+        @Override
+        public String apply(Object date) {
+            return HitClouFormats.convertDateToIso8601(HitClouFormats.getStringValue(date));
+        }
+    };
+
+    private static Function<Object, String> germanNumberFormat(final int fractionDigits) {
+        return new Function<Object, String>() {
+            @Override
+            public String apply(Object number) {
+                return HitClouFormats.formatGermanNumber(HitClouFormats.getNumberValue(number), fractionDigits);
+            }
+        };
     }
 
 }
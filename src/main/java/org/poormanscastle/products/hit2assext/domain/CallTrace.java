@@ -0,0 +1,137 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A CallTrace is a fixed-size ring buffer of the most recent extension function calls a render session
+ * received. Recording a call stores the function, the names of the list or variable involved, the index
+ * and the duration of the call in preallocated arrays and thus creates no objects at all. The calls are
+ * rendered to text only when the trace is dumped, e.g. when an error occurred, when the render session is
+ * cleaned up, or on demand.
+ * <p></p>
+ * A CallTrace is written by the render thread owning the render session. It is not thread-safe; a dump
+ * taken by another thread may show a call that is being recorded at the same time in an inconsistent state.
+ */
+public final class CallTrace {
+
+    /**
+     * use this as index for calls which do not involve an index.
+     */
+    public final static int NO_INDEX = Integer.MIN_VALUE;
+
+    private final ExtensionFunction[] functions;
+
+    private final String[] symbols;
+
+    private final String[] secondSymbols;
+
+    private final int[] indexes;
+
+    private final long[] durations;
+
+    private final boolean[] failures;
+
+    /**
+     * the total number of calls recorded so far. The next call will be stored at recordedCallCount % capacity.
+     */
+    private long recordedCallCount;
+
+    /**
+     * @param capacity the number of calls the trace remembers. 0 disables the trace.
+     */
+    public CallTrace(int capacity) {
+        checkArgument(capacity >= 0, "capacity cannot be negative.");
+        functions = new ExtensionFunction[capacity];
+        symbols = new String[capacity];
+        secondSymbols = new String[capacity];
+        indexes = new int[capacity];
+        durations = new long[capacity];
+        failures = new boolean[capacity];
+    }
+
+    /**
+     * records a call, overwriting the oldest call if the trace is full.
+     *
+     * @param function      the extension function called
+     * @param symbol        the name of the list or variable involved, or null
+     * @param secondSymbol  the name of another list involved, e.g. the target list of appendList(), or null
+     * @param index         the index or sequence value involved, or NO_INDEX
+     * @param durationNanos the time the call took in nanoseconds
+     * @param failed        true if the call ended with an error
+     */
+    public void record(ExtensionFunction function, String symbol, String secondSymbol, int index,
+                       long durationNanos, boolean failed) {
+        if (functions.length == 0) {
+            return;
+        }
+        int position = (int) (recordedCallCount++ % functions.length);
+        functions[position] = function;
+        symbols[position] = symbol;
+        secondSymbols[position] = secondSymbol;
+        indexes[position] = index;
+        durations[position] = durationNanos;
+        failures[position] = failed;
+    }
+
+    /**
+     * @return the total number of calls recorded, including those already overwritten.
+     */
+    public long getRecordedCallCount() {
+        return recordedCallCount;
+    }
+
+    /**
+     * @return the number of calls the trace currently holds.
+     */
+    public int size() {
+        return (int) Math.min(recordedCallCount, functions.length);
+    }
+
+    /**
+     * clears the trace.
+     */
+    public void reset() {
+        recordedCallCount = 0;
+        for (int position = 0; position < functions.length; position++) {
+            functions[position] = null;
+            symbols[position] = null;
+            secondSymbols[position] = null;
+        }
+    }
+
+    /**
+     * renders the recorded calls to text, the oldest call first.
+     *
+     * @return one line per recorded call.
+     */
+    public String dump() {
+        StringBuilder result = new StringBuilder();
+        int size = size();
+        long first = recordedCallCount - size;
+        result.append("CallTrace of the last ").append(size).append(" of ").append(recordedCallCount).append(" calls:");
+        for (long call = first; call < recordedCallCount; call++) {
+            int position = (int) (call % functions.length);
+            result.append("\n  #").append(call + 1).append(' ').append(functions[position].getFunctionName()).append('(');
+            boolean separate = false;
+            if (symbols[position] != null) {
+                result.append('\'').append(symbols[position]).append('\'');
+                separate = true;
+            }
+            if (secondSymbols[position] != null) {
+                result.append(separate ? ", '" : "'").append(secondSymbols[position]).append('\'');
+                separate = true;
+            }
+            if (indexes[position] != NO_INDEX) {
+                result.append(separate ? ", " : "").append(indexes[position]);
+            }
+            result.append(") ").append(TimeUnit.NANOSECONDS.toMicros(durations[position])).append("us");
+            if (failures[position]) {
+                result.append(" FAILED");
+            }
+        }
+        return result.toString();
+    }
+
+}
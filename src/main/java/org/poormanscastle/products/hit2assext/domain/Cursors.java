@@ -0,0 +1,104 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * The named cursors of a render session, i.e. the positions of the read loops of a template. Each cursor
+ * starts at line 1 and is created when it is used for the first time, so nested loops reading different
+ * data sources can each keep their own position. The default cursor is the XML sequence.
+ * <p></p>
+ * A render session is used by its render thread only, so the cursors are plain counters without locks
+ * or memory fences.
+ */
+final class Cursors {
+
+    final static int FIRST_POSITION = 1;
+
+    /**
+     * the position of the default cursor, kept in a field of its own to spare the WHILE loop idiom the lookup.
+     */
+    private int defaultPosition = FIRST_POSITION;
+
+    private final Map<String, Position> positions = new HashMap<>();
+
+    /**
+     * @param cursorName the name of the cursor, null or RenderSessionContext.DEFAULT_CURSOR for the default cursor
+     */
+    int get(String cursorName) {
+        if (isDefault(cursorName)) {
+            return defaultPosition;
+        }
+        Position position = positions.get(cursorName);
+        return position == null ? FIRST_POSITION : position.value;
+    }
+
+    /**
+     * moves the given cursor to the next line.
+     *
+     * @return the new position of the cursor.
+     */
+    int advance(String cursorName) {
+        if (isDefault(cursorName)) {
+            return ++defaultPosition;
+        }
+        return ++lookup(cursorName).value;
+    }
+
+    /**
+     * moves the given cursor to the given line.
+     *
+     * @throws IllegalArgumentException if the position is less than 1.
+     */
+    void seek(String cursorName, int position) {
+        if (position < FIRST_POSITION) {
+            throw new IllegalArgumentException(StringUtils.join("hit2assext:ERROR: Cannot move cursor ",
+                    cursorName, " to position ", position, ", the first line has position ", FIRST_POSITION, "."));
+        }
+        if (isDefault(cursorName)) {
+            defaultPosition = position;
+        } else {
+            lookup(cursorName).value = position;
+        }
+    }
+
+    /**
+     * moves the given cursor back to the first line.
+     */
+    void reset(String cursorName) {
+        seek(cursorName, FIRST_POSITION);
+    }
+
+    /**
+     * drops all named cursors and moves the default cursor back to the first line.
+     */
+    void clear() {
+        defaultPosition = FIRST_POSITION;
+        positions.clear();
+    }
+
+    private static boolean isDefault(String cursorName) {
+        return cursorName == null || RenderSessionContext.DEFAULT_CURSOR.equals(cursorName);
+    }
+
+    private Position lookup(String cursorName) {
+        Position position = positions.get(cursorName);
+        if (position == null) {
+            position = new Position();
+            positions.put(cursorName, position);
+        }
+        return position;
+    }
+
+    /**
+     * a mutable position, so advancing a named cursor does not box a new Integer.
+     */
+    private final static class Position {
+
+        private int value = FIRST_POSITION;
+
+    }
+
+}
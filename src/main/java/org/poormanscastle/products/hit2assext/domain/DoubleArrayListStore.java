@@ -0,0 +1,87 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import java.util.Arrays;
+
+/**
+ * A ListStore specialized on Double values. The values are stored unboxed in a double[], which costs 8 bytes
+ * per value instead of a reference plus a Double object.
+ */
+final class DoubleArrayListStore extends ListStore {
+
+    private double[] values;
+
+    private int size;
+
+    DoubleArrayListStore(int initialCapacity) {
+        values = new double[initialCapacity];
+    }
+
+    /**
+     * @param values the values of the new store, which takes ownership of the array
+     */
+    DoubleArrayListStore(double[] values) {
+        this.values = values;
+        size = values.length;
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+
+    @Override
+    boolean accepts(Object value) {
+        return value instanceof Double;
+    }
+
+    @Override
+    Object get(int index) {
+        checkIndex(index);
+        return values[index];
+    }
+
+    double getDouble(int index) {
+        checkIndex(index);
+        return values[index];
+    }
+
+    /**
+     * @return a copy of the values of this store.
+     */
+    double[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    @Override
+    Object set(int index, Object value) {
+        checkIndex(index);
+        double oldValue = values[index];
+        values[index] = (Double) value;
+        return oldValue;
+    }
+
+    @Override
+    void add(Object value) {
+        addDouble((Double) value);
+    }
+
+    void addDouble(double value) {
+        if (size == values.length) {
+            ensureCapacity(size + 1);
+        }
+        values[size++] = value;
+    }
+
+    @Override
+    void ensureCapacity(int capacity) {
+        if (capacity > values.length) {
+            values = Arrays.copyOf(values, grow(values.length, capacity));
+        }
+    }
+
+    @Override
+    long estimateMemoryFootprint() {
+        return ARRAY_HEADER_SIZE + 8L * values.length;
+    }
+
+}
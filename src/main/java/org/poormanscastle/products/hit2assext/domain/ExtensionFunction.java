@@ -0,0 +1,71 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+/**
+ * Enumerates the extension functions the RenderSessionManager offers to the render engine. The constants
+ * identify calls in the CallTrace of a render session without the need to create any strings.
+ */
+public enum ExtensionFunction {
+
+    CREATE_RENDER_SESSION_CONTEXT("createRenderSessionContext"),
+    CLEAN_UP_RENDER_SESSION_CONTEXT("cleanUpRenderSessionContext"),
+    CREATE_LIST("createList"),
+    ADD_LIST_VALUE("addListValue"),
+    ADD_LIST_VALUES("addListValues"),
+    SET_LIST_VALUES("setListValues"),
+    APPEND_LIST("appendList"),
+    GET_LIST_VALUE_AT("getListValueAt"),
+    SET_LIST_VALUE_AT("setListValueAt"),
+    GET_LIST_LENGTH("getListLength"),
+    GET_LIST_MEMORY_FOOTPRINT("getListMemoryFootprint"),
+    INDEX_OF_LIST_VALUE("indexOfListValue"),
+    CONTAINS_LIST_VALUE("containsListValue"),
+    COUNT_LIST_VALUE("countListValue"),
+    SUM_LIST_VALUES("sumListValues"),
+    MIN_LIST_VALUE("minListValue"),
+    MAX_LIST_VALUE("maxListValue"),
+    COUNT_LIST_NUMBERS("countListNumbers"),
+    SORT_LIST_BY_NUMBER("sortListByNumber"),
+    SORT_LIST_BY_TEXT("sortListByText"),
+    DISTINCT_LIST_VALUES("distinctListValues"),
+    GET_XML_SEQUENCE("getXmlSequence"),
+    INCREMENT_XML_SEQUENCE("incrementXmlSequence"),
+    GET_CURSOR_POSITION("getCursorPosition"),
+    ADVANCE_CURSOR("advanceCursor"),
+    SEEK_CURSOR("seekCursor"),
+    RESET_CURSOR("resetCursor"),
+    INDEX_USER_DATA_LINES("indexUserDataLines"),
+    HAS_USER_DATA_LINE("hasUserDataLine"),
+    GET_CURRENT_USER_DATA_LINE("getCurrentUserDataLine"),
+    NEXT_USER_DATA_LINE("nextUserDataLine"),
+    OPEN_DATA_FILE("openDataFile"),
+    HAS_NEXT_LINE("hasNextLine"),
+    PEEK_LINE("peekLine"),
+    READ_NEXT_LINE("readNextLine"),
+    CREATE_SCALAR_VARIABLE("createScalarVariable"),
+    SET_SCALAR_VARIABLE_VALUE("setScalarVariableValue"),
+    GET_SCALAR_VARIABLE_VALUE("getScalarVariableValue"),
+    INCREMENT_SCALAR_VARIABLE("incrementScalarVariable"),
+    CONVERT_LIST_ELEMENTS_TO_VARS("convertListElementsToVars"),
+    EXECUTE_MACRO_COMMAND("executeMacroCommand"),
+    CONVERT_LIST_DATES_TO_ISO8601_FORMAT("convertListDatesToIso8601Format"),
+    FORMAT_LIST_NUMBERS("formatListNumbers"),
+    PUBLISH_GLOBAL_SYMBOLS("publishGlobalSymbols"),
+    EXPORT_SYMBOL_SNAPSHOT("exportSymbolSnapshot"),
+    LOAD_SYMBOL_SNAPSHOT("loadSymbolSnapshot"),
+    PRINT_LOG_STATEMENT("printLogStatement"),
+    DUMP_CALL_TRACE("dumpCallTrace");
+
+    private final String functionName;
+
+    ExtensionFunction(String functionName) {
+        this.functionName = functionName;
+    }
+
+    /**
+     * @return the name of the function as used in XPath expressions, e.g. getListValueAt.
+     */
+    public String getFunctionName() {
+        return functionName;
+    }
+
+}
@@ -0,0 +1,131 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * GlobalSymbols are lists and scalar variables shared by all render sessions of the JVM, like postcodes,
+ * tariff tables or text blocks which every document would otherwise load into its own render session.
+ * They are loaded once into a render session and published from there. GlobalSymbols are immutable, so
+ * any number of render threads can read them without synchronization.
+ * <p></p>
+ * A render session sees the GlobalSymbols which were current when it was created, for its whole lifetime.
+ * Publishing new GlobalSymbols thus replaces them atomically: render sessions created afterwards see the new
+ * symbols, running render sessions keep seeing the old ones.
+ * <p></p>
+ * Symbols of the render session itself take precedence over GlobalSymbols of the same name. Writing to a
+ * global symbol creates a copy of it within the render session, so the write affects this render session only.
+ */
+public final class GlobalSymbols {
+
+    final static GlobalSymbols EMPTY = new GlobalSymbols(Collections.<String, ListVariable>emptyMap(),
+            Collections.<String, Object>emptyMap(), 0);
+
+    private final static AtomicLong versions = new AtomicLong();
+
+    private static volatile GlobalSymbols current = EMPTY;
+
+    private final Map<String, ListVariable> lists;
+
+    private final Map<String, Object> scalars;
+
+    private final long version;
+
+    private final long publicationTimeMillis;
+
+    /**
+     * @param lists   shared lists, see ListVariable.sharedCopy()
+     * @param scalars the values of the scalar variables, which must be immutable
+     */
+    private GlobalSymbols(Map<String, ListVariable> lists, Map<String, Object> scalars, long version) {
+        this.lists = lists;
+        this.scalars = scalars;
+        this.version = version;
+        publicationTimeMillis = version == 0 ? 0 : System.currentTimeMillis();
+    }
+
+    /**
+     * creates new GlobalSymbols from the given symbols and makes them the current GlobalSymbols.
+     *
+     * @param lists   the lists to share; they are copied
+     * @param scalars the values of the scalar variables to share, which must be immutable
+     * @return the new GlobalSymbols
+     */
+    static GlobalSymbols publish(Map<String, ListVariable> lists, Map<String, Object> scalars) {
+        checkArgument(lists != null && scalars != null, "lists and scalars cannot be null.");
+        Map<String, ListVariable> sharedLists = new HashMap<>();
+        for (Map.Entry<String, ListVariable> entry : lists.entrySet()) {
+            ListVariable list = entry.getValue();
+            sharedLists.put(entry.getKey(), list.isShared() ? list : list.sharedCopy());
+        }
+        GlobalSymbols symbols = new GlobalSymbols(sharedLists, new HashMap<>(scalars), versions.incrementAndGet());
+        current = symbols;
+        return symbols;
+    }
+
+    /**
+     * drops the current GlobalSymbols. Render sessions created afterwards see no global symbols.
+     */
+    public static void clear() {
+        current = EMPTY;
+    }
+
+    /**
+     * @return the current GlobalSymbols, which are empty if none have been published.
+     */
+    public static GlobalSymbols getCurrent() {
+        return current;
+    }
+
+    ListVariable getList(String name) {
+        return lists.get(name);
+    }
+
+    Object getScalarValue(String name) {
+        return scalars.get(name);
+    }
+
+    Map<String, ListVariable> getLists() {
+        return Collections.unmodifiableMap(lists);
+    }
+
+    Map<String, Object> getScalars() {
+        return Collections.unmodifiableMap(scalars);
+    }
+
+    /**
+     * @return a snapshot of these GlobalSymbols, e.g. to write them to a file.
+     */
+    public SymbolSnapshot createSymbolSnapshot() {
+        return new SymbolSnapshot(lists, scalars);
+    }
+
+    public boolean isEmpty() {
+        return lists.isEmpty() && scalars.isEmpty();
+    }
+
+    public int getListCount() {
+        return lists.size();
+    }
+
+    public int getScalarCount() {
+        return scalars.size();
+    }
+
+    /**
+     * @return the version of these GlobalSymbols, which increases with every publication, or 0 if no
+     * GlobalSymbols have been published.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public long getPublicationTimeMillis() {
+        return publicationTimeMillis;
+    }
+
+}
@@ -0,0 +1,148 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * A ListAggregate collects the count, sum, minimum and maximum of the numbers in a list in a single pass,
+ * see ListVariable.aggregate(). As long as all numbers are whole numbers, the results are Long values; once
+ * a decimal number is added, or the sum exceeds the range of long, they are Double values.
+ * <p></p>
+ * Values other than numbers are converted like HIT/CLOU converts them: nodes and strings holding a number
+ * like "12" or "-3.5" count as that number, null and blank values are skipped. Any other value fails the
+ * aggregation.
+ */
+final class ListAggregate {
+
+    /**
+     * a decimal number as written in business data, unlike Double.valueOf() refusing NaN, hex and type suffixes.
+     */
+    private final static Pattern DECIMAL_NUMBER = Pattern.compile("[+-]?(\\d+\\.?\\d*|\\.\\d+)([eE][+-]?\\d+)?");
+
+    private int count;
+
+    private boolean integral = true;
+
+    private boolean sumOverflow;
+
+    private long longSum;
+
+    private long longMin = Long.MAX_VALUE;
+
+    private long longMax = Long.MIN_VALUE;
+
+    private double doubleSum;
+
+    private double doubleMin = Double.POSITIVE_INFINITY;
+
+    private double doubleMax = Double.NEGATIVE_INFINITY;
+
+    void addLong(long value) {
+        count++;
+        long sum = longSum + value;
+        if (((longSum ^ sum) & (value ^ sum)) < 0) {
+            sumOverflow = true;
+        }
+        longSum = sum;
+        longMin = Math.min(longMin, value);
+        longMax = Math.max(longMax, value);
+        doubleSum += value;
+        doubleMin = Math.min(doubleMin, value);
+        doubleMax = Math.max(doubleMax, value);
+    }
+
+    void addDouble(double value) {
+        count++;
+        integral = false;
+        doubleSum += value;
+        doubleMin = Math.min(doubleMin, value);
+        doubleMax = Math.max(doubleMax, value);
+    }
+
+    /**
+     * adds the given list value, converting it to a number first.
+     *
+     * @param index the zero based index of the value in its list, for the error message
+     * @throws IllegalArgumentException if the value is no number.
+     */
+    void add(Object value, int index) {
+        Number number = toNumber(value, index);
+        if (number instanceof Long) {
+            addLong(number.longValue());
+        } else if (number != null) {
+            addDouble(number.doubleValue());
+        }
+    }
+
+    /**
+     * @return the number of numbers aggregated, i.e. not counting null and blank values.
+     */
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the sum of the numbers, 0 if there are none.
+     */
+    Number getSum() {
+        return integral && !sumOverflow ? (Number) longSum : (Number) doubleSum;
+    }
+
+    /**
+     * @return the smallest number, or null if there are none.
+     */
+    Number getMin() {
+        if (count == 0) {
+            return null;
+        }
+        return integral ? (Number) longMin : (Number) doubleMin;
+    }
+
+    /**
+     * @return the greatest number, or null if there are none.
+     */
+    Number getMax() {
+        if (count == 0) {
+            return null;
+        }
+        return integral ? (Number) longMax : (Number) doubleMax;
+    }
+
+    /**
+     * converts a list value to the number it stands for.
+     *
+     * @param index the zero based index of the value in its list, for the error message
+     * @return a Long or Double value, or null if the value is null or blank.
+     * @throws IllegalArgumentException if the value is no number.
+     */
+    static Number toNumber(Object value, int index) {
+        if (value instanceof Long || value instanceof Double) {
+            return (Number) value;
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        } else if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        Object key = ListValueIndex.keyOf(value);
+        if (!(key instanceof String)) {
+            return value == null ? null : failConversion(value, index);
+        }
+        String string = ((String) key).trim();
+        if (string.isEmpty()) {
+            return null;
+        }
+        try {
+            return Long.valueOf(string);
+        } catch (NumberFormatException exception) {
+            // maybe a decimal number
+        }
+        return DECIMAL_NUMBER.matcher(string).matches() ? Double.valueOf(string) : failConversion(value, index);
+    }
+
+    private static Number failConversion(Object value, int index) {
+        throw new IllegalArgumentException(StringUtils.join("hit2assext:ERROR: The list value ", value,
+                " at index ", index + 1, " is no number."));
+    }
+
+}
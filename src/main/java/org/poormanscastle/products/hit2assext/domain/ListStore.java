@@ -0,0 +1,90 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+/**
+ * A ListStore holds the values of a ListVariable. All implementations offer O(1) indexed access and
+ * amortized O(1) appends, except RopeListStore which finds the segment of a value in O(log number of segments).
+ * Implementations specialized on certain value types refuse values of other types, in which case the owning
+ * ListVariable migrates its values to a more general ListStore.
+ */
+abstract class ListStore {
+
+    /**
+     * the estimated size of an object reference in bytes, assuming compressed oops.
+     */
+    final static int REFERENCE_SIZE = 4;
+
+    /**
+     * the estimated size of an array header in bytes.
+     */
+    final static int ARRAY_HEADER_SIZE = 16;
+
+    abstract int size();
+
+    /**
+     * @param value the value of interest
+     * @return true if this store can hold the given value.
+     */
+    abstract boolean accepts(Object value);
+
+    abstract Object get(int index);
+
+    /**
+     * replaces the value at the given index. The caller has to make sure that the value is accepted by this store.
+     *
+     * @return the previous value at the given index.
+     */
+    abstract Object set(int index, Object value);
+
+    /**
+     * appends the given value. The caller has to make sure that the value is accepted by this store.
+     */
+    abstract void add(Object value);
+
+    /**
+     * makes sure this store can hold the given number of values without growing its storage.
+     */
+    abstract void ensureCapacity(int capacity);
+
+    /**
+     * @return the estimated number of bytes occupied by this store, including the values it references.
+     */
+    abstract long estimateMemoryFootprint();
+
+    final void checkIndex(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+    }
+
+    static int grow(int currentCapacity, int minCapacity) {
+        int newCapacity = Math.max(10, currentCapacity + (currentCapacity >> 1));
+        return newCapacity < minCapacity ? minCapacity : newCapacity;
+    }
+
+    /**
+     * a rough estimate of the heap occupied by the given value, not counting the reference to it.
+     */
+    static long estimateValueSize(Object value) {
+        if (value == null) {
+            return 0;
+        } else if (value instanceof String) {
+            return 40 + 2L * ((String) value).length();
+        } else if (value instanceof CharSequence) {
+            return 48 + 2L * ((CharSequence) value).length();
+        } else {
+            return 24;
+        }
+    }
+
+    /**
+     * a rough estimate of the memory a list needs to hold the given value, including the reference to it.
+     * Long and Double values are counted as stored unboxed.
+     */
+    static long estimateSlotSize(Object value) {
+        if (value instanceof Long || value instanceof Double) {
+            return 8;
+        }
+        return REFERENCE_SIZE + estimateValueSize(value);
+    }
+
+}
@@ -0,0 +1,157 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.value.Value;
+
+/**
+ * A ListValueIndex maps the values of a ListVariable to the ascending positions they are stored at, so
+ * templates can find a value in O(1) instead of reading the list value by value.
+ * <p></p>
+ * Values are compared by their key, see keyOf(): numbers are equal if their values are equal, no matter if
+ * they are stored as Long or Double values, nodes and Saxon values are compared by their string value. A number
+ * never equals a string, i.e. 5 is not found in a list holding "5".
+ */
+final class ListValueIndex {
+
+    private final static Object NULL_KEY = new Object();
+
+    private final Map<Object, Positions> positions;
+
+    /**
+     * indexes the values of the given list.
+     */
+    ListValueIndex(ListVariable list) {
+        int size = list.size();
+        positions = new HashMap<>(Math.max(16, size * 4 / 3 + 1));
+        for (int index = 0; index < size; index++) {
+            add(list.get(index), index);
+        }
+    }
+
+    /**
+     * @return the first position of the given value, or -1 if the list does not hold the value.
+     */
+    int indexOf(Object value) {
+        Positions entry = positions.get(keyOf(value));
+        return entry == null ? -1 : entry.first();
+    }
+
+    /**
+     * @return the number of times the list holds the given value.
+     */
+    int count(Object value) {
+        Positions entry = positions.get(keyOf(value));
+        return entry == null ? 0 : entry.size;
+    }
+
+    /**
+     * records that the given value was stored at the given position.
+     */
+    void add(Object value, int index) {
+        Object key = keyOf(value);
+        Positions entry = positions.get(key);
+        if (entry == null) {
+            entry = new Positions();
+            positions.put(key, entry);
+        }
+        entry.add(index);
+    }
+
+    /**
+     * records that the value at the given position was replaced.
+     */
+    void replace(int index, Object oldValue, Object newValue) {
+        Object oldKey = keyOf(oldValue);
+        Object newKey = keyOf(newValue);
+        if (oldKey.equals(newKey)) {
+            return;
+        }
+        Positions entry = positions.get(oldKey);
+        if (entry != null && entry.remove(index) && entry.size == 0) {
+            positions.remove(oldKey);
+        }
+        add(newValue, index);
+    }
+
+    /**
+     * @return the key the given value is indexed with, so that values compare like they do in templates.
+     */
+    static Object keyOf(Object value) {
+        if (value == null) {
+            return NULL_KEY;
+        } else if (value instanceof Long) {
+            return value;
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        } else if (value instanceof Double || value instanceof Float) {
+            double number = ((Number) value).doubleValue();
+            long integral = (long) number;
+            // whole numbers are keyed like Long values, so 5.0 finds 5
+            return integral == number && integral != Long.MAX_VALUE && integral != Long.MIN_VALUE
+                    ? (Object) integral : (Object) number;
+        } else if (value instanceof NodeInfo) {
+            return ((NodeInfo) value).getStringValue();
+        } else if (value instanceof Value) {
+            try {
+                return ((Value) value).getStringValue();
+            } catch (XPathException exception) {
+                return value.toString();
+            }
+        } else if (value instanceof CharSequence) {
+            return value.toString();
+        }
+        return value;
+    }
+
+    /**
+     * the ascending positions of a value. Values are usually appended, so positions are usually added at the end.
+     */
+    private final static class Positions {
+
+        private int[] values = new int[1];
+
+        private int size;
+
+        int first() {
+            return values[0];
+        }
+
+        void add(int position) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            if (size == 0 || values[size - 1] < position) {
+                values[size++] = position;
+                return;
+            }
+            int found = Arrays.binarySearch(values, 0, size, position);
+            if (found >= 0) {
+                return;
+            }
+            int insertionPoint = -found - 1;
+            System.arraycopy(values, insertionPoint, values, insertionPoint + 1, size - insertionPoint);
+            values[insertionPoint] = position;
+            size++;
+        }
+
+        /**
+         * @return true if the position was found and removed.
+         */
+        boolean remove(int position) {
+            int index = Arrays.binarySearch(values, 0, size, position);
+            if (index < 0) {
+                return false;
+            }
+            System.arraycopy(values, index + 1, values, index, size - index - 1);
+            size--;
+            return true;
+        }
+
+    }
+
+}
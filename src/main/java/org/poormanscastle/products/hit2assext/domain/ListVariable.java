@@ -0,0 +1,569 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A ListVariable is the storage behind a hit2assext list. HIT/CLOU FOR loops translated by hit2ass access
+ * lists by index, so indexed reads and writes take O(1) and appends take amortized O(1).
+ * <p></p>
+ * Lists holding nothing but Long values or nothing but Double values are stored unboxed. As soon as
+ * a value of another type is added, the list migrates its values to a general store. The values returned
+ * by get() are always of the same type as the values that were stored.
+ * <p></p>
+ * Once a list grows beyond the number of values given by the Java system property
+ * hit2assext.list.offHeapThreshold, its values are moved off the heap, see OffHeapListStore. The default
+ * threshold of 0 keeps all lists on the heap. release() must be called when the list is dropped, so the
+ * off-heap memory can be reused.
+ * <p></p>
+ * A shared list is an immutable copy which belongs to the GlobalSymbols and is read by many render sessions
+ * concurrently. Render sessions copy a shared list before they write to it.
+ * <p></p>
+ * Appending a list of at least MIN_SHARED_APPEND_SIZE values shares the store of the appended list instead of
+ * copying its values, see RopeListStore. Both lists copy the shared store before they change it the next time.
+ * <p></p>
+ * indexOf() and count() build a ListValueIndex of the list when they are called for the first time, which is
+ * kept up to date as the list changes. If as many values are written as the list holds before the index is
+ * used again, maintaining the index costs more than rebuilding it, so it is dropped.
+ * <p></p>
+ * aggregate(), sortByNumber(), sortByText() and distinct() read the list in a single pass. Lists stored unboxed
+ * are read and sorted without boxing their values.
+ */
+final class ListVariable {
+
+    private final static int DEFAULT_CAPACITY = 10;
+
+    /**
+     * lists shorter than this are copied when they are appended, which is cheaper than sharing them.
+     */
+    final static int MIN_SHARED_APPEND_SIZE = 64;
+
+    /**
+     * lists shorter than this are searched value by value, which is cheaper than building an index.
+     */
+    final static int MIN_INDEXED_SIZE = 16;
+
+    private final static int OFF_HEAP_THRESHOLD = Integer.getInteger("hit2assext.list.offHeapThreshold", 0);
+
+    /**
+     * the size beyond which the values are moved off the heap, or 0 if they always stay on the heap.
+     */
+    private final int offHeapThreshold;
+
+    /**
+     * null as long as the list has never held a value and the type of store to use is not known yet.
+     */
+    private ListStore store;
+
+    private int initialCapacity = DEFAULT_CAPACITY;
+
+    private boolean shared;
+
+    /**
+     * true if the store may also be referenced by other lists, so it has to be copied before it is changed.
+     */
+    private boolean storeShared;
+
+    /**
+     * the estimated memory needed by the values of this list, see ListStore.estimateSlotSize(). Unlike
+     * estimateMemoryFootprint(), it is maintained with each change, so render sessions can account their
+     * memory without walking their lists.
+     */
+    private long accountedBytes;
+
+    /**
+     * the index of the values of this list, or null if it has not been built yet or has been dropped. Shared lists
+     * are read by many threads, so the index is published by a volatile write once it is complete.
+     */
+    private volatile ListValueIndex valueIndex;
+
+    /**
+     * the number of values written since the value index was used last.
+     */
+    private int writesSinceLookup;
+
+    ListVariable() {
+        this(OFF_HEAP_THRESHOLD);
+    }
+
+    ListVariable(int offHeapThreshold) {
+        this.offHeapThreshold = Math.max(0, offHeapThreshold);
+    }
+
+    /**
+     * @return an immutable copy of this list which can be read by many threads. Its values are kept on the heap,
+     * since it is never released explicitly.
+     */
+    ListVariable sharedCopy() {
+        ListVariable copy = new ListVariable(0);
+        copy.ensureCapacity(size());
+        copy.copyValues(this);
+        return copy.share();
+    }
+
+    /**
+     * turns this list into a shared list, which cannot be changed anymore.
+     *
+     * @return this list
+     */
+    ListVariable share() {
+        checkState(!isOffHeap(), "A list stored off the heap cannot be shared.");
+        shared = true;
+        return this;
+    }
+
+    /**
+     * @return a private, writable copy of this list. The copy shares the values of this list until either
+     * of them is changed.
+     */
+    ListVariable copy() {
+        ListVariable copy = new ListVariable(offHeapThreshold);
+        copy.addAll(this);
+        return copy;
+    }
+
+    boolean isShared() {
+        return shared;
+    }
+
+    int size() {
+        return store == null ? 0 : store.size();
+    }
+
+    Object get(int index) {
+        if (store == null) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: 0");
+        }
+        return store.get(index);
+    }
+
+    Object set(int index, Object value) {
+        checkWritable();
+        if (store == null) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: 0");
+        }
+        unshareStore();
+        if (!store.accepts(value)) {
+            store = new ObjectArrayListStore(store, store.size());
+        }
+        Object oldValue = store.set(index, value);
+        accountedBytes += ListStore.estimateSlotSize(value) - ListStore.estimateSlotSize(oldValue);
+        if (keepValueIndex(1)) {
+            valueIndex.replace(index, oldValue, value);
+        }
+        return oldValue;
+    }
+
+    void add(Object value) {
+        checkWritable();
+        if (store == null) {
+            store = createStoreFor(value, initialCapacity);
+        } else if (storeShared) {
+            unshareStore();
+        } else if (!store.accepts(value)) {
+            store = new ObjectArrayListStore(store, store.size() + 1);
+        }
+        store.add(value);
+        accountedBytes += ListStore.estimateSlotSize(value);
+        if (keepValueIndex(1)) {
+            valueIndex.add(value, store.size() - 1);
+        }
+        if (offHeapThreshold > 0 && store.size() > offHeapThreshold && !(store instanceof OffHeapListStore)) {
+            store = new OffHeapListStore(store, store.size());
+        }
+    }
+
+    /**
+     * appends all values of the given list to the end of this list. The values of larger lists are shared
+     * instead of copied, unless either list is kept off the heap. Sharing values allocates nothing, so this
+     * list stays on the heap until a value is added to it beyond the off-heap threshold.
+     */
+    void addAll(ListVariable source) {
+        int sourceSize = source.size();
+        if (sourceSize == 0) {
+            return;
+        }
+        checkWritable();
+        if (sourceSize < MIN_SHARED_APPEND_SIZE || source.isOffHeap() || isOffHeap()) {
+            ensureCapacity(size() + sourceSize);
+            copyValues(source);
+            return;
+        }
+        long sourceAccountedBytes = source.accountedBytes;
+        int targetSize = size();
+        ListStore appended = source.store;
+        if (!source.shared) {
+            // a shared list never changes, its store can be shared as it is
+            source.storeShared = true;
+        }
+        if (store == null) {
+            store = appended;
+            storeShared = true;
+        } else {
+            if (storeShared || !(store instanceof RopeListStore)) {
+                store = new RopeListStore(store, !storeShared);
+                storeShared = false;
+            }
+            ((RopeListStore) store).append(appended);
+        }
+        accountedBytes += sourceAccountedBytes;
+        if (keepValueIndex(sourceSize)) {
+            for (int index = 0; index < sourceSize; index++) {
+                valueIndex.add(source.get(index), targetSize + index);
+            }
+        }
+    }
+
+    private void copyValues(ListVariable source) {
+        int sourceSize = source.size();
+        for (int index = 0; index < sourceSize; index++) {
+            add(source.get(index));
+        }
+    }
+
+    /**
+     * makes sure the list can hold the given number of values without growing its storage.
+     */
+    void ensureCapacity(int capacity) {
+        checkWritable();
+        if (store == null) {
+            initialCapacity = Math.max(initialCapacity, capacity);
+        } else if (!storeShared) {
+            store.ensureCapacity(capacity);
+        }
+    }
+
+    /**
+     * @return true if the values of this list are kept off the heap.
+     */
+    boolean isOffHeap() {
+        return store instanceof OffHeapListStore;
+    }
+
+    /**
+     * empties this list and releases the off-heap memory it holds, if any.
+     */
+    void release() {
+        if (shared) {
+            // other render sessions may still read this list
+            return;
+        }
+        if (store instanceof OffHeapListStore) {
+            ((OffHeapListStore) store).release();
+        }
+        store = null;
+        storeShared = false;
+        accountedBytes = 0;
+        valueIndex = null;
+    }
+
+    /**
+     * @return the position of the first occurrence of the given value, or -1 if this list does not hold it.
+     * Values are compared as described in ListValueIndex.
+     */
+    int indexOf(Object value) {
+        int size = size();
+        if (size < MIN_INDEXED_SIZE) {
+            Object key = ListValueIndex.keyOf(value);
+            for (int index = 0; index < size; index++) {
+                if (key.equals(ListValueIndex.keyOf(store.get(index)))) {
+                    return index;
+                }
+            }
+            return -1;
+        }
+        return lookupValueIndex().indexOf(value);
+    }
+
+    /**
+     * @return the number of times this list holds the given value.
+     */
+    int count(Object value) {
+        int size = size();
+        if (size < MIN_INDEXED_SIZE) {
+            Object key = ListValueIndex.keyOf(value);
+            int count = 0;
+            for (int index = 0; index < size; index++) {
+                if (key.equals(ListValueIndex.keyOf(store.get(index)))) {
+                    count++;
+                }
+            }
+            return count;
+        }
+        return lookupValueIndex().count(value);
+    }
+
+    /**
+     * @return the count, sum, minimum and maximum of the numbers in this list.
+     * @throws IllegalArgumentException if the list holds a value which is no number, see ListAggregate.
+     */
+    ListAggregate aggregate() {
+        ListAggregate aggregate = new ListAggregate();
+        int size = size();
+        if (store instanceof LongArrayListStore) {
+            LongArrayListStore longs = (LongArrayListStore) store;
+            for (int index = 0; index < size; index++) {
+                aggregate.addLong(longs.getLong(index));
+            }
+        } else if (store instanceof DoubleArrayListStore) {
+            DoubleArrayListStore doubles = (DoubleArrayListStore) store;
+            for (int index = 0; index < size; index++) {
+                aggregate.addDouble(doubles.getDouble(index));
+            }
+        } else {
+            for (int index = 0; index < size; index++) {
+                aggregate.add(store.get(index), index);
+            }
+        }
+        return aggregate;
+    }
+
+    /**
+     * @return a new list holding the values of this list ordered by the numbers they stand for. Null and blank
+     * values are moved to the end, values with the same number keep their order.
+     * @throws IllegalArgumentException if the list holds a value which is no number, see ListAggregate.
+     */
+    ListVariable sortByNumber(boolean descending) {
+        if (store instanceof LongArrayListStore) {
+            long[] values = ((LongArrayListStore) store).toArray();
+            Arrays.sort(values);
+            if (descending) {
+                for (int low = 0, high = values.length - 1; low < high; low++, high--) {
+                    long value = values[low];
+                    values[low] = values[high];
+                    values[high] = value;
+                }
+            }
+            return adopt(new LongArrayListStore(values));
+        } else if (store instanceof DoubleArrayListStore) {
+            double[] values = ((DoubleArrayListStore) store).toArray();
+            Arrays.sort(values);
+            if (descending) {
+                for (int low = 0, high = values.length - 1; low < high; low++, high--) {
+                    double value = values[low];
+                    values[low] = values[high];
+                    values[high] = value;
+                }
+            }
+            return adopt(new DoubleArrayListStore(values));
+        }
+        int size = size();
+        SortEntry[] entries = new SortEntry[size];
+        for (int index = 0; index < size; index++) {
+            Object value = store.get(index);
+            entries[index] = new SortEntry(value, ListAggregate.toNumber(value, index));
+        }
+        return sorted(entries, descending);
+    }
+
+    /**
+     * @param collator the collator defining the order of the string values
+     * @return a new list holding the values of this list ordered by their string values. Values with the same
+     * string value keep their order.
+     */
+    ListVariable sortByText(Collator collator, boolean descending) {
+        int size = size();
+        SortEntry[] entries = new SortEntry[size];
+        for (int index = 0; index < size; index++) {
+            Object value = store.get(index);
+            // collation keys compare in O(length) without consulting the collation rules each time
+            entries[index] = new SortEntry(value, collator.getCollationKey(value == null ? "" : String.valueOf(
+                    ListValueIndex.keyOf(value))));
+        }
+        return sorted(entries, descending);
+    }
+
+    /**
+     * @return a new list holding each value of this list once, in the order of their first occurrence. Values
+     * are compared as described in ListValueIndex.
+     */
+    ListVariable distinct() {
+        int size = size();
+        if (store instanceof LongArrayListStore) {
+            // a sorted copy serves as the set of values seen, so the values are not boxed
+            LongArrayListStore longs = (LongArrayListStore) store;
+            long[] sorted = longs.toArray();
+            Arrays.sort(sorted);
+            boolean[] seen = new boolean[size];
+            long[] values = new long[size];
+            int count = 0;
+            for (int index = 0; index < size; index++) {
+                long value = longs.getLong(index);
+                int position = Arrays.binarySearch(sorted, value);
+                // binarySearch may find any of several equal values, use the first one
+                while (position > 0 && sorted[position - 1] == value) {
+                    position--;
+                }
+                if (!seen[position]) {
+                    seen[position] = true;
+                    values[count++] = value;
+                }
+            }
+            return adopt(new LongArrayListStore(Arrays.copyOf(values, count)));
+        }
+        ListVariable result = new ListVariable(offHeapThreshold);
+        Set<Object> seen = new HashSet<>();
+        for (int index = 0; index < size; index++) {
+            Object value = store.get(index);
+            if (seen.add(ListValueIndex.keyOf(value))) {
+                result.add(value);
+            }
+        }
+        return result;
+    }
+
+    private ListVariable sorted(SortEntry[] entries, boolean descending) {
+        Arrays.sort(entries, SortEntry.order(descending));
+        ListVariable result = new ListVariable(offHeapThreshold);
+        result.ensureCapacity(entries.length);
+        for (SortEntry entry : entries) {
+            result.add(entry.value);
+        }
+        return result;
+    }
+
+    /**
+     * @return a new list holding the values of the given unboxed store.
+     */
+    private ListVariable adopt(ListStore values) {
+        ListVariable result = new ListVariable(offHeapThreshold);
+        result.store = values;
+        result.accountedBytes = 8L * values.size();
+        return result;
+    }
+
+    /**
+     * a list value together with the key it is sorted by: a Long, Double or CollationKey, or null for null and
+     * blank values, which are sorted last.
+     */
+    private final static class SortEntry {
+
+        private static Comparator<SortEntry> order(final boolean descending) {
+            return new Comparator<SortEntry>() {
+                @Override
+                public int compare(SortEntry first, SortEntry second) {
+                    if (first.key == null || second.key == null) {
+                        // null keys are sorted last in either direction
+                        return first.key == null ? (second.key == null ? 0 : 1) : -1;
+                    }
+                    int result = compareKeys(first.key, second.key);
+                    return descending ? -result : result;
+                }
+            };
+        }
+
+        @SuppressWarnings("unchecked")
+        private static int compareKeys(Object first, Object second) {
+            if (first instanceof Long && second instanceof Long) {
+                return Long.compare((Long) first, (Long) second);
+            } else if (first instanceof Number) {
+                return Double.compare(((Number) first).doubleValue(), ((Number) second).doubleValue());
+            }
+            return ((Comparable<Object>) first).compareTo(second);
+        }
+
+        private final Object value;
+
+        private final Object key;
+
+        private SortEntry(Object value, Object key) {
+            this.value = value;
+            this.key = key;
+        }
+
+    }
+
+    /**
+     * @return true if this list keeps an index of its values, for testing.
+     */
+    boolean hasValueIndex() {
+        return valueIndex != null;
+    }
+
+    private ListValueIndex lookupValueIndex() {
+        ListValueIndex index = valueIndex;
+        if (index == null) {
+            index = new ListValueIndex(this);
+            valueIndex = index;
+        }
+        if (!shared) {
+            writesSinceLookup = 0;
+        }
+        return index;
+    }
+
+    /**
+     * counts the given number of written values against the value index, and drops the index if it has been
+     * maintained for as many writes as the list holds values since it was used last.
+     *
+     * @return true if the index is kept and has to be updated by the caller.
+     */
+    private boolean keepValueIndex(int writes) {
+        if (valueIndex == null) {
+            return false;
+        }
+        writesSinceLookup += writes;
+        if (writesSinceLookup >= Math.max(MIN_INDEXED_SIZE, size())) {
+            valueIndex = null;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the estimated number of bytes occupied by the values of this list.
+     */
+    long estimateMemoryFootprint() {
+        return store == null ? 0 : store.estimateMemoryFootprint();
+    }
+
+    /**
+     * @return the estimated memory needed by the values of this list, maintained incrementally.
+     */
+    long getAccountedBytes() {
+        return accountedBytes;
+    }
+
+    /**
+     * replaces a store shared with other lists by a store of this list, which shares the values of the former
+     * store until they are changed.
+     */
+    private void unshareStore() {
+        if (storeShared) {
+            store = new RopeListStore(store);
+            storeShared = false;
+        }
+    }
+
+    /**
+     * @return true if the values of this list are held by segments shared with other lists, for testing.
+     */
+    boolean isRope() {
+        return store instanceof RopeListStore;
+    }
+
+    private void checkWritable() {
+        if (shared) {
+            throw new IllegalStateException("A shared list cannot be changed, copy it first.");
+        }
+    }
+
+    private ListStore createStoreFor(Object value, int capacity) {
+        if (offHeapThreshold > 0 && capacity > offHeapThreshold) {
+            return new OffHeapListStore(capacity);
+        } else if (value instanceof Long) {
+            return new LongArrayListStore(capacity);
+        } else if (value instanceof Double) {
+            return new DoubleArrayListStore(capacity);
+        } else {
+            return new ObjectArrayListStore(capacity);
+        }
+    }
+
+}
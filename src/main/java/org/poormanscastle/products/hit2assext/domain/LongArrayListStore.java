@@ -0,0 +1,87 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import java.util.Arrays;
+
+/**
+ * A ListStore specialized on Long values. The values are stored unboxed in a long[], which costs 8 bytes
+ * per value instead of a reference plus a Long object.
+ */
+final class LongArrayListStore extends ListStore {
+
+    private long[] values;
+
+    private int size;
+
+    LongArrayListStore(int initialCapacity) {
+        values = new long[initialCapacity];
+    }
+
+    /**
+     * @param values the values of the new store, which takes ownership of the array
+     */
+    LongArrayListStore(long[] values) {
+        this.values = values;
+        size = values.length;
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+
+    @Override
+    boolean accepts(Object value) {
+        return value instanceof Long;
+    }
+
+    @Override
+    Object get(int index) {
+        checkIndex(index);
+        return values[index];
+    }
+
+    long getLong(int index) {
+        checkIndex(index);
+        return values[index];
+    }
+
+    /**
+     * @return a copy of the values of this store.
+     */
+    long[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    @Override
+    Object set(int index, Object value) {
+        checkIndex(index);
+        long oldValue = values[index];
+        values[index] = (Long) value;
+        return oldValue;
+    }
+
+    @Override
+    void add(Object value) {
+        addLong((Long) value);
+    }
+
+    void addLong(long value) {
+        if (size == values.length) {
+            ensureCapacity(size + 1);
+        }
+        values[size++] = value;
+    }
+
+    @Override
+    void ensureCapacity(int capacity) {
+        if (capacity > values.length) {
+            values = Arrays.copyOf(values, grow(values.length, capacity));
+        }
+    }
+
+    @Override
+    long estimateMemoryFootprint() {
+        return ARRAY_HEADER_SIZE + 8L * values.length;
+    }
+
+}
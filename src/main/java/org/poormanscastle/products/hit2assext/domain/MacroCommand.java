@@ -0,0 +1,228 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * A MacroCommand is a compiled HIT/CLOU assignment macro like
+ * <p></p>
+ * #= listelem1 list[listind]
+ * <p></p>
+ * which assigns the value on the right hand side to the scalar variable named on the left hand side. The right
+ * hand side can be a list element whose index is given by a scalar variable or a number, a scalar variable,
+ * a number or a quoted string. HIT/CLOU modules generate such commands at render time and run them over and
+ * over again, so each command text is parsed only once and the compiled command is shared by all render sessions.
+ * A compiled command holds no state of any render session and can be run by many threads concurrently.
+ */
+public final class MacroCommand {
+
+    private final static String ASSIGNMENT = "#=";
+
+    /**
+     * the number of compiled commands cached. Commands are generated per list element, so a cache exceeding
+     * this number is cleared rather than growing with the lists.
+     */
+    private final static int CACHE_SIZE = Integer.getInteger("hit2assext.macro.cacheSize", 4096);
+
+    private final static ConcurrentMap<String, MacroCommand> cache = new ConcurrentHashMap<>();
+
+    private enum Source {
+        LIST_ELEMENT, SCALAR, LITERAL
+    }
+
+    private final String text;
+
+    private final String target;
+
+    private final Source source;
+
+    /**
+     * the name of the list or scalar variable on the right hand side.
+     */
+    private final String sourceName;
+
+    /**
+     * the name of the scalar variable holding the list index, or null if the index is a number.
+     */
+    private final String indexVariable;
+
+    private final int indexLiteral;
+
+    private final Object literal;
+
+    private MacroCommand(String text, String target, Source source, String sourceName, String indexVariable,
+                         int indexLiteral, Object literal) {
+        this.text = text;
+        this.target = target;
+        this.source = source;
+        this.sourceName = sourceName;
+        this.indexVariable = indexVariable;
+        this.indexLiteral = indexLiteral;
+        this.literal = literal;
+    }
+
+    /**
+     * returns the compiled command for the given text, compiling it if it has not been compiled before.
+     *
+     * @param text a macro command like "#= listelem1 list[listind]"
+     * @return the compiled command
+     * @throws IllegalArgumentException if the given text is no valid macro command.
+     */
+    public static MacroCommand compile(String text) {
+        if (text == null) {
+            throw malformed(null, "the command is null");
+        }
+        MacroCommand command = cache.get(text);
+        if (command == null) {
+            command = parse(text);
+            if (cache.size() >= CACHE_SIZE) {
+                cache.clear();
+            }
+            cache.put(text, command);
+        }
+        return command;
+    }
+
+    static MacroCommand parse(String text) {
+        String trimmed = text.trim();
+        if (!trimmed.startsWith(ASSIGNMENT)) {
+            throw malformed(text, StringUtils.join("the command must start with ", ASSIGNMENT));
+        }
+        String assignment = trimmed.substring(ASSIGNMENT.length()).trim();
+        int separator = StringUtils.indexOfAny(assignment, " \t");
+        if (assignment.isEmpty() || separator < 0) {
+            throw malformed(text, "expected a target variable and a value, like #= listelem1 list[listind]");
+        }
+        String target = assignment.substring(0, separator);
+        checkName(text, target, "target variable");
+        String value = assignment.substring(separator + 1).trim();
+
+        int openingBracket = value.indexOf('[');
+        if (openingBracket >= 0) {
+            if (!value.endsWith("]") || value.indexOf(']') != value.length() - 1) {
+                throw malformed(text, StringUtils.join("the list element ", value, " must end with ]"));
+            }
+            String listName = value.substring(0, openingBracket).trim();
+            checkName(text, listName, "list");
+            String index = value.substring(openingBracket + 1, value.length() - 1).trim();
+            if (index.isEmpty()) {
+                throw malformed(text, StringUtils.join("the index of list ", listName, " is missing"));
+            }
+            if (StringUtils.isNumeric(index)) {
+                if (index.length() > 9 || Integer.parseInt(index) < 1) {
+                    throw malformed(text, StringUtils.join("the index ", index, " must be between 1 and 999999999"));
+                }
+                return new MacroCommand(text, target, Source.LIST_ELEMENT, listName, null, Integer.parseInt(index), null);
+            }
+            checkName(text, index, "index variable");
+            return new MacroCommand(text, target, Source.LIST_ELEMENT, listName, index, 0, null);
+        }
+        if (value.length() >= 2 && (value.charAt(0) == '\'' || value.charAt(0) == '"')
+                && value.charAt(value.length() - 1) == value.charAt(0)) {
+            return new MacroCommand(text, target, Source.LITERAL, null, null, 0, value.substring(1, value.length() - 1));
+        }
+        Object number = parseNumber(value);
+        if (number != null) {
+            return new MacroCommand(text, target, Source.LITERAL, null, null, 0, number);
+        }
+        checkName(text, value, "source variable");
+        return new MacroCommand(text, target, Source.SCALAR, value, null, 0, null);
+    }
+
+    private static Object parseNumber(String value) {
+        char first = value.charAt(0);
+        if (first != '-' && first != '+' && first != '.' && (first < '0' || first > '9')) {
+            return null;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException exception) {
+            // maybe a decimal number
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException exception) {
+            return null;
+        }
+    }
+
+    private static void checkName(String text, String name, String role) {
+        if (name.isEmpty() || StringUtils.containsAny(name, " \t[]'\"")) {
+            throw malformed(text, StringUtils.join("'", name, "' is no valid name for the ", role));
+        }
+    }
+
+    private static IllegalArgumentException malformed(String text, String reason) {
+        return new IllegalArgumentException(StringUtils.join("hit2assext:ERROR: Malformed macro command '", text,
+                "': ", reason, "."));
+    }
+
+    /**
+     * runs this command within the given render session.
+     *
+     * @return the value assigned to the target variable.
+     */
+    public Object execute(RenderSessionContext context) {
+        return execute(context, resolveIndex(context));
+    }
+
+    /**
+     * runs this command within the given render session, using the given list index.
+     *
+     * @param index the 1-based list index, as returned by resolveIndex()
+     * @return the value assigned to the target variable.
+     */
+    public Object execute(RenderSessionContext context, int index) {
+        Object value;
+        switch (source) {
+            case LIST_ELEMENT:
+                value = context.getListValueAt(sourceName, index - 1);
+                break;
+            case SCALAR:
+                value = context.getScalarVariableValue(sourceName);
+                break;
+            default:
+                value = literal;
+        }
+        context.setScalarVariableValue(target, value);
+        return value;
+    }
+
+    /**
+     * @return the 1-based list index this command reads in the given render session, or CallTrace.NO_INDEX
+     * if the command reads no list element.
+     * @throws IllegalStateException if the index variable does not exist or holds no number.
+     */
+    public int resolveIndex(RenderSessionContext context) {
+        if (source != Source.LIST_ELEMENT) {
+            return CallTrace.NO_INDEX;
+        }
+        return indexVariable == null ? indexLiteral : context.getScalarVariableIntValue(indexVariable);
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return the name of the variable this command assigns a value to.
+     */
+    public String getTarget() {
+        return target;
+    }
+
+    /**
+     * @return the name of the list or scalar variable this command reads, or null if it assigns a literal.
+     */
+    public String getSourceName() {
+        return sourceName;
+    }
+
+    @Override
+    public String toString() {
+        return StringUtils.join("MacroCommand{", text, "}");
+    }
+
+}
@@ -0,0 +1,127 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * A MemoryAccount keeps track of the memory allocated by one render session, see MemoryBudget. Only the render
+ * thread owning the render session charges the account, so charging takes a few field updates. The global
+ * limit is only touched when the memory reserved from it is used up.
+ * <p></p>
+ * close() may be called by another thread, e.g. by the RenderSessionReaper, and more than once. Only the
+ * first call returns the reserved memory and the admission of the render session to the MemoryBudget.
+ */
+public final class MemoryAccount {
+
+    private final MemoryBudget budget;
+
+    private long usedBytes;
+
+    /**
+     * the bytes reserved from the global limit, which are at least the used bytes if there is a global limit.
+     */
+    private long reservedBytes;
+
+    private boolean closed;
+
+    MemoryAccount(MemoryBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * accounts the given number of bytes the render session is about to allocate.
+     *
+     * @throws IllegalStateException if the allocation would exceed the limit of the render session or the
+     *                               global limit. Nothing is charged in that case.
+     */
+    void charge(long bytes) {
+        if (bytes <= 0) {
+            refund(-bytes);
+            return;
+        }
+        long requiredBytes = usedBytes + bytes;
+        if (budget.getSessionLimitBytes() > 0 && requiredBytes > budget.getSessionLimitBytes()) {
+            budget.onRejectedAllocation();
+            throw new IllegalStateException(StringUtils.join("hit2assext:ERROR: The render session exceeds its ",
+                    "memory budget of ", budget.getSessionLimitBytes(), " bytes: it holds ", usedBytes,
+                    " bytes and requests ", bytes, " more. See hit2assext.session.maxBytes."));
+        }
+        if (requiredBytes > reservedBytes && budget.hasGlobalLimit()) {
+            reserve(requiredBytes);
+        }
+        usedBytes = requiredBytes;
+    }
+
+    /**
+     * accounts the given number of bytes the render session has dropped.
+     */
+    void refund(long bytes) {
+        usedBytes = Math.max(0, usedBytes - bytes);
+        if (reservedBytes - usedBytes > 4 * MemoryBudget.RESERVATION_SIZE) {
+            // hand memory back to the other render sessions, but keep a reservation for the next allocations
+            returnReservation(reservedBytes - usedBytes - MemoryBudget.RESERVATION_SIZE);
+        }
+    }
+
+    private synchronized void reserve(long requiredBytes) {
+        if (closed) {
+            // the render session has been evicted, the memory is no longer accounted
+            return;
+        }
+        long missingBytes = requiredBytes - reservedBytes;
+        long reservation = (missingBytes + MemoryBudget.RESERVATION_SIZE - 1)
+                / MemoryBudget.RESERVATION_SIZE * MemoryBudget.RESERVATION_SIZE;
+        if (!budget.reserve(reservation)) {
+            reservation = missingBytes;
+            if (!budget.reserve(reservation)) {
+                budget.onRejectedAllocation();
+                throw new IllegalStateException(StringUtils.join("hit2assext:ERROR: The render sessions exceed ",
+                        "the global memory budget of ", budget.getGlobalLimitBytes(), " bytes: ",
+                        budget.getReservedBytes(), " bytes are in use, this render session requests ", missingBytes,
+                        " more. See hit2assext.memory.maxBytes."));
+            }
+        }
+        reservedBytes += reservation;
+    }
+
+    private synchronized void returnReservation(long bytes) {
+        if (!closed) {
+            budget.unreserve(bytes);
+            reservedBytes -= bytes;
+        }
+    }
+
+    /**
+     * returns the reserved memory and the admission of the render session to the MemoryBudget.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        budget.closeAccount(reservedBytes);
+        reservedBytes = 0;
+    }
+
+    /**
+     * @return the number of bytes the render session currently holds, as estimated by the render session.
+     */
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * @return the number of bytes reserved from the global limit, or 0 if there is no global limit.
+     */
+    public long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public MemoryBudget getBudget() {
+        return budget;
+    }
+
+}
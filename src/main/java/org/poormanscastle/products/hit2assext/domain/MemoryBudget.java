@@ -0,0 +1,195 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * A MemoryBudget limits the memory the render sessions of the JVM may allocate for their lists and scalar
+ * variables, and the number of render sessions alive at the same time. Each render session gets a
+ * MemoryAccount from the budget when it is created and closes it when it is released.
+ * <p></p>
+ * A render session exceeding its budget fails with an IllegalStateException right away, instead of driving the
+ * render engine into an OutOfMemoryError which would fail all render sessions of the JVM. The memory is
+ * accounted using the same estimates as estimateMemoryFootprint(), so the limits are approximate.
+ * <p></p>
+ * The global limit is shared by all render threads. To keep them from contending for the global counter on
+ * each allocation, a MemoryAccount reserves global memory in portions of RESERVATION_SIZE bytes.
+ */
+public final class MemoryBudget {
+
+    /**
+     * the number of bytes a MemoryAccount reserves from the global limit at once.
+     */
+    final static long RESERVATION_SIZE = 64 * 1024;
+
+    /**
+     * a budget without any limits, which still accounts the memory of each render session.
+     */
+    public final static MemoryBudget UNLIMITED = new MemoryBudget(0, 0, 0, 0);
+
+    private final long sessionLimitBytes;
+
+    private final long globalLimitBytes;
+
+    private final int maxConcurrentSessions;
+
+    private final long admissionTimeoutMillis;
+
+    /**
+     * null if the number of concurrent render sessions is not limited.
+     */
+    private final Semaphore admissions;
+
+    private final AtomicInteger openAccountCount = new AtomicInteger();
+
+    private final AtomicLong reservedBytes = new AtomicLong();
+
+    private final AtomicLong rejectedSessionCount = new AtomicLong();
+
+    private final AtomicLong rejectedAllocationCount = new AtomicLong();
+
+    /**
+     * @param sessionLimitBytes      the number of bytes a single render session may allocate, 0 for no limit
+     * @param globalLimitBytes       the number of bytes all render sessions together may allocate, 0 for no limit
+     * @param maxConcurrentSessions  the number of render sessions which may be alive at the same time, 0 for no limit
+     * @param admissionTimeoutMillis how long openAccount() waits for another render session to end if the maximum
+     *                               number of render sessions is alive
+     */
+    public MemoryBudget(long sessionLimitBytes, long globalLimitBytes, int maxConcurrentSessions,
+                        long admissionTimeoutMillis) {
+        checkArgument(sessionLimitBytes >= 0 && globalLimitBytes >= 0, "memory limits cannot be negative.");
+        checkArgument(maxConcurrentSessions >= 0, "maxConcurrentSessions cannot be negative.");
+        checkArgument(admissionTimeoutMillis >= 0, "admissionTimeoutMillis cannot be negative.");
+        this.sessionLimitBytes = sessionLimitBytes;
+        this.globalLimitBytes = globalLimitBytes;
+        this.maxConcurrentSessions = maxConcurrentSessions;
+        this.admissionTimeoutMillis = admissionTimeoutMillis;
+        admissions = maxConcurrentSessions == 0 ? null : new Semaphore(maxConcurrentSessions, true);
+    }
+
+    /**
+     * opens the account of a new render session. If the maximum number of render sessions is alive, the calling
+     * thread waits for another render session to close its account, up to the admission timeout.
+     *
+     * @return the new account, which must be closed when the render session ends.
+     * @throws IllegalStateException if no render session ended within the admission timeout.
+     */
+    public MemoryAccount openAccount() {
+        if (admissions != null) {
+            boolean admitted;
+            try {
+                admitted = admissions.tryAcquire(admissionTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                admitted = false;
+            }
+            if (!admitted) {
+                rejectedSessionCount.incrementAndGet();
+                throw new IllegalStateException(StringUtils.join("hit2assext:ERROR: No render session could be ",
+                        "created within ", admissionTimeoutMillis, " ms, since the maximum of ", maxConcurrentSessions,
+                        " concurrent render sessions is alive."));
+            }
+        }
+        openAccountCount.incrementAndGet();
+        return new MemoryAccount(this);
+    }
+
+    /**
+     * called by MemoryAccount.close() exactly once per account.
+     */
+    void closeAccount(long reservation) {
+        unreserve(reservation);
+        openAccountCount.decrementAndGet();
+        if (admissions != null) {
+            admissions.release();
+        }
+    }
+
+    boolean hasGlobalLimit() {
+        return globalLimitBytes > 0;
+    }
+
+    /**
+     * reserves the given number of bytes from the global limit.
+     *
+     * @return false if the reservation would exceed the global limit.
+     */
+    boolean reserve(long bytes) {
+        while (true) {
+            long reserved = reservedBytes.get();
+            if (reserved + bytes > globalLimitBytes) {
+                return false;
+            }
+            if (reservedBytes.compareAndSet(reserved, reserved + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    void unreserve(long bytes) {
+        if (bytes != 0) {
+            reservedBytes.addAndGet(-bytes);
+        }
+    }
+
+    void onRejectedAllocation() {
+        rejectedAllocationCount.incrementAndGet();
+    }
+
+    public long getSessionLimitBytes() {
+        return sessionLimitBytes;
+    }
+
+    public long getGlobalLimitBytes() {
+        return globalLimitBytes;
+    }
+
+    public int getMaxConcurrentSessions() {
+        return maxConcurrentSessions;
+    }
+
+    public long getAdmissionTimeoutMillis() {
+        return admissionTimeoutMillis;
+    }
+
+    /**
+     * @return the number of accounts opened and not closed yet, i.e. the number of render sessions alive.
+     */
+    public int getOpenAccountCount() {
+        return openAccountCount.get();
+    }
+
+    /**
+     * @return the number of bytes currently reserved from the global limit, or 0 if there is no global limit.
+     */
+    public long getReservedBytes() {
+        return reservedBytes.get();
+    }
+
+    /**
+     * @return the number of render sessions which could not be created within the admission timeout.
+     */
+    public long getRejectedSessionCount() {
+        return rejectedSessionCount.get();
+    }
+
+    /**
+     * @return the number of allocations which failed because they exceeded a memory limit.
+     */
+    public long getRejectedAllocationCount() {
+        return rejectedAllocationCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return StringUtils.join("MemoryBudget{sessionLimitBytes=", sessionLimitBytes, ", globalLimitBytes=",
+                globalLimitBytes, ", maxConcurrentSessions=", maxConcurrentSessions, "}");
+    }
+
+}
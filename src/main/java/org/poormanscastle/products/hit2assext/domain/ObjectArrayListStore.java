@@ -0,0 +1,77 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import java.util.Arrays;
+
+/**
+ * The general ListStore accepting values of any type.
+ */
+final class ObjectArrayListStore extends ListStore {
+
+    private Object[] values;
+
+    private int size;
+
+    ObjectArrayListStore(int initialCapacity) {
+        values = new Object[initialCapacity];
+    }
+
+    /**
+     * creates a new store holding the values of the given store.
+     */
+    ObjectArrayListStore(ListStore source, int initialCapacity) {
+        this(Math.max(initialCapacity, source.size()));
+        for (int index = 0; index < source.size(); index++) {
+            values[index] = source.get(index);
+        }
+        size = source.size();
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+
+    @Override
+    boolean accepts(Object value) {
+        return true;
+    }
+
+    @Override
+    Object get(int index) {
+        checkIndex(index);
+        return values[index];
+    }
+
+    @Override
+    Object set(int index, Object value) {
+        checkIndex(index);
+        Object oldValue = values[index];
+        values[index] = value;
+        return oldValue;
+    }
+
+    @Override
+    void add(Object value) {
+        if (size == values.length) {
+            ensureCapacity(size + 1);
+        }
+        values[size++] = value;
+    }
+
+    @Override
+    void ensureCapacity(int capacity) {
+        if (capacity > values.length) {
+            values = Arrays.copyOf(values, grow(values.length, capacity));
+        }
+    }
+
+    @Override
+    long estimateMemoryFootprint() {
+        long footprint = ARRAY_HEADER_SIZE + (long) REFERENCE_SIZE * values.length;
+        for (int index = 0; index < size; index++) {
+            footprint += estimateValueSize(values[index]);
+        }
+        return footprint;
+    }
+
+}
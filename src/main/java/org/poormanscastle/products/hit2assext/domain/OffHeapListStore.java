@@ -0,0 +1,401 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A ListStore keeping its values outside of the Java heap. Batch documents build lists with hundreds of
+ * thousands of values, which the garbage collector would otherwise have to trace in every render thread's
+ * collection. ListVariable moves a list to an OffHeapListStore once it exceeds a configurable size.
+ * <p></p>
+ * The values are encoded into chunks of direct memory: Long, Double and Boolean values take 9 bytes and
+ * 1 byte respectively, strings take one byte per character if all characters are ISO-8859-1, else two. Values
+ * of other types, e.g. atomized Saxon values, stay on the heap and are referenced from the chunks. get()
+ * always returns a value of the same type as the value that was stored. The heap only holds the offset of
+ * each value, i.e. 8 bytes per value in a single long[].
+ * <p></p>
+ * set() overwrites the record of the former value if the new value fits into it, else it appends a new record.
+ * Once the records left behind take more than half of the chunks, the live records are copied into new chunks,
+ * so a list whose values are replaced again and again does not grow beyond twice its live size.
+ * <p></p>
+ * release() hands the chunks back to a pool shared by all render sessions, so the direct memory is reused by
+ * the next large list instead of waiting for the garbage collector to free it. The pool keeps at most
+ * hit2assext.list.offHeapPoolChunks chunks of 1 MiB each; further chunks are left to the garbage collector.
+ */
+final class OffHeapListStore extends ListStore {
+
+    private final static int CHUNK_SHIFT = 20;
+
+    final static int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    private final static int OFFSET_MASK = CHUNK_SIZE - 1;
+
+    private final static byte NULL = 0;
+
+    private final static byte LONG = 1;
+
+    private final static byte DOUBLE = 2;
+
+    private final static byte TRUE = 3;
+
+    private final static byte FALSE = 4;
+
+    private final static byte LATIN1_STRING = 5;
+
+    private final static byte UTF16_STRING = 6;
+
+    private final static byte HEAP_OBJECT = 7;
+
+    private final static int MAX_POOLED_CHUNKS = Integer.getInteger("hit2assext.list.offHeapPoolChunks", 64);
+
+    private final static Queue<ByteBuffer> freeChunks = new ConcurrentLinkedQueue<>();
+
+    private final static AtomicInteger pooledChunkCount = new AtomicInteger();
+
+    private final static AtomicLong chunksInUse = new AtomicLong();
+
+    /**
+     * the address of each value: the index of its chunk shifted by CHUNK_SHIFT, plus its offset in the chunk.
+     */
+    private long[] addresses;
+
+    private int size;
+
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+
+    /**
+     * the write position in the last chunk.
+     */
+    private int position = CHUNK_SIZE;
+
+    /**
+     * the number of bytes in the chunks no longer belonging to a value, see set().
+     */
+    private long wastedBytes;
+
+    /**
+     * the values which are not encoded but kept on the heap.
+     */
+    private List<Object> heapObjects;
+
+    OffHeapListStore(int initialCapacity) {
+        addresses = new long[initialCapacity];
+    }
+
+    /**
+     * creates a new store holding the values of the given store.
+     */
+    OffHeapListStore(ListStore source, int initialCapacity) {
+        this(Math.max(initialCapacity, source.size()));
+        for (int index = 0; index < source.size(); index++) {
+            add(source.get(index));
+        }
+    }
+
+    /**
+     * @return the number of bytes of direct memory currently held by all OffHeapListStores, not counting the pool.
+     */
+    static long getOffHeapBytesInUse() {
+        return chunksInUse.get() * CHUNK_SIZE;
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+
+    @Override
+    boolean accepts(Object value) {
+        return true;
+    }
+
+    @Override
+    Object get(int index) {
+        checkIndex(index);
+        long address = addresses[index];
+        ByteBuffer chunk = chunks.get((int) (address >>> CHUNK_SHIFT));
+        int offset = (int) (address & OFFSET_MASK);
+        switch (chunk.get(offset)) {
+            case NULL:
+                return null;
+            case LONG:
+                return chunk.getLong(offset + 1);
+            case DOUBLE:
+                return chunk.getDouble(offset + 1);
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case LATIN1_STRING:
+                return readLatin1String(chunk, offset);
+            case UTF16_STRING:
+                return readUtf16String(chunk, offset);
+            default:
+                return heapObjects.get(chunk.getInt(offset + 1));
+        }
+    }
+
+    @Override
+    Object set(int index, Object value) {
+        Object oldValue = get(index);
+        long address = addresses[index];
+        ByteBuffer chunk = chunks.get((int) (address >>> CHUNK_SHIFT));
+        int offset = (int) (address & OFFSET_MASK);
+        if (chunk.get(offset) == HEAP_OBJECT) {
+            int heapIndex = chunk.getInt(offset + 1);
+            if (!isEncodable(value)) {
+                heapObjects.set(heapIndex, value);
+                return oldValue;
+            }
+            heapObjects.set(heapIndex, null);
+        }
+        int recordLength = recordLength(chunk, offset);
+        int length = encodedLength(value);
+        if (length <= recordLength) {
+            write(chunk, offset, value);
+            wastedBytes += recordLength - length;
+        } else {
+            addresses[index] = append(value);
+            wastedBytes += recordLength;
+            if (wastedBytes > CHUNK_SIZE && 2 * wastedBytes > usedBytes()) {
+                compact();
+            }
+        }
+        return oldValue;
+    }
+
+    @Override
+    void add(Object value) {
+        if (size == addresses.length) {
+            ensureCapacity(size + 1);
+        }
+        addresses[size++] = append(value);
+    }
+
+    @Override
+    void ensureCapacity(int capacity) {
+        if (capacity > addresses.length) {
+            addresses = Arrays.copyOf(addresses, grow(addresses.length, capacity));
+        }
+    }
+
+    @Override
+    long estimateMemoryFootprint() {
+        long footprint = ARRAY_HEADER_SIZE + 8L * addresses.length + (long) chunks.size() * CHUNK_SIZE;
+        if (heapObjects != null) {
+            footprint += ARRAY_HEADER_SIZE + (long) REFERENCE_SIZE * heapObjects.size();
+            for (Object value : heapObjects) {
+                footprint += estimateValueSize(value);
+            }
+        }
+        return footprint;
+    }
+
+    /**
+     * hands the direct memory of this store back to the pool. The store is empty afterwards.
+     */
+    void release() {
+        recycleChunks(chunks);
+        chunks.clear();
+        heapObjects = null;
+        addresses = new long[0];
+        size = 0;
+        position = CHUNK_SIZE;
+        wastedBytes = 0;
+    }
+
+    /**
+     * encodes the given value at the end of the last chunk.
+     *
+     * @return the address of the encoded value.
+     */
+    private long append(Object value) {
+        int offset = reserve(encodedLength(value));
+        write(chunks.get(chunks.size() - 1), offset, value);
+        return ((long) (chunks.size() - 1) << CHUNK_SHIFT) | offset;
+    }
+
+    /**
+     * reserves the given number of bytes at the end of the last chunk, starting a new chunk if necessary.
+     *
+     * @return the offset of the reserved bytes in the last chunk.
+     */
+    private int reserve(int length) {
+        if (position + length > CHUNK_SIZE) {
+            chunks.add(allocateChunk());
+            position = 0;
+        }
+        int offset = position;
+        position += length;
+        return offset;
+    }
+
+    /**
+     * @return the number of bytes written to the chunks so far.
+     */
+    private long usedBytes() {
+        return chunks.isEmpty() ? 0 : (long) (chunks.size() - 1) * CHUNK_SIZE + position;
+    }
+
+    /**
+     * copies the records of all values into new chunks, leaving out the records of replaced values, and hands
+     * the former chunks back to the pool. The records are copied as they are, without decoding the values.
+     */
+    private void compact() {
+        List<ByteBuffer> formerChunks = new ArrayList<>(chunks);
+        List<Object> formerHeapObjects = heapObjects;
+        chunks.clear();
+        heapObjects = null;
+        position = CHUNK_SIZE;
+        wastedBytes = 0;
+        for (int index = 0; index < size; index++) {
+            long address = addresses[index];
+            ByteBuffer source = formerChunks.get((int) (address >>> CHUNK_SHIFT));
+            int sourceOffset = (int) (address & OFFSET_MASK);
+            if (source.get(sourceOffset) == HEAP_OBJECT) {
+                addresses[index] = append(formerHeapObjects.get(source.getInt(sourceOffset + 1)));
+                continue;
+            }
+            int length = recordLength(source, sourceOffset);
+            int offset = reserve(length);
+            ByteBuffer target = chunks.get(chunks.size() - 1);
+            for (int byteIndex = 0; byteIndex < length; byteIndex++) {
+                target.put(offset + byteIndex, source.get(sourceOffset + byteIndex));
+            }
+            addresses[index] = ((long) (chunks.size() - 1) << CHUNK_SHIFT) | offset;
+        }
+        recycleChunks(formerChunks);
+    }
+
+    private void write(ByteBuffer chunk, int offset, Object value) {
+        if (value == null) {
+            chunk.put(offset, NULL);
+        } else if (value instanceof Long) {
+            chunk.put(offset, LONG).putLong(offset + 1, (Long) value);
+        } else if (value instanceof Double) {
+            chunk.put(offset, DOUBLE).putDouble(offset + 1, (Double) value);
+        } else if (value instanceof Boolean) {
+            chunk.put(offset, (Boolean) value ? TRUE : FALSE);
+        } else if (isEncodable(value)) {
+            String text = (String) value;
+            int length = text.length();
+            boolean latin1 = isLatin1(text);
+            chunk.put(offset, latin1 ? LATIN1_STRING : UTF16_STRING).putInt(offset + 1, length);
+            int start = offset + 5;
+            for (int index = 0; index < length; index++) {
+                if (latin1) {
+                    chunk.put(start + index, (byte) text.charAt(index));
+                } else {
+                    chunk.putChar(start + 2 * index, text.charAt(index));
+                }
+            }
+        } else {
+            if (heapObjects == null) {
+                heapObjects = new ArrayList<>();
+            }
+            chunk.put(offset, HEAP_OBJECT).putInt(offset + 1, heapObjects.size());
+            heapObjects.add(value);
+        }
+    }
+
+    /**
+     * @return the number of bytes of the record at the given offset.
+     */
+    private static int recordLength(ByteBuffer chunk, int offset) {
+        switch (chunk.get(offset)) {
+            case LONG:
+            case DOUBLE:
+                return 9;
+            case LATIN1_STRING:
+                return 5 + chunk.getInt(offset + 1);
+            case UTF16_STRING:
+                return 5 + 2 * chunk.getInt(offset + 1);
+            case HEAP_OBJECT:
+                return 5;
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * @return the number of bytes the given value takes in a chunk.
+     */
+    private static int encodedLength(Object value) {
+        if (value == null || value instanceof Boolean) {
+            return 1;
+        } else if (value instanceof Long || value instanceof Double) {
+            return 9;
+        } else if (isEncodable(value)) {
+            String text = (String) value;
+            return 5 + (isLatin1(text) ? text.length() : 2 * text.length());
+        } else {
+            return 5;
+        }
+    }
+
+    /**
+     * @return true if the given value is encoded into the chunks, i.e. if it is null, a Long, Double or Boolean
+     * value or a string fitting into a chunk.
+     */
+    private static boolean isEncodable(Object value) {
+        if (value instanceof String) {
+            return 5 + 2L * ((String) value).length() <= CHUNK_SIZE;
+        }
+        return value == null || value instanceof Long || value instanceof Double || value instanceof Boolean;
+    }
+
+    private static boolean isLatin1(String text) {
+        for (int index = 0; index < text.length(); index++) {
+            if (text.charAt(index) > 0xFF) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String readLatin1String(ByteBuffer chunk, int offset) {
+        char[] chars = new char[chunk.getInt(offset + 1)];
+        int start = offset + 5;
+        for (int index = 0; index < chars.length; index++) {
+            chars[index] = (char) (chunk.get(start + index) & 0xFF);
+        }
+        return new String(chars);
+    }
+
+    private static String readUtf16String(ByteBuffer chunk, int offset) {
+        char[] chars = new char[chunk.getInt(offset + 1)];
+        int start = offset + 5;
+        for (int index = 0; index < chars.length; index++) {
+            chars[index] = chunk.getChar(start + 2 * index);
+        }
+        return new String(chars);
+    }
+
+    private static void recycleChunks(List<ByteBuffer> chunks) {
+        for (ByteBuffer chunk : chunks) {
+            chunksInUse.decrementAndGet();
+            if (pooledChunkCount.incrementAndGet() <= MAX_POOLED_CHUNKS) {
+                freeChunks.offer(chunk);
+            } else {
+                pooledChunkCount.decrementAndGet();
+            }
+        }
+    }
+
+    private static ByteBuffer allocateChunk() {
+        chunksInUse.incrementAndGet();
+        ByteBuffer chunk = freeChunks.poll();
+        if (chunk != null) {
+            pooledChunkCount.decrementAndGet();
+            return chunk;
+        }
+        return ByteBuffer.allocateDirect(CHUNK_SIZE);
+    }
+
+}
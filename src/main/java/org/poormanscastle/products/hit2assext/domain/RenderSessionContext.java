@@ -1,7 +1,12 @@
 package org.poormanscastle.products.hit2assext.domain;
 
+import java.util.List;
+import java.util.Locale;
+
 import org.joda.time.DateTime;
 
+import com.google.common.base.Function;
+
 /**
  * A RenderSessionContext is available for the time interval during which a document template is rendered to a document.
  * To create instances of this type use the static factory methods in RenderSessionContexts.
@@ -13,10 +18,40 @@ import org.joda.time.DateTime;
  */
 public interface RenderSessionContext {
 
+    /**
+     * the name of the default cursor, i.e. the XML sequence.
+     */
+    String DEFAULT_CURSOR = "xmlSequence";
+
     DateTime getCreationDateTime();
 
+    /**
+     * @return the creation time of this render session in milliseconds since the epoch.
+     */
+    long getCreationTimeMillis();
+
     long getAgeInSeconds();
 
+    /**
+     * the call trace remembers the most recent extension function calls this render session received.
+     * It is dumped to the log on errors, on clean up and on demand.
+     *
+     * @return the call trace of this render session.
+     */
+    CallTrace getCallTrace();
+
+    /**
+     * signals that the render session is still in use. The render engine calls this method on each access
+     * to the render session, so it has to be cheap: it merely bumps a counter which the RenderSessionReaper
+     * inspects from time to time to find out if the render session has been idle since its last sweep.
+     */
+    void touch();
+
+    /**
+     * @return the number of times touch() has been called on this render session so far.
+     */
+    int getAccessCount();
+
     /**
      * the uuid identifies the given RenderSessionContext instance.
      *
@@ -24,6 +59,12 @@ public interface RenderSessionContext {
      */
     String getUuid();
 
+    /**
+     * @return the layout of the symbols this render session was created for, or null if it keeps all of its
+     * symbols in hash maps.
+     */
+    SymbolLayout getSymbolLayout();
+
     /**
      * create a new list which can be referenced using the given name.
      *
@@ -43,6 +84,40 @@ public interface RenderSessionContext {
      */
     void addListValue(String listName, Object value);
 
+    /**
+     * appends the given values at the end of the list identified by the given name, creating the list if
+     * necessary. Nodes are atomized. The storage of the list grows at most once.
+     *
+     * @param listName the name of the list to which the given values shall be appended
+     * @param values   the new values, e.g. a node sequence
+     * @return the length of the list after appending the values
+     * @throws IllegalArgumentException if one of the nodes cannot be atomized; the list remains unchanged.
+     */
+    int addListValues(String listName, List<?> values);
+
+    /**
+     * replaces the values of the list identified by the given name with the given values, creating the list if
+     * necessary. Nodes are atomized.
+     *
+     * @param listName the name of the list whose values shall be replaced
+     * @param values   the new values, e.g. a node sequence
+     * @return the length of the list
+     * @throws IllegalArgumentException if one of the nodes cannot be atomized; the list remains unchanged.
+     */
+    int setListValues(String listName, List<?> values);
+
+    /**
+     * replaces each value of the list identified by the given name with the result of the given conversion.
+     * The converted values are written into the new list one by one, without copying the list first.
+     *
+     * @param listName   the name of the list whose values shall be converted
+     * @param conversion the conversion applied to each value
+     * @return the length of the list
+     * @throws IllegalStateException if there is no list with the given name.
+     * @throws RuntimeException      thrown by the conversion; the list remains unchanged.
+     */
+    int convertListValues(String listName, Function<Object, ?> conversion);
+
     /**
      * sets the value of the given list at the given index to the given value.
      * Nota bene: before adding values to a list, the list must have been created
@@ -87,18 +162,132 @@ public interface RenderSessionContext {
      */
     Object getScalarVariableValue(String variableName);
 
-    int getXmlSequence();
+    /**
+     * reads a numeric scalar variable without boxing its value.
+     *
+     * @param variableName the name of the variable whose value shall be retrieved
+     * @return the value of the given variable, truncated to an int
+     * @throws IllegalStateException if there is no such variable or if it holds no Long or Double value.
+     */
+    int getScalarVariableIntValue(String variableName);
 
     /**
-     * Convenience method. Since the rendering XSL transformer will query the XmlSequence repeatedly and a lot,
-     * this method can be used to e.g. reduce the load of logging statements.
+     * adds the given delta to the value of the given scalar variable in place. If there is no such variable,
+     * it is created with the given delta as its value.
      *
-     * @return the lineNumber of the current XML line element.
+     * @param variableName the name of the variable which shall be incremented
+     * @param delta        the value to add, negative values decrement the variable
+     * @throws IllegalStateException if the variable holds no number.
      */
-    int getLastQueriedXmlSequence();
+    void incrementScalarVariable(String variableName, long delta);
 
+    /**
+     * @return the position of the default cursor, i.e. the lineNumber of the current XML line element.
+     */
+    int getXmlSequence();
+
+    /**
+     * advances the default cursor to the next line.
+     *
+     * @return the new position of the default cursor.
+     */
     int incrementXmlSequence();
 
+    /**
+     * @param cursorName the name of the cursor, null or DEFAULT_CURSOR for the default cursor. A cursor which
+     *                   has not been used before is at position 1.
+     * @return the position of the given cursor.
+     */
+    int getCursorPosition(String cursorName);
+
+    /**
+     * advances the given cursor to the next line.
+     *
+     * @return the new position of the cursor.
+     */
+    int advanceCursor(String cursorName);
+
+    /**
+     * moves the given cursor to the given line.
+     *
+     * @throws IllegalArgumentException if the position is less than 1.
+     */
+    void seekCursor(String cursorName, int position);
+
+    /**
+     * moves the given cursor back to the first line.
+     */
+    void resetCursor(String cursorName);
+
+    /**
+     * registers the index of the user data lines this render session reads sequentially using the XML sequence.
+     *
+     * @param userDataLineIndex the new index, replacing any index registered before.
+     */
+    void setUserDataLineIndex(UserDataLineIndex userDataLineIndex);
+
+    /**
+     * @return the index of the user data lines, or null if none has been registered.
+     */
+    UserDataLineIndex getUserDataLineIndex();
+
+    /**
+     * registers the business data file this render session reads sequentially using the XML sequence.
+     * A business data file registered before is closed.
+     *
+     * @param userDataFile the new business data file
+     */
+    void setUserDataFile(UserDataFile userDataFile);
+
+    /**
+     * @return the business data file of this render session, or null if none has been registered.
+     */
+    UserDataFile getUserDataFile();
+
+    /**
+     * releases the resources held by this render session which the garbage collector cannot release in time,
+     * like open files and the off-heap memory of large lists. Called when the render session is cleaned up or
+     * evicted.
+     */
+    void release();
+
+    /**
+     * charges the memory of this render session to the given account from now on, see MemoryBudget. The
+     * memory accounted so far is transferred to the new account, the former account is closed. release()
+     * closes the account.
+     *
+     * @throws IllegalStateException if the memory accounted so far exceeds the budget of the new account.
+     */
+    void setMemoryAccount(MemoryAccount memoryAccount);
+
+    /**
+     * @return the account the memory of this render session is charged to. Unless another account was set,
+     * this is an account of the unlimited MemoryBudget.
+     */
+    MemoryAccount getMemoryAccount();
+
+    /**
+     * @return the GlobalSymbols this render session sees, i.e. the ones which were current when it was created.
+     */
+    GlobalSymbols getGlobalSymbols();
+
+    /**
+     * publishes immutable copies of the lists and scalar variables of this render session as the GlobalSymbols
+     * of the JVM, replacing the current GlobalSymbols atomically. This render session and the render sessions
+     * already running keep seeing the former GlobalSymbols.
+     *
+     * @return the new GlobalSymbols
+     * @throws IllegalStateException if a scalar variable holds a node which cannot be atomized.
+     */
+    GlobalSymbols publishGlobalSymbols();
+
+    /**
+     * @return a copy of the lists and scalar variables of this render session, e.g. to write them to a file.
+     * Global symbols are included if this render session has accessed them.
+     * @throws IllegalStateException if a scalar variable holds a node which cannot be atomized.
+     */
+    SymbolSnapshot createSymbolSnapshot();
+
     /**
      * use this method to retrieve the length of the given list. The list must have been
      * registered with the context beforehand. If there is no such list, an error statement
@@ -110,6 +299,108 @@ public interface RenderSessionContext {
      */
     int getListLength(String listName);
 
+    /**
+     * finds the first occurrence of the given value in the given list. The first lookup builds an index of the list
+     * values, so further lookups take O(1). Numbers are found no matter if they are stored as Long or Double
+     * values, nodes are compared by their string value.
+     *
+     * @param listName the name of the list to search
+     * @param value    the value to find, a node or the first node of a node sequence is compared by its string value
+     * @return the zero based index of the value, or -1 if the list does not hold it or there is no such list.
+     */
+    int indexOfListValue(String listName, Object value);
+
+    /**
+     * @param listName the name of the list to search
+     * @param value    the value to count, see indexOfListValue()
+     * @return the number of times the given list holds the given value, or 0 if there is no such list.
+     */
+    int countListValue(String listName, Object value);
+
+    /**
+     * the aggregate functions read the given list in a single pass. Nodes and strings holding a number count as
+     * that number, null and blank values are skipped.
+     *
+     * @return the sum of the numbers in the given list, a Long value as long as all of them are whole numbers
+     * and a Double value otherwise.
+     * @throws IllegalStateException    if there is no such list.
+     * @throws IllegalArgumentException if the list holds a value which is no number.
+     */
+    Number sumListValues(String listName);
+
+    /**
+     * @return the smallest number in the given list, or null if it holds no numbers. See sumListValues().
+     */
+    Number minListValue(String listName);
+
+    /**
+     * @return the greatest number in the given list, or null if it holds no numbers. See sumListValues().
+     */
+    Number maxListValue(String listName);
+
+    /**
+     * @return the number of numbers in the given list, i.e. not counting null and blank values. See sumListValues().
+     */
+    int countListNumbers(String listName);
+
+    /**
+     * stores the values of the source list, ordered by the numbers they stand for, in the target list. Null and
+     * blank values are moved to the end, values with the same number keep their order.
+     *
+     * @param targetListName the list to store the sorted values in, replacing it if it exists. May be the source list.
+     * @return the length of the target list.
+     * @throws IllegalStateException    if there is no source list.
+     * @throws IllegalArgumentException if the source list holds a value which is no number.
+     */
+    int sortListByNumber(String sourceListName, String targetListName, boolean descending);
+
+    /**
+     * stores the values of the source list, ordered by their string values according to the collation rules of
+     * the given locale, in the target list. Values with the same string value keep their order.
+     *
+     * @return the length of the target list.
+     * @throws IllegalStateException if there is no source list.
+     */
+    int sortListByText(String sourceListName, String targetListName, Locale locale, boolean descending);
+
+    /**
+     * stores each value of the source list once, in the order of their first occurrence, in the target list.
+     * Values are compared like indexOfListValue() compares them.
+     *
+     * @return the length of the target list.
+     * @throws IllegalStateException if there is no source list.
+     */
+    int distinctListValues(String sourceListName, String targetListName);
+
+    /**
+     * use this method to retrieve the estimated number of bytes occupied by the values of the given list.
+     * Lists holding only Long or only Double values take 8 bytes per value, other lists take a reference
+     * per value plus the estimated size of the values themselves.
+     *
+     * @param listName the name of the list of interest
+     * @return the estimated memory footprint of the given list in bytes or -1 if no such list was registered
+     * with the RenderSessionContext beforehand.
+     */
+    long getListMemoryFootprint(String listName);
+
+    /**
+     * @return the number of lists registered with this render session.
+     */
+    int getListCount();
+
+    /**
+     * @return the total number of values held by the lists of this render session.
+     */
+    long getListValueCount();
+
+    /**
+     * estimates the memory occupied by the lists and scalar variables of this render session. The estimate is
+     * computed on demand by walking the symbol table, so this method is not meant for the render path.
+     *
+     * @return the estimated memory footprint of this render session in bytes.
+     */
+    long estimateMemoryFootprint();
+
     /**
      * appends the list items found in the list identified by sourceListName to the end
      * of the list identified by targetListName. Both lists must have been registered with
@@ -1,51 +1,143 @@
 package org.poormanscastle.products.hit2assext.domain;
 
 import static com.google.common.base.Preconditions.checkArgument;
-import static com.google.common.base.Preconditions.checkState;
 
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.text.Collator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
 import org.joda.time.DateTime;
-import org.joda.time.Duration;
+
+import net.sf.saxon.trans.XPathException;
+
+import com.google.common.base.Function;
 
 class RenderSessionContextImpl implements RenderSessionContext {
 
     private final static Logger logger = Logger.getLogger(RenderSessionContextImpl.class);
 
-    private final Map<String, List<Object>> listMap = new HashMap<>();
+    /**
+     * the number of calls remembered by the CallTrace of each render session. Can be configured using
+     * the Java system property hit2assext.trace.size, 0 disables the call trace.
+     */
+    private final static int CALL_TRACE_SIZE = Integer.getInteger("hit2assext.trace.size", 64);
+
+    /**
+     * the estimated size of a HashMap entry including its share of the table, in bytes.
+     */
+    private final static int MAP_ENTRY_SIZE = 40;
+
+    private final static AtomicIntegerFieldUpdater<RenderSessionContextImpl> accessCountUpdater =
+            AtomicIntegerFieldUpdater.newUpdater(RenderSessionContextImpl.class, "accessCount");
+
+    /**
+     * the layout this render session was created for, or null if its symbols are kept in hash maps only.
+     */
+    private SymbolLayout symbolLayout;
+
+    private SymbolTable<ListVariable> lists;
+
+    private SymbolTable<ScalarVariable> scalars;
+
+    /**
+     * the GlobalSymbols which were current when this render session was created. Global symbols are copied
+     * into the symbol tables of this render session when they are accessed for the first time: shared lists
+     * by reference until they are written to, scalar values into a ScalarVariable of this render session.
+     */
+    private GlobalSymbols globalSymbols;
+
+    /**
+     * the account the lists and scalar variables of this render session are charged to before they grow.
+     */
+    private MemoryAccount memoryAccount;
+
+    private final Cursors cursors = new Cursors();
+
+    /**
+     * only the render thread owning this session writes the access count, the RenderSessionReaper reads it.
+     * Thus, a lazySet suffices and spares the render thread the cost of a full memory fence.
+     */
+    private volatile int accessCount;
 
-    private final Map<String, Object> scalarMap = new HashMap<>();
+    private final CallTrace callTrace = new CallTrace(CALL_TRACE_SIZE);
 
-    private int xmlSequence = 1;
+    private UserDataLineIndex userDataLineIndex;
 
-    private int lastQueriedXmlSequence;
+    private UserDataFile userDataFile;
 
     /**
      * remember when this session item was created. If the clean up does not work for some reason
      * old sessions can be identified as obsolete by their age (e.g. older than 20s) and be
      * garbage collected.
      */
-    private final DateTime creationDateTime;
+    private long creationTimeMillis;
 
     /**
-     * an id, identifying the given session instance.
+     * an id, identifying the given session instance. A pooled context gets a new id each time it is reused.
      */
-    private final String uuid;
+    private volatile String uuid;
 
     RenderSessionContextImpl() {
-        creationDateTime = new DateTime();
-        uuid = UUID.randomUUID().toString();
+        this(null);
+    }
+
+    /**
+     * @param symbolLayout the layout of the symbols the template uses, or null if the layout is unknown.
+     */
+    RenderSessionContextImpl(SymbolLayout symbolLayout) {
+        reinitialize(RenderSessionIds.nextId(), symbolLayout);
+    }
+
+    /**
+     * prepares this context for a new render session.
+     *
+     * @param uuid         the id of the new render session
+     * @param symbolLayout the layout of the symbols the template uses, or null if the layout is unknown.
+     */
+    void reinitialize(String uuid, SymbolLayout symbolLayout) {
+        creationTimeMillis = System.currentTimeMillis();
+        accessCountUpdater.lazySet(this, 0);
+        globalSymbols = GlobalSymbols.getCurrent();
+        memoryAccount = MemoryBudget.UNLIMITED.openAccount();
+        if (lists == null || symbolLayout != this.symbolLayout) {
+            if (symbolLayout == null) {
+                lists = new SymbolTable<>();
+                scalars = new SymbolTable<>();
+            } else {
+                lists = new SymbolTable<>(symbolLayout.getListSlots());
+                scalars = new SymbolTable<>(symbolLayout.getScalarSlots());
+            }
+            this.symbolLayout = symbolLayout;
+        }
+        this.uuid = uuid;
+    }
+
+    /**
+     * drops all symbols and resources of the former render session, so a pooled context does not keep
+     * them alive. The symbol tables themselves are kept for reuse.
+     */
+    void clear() {
+        release();
+        lists.clear();
+        scalars.clear();
+        cursors.clear();
+        callTrace.reset();
     }
 
     @Override
     public DateTime getCreationDateTime() {
-        return creationDateTime;
+        return new DateTime(creationTimeMillis);
+    }
+
+    @Override
+    public long getCreationTimeMillis() {
+        return creationTimeMillis;
     }
 
     @Override
@@ -55,113 +147,563 @@ class RenderSessionContextImpl implements RenderSessionContext {
 
     @Override
     public long getAgeInSeconds() {
-        return new Duration(creationDateTime, new DateTime()).getStandardSeconds();
+        return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - creationTimeMillis);
+    }
+
+    @Override
+    public CallTrace getCallTrace() {
+        return callTrace;
+    }
+
+    @Override
+    public void touch() {
+        accessCountUpdater.lazySet(this, accessCount + 1);
+    }
+
+    @Override
+    public int getAccessCount() {
+        return accessCount;
     }
 
     @Override
     public void addListVariable(String name) {
-        listMap.put(name, new LinkedList<>());
+        replaceList(name, new ListVariable());
     }
 
     @Override
     public void addListValue(String listName, Object value) {
         // fun fact: if in HIT/CLOU a variable is accessed which has not been declared before,
         // it gets created at the time of first access.
-        if (listMap.get(listName) == null) {
-            addListVariable(listName);
+        ListVariable list = lookupWritableList(listName);
+        if (list == null) {
+            list = new ListVariable();
+            lists.put(listName, list);
+        }
+        memoryAccount.charge(ListStore.estimateSlotSize(value));
+        list.add(value);
+    }
+
+    @Override
+    public int addListValues(String listName, List<?> values) {
+        checkArgument(values != null, "values cannot be null.");
+        ListVariable list = lookupWritableList(listName);
+        if (list == null) {
+            list = new ListVariable();
+            list.ensureCapacity(values.size());
+            fill(list, values);
+            charge(list);
+            lists.put(listName, list);
+        } else {
+            // atomize first, so a failure leaves the list unchanged
+            ListVariable appended = new ListVariable();
+            appended.ensureCapacity(values.size());
+            fill(appended, values);
+            charge(appended);
+            list.addAll(appended);
+            appended.release();
+        }
+        return list.size();
+    }
+
+    @Override
+    public int setListValues(String listName, List<?> values) {
+        checkArgument(values != null, "values cannot be null.");
+        ListVariable list = new ListVariable();
+        list.ensureCapacity(values.size());
+        fill(list, values);
+        replaceList(listName, list);
+        return list.size();
+    }
+
+    @Override
+    public int convertListValues(String listName, Function<Object, ?> conversion) {
+        ListVariable list = lookupList(listName);
+        if (list == null) {
+            throw noSuchList(listName);
+        }
+        ListVariable converted = new ListVariable();
+        converted.ensureCapacity(list.size());
+        try {
+            for (int index = 0; index < list.size(); index++) {
+                converted.add(conversion.apply(list.get(index)));
+            }
+        } catch (RuntimeException exception) {
+            converted.release();
+            throw exception;
+        }
+        replaceList(listName, converted);
+        return converted.size();
+    }
+
+    private static void fill(ListVariable list, List<?> values) {
+        for (int index = 0; index < values.size(); index++) {
+            try {
+                list.add(SaxonValues.atomize(values.get(index)));
+            } catch (XPathException exception) {
+                list.release();
+                throw new IllegalArgumentException(StringUtils.join("Could not atomize value ", index + 1,
+                        " of ", values.size(), ": ", exception.getMessage()), exception);
+            }
         }
-        listMap.get(listName).add(value);
     }
 
     @Override
     public Object setListValueAt(String listName, Integer index, Object value) {
-        return listMap.get(listName).set(index, value);
+        ListVariable list = lookupWritableList(listName);
+        if (list == null) {
+            throw noSuchList(listName);
+        }
+        memoryAccount.charge(ListStore.estimateSlotSize(value) - ListStore.estimateSlotSize(list.get(index)));
+        return list.set(index, value);
     }
 
     @Override
     public Object getListValueAt(String listName, int index) {
-        checkArgument(!StringUtils.isBlank(listName), "listName is null, empty or consists of whitespace only.");
-        listName = listName.trim();
-        List<?> list = listMap.get(listName);
+        ListVariable list = lookupList(listName);
+        if (list == null) {
+            // the list name may be padded with whitespace, which is only checked for if the name is not found as is
+            checkArgument(!StringUtils.isBlank(listName), "listName is null, empty or consists of whitespace only.");
+            listName = listName.trim();
+            list = lookupList(listName);
+        }
         if (list == null) {
-            logger.error(StringUtils.join("The given listName ", listName, " has not been initialized. Please use method RenderSessionManager.createList(String renderSessionContextUuid, String listName) to create the list before referencing it."));
+            logError(StringUtils.join("The given listName ", listName, " has not been initialized. Please use method RenderSessionManager.createList(String renderSessionContextUuid, String listName) to create the list before referencing it."));
             return StringUtils.join("hitassext:ERROR: no list with name ", listName);
         } else if (index < 0 || index >= list.size()) {
-            logger.error(StringUtils.join("Index ", index, " invalid for list ", listName, ".size()=", list.size()));
+            logError(StringUtils.join("Index ", index, " invalid for list ", listName, ".size()=", list.size()));
             return StringUtils.join("hitassext:ERROR: IndexOutOfBounds");
         } else {
-            return listMap.get(listName).get(index);
+            return list.get(index);
         }
     }
 
     @Override
     public void addScalarVariable(String variableName) {
-        scalarMap.put(variableName, "");
+        setScalarVariableValue(variableName, "");
     }
 
     @Override
     public void setScalarVariableValue(String variableName, Object value) {
-        scalarMap.put(variableName, value);
+        ScalarVariable variable = scalars.get(variableName);
+        if (variable == null) {
+            memoryAccount.charge(ScalarVariable.estimateMemoryFootprint(value));
+            scalars.put(variableName, new ScalarVariable(value));
+        } else {
+            memoryAccount.charge(ScalarVariable.estimateMemoryFootprint(value) - variable.estimateMemoryFootprint());
+            variable.set(value);
+        }
     }
 
     @Override
     public Object getScalarVariableValue(String variableName) {
-        Object value = scalarMap.get(variableName);
+        ScalarVariable variable = lookupScalar(variableName);
+        Object value = null;
+        if (variable != null) {
+            try {
+                value = variable.get();
+            } catch (XPathException exception) {
+                logError(StringUtils.join("Could not transform saxon node type to saxon value type for variable ",
+                        variableName, ": ", exception.getMessage()));
+                value = variable.getNode();
+            }
+        }
         if (value == null) {
-            logger.error(StringUtils.join("No variable exists for variableName ", variableName));
+            logError(StringUtils.join("No variable exists for variableName ", variableName));
             return StringUtils.join("hitassext:ERROR: No variable exists for variableName ", variableName);
         } else {
             return value;
         }
     }
 
+    @Override
+    public int getScalarVariableIntValue(String variableName) {
+        ScalarVariable variable = lookupScalar(variableName);
+        if (variable == null) {
+            throw new IllegalStateException(StringUtils.join("No variable exists for variableName ", variableName));
+        }
+        return variable.getIntValue();
+    }
+
+    @Override
+    public void incrementScalarVariable(String variableName, long delta) {
+        ScalarVariable variable = lookupScalar(variableName);
+        if (variable == null) {
+            // like in HIT/CLOU, a variable accessed before it was declared gets created at the time of first access
+            memoryAccount.charge(ScalarVariable.INSTANCE_SIZE);
+            scalars.put(variableName, new ScalarVariable(delta));
+            return;
+        }
+        try {
+            variable.increment(delta);
+        } catch (XPathException exception) {
+            throw new IllegalStateException(StringUtils.join("Could not transform saxon node type to saxon value ",
+                    "type for variable ", variableName, ": ", exception.getMessage()), exception);
+        }
+    }
+
     @Override
     public void appendList(String sourceListName, String targetListName) {
         checkArgument(!StringUtils.isBlank(sourceListName), "sourceListName cannot be empty or null!");
         checkArgument(!StringUtils.isBlank(targetListName), "targetListName cannot be empty or null!");
-        List sourceList = listMap.get(sourceListName);
-        List targetList = listMap.get(targetListName);
+        ListVariable sourceList = lookupList(sourceListName);
+        ListVariable targetList = lookupWritableList(targetListName);
         if (sourceList == null) {
             logger.warn(StringUtils.join("No source list for name ", sourceListName,
                     " can be found! No elements will be added to ", targetListName, "."));
             return;
         }
-        checkState(targetList != null, StringUtils.join("No target list for name ", targetListName, " can be found!"));
-        for (Object item : sourceList) {
-            targetList.add(item);
+        if (targetList == null) {
+            throw new IllegalStateException(
+                    StringUtils.join("No target list for name ", targetListName, " can be found!"));
+        }
+        memoryAccount.charge(sourceList.getAccountedBytes());
+        targetList.addAll(sourceList);
+    }
+
+    @Override
+    public int getXmlSequence() {
+        return cursors.get(null);
+    }
+
+    @Override
+    public int incrementXmlSequence() {
+        return cursors.advance(null);
+    }
+
+    @Override
+    public int getCursorPosition(String cursorName) {
+        return cursors.get(cursorName);
+    }
+
+    @Override
+    public int advanceCursor(String cursorName) {
+        return cursors.advance(cursorName);
+    }
+
+    @Override
+    public void seekCursor(String cursorName, int position) {
+        cursors.seek(cursorName, position);
+    }
+
+    @Override
+    public void resetCursor(String cursorName) {
+        cursors.reset(cursorName);
+    }
+
+    @Override
+    public void setUserDataLineIndex(UserDataLineIndex userDataLineIndex) {
+        this.userDataLineIndex = userDataLineIndex;
+    }
+
+    @Override
+    public UserDataLineIndex getUserDataLineIndex() {
+        return userDataLineIndex;
+    }
+
+    @Override
+    public void setUserDataFile(UserDataFile userDataFile) {
+        if (this.userDataFile != null && this.userDataFile != userDataFile) {
+            this.userDataFile.close();
+        }
+        this.userDataFile = userDataFile;
+    }
+
+    @Override
+    public UserDataFile getUserDataFile() {
+        return userDataFile;
+    }
+
+    @Override
+    public void release() {
+        setUserDataFile(null);
+        userDataLineIndex = null;
+        for (ListVariable list : lists.toMap().values()) {
+            list.release();
         }
+        memoryAccount.close();
+    }
+
+    @Override
+    public void setMemoryAccount(MemoryAccount memoryAccount) {
+        checkArgument(memoryAccount != null, "memoryAccount cannot be null.");
+        memoryAccount.charge(this.memoryAccount.getUsedBytes());
+        this.memoryAccount.close();
+        this.memoryAccount = memoryAccount;
+    }
+
+    @Override
+    public MemoryAccount getMemoryAccount() {
+        return memoryAccount;
+    }
+
+    @Override
+    public GlobalSymbols getGlobalSymbols() {
+        return globalSymbols;
     }
 
     @Override
-    synchronized public int getXmlSequence() {
-        return lastQueriedXmlSequence = xmlSequence;
+    public GlobalSymbols publishGlobalSymbols() {
+        return createSymbolSnapshot().publish();
     }
 
     @Override
-    public int getLastQueriedXmlSequence() {
-        return lastQueriedXmlSequence;
+    public SymbolSnapshot createSymbolSnapshot() {
+        Map<String, ListVariable> listCopies = new LinkedHashMap<>();
+        for (Map.Entry<String, ListVariable> entry : lists.toMap().entrySet()) {
+            ListVariable list = entry.getValue();
+            listCopies.put(entry.getKey(), list.isShared() ? list : list.sharedCopy());
+        }
+        Map<String, Object> scalarValues = new LinkedHashMap<>();
+        for (Map.Entry<String, ScalarVariable> entry : scalars.toMap().entrySet()) {
+            try {
+                scalarValues.put(entry.getKey(), entry.getValue().get());
+            } catch (XPathException exception) {
+                throw new IllegalStateException(StringUtils.join("Could not transform saxon node type to saxon ",
+                        "value type for variable ", entry.getKey(), ": ", exception.getMessage()), exception);
+            }
+        }
+        return new SymbolSnapshot(listCopies, scalarValues);
+    }
+
+    /**
+     * @return the list of this render session with the given name, or else the global list with this name,
+     * or null if there is neither.
+     */
+    private ListVariable lookupList(String listName) {
+        ListVariable list = lists.get(listName);
+        if (list == null && listName != null) {
+            list = globalSymbols.getList(listName);
+            if (list != null) {
+                // from now on, the shared list is found as fast as a list of this render session
+                lists.put(listName, list);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * @return like lookupList(), but a shared list is replaced with a copy owned by this render session first.
+     */
+    private ListVariable lookupWritableList(String listName) {
+        ListVariable list = lookupList(listName);
+        if (list != null && list.isShared()) {
+            memoryAccount.charge(list.getAccountedBytes());
+            list = list.copy();
+            lists.put(listName, list);
+        }
+        return list;
+    }
+
+    /**
+     * @return the scalar variable of this render session with the given name. If there is none, the value of
+     * the global scalar variable with this name is copied into a new variable of this render session.
+     */
+    private ScalarVariable lookupScalar(String variableName) {
+        ScalarVariable variable = scalars.get(variableName);
+        if (variable == null && variableName != null) {
+            Object value = globalSymbols.getScalarValue(variableName);
+            if (value != null) {
+                memoryAccount.charge(ScalarVariable.estimateMemoryFootprint(value));
+                variable = new ScalarVariable(value);
+                scalars.put(variableName, variable);
+            }
+        }
+        return variable;
+    }
+
+    /**
+     * charges the values of the given new list to the memory account of this render session, releasing the
+     * list if they exceed the budget.
+     */
+    private void charge(ListVariable list) {
+        try {
+            memoryAccount.charge(list.getAccountedBytes());
+        } catch (IllegalStateException exception) {
+            list.release();
+            throw exception;
+        }
+    }
+
+    /**
+     * registers the given new list under the given name, releasing the list it replaces. Only the difference
+     * between the two lists is charged, so replacing a list by a list of the same size always succeeds.
+     */
+    private void replaceList(String listName, ListVariable list) {
+        ListVariable replaced = lists.get(listName);
+        long replacedBytes = replaced == null || replaced.isShared() ? 0 : replaced.getAccountedBytes();
+        try {
+            memoryAccount.charge(list.getAccountedBytes() - replacedBytes);
+        } catch (IllegalStateException exception) {
+            list.release();
+            throw exception;
+        }
+        replaced = lists.put(listName, list);
+        if (replaced != null) {
+            replaced.release();
+        }
     }
 
     @Override
-    synchronized public int incrementXmlSequence() {
-        return ++xmlSequence;
+    public SymbolLayout getSymbolLayout() {
+        return symbolLayout;
     }
 
     @Override
     public int getListLength(String listName) {
-        List<?> list = listMap.get(listName);
+        ListVariable list = lookupList(listName);
         if (list == null) {
-            logger.error(StringUtils.join("Cannot retrieve length for list ", listName, ", no such list was found."));
+            logError(StringUtils.join("Cannot retrieve length for list ", listName, ", no such list was found."));
             return -1;
         } else {
             return list.size();
         }
     }
 
+    @Override
+    public int indexOfListValue(String listName, Object value) {
+        ListVariable list = lookupList(listName);
+        if (list == null) {
+            logError(StringUtils.join("Cannot search list ", listName, ", no such list was found."));
+            return -1;
+        }
+        return list.indexOf(firstItem(value));
+    }
+
+    @Override
+    public int countListValue(String listName, Object value) {
+        ListVariable list = lookupList(listName);
+        if (list == null) {
+            logError(StringUtils.join("Cannot search list ", listName, ", no such list was found."));
+            return 0;
+        }
+        return list.count(firstItem(value));
+    }
+
+    @Override
+    public Number sumListValues(String listName) {
+        return requireList(listName).aggregate().getSum();
+    }
+
+    @Override
+    public Number minListValue(String listName) {
+        return requireList(listName).aggregate().getMin();
+    }
+
+    @Override
+    public Number maxListValue(String listName) {
+        return requireList(listName).aggregate().getMax();
+    }
+
+    @Override
+    public int countListNumbers(String listName) {
+        return requireList(listName).aggregate().getCount();
+    }
+
+    @Override
+    public int sortListByNumber(String sourceListName, String targetListName, boolean descending) {
+        ListVariable sorted = requireList(sourceListName).sortByNumber(descending);
+        replaceList(targetListName, sorted);
+        return sorted.size();
+    }
+
+    @Override
+    public int sortListByText(String sourceListName, String targetListName, Locale locale, boolean descending) {
+        checkArgument(locale != null, "locale cannot be null.");
+        ListVariable sorted = requireList(sourceListName).sortByText(Collator.getInstance(locale), descending);
+        replaceList(targetListName, sorted);
+        return sorted.size();
+    }
+
+    @Override
+    public int distinctListValues(String sourceListName, String targetListName) {
+        ListVariable distinct = requireList(sourceListName).distinct();
+        replaceList(targetListName, distinct);
+        return distinct.size();
+    }
+
+    private ListVariable requireList(String listName) {
+        ListVariable list = lookupList(listName);
+        if (list == null) {
+            throw noSuchList(listName);
+        }
+        return list;
+    }
+
+    /**
+     * @return the exception for a missing list. The message is built on failure only, as list reads and writes
+     * are called for every line.
+     */
+    private static IllegalStateException noSuchList(String listName) {
+        return new IllegalStateException(StringUtils.join("No list with name ", listName, " can be found!"));
+    }
+
+    /**
+     * @return the first item of a sequence Saxon hands over as java.util.List, e.g. the result of an XPath
+     * expression selecting a node, or the given value if it is no sequence.
+     */
+    private static Object firstItem(Object value) {
+        if (value instanceof List) {
+            List<?> sequence = (List<?>) value;
+            return sequence.isEmpty() ? null : sequence.get(0);
+        }
+        return value;
+    }
+
+    @Override
+    public long getListMemoryFootprint(String listName) {
+        ListVariable list = lookupList(listName);
+        if (list == null) {
+            logError(StringUtils.join("Cannot estimate memory footprint for list ", listName, ", no such list was found."));
+            return -1;
+        } else {
+            return list.estimateMemoryFootprint();
+        }
+    }
+
+    @Override
+    public int getListCount() {
+        return lists.size();
+    }
+
+    @Override
+    public long getListValueCount() {
+        long count = 0;
+        for (ListVariable list : lists.toMap().values()) {
+            count += list.size();
+        }
+        return count;
+    }
+
+    @Override
+    public long estimateMemoryFootprint() {
+        long footprint = 0;
+        for (Map.Entry<String, ListVariable> entry : lists.toMap().entrySet()) {
+            if (entry.getValue().isShared()) {
+                // shared lists are accounted for by the GlobalSymbols
+                footprint += MAP_ENTRY_SIZE;
+                continue;
+            }
+            footprint += MAP_ENTRY_SIZE + ListStore.estimateValueSize(entry.getKey())
+                    + entry.getValue().estimateMemoryFootprint();
+        }
+        for (Map.Entry<String, ScalarVariable> entry : scalars.toMap().entrySet()) {
+            footprint += MAP_ENTRY_SIZE + ListStore.estimateValueSize(entry.getKey())
+                    + entry.getValue().estimateMemoryFootprint();
+        }
+        return footprint;
+    }
+
+    /**
+     * logs the given error message together with the recent calls this render session received.
+     */
+    private void logError(String message) {
+        logger.error(StringUtils.join(message, " RenderSessionContext uuid ", uuid, ", ", callTrace.dump()));
+    }
+
     @Override
     public String toString() {
         return "RenderSessionContextImpl{" +
-                "creationDateTime=" + creationDateTime +
+                "creationDateTime=" + getCreationDateTime() +
                 ", uuid='" + uuid + '\'' +
                 '}';
     }
@@ -0,0 +1,95 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A RenderSessionContextPool recycles the RenderSessionContext instances of render sessions which have been
+ * cleaned up, so render engines rendering many small documents do not allocate and collect a render session
+ * with all of its tables for each document. The pool is bounded, contexts recycled while the pool is full
+ * are left to the garbage collector. Neither acquiring nor recycling a context ever blocks.
+ * <p></p>
+ * A recycled context is cleared right away, so it holds no values of the former render session while it is
+ * pooled. When it is acquired again, it gets a new id. Any reference to the former id, e.g. in a template
+ * still running after its render session was cleaned up, thus no longer resolves to the context.
+ */
+public final class RenderSessionContextPool {
+
+    private final int capacity;
+
+    private final Queue<RenderSessionContextImpl> contexts = new ConcurrentLinkedQueue<>();
+
+    /**
+     * the number of contexts in the pool. ConcurrentLinkedQueue.size() traverses the queue.
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final AtomicLong reuseCount = new AtomicLong();
+
+    /**
+     * @param capacity the maximum number of contexts kept in the pool. 0 disables pooling.
+     */
+    public RenderSessionContextPool(int capacity) {
+        checkArgument(capacity >= 0, "capacity cannot be negative.");
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param symbolLayout the layout of the symbols the template uses, or null if the layout is unknown.
+     * @return a pooled context with a new id, or a new context if the pool is empty.
+     */
+    public RenderSessionContext acquire(SymbolLayout symbolLayout) {
+        RenderSessionContextImpl context = contexts.poll();
+        if (context == null) {
+            return new RenderSessionContextImpl(symbolLayout);
+        }
+        size.decrementAndGet();
+        reuseCount.incrementAndGet();
+        context.reinitialize(RenderSessionIds.nextId(), symbolLayout);
+        return context;
+    }
+
+    /**
+     * clears the given context and keeps it for reuse, unless the pool is full. The context must no longer
+     * be registered with the RenderSessionRegistry.
+     *
+     * @param context a context acquired from this pool or created by RenderSessionContexts
+     * @return true if the context was pooled.
+     */
+    public boolean recycle(RenderSessionContext context) {
+        if (!(context instanceof RenderSessionContextImpl)) {
+            return false;
+        }
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            return false;
+        }
+        RenderSessionContextImpl impl = (RenderSessionContextImpl) context;
+        impl.clear();
+        contexts.offer(impl);
+        return true;
+    }
+
+    /**
+     * @return the number of contexts currently pooled.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of contexts acquired from the pool instead of being created.
+     */
+    public long getReuseCount() {
+        return reuseCount.get();
+    }
+
+}
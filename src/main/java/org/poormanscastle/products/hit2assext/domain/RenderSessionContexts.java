@@ -16,4 +16,12 @@ public final class RenderSessionContexts {
         return new RenderSessionContextImpl();
     }
 
+    /**
+     * @param symbolLayout the layout of the symbols the template uses
+     * @return a new RenderSessionContext keeping the symbols of the given layout in flat arrays.
+     */
+    public static RenderSessionContext createRenderSessionContext(SymbolLayout symbolLayout) {
+        return new RenderSessionContextImpl(symbolLayout);
+    }
+
 }
@@ -0,0 +1,51 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import java.security.SecureRandom;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates the ids of render sessions. UUID.randomUUID() draws from a SecureRandom instance shared by
+ * all threads of the JVM, whose lock render threads creating many small documents contend for.
+ * The ids generated here consist of a random part drawn once per JVM and a counter. Each thread reserves
+ * a block of counter values at a time with a single atomic operation and hands them out without any
+ * synchronization, so no two ids generated within a JVM are ever the same and no thread ever blocks.
+ * The random part keeps ids generated by different JVMs apart. The ids have the textual form of a UUID.
+ */
+public final class RenderSessionIds {
+
+    private final static int BLOCK_SIZE = 1024;
+
+    /**
+     * the most significant bits of all ids generated by this JVM.
+     */
+    private final static long JVM_BITS = new SecureRandom().nextLong();
+
+    private final static AtomicLong nextBlock = new AtomicLong();
+
+    /**
+     * the next counter value and the end of the block of counter values reserved by the current thread.
+     */
+    private final static ThreadLocal<long[]> threadBlock = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[2];
+        }
+    };
+
+    private RenderSessionIds() {
+    }
+
+    /**
+     * @return a new render session id, unique within this JVM.
+     */
+    public static String nextId() {
+        long[] block = threadBlock.get();
+        if (block[0] == block[1]) {
+            block[0] = nextBlock.getAndIncrement() * BLOCK_SIZE;
+            block[1] = block[0] + BLOCK_SIZE;
+        }
+        return new UUID(JVM_BITS, block[0]++).toString();
+    }
+
+}
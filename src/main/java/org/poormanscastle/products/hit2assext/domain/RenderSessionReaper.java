@@ -0,0 +1,205 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * The RenderSessionReaper evicts abandoned render sessions from a RenderSessionRegistry.
+ * If a render fails before the Dynamic Content element calling cleanUpRenderSessionContext() is reached, the
+ * render session would stay in the registry for the life time of the JVM. The reaper sweeps the registry
+ * periodically in its own daemon thread and evicts render sessions which are older than the configured
+ * maximum age or which have not been touched for longer than the configured maximum idle time.
+ * <p></p>
+ * The sweep iterates a weakly consistent view of the registry and thus takes no lock the render threads
+ * would have to wait for. Idle times are derived by comparing a render session's access count to the value
+ * seen in the previous sweep, so render threads never have to query the system clock on behalf of the reaper.
+ */
+public final class RenderSessionReaper {
+
+    private final static Logger logger = Logger.getLogger(RenderSessionReaper.class);
+
+    private final RenderSessionRegistry registry;
+
+    /**
+     * render sessions older than this will be evicted. 0 disables the age check.
+     */
+    private final long maxAgeMillis;
+
+    /**
+     * render sessions which have not been accessed for this long will be evicted. 0 disables the idle check.
+     */
+    private final long maxIdleMillis;
+
+    /**
+     * what the reaper saw in its last sweep: for each render session the access count and the time when
+     * the access count was last seen to change. Only the sweeping thread uses this map. It is keyed by uuid,
+     * as the RenderSessionContextPool reuses context instances for new render sessions.
+     */
+    private Map<String, long[]> lastSeen = new HashMap<>();
+
+    private final EvictionHandler evictionHandler;
+
+    private final AtomicLong evictedSessionCount = new AtomicLong();
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * tears down the render sessions the reaper evicts. The RenderSessionManager ends them the same way
+     * cleanUpRenderSessionContext() does.
+     */
+    public interface EvictionHandler {
+
+        /**
+         * called once the evicted render session has been removed from the registry.
+         */
+        void onEvicted(RenderSessionContext context);
+
+    }
+
+    /**
+     * releases the resources of the evicted render session, and does nothing else.
+     */
+    private final static EvictionHandler RELEASE = new EvictionHandler() {
+        @Override
+        public void onEvicted(RenderSessionContext context) {
+            context.release();
+        }
+    };
+
+    public RenderSessionReaper(RenderSessionRegistry registry, long maxAgeMillis, long maxIdleMillis) {
+        this(registry, maxAgeMillis, maxIdleMillis, RELEASE);
+    }
+
+    public RenderSessionReaper(RenderSessionRegistry registry, long maxAgeMillis, long maxIdleMillis,
+                               EvictionHandler evictionHandler) {
+        checkNotNull(registry, "registry cannot be null.");
+        checkArgument(maxAgeMillis >= 0, "maxAgeMillis cannot be negative.");
+        checkArgument(maxIdleMillis >= 0, "maxIdleMillis cannot be negative.");
+        checkNotNull(evictionHandler, "evictionHandler cannot be null.");
+        this.registry = registry;
+        this.maxAgeMillis = maxAgeMillis;
+        this.maxIdleMillis = maxIdleMillis;
+        this.evictionHandler = evictionHandler;
+    }
+
+    /**
+     * starts sweeping the registry in the given interval in a background daemon thread.
+     *
+     * @param intervalMillis the time between the end of one sweep and the start of the next one.
+     */
+    public synchronized void start(long intervalMillis) {
+        checkArgument(intervalMillis > 0, "intervalMillis must be a positive number.");
+        checkState(executor == null, "The RenderSessionReaper has already been started.");
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "hit2assext-RenderSessionReaper");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sweep(System.currentTimeMillis());
+                } catch (RuntimeException exception) {
+                    // an exception would cancel all further sweeps
+                    logger.error("RenderSessionReaper sweep failed.", exception);
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        if (logger.isInfoEnabled()) {
+            logger.info(StringUtils.join("Started RenderSessionReaper with maxAgeMillis=", maxAgeMillis,
+                    ", maxIdleMillis=", maxIdleMillis, ", intervalMillis=", intervalMillis));
+        }
+    }
+
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * evicts all render sessions that exceed the configured maximum age or idle time at the given point in time.
+     * This method is public so the reaper can be triggered on demand and tested without waiting for the clock.
+     *
+     * @param nowMillis the current time in milliseconds since the epoch
+     * @return the number of render sessions evicted by this sweep
+     */
+    public synchronized int sweep(long nowMillis) {
+        Map<String, long[]> seen = new HashMap<>(Math.max(16, registry.size() * 2));
+        int evicted = 0;
+        for (RenderSessionContext context : registry.getRenderSessionContexts()) {
+            String uuid = context.getUuid();
+            long accessCount = context.getAccessCount();
+            long[] previous = lastSeen.get(uuid);
+            long lastActiveMillis = previous == null || previous[0] != accessCount ? nowMillis : previous[1];
+            long ageMillis = nowMillis - context.getCreationTimeMillis();
+            long idleMillis = nowMillis - lastActiveMillis;
+            if (maxAgeMillis > 0 && ageMillis > maxAgeMillis) {
+                evicted += evict(context, StringUtils.join("its age of ", ageMillis, "ms exceeds the maximum of ",
+                        maxAgeMillis, "ms"));
+            } else if (maxIdleMillis > 0 && idleMillis > maxIdleMillis) {
+                evicted += evict(context, StringUtils.join("it has been idle for ", idleMillis,
+                        "ms, exceeding the maximum of ", maxIdleMillis, "ms"));
+            } else {
+                seen.put(uuid, new long[]{accessCount, lastActiveMillis});
+            }
+        }
+        lastSeen = seen;
+        return evicted;
+    }
+
+    private int evict(RenderSessionContext context, String reason) {
+        if (!registry.remove(context)) {
+            // cleaned up regularly in the meantime
+            return 0;
+        }
+        long total = evictedSessionCount.incrementAndGet();
+        logger.warn(StringUtils.join("RenderSessionReaper evicted RenderSessionContext with uuid ", context.getUuid(),
+                " because ", reason, ". Was cleanUpRenderSessionContext() not called? Total evictions: ", total));
+        if (logger.isDebugEnabled()) {
+            logger.debug(StringUtils.join("Evicted RenderSessionContext with uuid ", context.getUuid(), ": ",
+                    context.getCallTrace().dump()));
+        }
+        // the handler may recycle the context, so the uuid and the call trace are logged beforehand
+        try {
+            evictionHandler.onEvicted(context);
+        } catch (RuntimeException exception) {
+            logger.error(StringUtils.join("Could not tear down the evicted RenderSessionContext with uuid ",
+                    context.getUuid()), exception);
+        }
+        return 1;
+    }
+
+    /**
+     * @return the number of render sessions evicted by this reaper since it was created.
+     */
+    public long getEvictedSessionCount() {
+        return evictedSessionCount.get();
+    }
+
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    public long getMaxIdleMillis() {
+        return maxIdleMillis;
+    }
+
+}
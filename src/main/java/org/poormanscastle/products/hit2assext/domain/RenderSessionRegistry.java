@@ -0,0 +1,318 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Collections2;
+
+/**
+ * The RenderSessionRegistry keeps track of all RenderSessionContext instances that are alive within
+ * the render engine. DocBase renders documents in many threads concurrently, and all of those threads
+ * share the one static RenderSessionManager. Thus, the registry must be safe for concurrent use.
+ * <p></p>
+ * The registry is backed by a ConcurrentHashMap: lookups never take a lock and therefore scale with the
+ * number of cores, while registration and removal of render sessions only lock one of many stripes of the
+ * map. Creating or cleaning up a render session in one thread never blocks the lookups of other threads.
+ * <p></p>
+ * Besides its uuid, each render session gets a compact handle like "@17:3" which denotes a slot in an
+ * indexed slot table and the generation of that slot. Resolving a handle takes an array access instead
+ * of hashing a 36 character uuid. The generation makes sure a stale handle never resolves to a render
+ * session which reused the slot later on. On top of that, each thread remembers the render session it
+ * resolved last, since a render thread works on exactly one render session at a time.
+ */
+public final class RenderSessionRegistry {
+
+    /**
+     * the number of lock stripes used for writes. Render threads are usually in the range of dozens, so
+     * a multiple of the number of cores leaves plenty of room to avoid write contention.
+     */
+    private final static int CONCURRENCY_LEVEL = Math.max(16, Runtime.getRuntime().availableProcessors() * 4);
+
+    private final static int DEFAULT_SLOT_COUNT = 4096;
+
+    /**
+     * the first character of each handle. It never occurs in a uuid.
+     */
+    private final static char HANDLE_PREFIX = '@';
+
+    private final static char HANDLE_SEPARATOR = ':';
+
+    private final ConcurrentMap<String, Registration> registrations =
+            new ConcurrentHashMap<>(64, 0.75f, CONCURRENCY_LEVEL);
+
+    private final AtomicReferenceArray<Registration> slots;
+
+    private final AtomicIntegerArray slotGenerations;
+
+    /**
+     * slots are handed out in ascending order first, and freed slots are reused afterwards.
+     */
+    private final AtomicInteger nextUnusedSlot = new AtomicInteger();
+
+    private final Queue<Integer> freeSlots = new ConcurrentLinkedQueue<>();
+
+    /**
+     * a render thread works on exactly one render session at a time, thus remembering the last render session
+     * resolved by a thread saves most lookups.
+     */
+    private final ThreadLocal<Registration[]> lastResolved = new ThreadLocal<Registration[]>() {
+        @Override
+        protected Registration[] initialValue() {
+            return new Registration[1];
+        }
+    };
+
+    public RenderSessionRegistry() {
+        this(DEFAULT_SLOT_COUNT);
+    }
+
+    /**
+     * @param slotCount the number of render sessions which can have a compact handle at the same time.
+     *                  Render sessions registered while all slots are taken can only be referenced by their uuid.
+     */
+    public RenderSessionRegistry(int slotCount) {
+        checkArgument(slotCount >= 0, "slotCount cannot be negative.");
+        slots = new AtomicReferenceArray<>(slotCount);
+        slotGenerations = new AtomicIntegerArray(slotCount);
+    }
+
+    /**
+     * registers the given RenderSessionContext under its uuid and assigns it a compact handle.
+     *
+     * @param context the new render session context.
+     * @return the compact handle of the given render session, or its uuid if all slots are taken.
+     * @throws IllegalStateException if another RenderSessionContext was registered for the same uuid.
+     */
+    public String register(RenderSessionContext context) {
+        checkNotNull(context, "context cannot be null.");
+        int slot = allocateSlot();
+        Registration registration = slot < 0 ? new Registration(context, -1, null)
+                : new Registration(context, slot, StringUtils.join(HANDLE_PREFIX, slot, HANDLE_SEPARATOR,
+                slotGenerations.incrementAndGet(slot)));
+        Registration previous = registrations.putIfAbsent(context.getUuid(), registration);
+        if (previous != null) {
+            freeSlot(registration);
+        }
+        checkState(previous == null, StringUtils.join("A RenderSessionContext with uuid ", context.getUuid(),
+                " has already been registered."));
+        if (slot >= 0) {
+            slots.set(slot, registration);
+        }
+        return registration.getId();
+    }
+
+    /**
+     * looks up the RenderSessionContext registered for the given uuid or handle. This method never blocks.
+     *
+     * @param id the uuid or the compact handle of the render session of interest
+     * @return the RenderSessionContext for the given id or null if no such session is registered.
+     */
+    public RenderSessionContext lookup(String id) {
+        Registration registration = resolve(id);
+        return registration == null ? null : registration.context;
+    }
+
+    /**
+     * looks up the compact handle of the render session registered for the given uuid or handle.
+     *
+     * @param id the uuid or the compact handle of the render session of interest
+     * @return the compact handle, or the uuid if the render session got no handle, or null if no such
+     * session is registered.
+     */
+    public String lookupHandle(String id) {
+        Registration registration = resolve(id);
+        return registration == null ? null : registration.getId();
+    }
+
+    /**
+     * removes the RenderSessionContext for the given uuid or handle from the registry.
+     *
+     * @param id the uuid or the compact handle of the render session which shall be discarded
+     * @return the removed RenderSessionContext or null if no such session was registered.
+     */
+    public RenderSessionContext remove(String id) {
+        Registration registration = resolve(id);
+        if (registration == null || !unregister(registration)) {
+            return null;
+        }
+        return registration.context;
+    }
+
+    /**
+     * removes the given RenderSessionContext if and only if it is still registered under its uuid.
+     *
+     * @param context the render session which shall be discarded
+     * @return true if the given context was removed by this call.
+     */
+    public boolean remove(RenderSessionContext context) {
+        checkNotNull(context, "context cannot be null.");
+        Registration registration = registrations.get(context.getUuid());
+        return registration != null && registration.context == context && unregister(registration);
+    }
+
+    /**
+     * @return the number of render sessions currently registered.
+     */
+    public int size() {
+        return registrations.size();
+    }
+
+    /**
+     * the returned view is weakly consistent: it can be iterated while other threads create or clean up
+     * render sessions, and it never throws a ConcurrentModificationException.
+     *
+     * @return an unmodifiable view of all render sessions currently registered.
+     */
+    public Collection<RenderSessionContext> getRenderSessionContexts() {
+        return Collections.unmodifiableCollection(Collections2.transform(registrations.values(),
+                new Function<Registration, RenderSessionContext>() {
+                    @Override
+                    public RenderSessionContext apply(Registration registration) {
+                        return registration.context;
+                    }
+                }));
+    }
+
+    private Registration resolve(String id) {
+        checkArgument(id != null, "id cannot be null.");
+        Registration[] cache = lastResolved.get();
+        Registration registration = cache[0];
+        if (registration != null && !registration.removed && registration.isIdentifiedBy(id)) {
+            return registration;
+        }
+        registration = isHandle(id) ? resolveHandle(id) : registrations.get(id);
+        // replacing the cached registration also releases a render session removed in the meantime
+        cache[0] = registration;
+        return registration;
+    }
+
+    private Registration resolveHandle(String handle) {
+        int separator = handle.indexOf(HANDLE_SEPARATOR);
+        if (separator < 0) {
+            return null;
+        }
+        int slot = parsePositiveInt(handle, 1, separator);
+        int generation = parsePositiveInt(handle, separator + 1, handle.length());
+        if (slot < 0 || generation < 0 || slot >= slots.length()) {
+            return null;
+        }
+        Registration registration = slots.get(slot);
+        return registration != null && registration.generation == generation && !registration.removed
+                ? registration : null;
+    }
+
+    private boolean unregister(Registration registration) {
+        if (!registrations.remove(registration.uuid, registration)) {
+            return false;
+        }
+        registration.removed = true;
+        freeSlot(registration);
+        Registration[] cache = lastResolved.get();
+        if (cache[0] == registration) {
+            cache[0] = null;
+        }
+        return true;
+    }
+
+    private int allocateSlot() {
+        Integer freeSlot = freeSlots.poll();
+        if (freeSlot != null) {
+            return freeSlot;
+        }
+        while (true) {
+            int slot = nextUnusedSlot.get();
+            if (slot >= slots.length()) {
+                return -1;
+            }
+            if (nextUnusedSlot.compareAndSet(slot, slot + 1)) {
+                return slot;
+            }
+        }
+    }
+
+    private void freeSlot(Registration registration) {
+        if (registration.slot >= 0) {
+            slots.compareAndSet(registration.slot, registration, null);
+            freeSlots.offer(registration.slot);
+        }
+    }
+
+    private static boolean isHandle(String id) {
+        return !id.isEmpty() && id.charAt(0) == HANDLE_PREFIX;
+    }
+
+    /**
+     * parses the decimal number between the given positions without creating any objects.
+     *
+     * @return the parsed number or -1 if the given range contains anything but digits.
+     */
+    private static int parsePositiveInt(String text, int start, int end) {
+        if (start >= end || end - start > 9) {
+            return -1;
+        }
+        int result = 0;
+        for (int position = start; position < end; position++) {
+            char digit = text.charAt(position);
+            if (digit < '0' || digit > '9') {
+                return -1;
+            }
+            result = result * 10 + (digit - '0');
+        }
+        return result;
+    }
+
+    private final static class Registration {
+
+        private final RenderSessionContext context;
+
+        /**
+         * the uuid the context had when it was registered. A pooled context gets a new uuid when it is reused,
+         * so a registration never resolves to a render session registered later on.
+         */
+        private final String uuid;
+
+        private final int slot;
+
+        private final int generation;
+
+        /**
+         * null if the render session got no slot.
+         */
+        private final String handle;
+
+        private volatile boolean removed;
+
+        private Registration(RenderSessionContext context, int slot, String handle) {
+            this.context = context;
+            this.uuid = context.getUuid();
+            this.slot = slot;
+            this.handle = handle;
+            this.generation = handle == null ? -1 : parsePositiveInt(handle, handle.indexOf(HANDLE_SEPARATOR) + 1,
+                    handle.length());
+        }
+
+        private String getId() {
+            return handle == null ? uuid : handle;
+        }
+
+        private boolean isIdentifiedBy(String id) {
+            return id.equals(handle) || id.equals(uuid);
+        }
+
+    }
+
+}
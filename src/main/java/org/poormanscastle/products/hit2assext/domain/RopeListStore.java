@@ -0,0 +1,200 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import java.util.Arrays;
+
+/**
+ * A ListStore made of segments, which are the stores of other lists. Appending a list to another list thus shares
+ * the values of the appended list instead of copying them, see ListVariable.addAll(). Translated HIT/CLOU
+ * templates concatenating lists section by section would otherwise copy the same values over and over again.
+ * <p></p>
+ * A shared segment is never changed. Writing to a value of a shared segment first replaces the segment with
+ * a copy owned by this store, appending adds the value to a segment owned by this store. Indexed reads find
+ * their segment by binary search over the segment starts. The segment of the most recent read is remembered,
+ * so reading the values in order, like a FOR loop does, takes O(1).
+ */
+final class RopeListStore extends ListStore {
+
+    private final static int DEFAULT_CAPACITY = 10;
+
+    private ListStore[] segments = new ListStore[4];
+
+    /**
+     * the index of the first value of each segment.
+     */
+    private int[] starts = new int[4];
+
+    /**
+     * true for the segments which belong to this store only and may be changed.
+     */
+    private boolean[] owned = new boolean[4];
+
+    private int segmentCount;
+
+    private int size;
+
+    /**
+     * the segment of the most recent read. Shared lists may be read by several threads, which is fine since
+     * the segment is verified before it is used.
+     */
+    private int lastSegment;
+
+    /**
+     * creates a new store holding the values of the given store, which is shared and not changed by this store.
+     */
+    RopeListStore(ListStore store) {
+        append(store);
+    }
+
+    /**
+     * creates a new store holding the values of the given store, which belongs to the new store from now on.
+     */
+    RopeListStore(ListStore store, boolean owned) {
+        if (owned && !(store instanceof RopeListStore)) {
+            addSegment(store, true);
+        } else {
+            append(store);
+        }
+    }
+
+    /**
+     * appends the values of the given store, which is shared and not changed by this store.
+     */
+    void append(ListStore store) {
+        if (store instanceof RopeListStore) {
+            // keep the segments flat, so reads take O(log number of segments)
+            RopeListStore rope = (RopeListStore) store;
+            for (int index = 0; index < rope.segmentCount; index++) {
+                addSegment(rope.segments[index], false);
+            }
+        } else {
+            addSegment(store, false);
+        }
+    }
+
+    private void addSegment(ListStore segment, boolean segmentOwned) {
+        if (segment.size() == 0 && !segmentOwned) {
+            return;
+        }
+        if (segmentCount == segments.length) {
+            int capacity = grow(segments.length, segmentCount + 1);
+            segments = Arrays.copyOf(segments, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            owned = Arrays.copyOf(owned, capacity);
+        }
+        segments[segmentCount] = segment;
+        starts[segmentCount] = size;
+        owned[segmentCount] = segmentOwned;
+        segmentCount++;
+        size += segment.size();
+    }
+
+    /**
+     * @return the number of segments, for testing.
+     */
+    int getSegmentCount() {
+        return segmentCount;
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+
+    @Override
+    boolean accepts(Object value) {
+        return true;
+    }
+
+    @Override
+    Object get(int index) {
+        checkIndex(index);
+        int segment = lastSegment;
+        if (segment >= segmentCount || index < starts[segment]
+                || index - starts[segment] >= segments[segment].size()) {
+            segment = findSegment(index);
+            lastSegment = segment;
+        }
+        return segments[segment].get(index - starts[segment]);
+    }
+
+    @Override
+    Object set(int index, Object value) {
+        checkIndex(index);
+        int segment = findSegment(index);
+        if (!owned[segment] || !segments[segment].accepts(value)) {
+            segments[segment] = copyOf(segments[segment], value);
+            owned[segment] = true;
+        }
+        return segments[segment].set(index - starts[segment], value);
+    }
+
+    @Override
+    void add(Object value) {
+        int last = segmentCount - 1;
+        if (last < 0 || !owned[last]) {
+            addSegment(createStoreFor(value), true);
+            last = segmentCount - 1;
+        } else if (!segments[last].accepts(value)) {
+            segments[last] = new ObjectArrayListStore(segments[last], segments[last].size() + 1);
+        }
+        segments[last].add(value);
+        size++;
+    }
+
+    @Override
+    void ensureCapacity(int capacity) {
+        // the segment taking the appended values grows on its own
+    }
+
+    @Override
+    long estimateMemoryFootprint() {
+        long footprint = 3 * ARRAY_HEADER_SIZE + (REFERENCE_SIZE + 5L) * segments.length;
+        for (int index = 0; index < segmentCount; index++) {
+            footprint += segments[index].estimateMemoryFootprint();
+        }
+        return footprint;
+    }
+
+    /**
+     * @return the index of the segment holding the value with the given index.
+     */
+    private int findSegment(int index) {
+        int low = 0;
+        int high = segmentCount - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (starts[middle] <= index) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private static ListStore createStoreFor(Object value) {
+        if (value instanceof Long) {
+            return new LongArrayListStore(DEFAULT_CAPACITY);
+        } else if (value instanceof Double) {
+            return new DoubleArrayListStore(DEFAULT_CAPACITY);
+        } else {
+            return new ObjectArrayListStore(DEFAULT_CAPACITY);
+        }
+    }
+
+    /**
+     * @return a copy of the given segment which accepts the given value.
+     */
+    private static ListStore copyOf(ListStore segment, Object value) {
+        if (!segment.accepts(value) || segment instanceof ObjectArrayListStore) {
+            return new ObjectArrayListStore(segment, segment.size());
+        }
+        ListStore copy = createStoreFor(value);
+        copy.ensureCapacity(segment.size());
+        for (int index = 0; index < segment.size(); index++) {
+            copy.add(segment.get(index));
+        }
+        return copy;
+    }
+
+}
@@ -0,0 +1,37 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import java.util.List;
+
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.trans.XPathException;
+
+/**
+ * Converts the values Saxon passes to the extension functions into the values hit2assext stores.
+ * XPath expressions like /UserData/payload/line[@lineNr = 4] yield nodes, or node sequences which
+ * Saxon hands over as java.util.List instances. hit2assext lists store the typed value of a node instead
+ * of the node itself, so the tree the node belongs to is not kept alive by the render session. Scalar
+ * variables atomize their node lazily, see ScalarVariable.
+ */
+public final class SaxonValues {
+
+    private SaxonValues() {
+    }
+
+    /**
+     * atomizes the given node, or the first node of the given node sequence. All other values are
+     * returned as they are.
+     *
+     * @param value a value passed to an extension function
+     * @return the value to store
+     * @throws XPathException if Saxon cannot atomize the node
+     */
+    public static Object atomize(Object value) throws XPathException {
+        if (value instanceof NodeInfo) {
+            return ((NodeInfo) value).atomize();
+        } else if (value instanceof List && !((List) value).isEmpty() && ((List) value).get(0) instanceof NodeInfo) {
+            return ((NodeInfo) ((List) value).get(0)).atomize();
+        }
+        return value;
+    }
+
+}
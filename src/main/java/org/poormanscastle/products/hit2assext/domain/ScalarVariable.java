@@ -0,0 +1,177 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import org.apache.commons.lang3.StringUtils;
+
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.value.Value;
+
+/**
+ * A ScalarVariable is the storage behind a hit2assext scalar variable. Translated HIT/CLOU templates
+ * update counters like zähler or listind in tight loops, so Long, Double and Boolean values are kept
+ * in primitive fields and the variable is updated in place instead of replacing a box in a map.
+ * <p></p>
+ * Nodes are atomized lazily: a variable is often overwritten in the next loop iteration before anybody
+ * reads it, so the node is kept until the value is read for the first time, and the atomized value
+ * is remembered from then on.
+ * <p></p>
+ * get() always returns a value of the same type as the value that was stored, or the atomized value
+ * of the node that was stored.
+ */
+final class ScalarVariable {
+
+    private final static byte OBJECT = 0;
+
+    private final static byte LONG = 1;
+
+    private final static byte DOUBLE = 2;
+
+    private final static byte BOOLEAN = 3;
+
+    private final static byte NODE = 4;
+
+    /**
+     * the estimated size of a ScalarVariable instance, in bytes.
+     */
+    final static int INSTANCE_SIZE = 40;
+
+    private byte type = OBJECT;
+
+    private long longValue;
+
+    private double doubleValue;
+
+    /**
+     * the value if the type is OBJECT, the node if the type is NODE.
+     */
+    private Object value;
+
+    ScalarVariable(Object value) {
+        set(value);
+    }
+
+    void set(Object value) {
+        if (value instanceof Long) {
+            setLong((Long) value);
+        } else if (value instanceof Double) {
+            setDouble((Double) value);
+        } else if (value instanceof Boolean) {
+            type = BOOLEAN;
+            longValue = (Boolean) value ? 1 : 0;
+            this.value = null;
+        } else {
+            type = value instanceof NodeInfo ? NODE : OBJECT;
+            this.value = value;
+        }
+    }
+
+    void setLong(long value) {
+        type = LONG;
+        longValue = value;
+        this.value = null;
+    }
+
+    void setDouble(double value) {
+        type = DOUBLE;
+        doubleValue = value;
+        this.value = null;
+    }
+
+    /**
+     * @return the value of this variable. A node stored in this variable is atomized now.
+     * @throws XPathException if the node stored in this variable cannot be atomized. The node is kept as
+     *                        the value of this variable in that case.
+     */
+    Object get() throws XPathException {
+        switch (type) {
+            case LONG:
+                return longValue;
+            case DOUBLE:
+                return doubleValue;
+            case BOOLEAN:
+                return longValue != 0;
+            case NODE:
+                NodeInfo node = (NodeInfo) value;
+                type = OBJECT;
+                value = node.atomize();
+                return value;
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * @return the node stored in this variable, if it could not be atomized.
+     */
+    Object getNode() {
+        return value instanceof NodeInfo ? value : null;
+    }
+
+    /**
+     * @return the value of this variable as int, which must be a Long or a Double value.
+     * @throws IllegalStateException if this variable holds no Long or Double value.
+     */
+    int getIntValue() {
+        if (type == LONG) {
+            return (int) longValue;
+        } else if (type == DOUBLE) {
+            return (int) doubleValue;
+        }
+        throw new IllegalStateException(StringUtils.join("The value should be Long or Double, but it was ",
+                value == null ? "null" : value.getClass().getName()));
+    }
+
+    /**
+     * adds the given delta to the value of this variable in place. Long and Double values keep their type.
+     * Variables holding an empty or an integer string, like variables created by createScalarVariable() or
+     * atomized from a node, become Long values.
+     *
+     * @throws XPathException        if the node stored in this variable cannot be atomized
+     * @throws IllegalStateException if this variable holds no number.
+     */
+    void increment(long delta) throws XPathException {
+        if (type == DOUBLE) {
+            doubleValue += delta;
+            return;
+        } else if (type != LONG) {
+            setLong(parseLong(get()));
+        }
+        longValue += delta;
+    }
+
+    private static long parseLong(Object value) throws XPathException {
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+        String text = value instanceof Value ? ((Value) value).getStringValue()
+                : value instanceof String ? (String) value : null;
+        if (text != null && StringUtils.isBlank(text)) {
+            return 0;
+        }
+        try {
+            if (text != null) {
+                return Long.parseLong(text.trim());
+            }
+        } catch (NumberFormatException exception) {
+            // reported below
+        }
+        throw new IllegalStateException(StringUtils.join("The value ", value, " of type ",
+                value == null ? "null" : value.getClass().getName(), " is no integer and cannot be incremented."));
+    }
+
+    /**
+     * @return the estimated number of bytes occupied by this variable and its value.
+     */
+    long estimateMemoryFootprint() {
+        return INSTANCE_SIZE + (type == OBJECT || type == NODE ? ListStore.estimateValueSize(value) : 0);
+    }
+
+    /**
+     * @return the estimated number of bytes a variable holding the given value would occupy.
+     */
+    static long estimateMemoryFootprint(Object value) {
+        boolean unboxed = value instanceof Long || value instanceof Double || value instanceof Boolean;
+        return INSTANCE_SIZE + (unboxed ? 0 : ListStore.estimateValueSize(value));
+    }
+
+}
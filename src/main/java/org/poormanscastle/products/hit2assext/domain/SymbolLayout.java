@@ -0,0 +1,95 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A SymbolLayout assigns fixed slot numbers to the list and scalar variable names a template uses.
+ * hit2ass generates the templates, so it knows all those names when it translates a HIT/CLOU template.
+ * Render sessions created for a layout keep their symbols in flat arrays indexed by slot instead of
+ * hash maps. A layout is immutable and is shared by all render sessions created for it, so it is
+ * registered once per JVM and template.
+ */
+public final class SymbolLayout {
+
+    private final String name;
+
+    private final List<String> listNames;
+
+    private final List<String> scalarNames;
+
+    private final Map<String, Integer> listSlots;
+
+    private final Map<String, Integer> scalarSlots;
+
+    /**
+     * @param name        the name of the layout, usually the name of the template
+     * @param listNames   the names of the lists the template uses. Duplicates are ignored.
+     * @param scalarNames the names of the scalar variables the template uses. Duplicates are ignored.
+     */
+    public SymbolLayout(String name, Collection<String> listNames, Collection<String> scalarNames) {
+        checkArgument(!StringUtils.isBlank(name), "name cannot be blank.");
+        checkArgument(listNames != null && scalarNames != null, "listNames and scalarNames cannot be null.");
+        this.name = name;
+        this.listNames = distinct(listNames);
+        this.scalarNames = distinct(scalarNames);
+        listSlots = indexSlots(this.listNames);
+        scalarSlots = indexSlots(this.scalarNames);
+    }
+
+    private static List<String> distinct(Collection<String> names) {
+        ImmutableList.Builder<String> builder = ImmutableList.builder();
+        Map<String, Boolean> seen = new HashMap<>();
+        for (String symbolName : names) {
+            checkArgument(!StringUtils.isBlank(symbolName), "symbol names cannot be blank.");
+            if (seen.put(symbolName, Boolean.TRUE) == null) {
+                builder.add(symbolName);
+            }
+        }
+        return builder.build();
+    }
+
+    private static Map<String, Integer> indexSlots(List<String> names) {
+        Map<String, Integer> slots = new HashMap<>(Math.max(16, names.size() * 2));
+        for (int slot = 0; slot < names.size(); slot++) {
+            slots.put(names.get(slot), slot);
+        }
+        return Collections.unmodifiableMap(slots);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<String> getListNames() {
+        return listNames;
+    }
+
+    public List<String> getScalarNames() {
+        return scalarNames;
+    }
+
+    Map<String, Integer> getListSlots() {
+        return listSlots;
+    }
+
+    Map<String, Integer> getScalarSlots() {
+        return scalarSlots;
+    }
+
+    @Override
+    public String toString() {
+        return StringUtils.join("SymbolLayout{name='", name, "', lists=", listNames.size(), ", scalars=",
+                scalarNames.size(), "}");
+    }
+
+}
@@ -0,0 +1,324 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.commons.lang3.StringUtils;
+
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.value.BooleanValue;
+import net.sf.saxon.value.DoubleValue;
+import net.sf.saxon.value.FloatValue;
+import net.sf.saxon.value.IntegerValue;
+import net.sf.saxon.value.Value;
+
+/**
+ * A SymbolSnapshot is a copy of the lists and scalar variables of a render session or of the GlobalSymbols,
+ * which can be written to a compact binary file and loaded from it again. Reference tables can thus be loaded
+ * at engine startup by decoding the file in a single pass instead of rebuilding them via XPath and extension calls.
+ * A snapshot of a render session also helps to reproduce a slow render offline.
+ * <p></p>
+ * The file format, all numbers big endian:
+ * <pre>
+ * int     magic number 0x48324153, i.e. "H2AS"
+ * short   format version, currently 1
+ * int     number of lists, followed by the lists: name, int number of values, values
+ * int     number of scalar variables, followed by the scalar variables: name, value
+ * int     CRC32 checksum of all preceding bytes
+ * </pre>
+ * Names and strings are stored as int length followed by the UTF-8 bytes. Values are stored as a type byte
+ * followed by the value: nothing for null, true and false, 8 bytes for Long and Double values, a string
+ * for String values. Integer, Short and Byte values as well as Saxon integers are stored as Long values, Float
+ * values and Saxon doubles and floats as Double values, Saxon booleans as Boolean values. Values of other types,
+ * e.g. Saxon decimals or strings, are stored as their string value and loaded as String values.
+ */
+public final class SymbolSnapshot {
+
+    final static int MAGIC_NUMBER = 0x48324153;
+
+    final static short FORMAT_VERSION = 1;
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final static byte NULL = 0;
+
+    private final static byte LONG = 1;
+
+    private final static byte DOUBLE = 2;
+
+    private final static byte TRUE = 3;
+
+    private final static byte FALSE = 4;
+
+    private final static byte STRING = 5;
+
+    private final Map<String, ListVariable> lists;
+
+    private final Map<String, Object> scalars;
+
+    /**
+     * @param lists   the lists of the snapshot, which must be shared lists, see ListVariable.sharedCopy()
+     * @param scalars the values of the scalar variables
+     */
+    SymbolSnapshot(Map<String, ListVariable> lists, Map<String, Object> scalars) {
+        this.lists = lists;
+        this.scalars = scalars;
+    }
+
+    public int getListCount() {
+        return lists.size();
+    }
+
+    public int getScalarCount() {
+        return scalars.size();
+    }
+
+    Map<String, ListVariable> getLists() {
+        return Collections.unmodifiableMap(lists);
+    }
+
+    Map<String, Object> getScalars() {
+        return Collections.unmodifiableMap(scalars);
+    }
+
+    /**
+     * publishes the symbols of this snapshot as the GlobalSymbols.
+     *
+     * @return the new GlobalSymbols
+     */
+    public GlobalSymbols publish() {
+        return GlobalSymbols.publish(lists, scalars);
+    }
+
+    /**
+     * copies the symbols of this snapshot into the given render session, replacing symbols of the same names.
+     */
+    public void loadInto(RenderSessionContext context) {
+        for (Map.Entry<String, ListVariable> entry : lists.entrySet()) {
+            ListVariable list = entry.getValue();
+            List<Object> values = new ArrayList<>(list.size());
+            for (int index = 0; index < list.size(); index++) {
+                values.add(list.get(index));
+            }
+            context.setListValues(entry.getKey(), values);
+        }
+        for (Map.Entry<String, Object> entry : scalars.entrySet()) {
+            context.setScalarVariableValue(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * writes this snapshot to the given file. The snapshot is written to a temporary file first, which then
+     * replaces the given file, so a concurrent reader never sees a partially written snapshot.
+     *
+     * @return the size of the file in bytes
+     * @throws IllegalArgumentException if the file cannot be written.
+     */
+    public long writeTo(String fileName) {
+        checkArgument(!StringUtils.isBlank(fileName), "fileName cannot be blank.");
+        File file = new File(fileName).getAbsoluteFile();
+        File temporaryFile = new File(file.getParentFile(), StringUtils.join(file.getName(), ".",
+                RenderSessionIds.nextId(), ".tmp"));
+        try {
+            try (FileOutputStream fileStream = new FileOutputStream(temporaryFile)) {
+                CheckedOutputStream checkedStream = new CheckedOutputStream(
+                        new BufferedOutputStream(fileStream, 1 << 16), new CRC32());
+                DataOutputStream output = new DataOutputStream(checkedStream);
+                output.writeInt(MAGIC_NUMBER);
+                output.writeShort(FORMAT_VERSION);
+                output.writeInt(lists.size());
+                for (Map.Entry<String, ListVariable> entry : lists.entrySet()) {
+                    writeString(output, entry.getKey());
+                    ListVariable list = entry.getValue();
+                    output.writeInt(list.size());
+                    for (int index = 0; index < list.size(); index++) {
+                        writeValue(output, list.get(index));
+                    }
+                }
+                output.writeInt(scalars.size());
+                for (Map.Entry<String, Object> entry : scalars.entrySet()) {
+                    writeString(output, entry.getKey());
+                    writeValue(output, entry.getValue());
+                }
+                output.flush();
+                output.writeInt((int) checkedStream.getChecksum().getValue());
+                output.flush();
+                fileStream.getFD().sync();
+            }
+            Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            return file.length();
+        } catch (IOException exception) {
+            temporaryFile.delete();
+            throw new IllegalArgumentException(StringUtils.join("Could not write symbol snapshot ", fileName, ": ",
+                    exception.getMessage()), exception);
+        }
+    }
+
+    /**
+     * loads the snapshot from the given file. All values are decoded right away, the file is not accessed
+     * afterwards.
+     *
+     * @throws IllegalArgumentException if the file cannot be read or is no valid snapshot of a supported version.
+     */
+    public static SymbolSnapshot readFrom(String fileName) {
+        checkArgument(!StringUtils.isBlank(fileName), "fileName cannot be blank.");
+        File file = new File(fileName);
+        checkArgument(file.length() <= Integer.MAX_VALUE, StringUtils.join("The symbol snapshot ", fileName,
+                " exceeds the maximum size of ", Integer.MAX_VALUE, " bytes."));
+        ByteBuffer buffer;
+        try {
+            buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        } catch (IOException exception) {
+            throw new IllegalArgumentException(StringUtils.join("Could not read symbol snapshot ", fileName, ": ",
+                    exception.getMessage()), exception);
+        }
+        try {
+            return read(buffer, fileName);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException exception) {
+            throw new IllegalArgumentException(StringUtils.join("The symbol snapshot ", fileName,
+                    " is truncated or corrupt."), exception);
+        }
+    }
+
+    private static SymbolSnapshot read(ByteBuffer buffer, String fileName) {
+        checkArgument(buffer.limit() >= 14 && buffer.getInt(0) == MAGIC_NUMBER, StringUtils.join("The file ",
+                fileName, " is no hit2assext symbol snapshot."));
+        short formatVersion = buffer.getShort(4);
+        checkArgument(formatVersion == FORMAT_VERSION, StringUtils.join("The symbol snapshot ", fileName,
+                " has format version ", formatVersion, ", but only version ", FORMAT_VERSION, " is supported."));
+        int checksumOffset = buffer.limit() - 4;
+        CRC32 checksum = new CRC32();
+        checksum.update(buffer.array(), 0, checksumOffset);
+        checkArgument((int) checksum.getValue() == buffer.getInt(checksumOffset), StringUtils.join(
+                "The checksum of the symbol snapshot ", fileName, " does not match, the file is corrupt."));
+        buffer.position(6);
+        int listCount = buffer.getInt();
+        Map<String, ListVariable> lists = new LinkedHashMap<>();
+        for (int listIndex = 0; listIndex < listCount; listIndex++) {
+            String name = readString(buffer);
+            int size = buffer.getInt();
+            ListVariable list = new ListVariable(0);
+            list.ensureCapacity(size);
+            for (int index = 0; index < size; index++) {
+                list.add(readValue(buffer));
+            }
+            lists.put(name, list.share());
+        }
+        int scalarCount = buffer.getInt();
+        Map<String, Object> scalars = new LinkedHashMap<>();
+        for (int scalarIndex = 0; scalarIndex < scalarCount; scalarIndex++) {
+            String name = readString(buffer);
+            scalars.put(name, readValue(buffer));
+        }
+        checkArgument(buffer.position() == checksumOffset, StringUtils.join("The symbol snapshot ", fileName,
+                " has unexpected bytes after its symbols."));
+        return new SymbolSnapshot(lists, scalars);
+    }
+
+    private static void writeValue(DataOutputStream output, Object value) throws IOException {
+        value = toSnapshotType(value);
+        if (value == null) {
+            output.writeByte(NULL);
+        } else if (value instanceof Long) {
+            output.writeByte(LONG);
+            output.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            output.writeByte(DOUBLE);
+            output.writeDouble((Double) value);
+        } else if (value instanceof Boolean) {
+            output.writeByte((Boolean) value ? TRUE : FALSE);
+        } else {
+            output.writeByte(STRING);
+            writeString(output, getStringValue(value));
+        }
+    }
+
+    /**
+     * @return the given value as Long, Double or Boolean if it is a number or boolean the snapshot can store
+     * without loss, e.g. an Integer or an atomized xs:integer, otherwise the value itself.
+     */
+    private static Object toSnapshotType(Object value) {
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        } else if (value instanceof Float) {
+            return ((Float) value).doubleValue();
+        } else if (value instanceof IntegerValue) {
+            return ((IntegerValue) value).longValue();
+        } else if (value instanceof DoubleValue) {
+            return ((DoubleValue) value).getDoubleValue();
+        } else if (value instanceof FloatValue) {
+            return ((FloatValue) value).getDoubleValue();
+        } else if (value instanceof BooleanValue) {
+            return ((BooleanValue) value).getBooleanValue();
+        }
+        return value;
+    }
+
+    private static String getStringValue(Object value) throws IOException {
+        if (value instanceof Value) {
+            try {
+                return ((Value) value).getStringValue();
+            } catch (XPathException exception) {
+                throw new IOException(StringUtils.join("Could not read the string value of ", value, ": ",
+                        exception.getMessage()), exception);
+            }
+        }
+        return value.toString();
+    }
+
+    private static void writeString(DataOutputStream output, String text) throws IOException {
+        byte[] bytes = text.getBytes(UTF8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static Object readValue(ByteBuffer buffer) {
+        byte type = buffer.get();
+        switch (type) {
+            case NULL:
+                return null;
+            case LONG:
+                return buffer.getLong();
+            case DOUBLE:
+                return buffer.getDouble();
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case STRING:
+                return readString(buffer);
+            default:
+                throw new IllegalArgumentException(StringUtils.join("Unknown value type ", type, " at offset ",
+                        buffer.position() - 1, " of the symbol snapshot."));
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IndexOutOfBoundsException(StringUtils.join("Invalid string length ", length));
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+}
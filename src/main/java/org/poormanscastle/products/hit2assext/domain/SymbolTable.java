@@ -0,0 +1,130 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A SymbolTable maps the names of the symbols of one kind, i.e. lists or scalar variables, of a render session
+ * to their values. Names known to the SymbolLayout of the render session are resolved to a slot of a flat array,
+ * all other names, e.g. names generated at render time, are kept in a hash map which is created on demand.
+ * Since render threads access the same symbol over and over again, e.g. within loops, the table remembers the
+ * name it resolved last and its slot.
+ */
+final class SymbolTable<V> {
+
+    private final static Map<String, Integer> NO_SLOTS = Collections.emptyMap();
+
+    private final Map<String, Integer> slots;
+
+    private final Object[] values;
+
+    /**
+     * the symbols not covered by the layout. null until the first such symbol is stored.
+     */
+    private Map<String, V> dynamicValues;
+
+    private String lastResolvedName;
+
+    private int lastResolvedSlot;
+
+    /**
+     * creates a table keeping all symbols in a hash map.
+     */
+    SymbolTable() {
+        this(NO_SLOTS);
+    }
+
+    /**
+     * @param slots the slot of each name known in advance, as defined by a SymbolLayout
+     */
+    SymbolTable(Map<String, Integer> slots) {
+        this.slots = slots;
+        values = new Object[slots.size()];
+    }
+
+    /**
+     * @return the value of the given symbol or null if there is no such symbol.
+     */
+    @SuppressWarnings("unchecked")
+    V get(String name) {
+        int slot = resolve(name);
+        if (slot >= 0) {
+            return (V) values[slot];
+        }
+        return dynamicValues == null ? null : dynamicValues.get(name);
+    }
+
+    /**
+     * @return the former value of the given symbol, or null if there was none.
+     */
+    @SuppressWarnings("unchecked")
+    V put(String name, V value) {
+        int slot = resolve(name);
+        if (slot >= 0) {
+            V formerValue = (V) values[slot];
+            values[slot] = value;
+            return formerValue;
+        }
+        if (dynamicValues == null) {
+            dynamicValues = new HashMap<>();
+        }
+        return dynamicValues.put(name, value);
+    }
+
+    /**
+     * removes all symbols, keeping the slots for reuse.
+     */
+    void clear() {
+        Arrays.fill(values, null);
+        dynamicValues = null;
+        lastResolvedName = null;
+    }
+
+    /**
+     * @return the number of symbols which have a value.
+     */
+    int size() {
+        int size = dynamicValues == null ? 0 : dynamicValues.size();
+        for (Object value : values) {
+            if (value != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return a snapshot of all symbols which have a value. Meant for monitoring, not for rendering.
+     */
+    @SuppressWarnings("unchecked")
+    Map<String, V> toMap() {
+        Map<String, V> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : slots.entrySet()) {
+            Object value = values[entry.getValue()];
+            if (value != null) {
+                result.put(entry.getKey(), (V) value);
+            }
+        }
+        if (dynamicValues != null) {
+            result.putAll(dynamicValues);
+        }
+        return result;
+    }
+
+    /**
+     * @return the slot of the given name, or -1 if the name is not covered by the layout.
+     */
+    private int resolve(String name) {
+        if (name != null && name == lastResolvedName) {
+            return lastResolvedSlot;
+        }
+        Integer slot = slots.isEmpty() ? null : slots.get(name);
+        lastResolvedName = name;
+        lastResolvedSlot = slot == null ? -1 : slot;
+        return lastResolvedSlot;
+    }
+
+}
@@ -0,0 +1,247 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * A UserDataFile reads a HIT/CLOU business data file line by line directly, instead of converting it
+ * to /UserData/payload/line XML and letting Saxon build a tree model of it. The file is memory mapped,
+ * so the operating system pages it in on demand and the data does not count against the Java heap.
+ * The start offsets of the lines are indexed lazily, i.e. only as far as lines have been requested,
+ * and a line is decoded to a String only when it is returned.
+ * <p></p>
+ * Lines are separated by LF or CR LF. A byte order mark at the start of a UTF-8 file is skipped.
+ * The encoding must represent LF and CR as the single bytes 0x0A and 0x0D, like ISO-8859-1, windows-1252,
+ * the DOS code pages IBM437 and IBM850 and UTF-8 do. Undecodable bytes are replaced, not rejected.
+ * <p></p>
+ * Like the RenderSessionContext it belongs to, a UserDataFile is used by one render thread at a time.
+ */
+public final class UserDataFile implements Closeable {
+
+    private final static byte LF = '\n';
+
+    private final static byte CR = '\r';
+
+    private final static byte[] UTF8_BYTE_ORDER_MARK = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+
+    private final static int INITIAL_INDEX_CAPACITY = 1024;
+
+    private final String fileName;
+
+    private final Charset charset;
+
+    private final CharsetDecoder decoder;
+
+    private final RandomAccessFile file;
+
+    private final MappedByteBuffer buffer;
+
+    /**
+     * lineStarts[n - 1] is the offset of line n. Once the end of the file has been scanned,
+     * lineStarts[lineCount] holds the size of the file.
+     */
+    private int[] lineStarts = new int[INITIAL_INDEX_CAPACITY];
+
+    private int indexedLineCount;
+
+    /**
+     * the offset where scanning for further line starts continues.
+     */
+    private int scanPosition;
+
+    private boolean endOfFileScanned;
+
+    /**
+     * maps the given file into memory. No line is read yet.
+     *
+     * @param fileName    the business data file
+     * @param charsetName the encoding of the business data file
+     * @throws IllegalArgumentException if the file cannot be read, is too large or the encoding is not supported.
+     */
+    public UserDataFile(String fileName, String charsetName) {
+        checkArgument(!StringUtils.isBlank(fileName), "fileName cannot be blank.");
+        checkArgument(!StringUtils.isBlank(charsetName), "charsetName cannot be blank.");
+        charset = forName(charsetName.trim());
+        checkArgument(hasSingleByteLineBreaks(charset), StringUtils.join("The encoding ", charsetName,
+                " does not represent line breaks as single bytes and is not supported for business data files."));
+        this.fileName = fileName;
+        decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        File source = new File(fileName);
+        checkArgument(source.isFile() && source.canRead(), StringUtils.join("The business data file ", fileName,
+                " does not exist or cannot be read."));
+        checkArgument(source.length() <= Integer.MAX_VALUE, StringUtils.join("The business data file ", fileName,
+                " exceeds the maximum size of ", Integer.MAX_VALUE, " bytes."));
+        try {
+            file = new RandomAccessFile(source, "r");
+        } catch (IOException exception) {
+            throw new IllegalArgumentException(StringUtils.join("Could not open business data file ", fileName,
+                    ": ", exception.getMessage()), exception);
+        }
+        try {
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        } catch (IOException exception) {
+            closeQuietly();
+            throw new IllegalArgumentException(StringUtils.join("Could not map business data file ", fileName,
+                    ": ", exception.getMessage()), exception);
+        }
+        scanPosition = hasUtf8ByteOrderMark() ? UTF8_BYTE_ORDER_MARK.length : 0;
+    }
+
+    private static Charset forName(String charsetName) {
+        try {
+            return Charset.forName(charsetName);
+        } catch (IllegalArgumentException exception) {
+            throw new IllegalArgumentException(StringUtils.join("The encoding ", charsetName,
+                    " is not supported by this JVM."), exception);
+        }
+    }
+
+    private static boolean hasSingleByteLineBreaks(Charset charset) {
+        if (!charset.canEncode()) {
+            return false;
+        }
+        ByteBuffer encoded = charset.encode("\r\n");
+        byte[] bytes = new byte[encoded.remaining()];
+        encoded.get(bytes);
+        return Arrays.equals(bytes, new byte[]{CR, LF});
+    }
+
+    private boolean hasUtf8ByteOrderMark() {
+        if (!"UTF-8".equals(charset.name()) || buffer.limit() < UTF8_BYTE_ORDER_MARK.length) {
+            return false;
+        }
+        for (int position = 0; position < UTF8_BYTE_ORDER_MARK.length; position++) {
+            if (buffer.get(position) != UTF8_BYTE_ORDER_MARK[position]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param lineNumber the number of the line of interest, starting with 1
+     * @return true if the file has a line with the given number.
+     */
+    public boolean hasLine(int lineNumber) {
+        return lineNumber > 0 && indexUpTo(lineNumber);
+    }
+
+    /**
+     * @param lineNumber the number of the line of interest, starting with 1
+     * @return the decoded line without its line separator.
+     * @throws IllegalStateException if the file has no such line.
+     */
+    public String getLine(int lineNumber) {
+        if (!hasLine(lineNumber)) {
+            throw new IllegalStateException(StringUtils.join("hit2assext:ERROR: The business data file ", fileName,
+                    " has no line ", lineNumber, ". It has ", getLineCount(), " lines."));
+        }
+        int start = lineStarts[lineNumber - 1];
+        int end = lineStarts[lineNumber];
+        if (end > start && buffer.get(end - 1) == LF) {
+            end--;
+        }
+        if (end > start && buffer.get(end - 1) == CR) {
+            end--;
+        }
+        return decode(start, end);
+    }
+
+    /**
+     * scans the whole file, if it has not been scanned yet.
+     *
+     * @return the number of lines of the file.
+     */
+    public int getLineCount() {
+        indexUpTo(Integer.MAX_VALUE);
+        return indexedLineCount;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * closes the file. The mapping itself is released once the UserDataFile has been garbage collected.
+     */
+    @Override
+    public void close() {
+        closeQuietly();
+    }
+
+    private void closeQuietly() {
+        try {
+            file.close();
+        } catch (IOException exception) {
+            // nothing left to do about it
+        }
+    }
+
+    /**
+     * extends the index of line starts until it covers the given line or the end of the file.
+     *
+     * @return true if the given line exists.
+     */
+    private boolean indexUpTo(int lineNumber) {
+        int limit = buffer.limit();
+        while (indexedLineCount < lineNumber && !endOfFileScanned) {
+            if (scanPosition >= limit) {
+                endOfFileScanned = true;
+                break;
+            }
+            int start = scanPosition;
+            int position = start;
+            while (position < limit && buffer.get(position) != LF) {
+                position++;
+            }
+            scanPosition = position < limit ? position + 1 : limit;
+            ensureIndexCapacity(indexedLineCount + 2);
+            lineStarts[indexedLineCount] = start;
+            lineStarts[indexedLineCount + 1] = scanPosition;
+            indexedLineCount++;
+        }
+        return indexedLineCount >= lineNumber;
+    }
+
+    private void ensureIndexCapacity(int capacity) {
+        if (capacity > lineStarts.length) {
+            lineStarts = Arrays.copyOf(lineStarts, ListStore.grow(lineStarts.length, capacity));
+        }
+    }
+
+    private String decode(int start, int end) {
+        if (start == end) {
+            return "";
+        }
+        ByteBuffer line = buffer.duplicate();
+        line.limit(end).position(start);
+        try {
+            CharBuffer chars = decoder.reset().decode(line);
+            return chars.toString();
+        } catch (CharacterCodingException exception) {
+            // cannot happen, since the decoder replaces malformed input
+            throw new IllegalStateException(exception);
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+
+import net.sf.saxon.om.Axis;
+import net.sf.saxon.om.AxisIterator;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.value.Value;
+
+/**
+ * A UserDataLineIndex maps line numbers to the line elements of the user data XML hit2ass creates from
+ * HIT/CLOU business data files, i.e. /UserData/payload/line[@lineNr]. The documented WHILE loop idiom selects
+ * the current line with the predicate [@lineNr = hit2assext:getXmlSequence(...)], which makes Saxon visit each
+ * line element on each iteration. Reading n lines thus costs O(n²). The index is built once per render session
+ * in O(n) and resolves a line number in O(1) afterwards.
+ */
+public final class UserDataLineIndex {
+
+    public final static String LINE_NUMBER_ATTRIBUTE = "lineNr";
+
+    /**
+     * the line elements by their line number. Line numbers start with 1, so the element at index 0 is unused.
+     */
+    private final NodeInfo[] lines;
+
+    private final int lineCount;
+
+    /**
+     * indexes the given line elements by their lineNr attribute. Elements lacking a valid lineNr attribute are
+     * indexed by their position in the given list, starting with 1. If several elements share the same line
+     * number, the first one wins, just like it does with the XPath idiom.
+     *
+     * @param lineNodes the line elements, usually the result of the XPath /UserData/payload/line
+     */
+    public UserDataLineIndex(List<?> lineNodes) {
+        checkArgument(lineNodes != null, "lineNodes cannot be null.");
+        int[] lineNumbers = new int[lineNodes.size()];
+        int maxLineNumber = 0;
+        for (int position = 0; position < lineNodes.size(); position++) {
+            Object node = lineNodes.get(position);
+            if (!(node instanceof NodeInfo)) {
+                throw new IllegalArgumentException(StringUtils.join("The user data lines must be XML nodes, but item ",
+                        position + 1, " is ", node == null ? "null" : node.getClass().getName()));
+            }
+            int lineNumber = readLineNumber((NodeInfo) node);
+            lineNumbers[position] = lineNumber > 0 ? lineNumber : position + 1;
+            maxLineNumber = Math.max(maxLineNumber, lineNumbers[position]);
+        }
+        lines = new NodeInfo[maxLineNumber + 1];
+        int count = 0;
+        for (int position = 0; position < lineNumbers.length; position++) {
+            if (lines[lineNumbers[position]] == null) {
+                lines[lineNumbers[position]] = (NodeInfo) lineNodes.get(position);
+                count++;
+            }
+        }
+        lineCount = count;
+    }
+
+    /**
+     * @return the number of distinct lines indexed.
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    public boolean hasLine(int lineNumber) {
+        return lineNumber > 0 && lineNumber < lines.length && lines[lineNumber] != null;
+    }
+
+    /**
+     * @param lineNumber the number of the line of interest
+     * @return the line element with the given number, or null if there is no such line.
+     */
+    public NodeInfo getLine(int lineNumber) {
+        return hasLine(lineNumber) ? lines[lineNumber] : null;
+    }
+
+    /**
+     * @param lineNumber the number of the line of interest
+     * @return the atomized value of the line with the given number.
+     * @throws IllegalStateException if there is no such line or if it cannot be atomized.
+     */
+    public Value getAtomizedLine(int lineNumber) {
+        NodeInfo line = getLine(lineNumber);
+        if (line == null) {
+            throw new IllegalStateException(StringUtils.join("hit2assext:ERROR: No user data line with lineNr ",
+                    lineNumber, " was found. ", lineCount, " lines have been indexed."));
+        }
+        try {
+            return line.atomize();
+        } catch (XPathException exception) {
+            throw new IllegalStateException(StringUtils.join("hit2assext:ERROR: Could not atomize user data line ",
+                    lineNumber, ": ", exception.getMessage()), exception);
+        }
+    }
+
+    /**
+     * @return the value of the lineNr attribute of the given element, or -1 if it is missing or no positive number.
+     */
+    private static int readLineNumber(NodeInfo node) {
+        AxisIterator attributes = node.iterateAxis(Axis.ATTRIBUTE);
+        for (Item item = attributes.next(); item != null; item = attributes.next()) {
+            NodeInfo attribute = (NodeInfo) item;
+            if (LINE_NUMBER_ATTRIBUTE.equals(attribute.getLocalPart())) {
+                return parseLineNumber(attribute.getStringValue());
+            }
+        }
+        return -1;
+    }
+
+    private static int parseLineNumber(String text) {
+        String trimmed = text.trim();
+        if (trimmed.isEmpty() || trimmed.length() > 9) {
+            return -1;
+        }
+        int result = 0;
+        for (int position = 0; position < trimmed.length(); position++) {
+            char digit = trimmed.charAt(position);
+            if (digit < '0' || digit > '9') {
+                return -1;
+            }
+            result = result * 10 + (digit - '0');
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,430 @@
+package org.poormanscastle.products.hit2assext.format;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.value.Value;
+
+/**
+ * HitClouFormats implements the HIT/CLOU date, number and substring formats as XPath extension functions.
+ * Translated templates evaluate these functions for every row of every table, so they parse and format
+ * character by character into a per-thread buffer: a successful call allocates nothing but its result.
+ * Error messages are only built when a call fails.
+ * <p></p>
+ * The set-at-a-time variants convert a whole node sequence, which Saxon hands over as java.util.List,
+ * in one call. To call these functions, declare a namespace with the URL
+ * org.poormanscastle.products.hit2assext.format.HitClouFormats in the Document element of the workspace.
+ * RenderSessionManager converts hit2assext lists using these functions.
+ */
+public final class HitClouFormats {
+
+    private final static int BUFFER_SIZE = 64;
+
+    /**
+     * the largest number of fraction digits formatGermanNumber() supports.
+     */
+    public final static int MAX_FRACTION_DIGITS = 9;
+
+    private final static long[] POWERS_OF_TEN = {1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L,
+            100000000L, 1000000000L, 10000000000L, 100000000000L, 1000000000000L, 10000000000000L,
+            100000000000000L, 1000000000000000L, 10000000000000000L, 100000000000000000L, 1000000000000000000L};
+
+    /**
+     * numbers are formatted via a long holding the value scaled by its fraction digits. Values up to 2^53 are
+     * exact as double, so larger scaled values are rejected instead of printing rounding artefacts.
+     */
+    private final static double MAX_SCALED_VALUE = 9007199254740992d;
+
+    private final static ThreadLocal<char[]> buffers = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[BUFFER_SIZE];
+        }
+    };
+
+    private HitClouFormats() {
+    }
+
+    /**
+     * accepts a date in the format T.M.JJJJ, like 1.2.2016, and converts it to ISO8601, like 2016-02-01.
+     * Day and month are padded to two digits. The items are not checked to be numeric, just like
+     * RenderSessionManager.convert_TMJJJJ_DateToIso8601Format() never did.
+     *
+     * @param dateString a date in the format T.M.JJJJ
+     * @return the same date in the format JJJJ-MM-TT
+     * @throws IllegalArgumentException if the date does not consist of three items separated by dots.
+     */
+    public static String convertDateToIso8601(String dateString) {
+        if (dateString == null) {
+            throw new IllegalArgumentException("Invalid dateString null - it should be in the format T.M.JJJJ");
+        }
+        // trailing dots are ignored, like String.split() ignores trailing empty items
+        int end = dateString.length();
+        while (end > 0 && dateString.charAt(end - 1) == '.') {
+            end--;
+        }
+        int firstDot = dateString.indexOf('.');
+        int secondDot = firstDot < 0 || firstDot >= end ? -1 : dateString.indexOf('.', firstDot + 1);
+        if (secondDot < 0 || secondDot >= end || dateString.indexOf('.', secondDot + 1) < end
+                && dateString.indexOf('.', secondDot + 1) >= 0 || end > BUFFER_SIZE - 4) {
+            throw new IllegalArgumentException(StringUtils.join("Invalid dateString ", dateString,
+                    " - it should be in the format T.M.JJJJ"));
+        }
+        char[] buffer = buffers.get();
+        int length = append(buffer, 0, dateString, secondDot + 1, end, 2);
+        buffer[length++] = '-';
+        length = append(buffer, length, dateString, firstDot + 1, secondDot, 2);
+        buffer[length++] = '-';
+        length = append(buffer, length, dateString, 0, firstDot, 2);
+        return new String(buffer, 0, length);
+    }
+
+    /**
+     * accepts a date in the ISO8601 format, like 2016-02-01, and converts it to the German format TT.MM.JJJJ,
+     * like 01.02.2016. A time or time zone following the date is ignored.
+     *
+     * @param isoDate a date in the format JJJJ-MM-TT
+     * @return the same date in the format TT.MM.JJJJ
+     * @throws IllegalArgumentException if the date is not in the format JJJJ-MM-TT.
+     */
+    public static String convertIso8601DateToGerman(String isoDate) {
+        int firstDash = isoDate == null ? -1 : isoDate.indexOf('-', 1);
+        int secondDash = firstDash < 0 ? -1 : isoDate.indexOf('-', firstDash + 1);
+        int end = secondDash < 0 ? -1 : secondDash + 1;
+        while (end > 0 && end < isoDate.length() && isDigit(isoDate.charAt(end))) {
+            end++;
+        }
+        if (end < 0 || end - secondDash < 2 || end - secondDash > 3 || secondDash - firstDash < 2
+                || secondDash - firstDash > 3 || firstDash > BUFFER_SIZE - 8
+                || !isDigits(isoDate, 0, firstDash) || !isDigits(isoDate, firstDash + 1, secondDash)) {
+            throw new IllegalArgumentException(StringUtils.join("Invalid ISO8601 date ", isoDate,
+                    " - it should be in the format JJJJ-MM-TT"));
+        }
+        char[] buffer = buffers.get();
+        int length = append(buffer, 0, isoDate, secondDash + 1, end, 2);
+        buffer[length++] = '.';
+        length = append(buffer, length, isoDate, firstDash + 1, secondDash, 2);
+        buffer[length++] = '.';
+        length = append(buffer, length, isoDate, 0, firstDash, 0);
+        return new String(buffer, 0, length);
+    }
+
+    /**
+     * parses a number in the German format, like 1.234,56 or -0,5. Dots group the digits and are ignored,
+     * the comma separates the fraction digits. Leading and trailing whitespace is ignored.
+     *
+     * @param number a number in the German format
+     * @return the value of the number
+     * @throws IllegalArgumentException if the given text is no number in the German format.
+     */
+    public static double parseGermanNumber(String number) {
+        int start = 0;
+        int end = number == null ? 0 : number.length();
+        while (start < end && Character.isWhitespace(number.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(number.charAt(end - 1))) {
+            end--;
+        }
+        boolean negative = false;
+        if (start < end && (number.charAt(start) == '-' || number.charAt(start) == '+')) {
+            negative = number.charAt(start) == '-';
+            start++;
+        }
+        long mantissa = 0;
+        int significantDigits = 0;
+        int fractionDigits = 0;
+        int digits = 0;
+        boolean fraction = false;
+        boolean valid = start < end;
+        for (int position = start; position < end && valid; position++) {
+            char character = number.charAt(position);
+            if (isDigit(character)) {
+                digits++;
+                if (mantissa != 0 || character != '0') {
+                    significantDigits++;
+                }
+                mantissa = mantissa * 10 + (character - '0');
+                if (fraction) {
+                    fractionDigits++;
+                }
+            } else if (character == ',' && !fraction) {
+                fraction = true;
+            } else {
+                valid = character == '.' && !fraction && position > start;
+            }
+        }
+        if (!valid || digits == 0 || significantDigits > 15 || fractionDigits >= POWERS_OF_TEN.length) {
+            if (valid && digits > 0) {
+                // too many digits to be exact in a long, which is rare enough to take the slow path
+                return Double.parseDouble(StringUtils.join(negative ? "-" : "", StringUtils.remove(
+                        number.substring(start, end), '.').replace(',', '.')));
+            }
+            throw new IllegalArgumentException(StringUtils.join("Invalid number ", number,
+                    " - it should be in the German format, like 1.234,56"));
+        }
+        // both operands are exact doubles, so the division yields the correctly rounded value
+        double value = mantissa / (double) POWERS_OF_TEN[fractionDigits];
+        return negative ? -value : value;
+    }
+
+    /**
+     * formats the given number in the German format, like 1.234,56. The value is rounded half up to
+     * the given number of fraction digits.
+     *
+     * @param value          the number to format
+     * @param fractionDigits the number of fraction digits, between 0 and MAX_FRACTION_DIGITS
+     * @return the formatted number
+     * @throws IllegalArgumentException if the value is not finite or too large for the given fraction digits.
+     */
+    public static String formatGermanNumber(double value, int fractionDigits) {
+        char[] buffer = buffers.get();
+        int length = formatGermanNumber(buffer, value, fractionDigits);
+        return new String(buffer, 0, length);
+    }
+
+    /**
+     * formats the given amount in the German format with two fraction digits, followed by the given
+     * currency, like 1.234,56 EUR.
+     *
+     * @param amount   the amount to format
+     * @param currency the currency, like EUR or €. If it is empty, the amount is formatted without currency.
+     * @return the formatted amount
+     */
+    public static String formatGermanCurrency(double amount, String currency) {
+        char[] buffer = buffers.get();
+        int length = formatGermanNumber(buffer, amount, 2);
+        if (currency == null || currency.isEmpty()) {
+            return new String(buffer, 0, length);
+        }
+        if (length + 1 + currency.length() > buffer.length) {
+            return StringUtils.join(new String(buffer, 0, length), " ", currency);
+        }
+        buffer[length++] = ' ';
+        currency.getChars(0, currency.length(), buffer, length);
+        return new String(buffer, 0, length + currency.length());
+    }
+
+    private static int formatGermanNumber(char[] buffer, double value, int fractionDigits) {
+        if (fractionDigits < 0 || fractionDigits > MAX_FRACTION_DIGITS) {
+            throw new IllegalArgumentException(StringUtils.join("fractionDigits ", fractionDigits,
+                    " must be between 0 and ", MAX_FRACTION_DIGITS, "."));
+        }
+        double scaledValue = Math.abs(value) * POWERS_OF_TEN[fractionDigits];
+        if (Double.isNaN(value) || scaledValue >= MAX_SCALED_VALUE) {
+            throw new IllegalArgumentException(StringUtils.join("The number ", value,
+                    " cannot be formatted with ", fractionDigits, " fraction digits."));
+        }
+        long scaled = Math.round(scaledValue);
+        long integerPart = scaled / POWERS_OF_TEN[fractionDigits];
+        long fractionPart = scaled % POWERS_OF_TEN[fractionDigits];
+        int integerDigits = countDigits(integerPart);
+        int length = (value < 0 && scaled != 0 ? 1 : 0) + integerDigits + (integerDigits - 1) / 3
+                + (fractionDigits > 0 ? fractionDigits + 1 : 0);
+        int position = length;
+        for (int digit = 0; digit < fractionDigits; digit++) {
+            buffer[--position] = (char) ('0' + fractionPart % 10);
+            fractionPart /= 10;
+        }
+        if (fractionDigits > 0) {
+            buffer[--position] = ',';
+        }
+        for (int digit = 0; digit < integerDigits; digit++) {
+            if (digit > 0 && digit % 3 == 0) {
+                buffer[--position] = '.';
+            }
+            buffer[--position] = (char) ('0' + integerPart % 10);
+            integerPart /= 10;
+        }
+        if (position > 0) {
+            buffer[0] = '-';
+        }
+        return length;
+    }
+
+    /**
+     * Implements the HIT/CLOU substring feature: myVar[1,5] is the substring from the first to the fifth
+     * character of myVar, both inclusive. HIT/CLOU counts characters starting with 1.
+     *
+     * @param inputString string from which a substring shall be extracted
+     * @param startIndex  the index of the first character of the substring
+     * @param endIndex    the index of the last character of the substring
+     * @return the resulting substring
+     * @throws IllegalArgumentException if the indexes do not denote a substring of the input string.
+     */
+    public static String substring(String inputString, int startIndex, int endIndex) {
+        if (inputString == null) {
+            throw new NullPointerException("Input to getSubstring() was null.");
+        }
+        if (startIndex <= 0 || endIndex <= 0) {
+            throw new IllegalArgumentException(StringUtils.join("startIndex ", startIndex, " and endIndex ", endIndex,
+                    " must both be positive numbers."));
+        }
+        if (startIndex > endIndex) {
+            throw new IllegalArgumentException(StringUtils.join("startIndex ", startIndex,
+                    " must be smaller or equal to endIndex ", endIndex));
+        }
+        if (endIndex > inputString.length()) {
+            throw new IllegalArgumentException(StringUtils.join("endIndex ", endIndex,
+                    " cannot be greater than input string length ", inputString.length()));
+        }
+        return inputString.substring(startIndex - 1, endIndex);
+    }
+
+    /**
+     * pads the given string on the left with the first character of padding, e.g. with zeros or blanks,
+     * until it has the given size. Strings which are long enough already are returned as they are.
+     *
+     * @param padding a string whose first character is used for padding. A blank is used if it is empty.
+     */
+    public static String leftPad(String inputString, int size, String padding) {
+        return pad(inputString, size, padding, true);
+    }
+
+    /**
+     * pads the given string on the right with the first character of padding until it has the given size.
+     * Strings which are long enough already are returned as they are.
+     *
+     * @param padding a string whose first character is used for padding. A blank is used if it is empty.
+     */
+    public static String rightPad(String inputString, int size, String padding) {
+        return pad(inputString, size, padding, false);
+    }
+
+    private static String pad(String inputString, int size, String padding, boolean left) {
+        String text = inputString == null ? "" : inputString;
+        int padCount = size - text.length();
+        if (padCount <= 0) {
+            return text;
+        }
+        char padCharacter = padding == null || padding.isEmpty() ? ' ' : padding.charAt(0);
+        char[] chars = size <= BUFFER_SIZE ? buffers.get() : new char[size];
+        int textStart = left ? padCount : 0;
+        int padStart = left ? 0 : text.length();
+        for (int position = padStart; position < padStart + padCount; position++) {
+            chars[position] = padCharacter;
+        }
+        text.getChars(0, text.length(), chars, textStart);
+        return new String(chars, 0, size);
+    }
+
+    /**
+     * converts each date of the given node sequence from the format T.M.JJJJ to ISO8601.
+     *
+     * @param dates a node sequence or a list of strings
+     * @return the converted dates, in the order of the given sequence
+     */
+    public static List<String> convertDatesToIso8601(List<?> dates) {
+        List<String> result = new ArrayList<>(dates.size());
+        for (Object date : dates) {
+            result.add(convertDateToIso8601(getStringValue(date)));
+        }
+        return result;
+    }
+
+    /**
+     * parses each number of the given node sequence from the German format.
+     *
+     * @param numbers a node sequence or a list of strings
+     * @return the parsed numbers, in the order of the given sequence
+     */
+    public static List<Double> parseGermanNumbers(List<?> numbers) {
+        List<Double> result = new ArrayList<>(numbers.size());
+        for (Object number : numbers) {
+            result.add(parseGermanNumber(getStringValue(number)));
+        }
+        return result;
+    }
+
+    /**
+     * formats each number of the given sequence in the German format. The items may be numbers, or nodes
+     * and strings holding numbers in the XML format, like 1234.5.
+     *
+     * @param numbers        a node sequence or a list of numbers
+     * @param fractionDigits the number of fraction digits, between 0 and MAX_FRACTION_DIGITS
+     * @return the formatted numbers, in the order of the given sequence
+     */
+    public static List<String> formatGermanNumbers(List<?> numbers, int fractionDigits) {
+        List<String> result = new ArrayList<>(numbers.size());
+        for (Object number : numbers) {
+            result.add(formatGermanNumber(getNumberValue(number), fractionDigits));
+        }
+        return result;
+    }
+
+    /**
+     * @return the string value of the given node, atomic value or object.
+     * @throws IllegalArgumentException if the value is null or its string value cannot be read.
+     */
+    public static String getStringValue(Object value) {
+        if (value instanceof String) {
+            return (String) value;
+        } else if (value instanceof NodeInfo) {
+            return ((NodeInfo) value).getStringValue();
+        } else if (value instanceof Value) {
+            try {
+                return ((Value) value).getStringValue();
+            } catch (XPathException exception) {
+                throw new IllegalArgumentException(StringUtils.join("Could not read the string value of ", value,
+                        ": ", exception.getMessage()), exception);
+            }
+        } else if (value == null) {
+            throw new IllegalArgumentException("The value to convert was null.");
+        }
+        return value.toString();
+    }
+
+    /**
+     * @return the given value if it is a Number, or else its string value parsed as an XML number.
+     */
+    public static double getNumberValue(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        String text = getStringValue(value).trim();
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException exception) {
+            throw new IllegalArgumentException(StringUtils.join("The value ", text, " is no number."), exception);
+        }
+    }
+
+    /**
+     * copies the given range of the source to the buffer, padded on the left with zeros to the given width.
+     *
+     * @return the length of the buffer content.
+     */
+    private static int append(char[] buffer, int length, String source, int start, int end, int width) {
+        for (int padding = end - start; padding < width; padding++) {
+            buffer[length++] = '0';
+        }
+        source.getChars(start, end, buffer, length);
+        return length + end - start;
+    }
+
+    private static int countDigits(long value) {
+        int digits = 1;
+        while (digits < POWERS_OF_TEN.length && value >= POWERS_OF_TEN[digits]) {
+            digits++;
+        }
+        return digits;
+    }
+
+    private static boolean isDigit(char character) {
+        return character >= '0' && character <= '9';
+    }
+
+    private static boolean isDigits(String text, int start, int end) {
+        for (int position = start; position < end; position++) {
+            if (!isDigit(text.charAt(position))) {
+                return false;
+            }
+        }
+        return end > start;
+    }
+
+}
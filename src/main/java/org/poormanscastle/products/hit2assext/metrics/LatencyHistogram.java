@@ -0,0 +1,115 @@
+package org.poormanscastle.products.hit2assext.metrics;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A LatencyHistogram counts durations in buckets of powers of two nanoseconds. Recording a duration takes
+ * two uncontended atomic increments: the counters are striped by thread, so render threads recording calls
+ * at the same time rarely touch the same cache line. Percentiles are reported as the upper bound of the
+ * bucket they fall into, i.e. they are accurate within a factor of two.
+ */
+public final class LatencyHistogram {
+
+    /**
+     * bucket n counts durations d with 2^(n-1) <= d < 2^n nanoseconds. The last bucket counts all durations
+     * of 2^(BUCKETS - 2) nanoseconds, i.e. about 9 minutes, and longer.
+     */
+    final static int BUCKETS = 40;
+
+    private final static int STRIPES = 8;
+
+    /**
+     * the buckets of each stripe plus the total duration recorded by that stripe.
+     */
+    private final static int STRIPE_LENGTH = BUCKETS + 1;
+
+    private final AtomicLongArray counters = new AtomicLongArray(STRIPES * STRIPE_LENGTH);
+
+    public void record(long durationNanos) {
+        int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1)) * STRIPE_LENGTH;
+        counters.incrementAndGet(stripe + bucketOf(durationNanos));
+        counters.addAndGet(stripe + BUCKETS, durationNanos);
+    }
+
+    /**
+     * @return the number of durations recorded.
+     */
+    public long getCount() {
+        long count = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            count += getBucketCount(bucket);
+        }
+        return count;
+    }
+
+    /**
+     * @return the sum of all durations recorded in nanoseconds.
+     */
+    public long getTotalNanos() {
+        long total = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            total += counters.get(stripe * STRIPE_LENGTH + BUCKETS);
+        }
+        return total;
+    }
+
+    public long getMeanNanos() {
+        long count = getCount();
+        return count == 0 ? 0 : getTotalNanos() / count;
+    }
+
+    /**
+     * @param percentile the percentile of interest, e.g. 99.9
+     * @return the upper bound of the bucket in which the given percentile of the durations falls, or 0 if no
+     * durations have been recorded.
+     */
+    public long getPercentileNanos(double percentile) {
+        checkArgument(percentile >= 0 && percentile <= 100, "percentile must be in the range from 0 to 100.");
+        long[] buckets = new long[BUCKETS];
+        long count = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            buckets[bucket] = getBucketCount(bucket);
+            count += buckets[bucket];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += buckets[bucket];
+            if (seen >= rank && seen > 0) {
+                return upperBoundOf(bucket);
+            }
+        }
+        return upperBoundOf(BUCKETS - 1);
+    }
+
+    public void reset() {
+        for (int index = 0; index < counters.length(); index++) {
+            counters.set(index, 0);
+        }
+    }
+
+    private long getBucketCount(int bucket) {
+        long count = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            count += counters.get(stripe * STRIPE_LENGTH + bucket);
+        }
+        return count;
+    }
+
+    static int bucketOf(long durationNanos) {
+        if (durationNanos <= 0) {
+            return 0;
+        }
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(durationNanos));
+    }
+
+    static long upperBoundOf(int bucket) {
+        return bucket == 0 ? 0 : 1L << bucket;
+    }
+
+}
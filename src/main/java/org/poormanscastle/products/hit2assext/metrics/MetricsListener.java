@@ -0,0 +1,38 @@
+package org.poormanscastle.products.hit2assext.metrics;
+
+import org.poormanscastle.products.hit2assext.domain.ExtensionFunction;
+
+/**
+ * A MetricsListener can be plugged into the RenderSessionManager to forward the metrics of hit2assext to
+ * a metrics system of choice. The RenderSessionManager calls the listener from the render threads, so
+ * implementations must be thread-safe and should return quickly.
+ * The listener can be set using RenderSessionManager.setMetricsListener() or by naming an implementation
+ * with a public no-argument constructor in the Java system property hit2assext.metrics.listener.
+ */
+public interface MetricsListener {
+
+    /**
+     * called after each extension function call which involves a render session.
+     *
+     * @param function      the extension function called
+     * @param durationNanos the time the call took in nanoseconds
+     * @param failed        true if the call ended with an error
+     */
+    void onCall(ExtensionFunction function, long durationNanos, boolean failed);
+
+    /**
+     * called when a render session has been created.
+     *
+     * @param renderSessionContextUuid the uuid of the new render session
+     */
+    void onRenderSessionCreated(String renderSessionContextUuid);
+
+    /**
+     * called when a render session has been cleaned up by the template or evicted by the RenderSessionReaper.
+     *
+     * @param renderSessionContextUuid the uuid of the discarded render session
+     * @param ageMillis                the age of the render session in milliseconds
+     */
+    void onRenderSessionCleanedUp(String renderSessionContextUuid, long ageMillis);
+
+}
@@ -0,0 +1,188 @@
+package org.poormanscastle.products.hit2assext.metrics;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.lang3.StringUtils;
+import org.poormanscastle.products.hit2assext.domain.ExtensionFunction;
+import org.poormanscastle.products.hit2assext.domain.RenderSessionContext;
+import org.poormanscastle.products.hit2assext.domain.RenderSessionReaper;
+import org.poormanscastle.products.hit2assext.domain.RenderSessionRegistry;
+
+/**
+ * RenderSessionMetrics collects the metrics of the render sessions managed by the RenderSessionManager and
+ * exposes them via JMX. The RenderSessionManager reports each extension function call and the life cycle
+ * of each render session to this class by means of the MetricsListener interface. Recording a call costs
+ * two atomic increments on counters striped by thread; everything else is computed when the metrics are
+ * queried.
+ */
+public final class RenderSessionMetrics implements RenderSessionMetricsMBean, MetricsListener {
+
+    private final static ExtensionFunction[] FUNCTIONS = ExtensionFunction.values();
+
+    private final RenderSessionRegistry registry;
+
+    private final RenderSessionReaper reaper;
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[FUNCTIONS.length];
+
+    private final AtomicLongArray failures = new AtomicLongArray(FUNCTIONS.length);
+
+    private final AtomicLong createdSessionCount = new AtomicLong();
+
+    /**
+     * the render sessions cleaned up by their templates or evicted by the reaper.
+     */
+    private final AtomicLong endedSessionCount = new AtomicLong();
+
+    public RenderSessionMetrics(RenderSessionRegistry registry, RenderSessionReaper reaper) {
+        checkNotNull(registry, "registry cannot be null.");
+        checkNotNull(reaper, "reaper cannot be null.");
+        this.registry = registry;
+        this.reaper = reaper;
+        for (int index = 0; index < latencies.length; index++) {
+            latencies[index] = new LatencyHistogram();
+        }
+    }
+
+    @Override
+    public void onCall(ExtensionFunction function, long durationNanos, boolean failed) {
+        latencies[function.ordinal()].record(durationNanos);
+        if (failed) {
+            failures.incrementAndGet(function.ordinal());
+        }
+    }
+
+    @Override
+    public void onRenderSessionCreated(String renderSessionContextUuid) {
+        createdSessionCount.incrementAndGet();
+    }
+
+    @Override
+    public void onRenderSessionCleanedUp(String renderSessionContextUuid, long ageMillis) {
+        endedSessionCount.incrementAndGet();
+    }
+
+    @Override
+    public int getLiveSessionCount() {
+        return registry.size();
+    }
+
+    @Override
+    public long getCreatedSessionCount() {
+        return createdSessionCount.get();
+    }
+
+    @Override
+    public long getCleanedUpSessionCount() {
+        // the reaper counts an eviction before the evicted render session is ended
+        return Math.max(0, endedSessionCount.get() - reaper.getEvictedSessionCount());
+    }
+
+    @Override
+    public long getEvictedSessionCount() {
+        return reaper.getEvictedSessionCount();
+    }
+
+    @Override
+    public long getOldestSessionAgeSeconds() {
+        long oldest = 0;
+        for (RenderSessionContext context : registry.getRenderSessionContexts()) {
+            oldest = Math.max(oldest, context.getAgeInSeconds());
+        }
+        return oldest;
+    }
+
+    /**
+     * Nota bene: the symbol tables are owned by the render threads and are not thread-safe. The estimate is
+     * taken without synchronization and is therefore approximate while the render sessions are in use. Render
+     * sessions whose symbols are changed while they are estimated are left out.
+     */
+    @Override
+    public long getEstimatedMemoryFootprint() {
+        long footprint = 0;
+        for (RenderSessionContext context : registry.getRenderSessionContexts()) {
+            try {
+                footprint += context.estimateMemoryFootprint();
+            } catch (ConcurrentModificationException exception) {
+                // the render thread added a symbol meanwhile, the render session is estimated on the next query
+            }
+        }
+        return footprint;
+    }
+
+    @Override
+    public long getAccountedMemory() {
+        long accounted = 0;
+        for (RenderSessionContext context : registry.getRenderSessionContexts()) {
+            accounted += context.getMemoryAccount().getUsedBytes();
+        }
+        return accounted;
+    }
+
+    @Override
+    public String[] getSessionSummaries() {
+        List<String> summaries = new ArrayList<>();
+        for (RenderSessionContext context : registry.getRenderSessionContexts()) {
+            try {
+                summaries.add(StringUtils.join(context.getUuid(), " age=", context.getAgeInSeconds(), "s lists=",
+                        context.getListCount(), " listValues=", context.getListValueCount(), " estimatedBytes=",
+                        context.estimateMemoryFootprint(), " accountedBytes=",
+                        context.getMemoryAccount().getUsedBytes()));
+            } catch (ConcurrentModificationException exception) {
+                // see getEstimatedMemoryFootprint(), the render session is summarized on the next query
+            }
+        }
+        return summaries.toArray(new String[summaries.size()]);
+    }
+
+    @Override
+    public String[] getFunctionStatistics() {
+        String[] statistics = new String[FUNCTIONS.length];
+        for (ExtensionFunction function : FUNCTIONS) {
+            LatencyHistogram latency = latencies[function.ordinal()];
+            statistics[function.ordinal()] = StringUtils.join(function.getFunctionName(), " calls=", latency.getCount(),
+                    " failures=", failures.get(function.ordinal()), " meanNanos=", latency.getMeanNanos(),
+                    " p50Nanos=", latency.getPercentileNanos(50), " p99Nanos=", latency.getPercentileNanos(99),
+                    " p999Nanos=", latency.getPercentileNanos(99.9), " totalMillis=",
+                    TimeUnit.NANOSECONDS.toMillis(latency.getTotalNanos()));
+        }
+        return statistics;
+    }
+
+    @Override
+    public long getCallCount(String functionName) {
+        return latencies[findFunction(functionName).ordinal()].getCount();
+    }
+
+    @Override
+    public long getLatencyPercentileNanos(String functionName, double percentile) {
+        return latencies[findFunction(functionName).ordinal()].getPercentileNanos(percentile);
+    }
+
+    @Override
+    public void resetFunctionStatistics() {
+        for (ExtensionFunction function : FUNCTIONS) {
+            latencies[function.ordinal()].reset();
+            failures.set(function.ordinal(), 0);
+        }
+    }
+
+    private static ExtensionFunction findFunction(String functionName) {
+        for (ExtensionFunction function : FUNCTIONS) {
+            if (function.getFunctionName().equals(functionName) || function.name().equals(functionName)) {
+                return function;
+            }
+        }
+        checkArgument(false, StringUtils.join("Unknown extension function ", functionName));
+        return null;
+    }
+
+}
@@ -0,0 +1,76 @@
+package org.poormanscastle.products.hit2assext.metrics;
+
+/**
+ * The JMX management interface of hit2assext. It is registered with the platform MBean server under the
+ * name org.poormanscastle.products.hit2assext:type=RenderSessionMetrics when the RenderSessionManager
+ * is loaded.
+ */
+public interface RenderSessionMetricsMBean {
+
+    /**
+     * @return the number of render sessions currently alive.
+     */
+    int getLiveSessionCount();
+
+    /**
+     * @return the number of render sessions created since the render engine started.
+     */
+    long getCreatedSessionCount();
+
+    /**
+     * @return the number of render sessions cleaned up by their templates.
+     */
+    long getCleanedUpSessionCount();
+
+    /**
+     * @return the number of abandoned render sessions evicted by the RenderSessionReaper.
+     */
+    long getEvictedSessionCount();
+
+    /**
+     * @return the age of the oldest render session alive in seconds, or 0 if no render session is alive.
+     */
+    long getOldestSessionAgeSeconds();
+
+    /**
+     * @return the estimated number of bytes occupied by the symbol tables of all render sessions alive.
+     */
+    long getEstimatedMemoryFootprint();
+
+    /**
+     * @return the number of bytes charged to the memory accounts of all render sessions alive. Unlike the
+     * estimated memory footprint, it is maintained with each allocation and thus cheap to read.
+     */
+    long getAccountedMemory();
+
+    /**
+     * @return one line per render session alive stating its uuid, age, number of lists and list values and
+     * its estimated and its accounted memory footprint.
+     */
+    String[] getSessionSummaries();
+
+    /**
+     * @return one line per extension function stating the number of calls and failures and the mean, 50th,
+     * 99th and 99.9th percentile latency in nanoseconds.
+     */
+    String[] getFunctionStatistics();
+
+    /**
+     * @param functionName the name of an extension function, e.g. getListValueAt
+     * @return the number of calls of the given extension function.
+     */
+    long getCallCount(String functionName);
+
+    /**
+     * @param functionName the name of an extension function, e.g. getListValueAt
+     * @param percentile   the percentile of interest, e.g. 99.9
+     * @return the latency of the given extension function at the given percentile in nanoseconds.
+     */
+    long getLatencyPercentileNanos(String functionName, double percentile);
+
+    /**
+     * resets the call counters and latency histograms of all extension functions.
+     */
+    void resetFunctionStatistics();
+
+}
@@ -0,0 +1,257 @@
+package org.poormanscastle.products.hit2assext.recording;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.Logger;
+import org.poormanscastle.products.hit2assext.domain.ExtensionFunction;
+
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.value.Value;
+
+/**
+ * A CallRecorder writes the extension function calls of each render session and their arguments to a
+ * CallRecording file of its own, named after the id of the render session. The recordings can be replayed
+ * at any concurrency to find out how a release copes with the load of production templates, without a
+ * DocBase installation.
+ * <p></p>
+ * Only render sessions created while the recorder is running are recorded. The recording of a render session
+ * is complete when the render session is cleaned up. Recordings of render sessions which are never cleaned
+ * up, e.g. because they are evicted, are completed when the recorder is closed.
+ * <p></p>
+ * Each render session is recorded by its render thread only, so recording needs no locks but those of the
+ * output stream. Recording is meant for load testing and debugging: it writes each call and converts nodes
+ * to strings, so it slows the render sessions down considerably.
+ */
+public final class CallRecorder {
+
+    private final static Logger logger = Logger.getLogger(CallRecorder.class);
+
+    private final File directory;
+
+    private final ConcurrentMap<String, SessionRecording> recordings = new ConcurrentHashMap<>();
+
+    private final AtomicLong recordedSessionCount = new AtomicLong();
+
+    private final AtomicLong recordedCallCount = new AtomicLong();
+
+    private volatile boolean closed;
+
+    /**
+     * @param directory the directory the recordings are written to, which is created if it does not exist.
+     * @throws IllegalArgumentException if the directory cannot be created.
+     */
+    public CallRecorder(String directory) {
+        checkArgument(!StringUtils.isBlank(directory), "directory cannot be blank.");
+        this.directory = new File(directory);
+        checkArgument(this.directory.isDirectory() || this.directory.mkdirs(), StringUtils.join(
+                "Could not create the call recording directory ", directory));
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * records a call of the given render session. The first call of a render session must be
+     * createRenderSessionContext, calls of render sessions created before the recorder are ignored.
+     *
+     * @param sessionId    the id of the render session
+     * @param function     the extension function called
+     * @param symbol       the first string argument, e.g. the name of a list, or null
+     * @param secondSymbol the second string argument, or null
+     * @param number       the numeric argument, e.g. a list index, or 0
+     * @param value        the value argument, or null
+     */
+    public void record(String sessionId, ExtensionFunction function, String symbol, String secondSymbol,
+                       long number, Object value) {
+        SessionRecording recording = recordings.get(sessionId);
+        if (recording == null) {
+            if (function != ExtensionFunction.CREATE_RENDER_SESSION_CONTEXT || closed) {
+                return;
+            }
+            recording = new SessionRecording(new File(directory, StringUtils.join(
+                    sessionId.replaceAll("[^A-Za-z0-9._-]", "_"), CallRecording.FILE_EXTENSION)));
+            recordings.put(sessionId, recording);
+            recordedSessionCount.incrementAndGet();
+            if (closed) {
+                // close() may have missed the new recording
+                finish(sessionId);
+                return;
+            }
+        }
+        recording.write(function, symbol, secondSymbol, number, value);
+        recordedCallCount.incrementAndGet();
+    }
+
+    /**
+     * completes the recording of the given render session, usually when it is cleaned up.
+     */
+    public void finish(String sessionId) {
+        SessionRecording recording = recordings.remove(sessionId);
+        if (recording != null) {
+            recording.close();
+        }
+    }
+
+    /**
+     * completes all recordings. Calls recorded afterwards are ignored.
+     */
+    public void close() {
+        closed = true;
+        for (String sessionId : recordings.keySet()) {
+            finish(sessionId);
+        }
+    }
+
+    /**
+     * @return the number of render sessions recorded.
+     */
+    public long getRecordedSessionCount() {
+        return recordedSessionCount.get();
+    }
+
+    public long getRecordedCallCount() {
+        return recordedCallCount.get();
+    }
+
+    /**
+     * the recording of a single render session.
+     */
+    private final static class SessionRecording {
+
+        private final File file;
+
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        private DataOutputStream output;
+
+        private SessionRecording(File file) {
+            this.file = file;
+            try {
+                output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+                output.writeInt(CallRecording.MAGIC_NUMBER);
+                output.writeShort(CallRecording.FORMAT_VERSION);
+            } catch (IOException exception) {
+                fail(exception);
+            }
+        }
+
+        synchronized void write(ExtensionFunction function, String symbol, String secondSymbol, long number,
+                                Object value) {
+            if (output == null) {
+                return;
+            }
+            try {
+                writeString(function.getFunctionName());
+                writeString(symbol);
+                writeString(secondSymbol);
+                CallRecording.writeZigZag(output, number);
+                writeValue(value);
+            } catch (IOException exception) {
+                fail(exception);
+            }
+        }
+
+        synchronized void close() {
+            if (output == null) {
+                return;
+            }
+            try {
+                output.close();
+            } catch (IOException exception) {
+                fail(exception);
+            }
+            output = null;
+        }
+
+        /**
+         * stops recording this render session, a recorder must never fail the render session.
+         */
+        private void fail(IOException exception) {
+            logger.error(StringUtils.join("Could not write call recording ", file, ", the render session is ",
+                    "no longer recorded: ", exception.getMessage()));
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException closeException) {
+                    // the recording is broken anyway
+                }
+            }
+            output = null;
+        }
+
+        private void writeString(String string) throws IOException {
+            if (string == null) {
+                output.write(0);
+                return;
+            }
+            Integer reference = strings.get(string);
+            if (reference != null) {
+                CallRecording.writeVarLong(output, reference);
+                return;
+            }
+            strings.put(string, strings.size() + 1);
+            CallRecording.writeVarLong(output, strings.size());
+            writeUtf8(string);
+        }
+
+        private void writeUtf8(String string) throws IOException {
+            byte[] bytes = string.getBytes(CallRecording.UTF8);
+            CallRecording.writeVarLong(output, bytes.length);
+            output.write(bytes);
+        }
+
+        private void writeValue(Object value) throws IOException {
+            if (value == null) {
+                output.writeByte(CallRecording.NULL);
+            } else if (value instanceof Long || value instanceof Integer) {
+                output.writeByte(CallRecording.LONG);
+                output.writeLong(((Number) value).longValue());
+            } else if (value instanceof Double) {
+                output.writeByte(CallRecording.DOUBLE);
+                output.writeDouble((Double) value);
+            } else if (value instanceof Boolean) {
+                output.writeByte((Boolean) value ? CallRecording.TRUE : CallRecording.FALSE);
+            } else if (value instanceof List) {
+                List<?> values = (List<?>) value;
+                output.writeByte(CallRecording.LIST);
+                CallRecording.writeVarLong(output, values.size());
+                for (Object element : values) {
+                    writeValue(element);
+                }
+            } else {
+                output.writeByte(CallRecording.STRING);
+                writeUtf8(getStringValue(value));
+            }
+        }
+
+        private static String getStringValue(Object value) {
+            if (value instanceof NodeInfo) {
+                return ((NodeInfo) value).getStringValue();
+            } else if (value instanceof Value) {
+                try {
+                    return ((Value) value).getStringValue();
+                } catch (XPathException exception) {
+                    return value.toString();
+                }
+            }
+            return value.toString();
+        }
+
+    }
+
+}
@@ -0,0 +1,243 @@
+package org.poormanscastle.products.hit2assext.recording;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.poormanscastle.products.hit2assext.domain.ExtensionFunction;
+
+/**
+ * A CallRecording holds the extension function calls one render session received, as recorded by the
+ * CallRecorder. Recordings are replayed against hit2assext to reproduce the load of production templates.
+ * <p></p>
+ * The file format, all fixed-size numbers big endian:
+ * <pre>
+ * int     magic number 0x48324154, i.e. "H2AT"
+ * short   format version, currently 1
+ * the calls until the end of the file, each consisting of
+ *         string  the name of the extension function, e.g. addListValue
+ *         string  the first string argument, e.g. a list name
+ *         string  the second string argument
+ *         varlong the numeric argument, zigzag encoded
+ *         value   the value argument
+ * </pre>
+ * Strings are stored as a varint reference into the strings of the recording: 0 stands for null, n stands for
+ * the n-th string. A reference to the string following the last known one is followed by the new string as
+ * varint length and UTF-8 bytes. Thus the names of lists and variables take one or two bytes per call. Values
+ * are stored as a type byte followed by the value: nothing for null, true and false, 8 bytes for Long and
+ * Double values, varint length and UTF-8 bytes for strings, varint count and the values for lists.
+ */
+public final class CallRecording {
+
+    final static int MAGIC_NUMBER = 0x48324154;
+
+    final static short FORMAT_VERSION = 1;
+
+    /**
+     * the file name extension of recordings.
+     */
+    public final static String FILE_EXTENSION = ".h2at";
+
+    final static Charset UTF8 = Charset.forName("UTF-8");
+
+    final static byte NULL = 0;
+
+    final static byte LONG = 1;
+
+    final static byte DOUBLE = 2;
+
+    final static byte TRUE = 3;
+
+    final static byte FALSE = 4;
+
+    final static byte STRING = 5;
+
+    final static byte LIST = 6;
+
+    private final String name;
+
+    private final List<RecordedCall> calls;
+
+    private CallRecording(String name, List<RecordedCall> calls) {
+        this.name = name;
+        this.calls = calls;
+    }
+
+    /**
+     * @return the name of the recording, i.e. the id of the recorded render session.
+     */
+    public String getName() {
+        return name;
+    }
+
+    public List<RecordedCall> getCalls() {
+        return Collections.unmodifiableList(calls);
+    }
+
+    /**
+     * reads all recordings in the given directory, or the given recording file.
+     *
+     * @throws IllegalArgumentException if a file cannot be read or is no valid recording.
+     */
+    public static List<CallRecording> readAll(String path) {
+        checkArgument(!StringUtils.isBlank(path), "path cannot be blank.");
+        File file = new File(path);
+        if (!file.isDirectory()) {
+            return Collections.singletonList(read(file));
+        }
+        File[] files = file.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File directory, String name) {
+                return name.endsWith(FILE_EXTENSION);
+            }
+        });
+        checkArgument(files != null, StringUtils.join("Could not list the directory ", path));
+        Arrays.sort(files);
+        List<CallRecording> recordings = new ArrayList<>(files.length);
+        for (File recordingFile : files) {
+            recordings.add(read(recordingFile));
+        }
+        return recordings;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the file cannot be read or is no valid recording.
+     */
+    public static CallRecording read(File file) {
+        String name = StringUtils.removeEnd(file.getName(), FILE_EXTENSION);
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            checkArgument(input.readInt() == MAGIC_NUMBER, StringUtils.join("The file ", file,
+                    " is no hit2assext call recording."));
+            short formatVersion = input.readShort();
+            checkArgument(formatVersion == FORMAT_VERSION, StringUtils.join("The call recording ", file,
+                    " has format version ", formatVersion, ", but only version ", FORMAT_VERSION, " is supported."));
+            List<String> strings = new ArrayList<>();
+            List<RecordedCall> calls = new ArrayList<>();
+            while (true) {
+                int first = input.read();
+                if (first < 0) {
+                    break;
+                }
+                String functionName = readString(input, strings, first);
+                ExtensionFunction function = findFunction(functionName);
+                String symbol = readString(input, strings, input.read());
+                String secondSymbol = readString(input, strings, input.read());
+                long number = readZigZag(input);
+                calls.add(new RecordedCall(function, symbol, secondSymbol, number, readValue(input)));
+            }
+            return new CallRecording(name, calls);
+        } catch (IOException exception) {
+            throw new IllegalArgumentException(StringUtils.join("Could not read call recording ", file, ": ",
+                    exception.getMessage()), exception);
+        }
+    }
+
+    private static ExtensionFunction findFunction(String functionName) {
+        for (ExtensionFunction function : ExtensionFunction.values()) {
+            if (function.getFunctionName().equals(functionName)) {
+                return function;
+            }
+        }
+        throw new IllegalArgumentException(StringUtils.join("Unknown extension function ", functionName,
+                " in call recording."));
+    }
+
+    /**
+     * @param first the first byte of the string reference, which has been read already
+     */
+    private static String readString(DataInputStream input, List<String> strings, int first) throws IOException {
+        long reference = readVarLong(input, first);
+        if (reference == 0) {
+            return null;
+        } else if (reference <= strings.size()) {
+            return strings.get((int) reference - 1);
+        }
+        checkArgument(reference == strings.size() + 1, StringUtils.join("Invalid string reference ", reference));
+        String string = readUtf8(input);
+        strings.add(string);
+        return string;
+    }
+
+    private static String readUtf8(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[(int) readVarLong(input, input.read())];
+        input.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private static Object readValue(DataInputStream input) throws IOException {
+        byte type = input.readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case LONG:
+                return input.readLong();
+            case DOUBLE:
+                return input.readDouble();
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case STRING:
+                return readUtf8(input);
+            case LIST:
+                int count = (int) readVarLong(input, input.read());
+                List<Object> values = new ArrayList<>(count);
+                for (int index = 0; index < count; index++) {
+                    values.add(readValue(input));
+                }
+                return values;
+            default:
+                throw new IllegalArgumentException(StringUtils.join("Unknown value type ", type, " in call recording."));
+        }
+    }
+
+    static void writeVarLong(OutputStream output, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            output.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.write((int) value);
+    }
+
+    static void writeZigZag(OutputStream output, long value) throws IOException {
+        writeVarLong(output, (value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * @param first the first byte of the varint, which has been read already
+     */
+    private static long readVarLong(InputStream input, int first) throws IOException {
+        long value = 0;
+        int shift = 0;
+        for (int next = first; ; next = input.read()) {
+            if (next < 0) {
+                throw new EOFException("The call recording is truncated.");
+            }
+            value |= (long) (next & 0x7F) << shift;
+            if ((next & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+
+    private static long readZigZag(InputStream input) throws IOException {
+        long value = readVarLong(input, input.read());
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+}
@@ -0,0 +1,69 @@
+package org.poormanscastle.products.hit2assext.recording;
+
+import org.apache.commons.lang3.StringUtils;
+import org.poormanscastle.products.hit2assext.domain.ExtensionFunction;
+
+/**
+ * A RecordedCall is an extension function call read from a CallRecording, together with the arguments
+ * needed to replay it.
+ */
+public final class RecordedCall {
+
+    private final ExtensionFunction function;
+
+    private final String symbol;
+
+    private final String secondSymbol;
+
+    private final long number;
+
+    private final Object value;
+
+    RecordedCall(ExtensionFunction function, String symbol, String secondSymbol, long number, Object value) {
+        this.function = function;
+        this.symbol = symbol;
+        this.secondSymbol = secondSymbol;
+        this.number = number;
+        this.value = value;
+    }
+
+    public ExtensionFunction getFunction() {
+        return function;
+    }
+
+    /**
+     * @return the first string argument, e.g. the name of the list or variable, or null.
+     */
+    public String getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * @return the second string argument, e.g. the target list of appendList(), or null.
+     */
+    public String getSecondSymbol() {
+        return secondSymbol;
+    }
+
+    /**
+     * @return the numeric argument, e.g. the list index or the delta of incrementScalarVariable(), or 0.
+     */
+    public long getNumber() {
+        return number;
+    }
+
+    /**
+     * @return the value argument: null, a Long, Double, Boolean or String value, or a java.util.List of such
+     * values. Nodes are recorded as their string value.
+     */
+    public Object getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return StringUtils.join(function.getFunctionName(), "(", symbol, ", ", secondSymbol, ", ", number, ", ",
+                value, ")");
+    }
+
+}
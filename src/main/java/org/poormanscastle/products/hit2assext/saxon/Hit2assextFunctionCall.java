@@ -0,0 +1,175 @@
+package org.poormanscastle.products.hit2assext.saxon;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+
+import net.sf.saxon.expr.Expression;
+import net.sf.saxon.expr.FunctionCall;
+import net.sf.saxon.expr.StaticContext;
+import net.sf.saxon.expr.StaticProperty;
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.om.EmptyIterator;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.ListIterator;
+import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.om.SingletonIterator;
+import net.sf.saxon.trans.DynamicError;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.type.ItemType;
+import net.sf.saxon.type.TypeHierarchy;
+import net.sf.saxon.value.BooleanValue;
+import net.sf.saxon.value.DoubleValue;
+import net.sf.saxon.value.IntegerValue;
+import net.sf.saxon.value.SequenceType;
+import net.sf.saxon.value.StringValue;
+import net.sf.saxon.value.Value;
+
+/**
+ * A call of a natively bound hit2assext function within an XPath expression, see Hit2assextFunctionLibrary.
+ * The call evaluates its arguments, calls the RenderSessionManager method of its NativeFunction and converts
+ * the result into Saxon values. Small integers and booleans are returned as shared instances, so the typical
+ * loop counter, list length or list index costs no allocation.
+ * <p></p>
+ * Like the reflective binding, the call declares side effects, so Saxon neither evaluates it at compile time
+ * nor moves it out of a loop.
+ */
+final class Hit2assextFunctionCall extends FunctionCall {
+
+    private final static long serialVersionUID = 1L;
+
+    private final static int CACHED_INTEGERS = 1024;
+
+    private final static IntegerValue[] integers = new IntegerValue[CACHED_INTEGERS];
+
+    static {
+        for (int value = 0; value < CACHED_INTEGERS; value++) {
+            integers[value] = new IntegerValue(value);
+        }
+    }
+
+    private final NativeFunction function;
+
+    Hit2assextFunctionCall(NativeFunction function) {
+        this.function = function;
+    }
+
+    NativeFunction getFunction() {
+        return function;
+    }
+
+    @Override
+    protected void checkArguments(StaticContext env) throws XPathException {
+        // the library binds a function only for the arity it is defined with
+    }
+
+    @Override
+    public Expression preEvaluate(StaticContext env) throws XPathException {
+        return this;
+    }
+
+    @Override
+    public int getIntrinsicDependencies() {
+        return StaticProperty.HAS_SIDE_EFFECTS;
+    }
+
+    @Override
+    protected int computeCardinality() {
+        return function.getResult().getCardinality();
+    }
+
+    @Override
+    public ItemType getItemType(TypeHierarchy typeHierarchy) {
+        return function.getResult().getItemType();
+    }
+
+    @Override
+    public Item evaluateItem(XPathContext context) throws XPathException {
+        Object value = call(context);
+        switch (function.getResult()) {
+            case EMPTY:
+                return null;
+            case STRING:
+                return value == null ? null : toStringValue((String) value);
+            case INTEGER:
+                return value == null ? null : toIntegerValue(((Number) value).longValue());
+            case BOOLEAN:
+                return BooleanValue.get((Boolean) value);
+            default:
+                return toIterator(value, context).next();
+        }
+    }
+
+    @Override
+    public SequenceIterator iterate(XPathContext context) throws XPathException {
+        if (function.getResult() == NativeFunction.Result.ANY) {
+            return toIterator(call(context), context);
+        }
+        Item item = evaluateItem(context);
+        return item == null ? EmptyIterator.getInstance() : SingletonIterator.makeIterator(item);
+    }
+
+    private Object call(XPathContext context) throws XPathException {
+        try {
+            return function.call(argument, context);
+        } catch (RuntimeException exception) {
+            throw new DynamicError(StringUtils.defaultString(exception.getMessage(), exception.toString()), exception);
+        }
+    }
+
+    static IntegerValue toIntegerValue(long value) {
+        return value >= 0 && value < CACHED_INTEGERS ? integers[(int) value] : new IntegerValue(value);
+    }
+
+    static StringValue toStringValue(String value) {
+        return value.isEmpty() ? StringValue.EMPTY_STRING : new StringValue(value);
+    }
+
+    /**
+     * converts the value returned by a RenderSessionManager method into a Saxon sequence. Items and Saxon values
+     * stored in lists and scalar variables are returned as they are.
+     */
+    static SequenceIterator toIterator(Object value, XPathContext context) throws XPathException {
+        if (value == null) {
+            return EmptyIterator.getInstance();
+        } else if (value instanceof List) {
+            List<Item> items = new ArrayList<>(((List) value).size());
+            for (Object element : (List) value) {
+                SequenceIterator iterator = toIterator(element, context);
+                for (Item item = iterator.next(); item != null; item = iterator.next()) {
+                    items.add(item);
+                }
+            }
+            return new ListIterator(items);
+        }
+        Item item = toItem(value);
+        if (item != null) {
+            return SingletonIterator.makeIterator(item);
+        } else if (value instanceof Value) {
+            return ((Value) value).iterate(context);
+        }
+        return Value.convertJavaObjectToXPath(value, SequenceType.ANY_SEQUENCE, context.getConfiguration())
+                .iterate(context);
+    }
+
+    /**
+     * @return the given value as Saxon item, or null if it is no item and no simple Java value.
+     */
+    private static Item toItem(Object value) {
+        if (value instanceof Item) {
+            return (Item) value;
+        } else if (value instanceof String) {
+            return toStringValue((String) value);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short
+                || value instanceof Byte) {
+            return toIntegerValue(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            return new DoubleValue(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            return BooleanValue.get((Boolean) value);
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,119 @@
+package org.poormanscastle.products.hit2assext.saxon;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import org.apache.log4j.Logger;
+import org.poormanscastle.products.hit2assext.RenderSessionManager;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.expr.Expression;
+import net.sf.saxon.functions.FunctionLibrary;
+import net.sf.saxon.functions.FunctionLibraryList;
+
+/**
+ * Binds the hit2assext functions templates call most often as native Saxon extension functions, instead of
+ * letting Saxon find the static RenderSessionManager methods by reflection and convert their arguments and
+ * results generically. The functions and their signatures are listed in NativeFunction.
+ * <p></p>
+ * The library answers to the namespace DocDesign templates declare for hit2assext, i.e. the class name of the
+ * RenderSessionManager, with or without the java: prefix. All other functions of this namespace, and all other
+ * namespaces, are left to the extension binder the Saxon configuration had before, so the static methods
+ * remain the API of hit2assext, and templates need not be changed.
+ * <p></p>
+ * Saxon asks the extension binder when it compiles an XPath expression, so the library must be registered
+ * before the templates are compiled, see register() and RenderSessionManager.bindNativeFunctions().
+ */
+public final class Hit2assextFunctionLibrary implements FunctionLibrary {
+
+    private final static long serialVersionUID = 1L;
+
+    private final static Logger logger = Logger.getLogger(Hit2assextFunctionLibrary.class);
+
+    private final static String NAMESPACE = RenderSessionManager.class.getName();
+
+    private final static String JAVA_NAMESPACE = "java:" + NAMESPACE;
+
+    private final static Hit2assextFunctionLibrary instance = new Hit2assextFunctionLibrary();
+
+    private Hit2assextFunctionLibrary() {
+    }
+
+    public static Hit2assextFunctionLibrary getInstance() {
+        return instance;
+    }
+
+    /**
+     * registers the library with the given Saxon configuration, in front of its current extension binder.
+     * Registering the library again does nothing.
+     *
+     * @return true if the library was registered, false if it was registered before.
+     */
+    public static boolean register(Configuration configuration) {
+        checkNotNull(configuration,
+                "hit2assext:ERROR: Cannot register the hit2assext functions without a Saxon configuration.");
+        synchronized (configuration) {
+            if (isRegistered(configuration)) {
+                return false;
+            }
+            FunctionLibraryList libraries = new FunctionLibraryList();
+            libraries.addFunctionLibrary(instance);
+            if (configuration.getExtensionBinder() != null) {
+                libraries.addFunctionLibrary(configuration.getExtensionBinder());
+            }
+            configuration.setExtensionBinder(libraries);
+        }
+        if (logger.isInfoEnabled()) {
+            logger.info("Registered the native hit2assext functions with the Saxon configuration.");
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the library is registered with the given Saxon configuration.
+     */
+    public static boolean isRegistered(Configuration configuration) {
+        FunctionLibrary binder = configuration.getExtensionBinder();
+        return binder == instance || binder instanceof FunctionLibraryList
+                && ((FunctionLibraryList) binder).getLibraryList().contains(instance);
+    }
+
+    @Override
+    public boolean isAvailable(int fingerprint, String uri, String local, int arity) {
+        return isHit2assextNamespace(uri) && NativeFunction.lookup(local, arity) != null;
+    }
+
+    @Override
+    public Expression bind(int nameCode, String uri, String local, Expression[] arguments) {
+        if (!isHit2assextNamespace(uri)) {
+            return null;
+        }
+        NativeFunction function = NativeFunction.lookup(local, arguments.length);
+        if (function == null) {
+            return null;
+        }
+        Hit2assextFunctionCall call = new Hit2assextFunctionCall(function);
+        call.setFunctionNameCode(nameCode);
+        call.setArguments(arguments);
+        return call;
+    }
+
+    /**
+     * the library holds no state, so all Saxon configurations and stylesheets share the same instance.
+     */
+    @Override
+    public FunctionLibrary copy() {
+        return this;
+    }
+
+    /**
+     * keeps the library a singleton if Saxon serializes a compiled stylesheet, see isRegistered().
+     */
+    private Object readResolve() {
+        return instance;
+    }
+
+    private static boolean isHit2assextNamespace(String uri) {
+        return NAMESPACE.equals(uri) || JAVA_NAMESPACE.equals(uri);
+    }
+
+}
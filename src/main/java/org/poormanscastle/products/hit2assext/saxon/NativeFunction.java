@@ -0,0 +1,386 @@
+package org.poormanscastle.products.hit2assext.saxon;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.poormanscastle.products.hit2assext.RenderSessionManager;
+
+import net.sf.saxon.expr.Expression;
+import net.sf.saxon.expr.StaticProperty;
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.trans.DynamicError;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.type.AnyItemType;
+import net.sf.saxon.type.ItemType;
+import net.sf.saxon.type.Type;
+import net.sf.saxon.value.NumericValue;
+import net.sf.saxon.value.Value;
+
+/**
+ * The hit2assext functions Hit2assextFunctionLibrary binds natively, i.e. the functions templates call for
+ * every line or every value. Each function knows its name, arity and result type up front and calls its
+ * RenderSessionManager method directly, so Saxon neither looks up the method by reflection nor converts the
+ * arguments and the result generically.
+ * <p></p>
+ * Arguments are converted like Saxon converts them for the static methods: String arguments take the string
+ * value of the first item, or null for the empty sequence; int and long arguments take the value of a number,
+ * or the number given as string; Object arguments take null for the empty sequence, a node, the Java value of
+ * an atomic value, or a List if the sequence holds several items.
+ */
+enum NativeFunction {
+
+    CREATE_RENDER_SESSION_CONTEXT("createRenderSessionContext", 0, Result.STRING) {
+        @Override
+        Object call(Expression[] arguments, XPathContext context) {
+            return RenderSessionManager.createRenderSessionContext();
+        }
+    },
+    CREATE_RENDER_SESSION_CONTEXT_FOR_LAYOUT("createRenderSessionContext", 1, Result.STRING) {
+        @Override
+        Object call(Expression[] arguments, XPathContext context) throws XPathException {
+            return RenderSessionManager.createRenderSessionContext(string(arguments[0], context));
+        }
+    },
+    CREATE_RENDER_SESSION_HANDLE("createRenderSessionHandle", 0, Result.STRING) {
+        @Override
+        Object call(Expression[] arguments, XPathContext context) {
+            return RenderSessionManager.createRenderSessionHandle();
+        }
+    },
+    CREATE_RENDER_SESSION_HANDLE_FOR_LAYOUT("createRenderSessionHandle", 1, Result.STRING) {
+        @Override
+        Object call(Expression[] arguments, XPathContext context) throws XPathException {
+            return RenderSessionManager.createRenderSessionHandle(string(arguments[0], context));
+        }
+    },
+    CLEAN_UP_RENDER_SESSION_CONTEXT("cleanUpRenderSessionContext", 1, Result.EMPTY) {
+        @Override
+        Object call(Expression[] arguments, XPathContext context) throws XPathException {
+            RenderSessionManager.cleanUpRenderSessionContext(string(arguments[0], context));
+            return null;
+        }
+    },
+    CREATE_LIST("createList", 2, Result.EMPTY) {
+        @Override
+        Object call(Expression[] arguments, XPathContext context) throws XPathException {
+            RenderSessionManager.createList(string(arguments[0], context), string(arguments[1], context));
+            return null;
+        }
+    },
+    ADD_LIST_VALUE("addListValue", 3, Result.EMPTY) {
+        @Override
+        Object call(Expression[] arguments, XPathContext context) throws XPathException {
+            RenderSessionManager.addListValue(string(arguments[0], context), string(arguments[1], context),
+                    object(arguments[2], context));
+            return null;
+        }
+    },
+    ADD_LIST_VALUES("addListValues", 3, Result.INTEGER) {
+        @Override
+        Object call(Expression[] arguments, XPathContext context) throws XPathException {
+            return RenderSessionManager.addListValues(string(arguments[0], context), string(arguments[1], context),
+                    list(arguments[2], context));
+        }
+    },
+    SET_LIST_VALUES("setListValues", 3, Result.INTEGER) {
+        @Override
+        Object call(Expression[] arguments, XPathContext context) throws XPathException {
+            return RenderSessionManager.setListValues(string(arguments[0], context), string(arguments[1], context),
+                    list(arguments[2], context));
+        }
+    },
+    GET_LIST_VALUE_AT("getListValueAt", 3, Result.ANY) {
+        @Override
+        Object call(Expression[] arguments, XPathContext context) throws XPathException {
+            return RenderSessionManager.getListValueAt(string(arguments[0], context), string(arguments[1], context),
+                    (int) number(arguments[2], context));
+        }
+    },
+    SET_LIST_VALUE_AT("setListValueAt", 4, Result.EMPTY) {
+        @Override
+        Object call(Expression[] arguments, XPathContext context) throws XPathException {
+            RenderSessionManager.setListValueAt(string(arguments[0], context), string(arguments[1], context),
+                    (int) number(arguments[2], context), object(arguments[3], context));
+            return null;
+        }
+    },
+    GET_LIST_LENGTH("getListLength", 2, Result.INTEGER) {
+        @Override
+        Object call(Expression[] arguments, XPathContext context) throws XPathException {
+            return RenderSessionManager.getListLength(string(arguments[0], context), string(arguments[1], context));
+        }
+    },
+    INDEX_OF_LIST_VALUE("indexOfListValue", 3, Result.INTEGER) {
+        @Override
+        Object call(Expression[] arguments, XPathContext context) throws XPathException {
+            return RenderSessionManager.indexOfListValue(string(arguments[0], context), string(arguments[1], context),
+                    object(arguments[2], context));
+        }
+    },
+    CONTAINS_LIST_VALUE("containsListValue", 3, Result.BOOLEAN) {
+        @Override
+        Object call(Expression[] arguments, XPathContext context) throws XPathException {
+            return RenderSessionManager.containsListValue(string(arguments[0], context),
+                    string(arguments[1], context), object(arguments[2], context));
+        }
+    },
+    CREATE_SCALAR_VARIABLE("createScalarVariable", 3, Result.EMPTY) {
+        @Override
+        Object call(Expression[] arguments, XPathContext context) throws XPathException {
+            RenderSessionManager.createScalarVariable(string(arguments[0], context), string(arguments[1], context),
+                    object(arguments[2], context));
+            return null;
+        }
+    },
+    SET_SCALAR_VARIABLE_VALUE("setScalarVariableValue", 3, Result.EMPTY) {
+        @Override
+        Object call(Expression[] arguments, XPathContext context) throws XPathException {
+            RenderSessionManager.setScalarVariableValue(string(arguments[0], context), string(arguments[1], context),
+                    object(arguments[2], context));
+            return null;
+        }
+    },
+    INCREMENT_SCALAR_VARIABLE("incrementScalarVariable", 3, Result.EMPTY) {
+        @Override
+        Object call(Expression[] arguments, XPathContext context) throws XPathException {
+            RenderSessionManager.incrementScalarVariable(string(arguments[0], context),
+                    string(arguments[1], context), number(arguments[2], context));
+            return null;
+        }
+    },
+    GET_SCALAR_VARIABLE_VALUE("getScalarVariableValue", 2, Result.ANY) {
+        @Override
+        Object call(Expression[] arguments, XPathContext context) throws XPathException {
+            return RenderSessionManager.getScalarVariableValue(string(arguments[0], context),
+                    string(arguments[1], context));
+        }
+    },
+    GET_XML_SEQUENCE("getXmlSequence", 1, Result.INTEGER) {
+        @Override
+        Object call(Expression[] arguments, XPathContext context) throws XPathException {
+            return RenderSessionManager.getXmlSequence(string(arguments[0], context));
+        }
+    },
+    INCREMENT_XML_SEQUENCE("incrementXmlSequence", 1, Result.EMPTY) {
+        @Override
+        Object call(Expression[] arguments, XPathContext context) throws XPathException {
+            RenderSessionManager.incrementXmlSequence(string(arguments[0], context));
+            return null;
+        }
+    },
+    HAS_USER_DATA_LINE("hasUserDataLine", 1, Result.BOOLEAN) {
+        @Override
+        Object call(Expression[] arguments, XPathContext context) throws XPathException {
+            return RenderSessionManager.hasUserDataLine(string(arguments[0], context));
+        }
+    },
+    HAS_USER_DATA_LINE_AT_CURSOR("hasUserDataLine", 2, Result.BOOLEAN) {
+        @Override
+        Object call(Expression[] arguments, XPathContext context) throws XPathException {
+            return RenderSessionManager.hasUserDataLine(string(arguments[0], context), string(arguments[1], context));
+        }
+    },
+    GET_CURRENT_USER_DATA_LINE("getCurrentUserDataLine", 1, Result.ANY) {
+        @Override
+        Object call(Expression[] arguments, XPathContext context) throws XPathException {
+            return RenderSessionManager.getCurrentUserDataLine(string(arguments[0], context));
+        }
+    },
+    GET_CURRENT_USER_DATA_LINE_AT_CURSOR("getCurrentUserDataLine", 2, Result.ANY) {
+        @Override
+        Object call(Expression[] arguments, XPathContext context) throws XPathException {
+            return RenderSessionManager.getCurrentUserDataLine(string(arguments[0], context),
+                    string(arguments[1], context));
+        }
+    },
+    NEXT_USER_DATA_LINE("nextUserDataLine", 1, Result.ANY) {
+        @Override
+        Object call(Expression[] arguments, XPathContext context) throws XPathException {
+            return RenderSessionManager.nextUserDataLine(string(arguments[0], context));
+        }
+    },
+    NEXT_USER_DATA_LINE_AT_CURSOR("nextUserDataLine", 2, Result.ANY) {
+        @Override
+        Object call(Expression[] arguments, XPathContext context) throws XPathException {
+            return RenderSessionManager.nextUserDataLine(string(arguments[0], context), string(arguments[1], context));
+        }
+    },
+    HAS_NEXT_LINE("hasNextLine", 1, Result.BOOLEAN) {
+        @Override
+        Object call(Expression[] arguments, XPathContext context) throws XPathException {
+            return RenderSessionManager.hasNextLine(string(arguments[0], context));
+        }
+    },
+    HAS_NEXT_LINE_AT_CURSOR("hasNextLine", 2, Result.BOOLEAN) {
+        @Override
+        Object call(Expression[] arguments, XPathContext context) throws XPathException {
+            return RenderSessionManager.hasNextLine(string(arguments[0], context), string(arguments[1], context));
+        }
+    },
+    PEEK_LINE("peekLine", 1, Result.STRING) {
+        @Override
+        Object call(Expression[] arguments, XPathContext context) throws XPathException {
+            return RenderSessionManager.peekLine(string(arguments[0], context));
+        }
+    },
+    PEEK_LINE_AT_CURSOR("peekLine", 2, Result.STRING) {
+        @Override
+        Object call(Expression[] arguments, XPathContext context) throws XPathException {
+            return RenderSessionManager.peekLine(string(arguments[0], context), string(arguments[1], context));
+        }
+    },
+    READ_NEXT_LINE("readNextLine", 1, Result.STRING) {
+        @Override
+        Object call(Expression[] arguments, XPathContext context) throws XPathException {
+            return RenderSessionManager.readNextLine(string(arguments[0], context));
+        }
+    },
+    READ_NEXT_LINE_AT_CURSOR("readNextLine", 2, Result.STRING) {
+        @Override
+        Object call(Expression[] arguments, XPathContext context) throws XPathException {
+            return RenderSessionManager.readNextLine(string(arguments[0], context), string(arguments[1], context));
+        }
+    };
+
+    /**
+     * the result types of the functions, i.e. the Java return types of their RenderSessionManager methods.
+     */
+    enum Result {
+
+        EMPTY(AnyItemType.getInstance(), StaticProperty.EMPTY),
+        STRING(Type.STRING_TYPE, StaticProperty.ALLOWS_ZERO_OR_ONE),
+        INTEGER(Type.INTEGER_TYPE, StaticProperty.ALLOWS_ZERO_OR_ONE),
+        BOOLEAN(Type.BOOLEAN_TYPE, StaticProperty.EXACTLY_ONE),
+        ANY(AnyItemType.getInstance(), StaticProperty.ALLOWS_ZERO_OR_MORE);
+
+        private final ItemType itemType;
+
+        private final int cardinality;
+
+        Result(ItemType itemType, int cardinality) {
+            this.itemType = itemType;
+            this.cardinality = cardinality;
+        }
+
+        ItemType getItemType() {
+            return itemType;
+        }
+
+        int getCardinality() {
+            return cardinality;
+        }
+
+    }
+
+    private final static Map<String, NativeFunction> functions = new HashMap<>();
+
+    static {
+        for (NativeFunction function : values()) {
+            functions.put(key(function.localName, function.arity), function);
+        }
+    }
+
+    private final String localName;
+
+    private final int arity;
+
+    private final Result result;
+
+    NativeFunction(String localName, int arity, Result result) {
+        this.localName = localName;
+        this.arity = arity;
+        this.result = result;
+    }
+
+    String getLocalName() {
+        return localName;
+    }
+
+    int getArity() {
+        return arity;
+    }
+
+    Result getResult() {
+        return result;
+    }
+
+    /**
+     * calls the RenderSessionManager method of this function.
+     *
+     * @return the Java value returned by the method, null for void methods
+     */
+    abstract Object call(Expression[] arguments, XPathContext context) throws XPathException;
+
+    /**
+     * @param arity the number of arguments, or -1 for any number of arguments
+     * @return the function with the given name and arity, or null if it is not bound natively.
+     */
+    static NativeFunction lookup(String localName, int arity) {
+        if (arity >= 0) {
+            return functions.get(key(localName, arity));
+        }
+        for (NativeFunction function : values()) {
+            if (function.localName.equals(localName)) {
+                return function;
+            }
+        }
+        return null;
+    }
+
+    private static String key(String localName, int arity) {
+        return localName + '#' + arity;
+    }
+
+    static String string(Expression argument, XPathContext context) throws XPathException {
+        Item item = argument.evaluateItem(context);
+        return item == null ? null : item.getStringValue();
+    }
+
+    static long number(Expression argument, XPathContext context) throws XPathException {
+        Item item = argument.evaluateItem(context);
+        if (item instanceof NumericValue) {
+            return ((NumericValue) item).longValue();
+        }
+        if (item == null) {
+            throw new DynamicError("hit2assext:ERROR: An empty sequence was passed where a number is expected.");
+        }
+        try {
+            return (long) Value.stringToNumber(item.getStringValue());
+        } catch (NumberFormatException exception) {
+            throw new DynamicError(
+                    "hit2assext:ERROR: The value " + item.getStringValue() + " was passed where a number is expected.");
+        }
+    }
+
+    static Object object(Expression argument, XPathContext context) throws XPathException {
+        SequenceIterator iterator = argument.iterate(context);
+        Item first = iterator.next();
+        if (first == null) {
+            return null;
+        }
+        Item second = iterator.next();
+        if (second == null) {
+            return Value.convert(first);
+        }
+        List<Object> values = new ArrayList<>();
+        values.add(Value.convert(first));
+        for (Item item = second; item != null; item = iterator.next()) {
+            values.add(Value.convert(item));
+        }
+        return values;
+    }
+
+    static List<?> list(Expression argument, XPathContext context) throws XPathException {
+        Object value = object(argument, context);
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        return value instanceof List ? (List<?>) value : Collections.singletonList(value);
+    }
+
+}
@@ -1,10 +1,31 @@
 package org.poormanscastle.products.hit2assext;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.File;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.poormanscastle.products.hit2assext.domain.RenderSessionContext;
+
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.sxpath.XPathEvaluator;
+import net.sf.saxon.value.Value;
 
 /**
  * Created by georg on 8/10/16.
@@ -19,6 +40,9 @@ public class RenderSessionManagerTest {
     @Rule
     public final ExpectedException exception = ExpectedException.none();
 
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void getSubstringValid() throws Exception {
         String testString = "Hello, World!";
@@ -64,6 +88,320 @@ public class RenderSessionManagerTest {
         assertEquals(5, RenderSessionManager.getXmlSequence(sessionId));
     }
 
+    @Test
+    public void readUserDataLinesUsingTheIndex() throws Exception {
+        XPathEvaluator evaluator = new XPathEvaluator();
+        NodeInfo userData = evaluator.build(new StreamSource(new StringReader("<UserData><payload>"
+                + "<line lineNr=\"2\">second</line><line lineNr=\"1\">first</line><line lineNr=\"3\">third</line>"
+                + "</payload></UserData>")));
+        List lines = evaluator.createExpression("/UserData/payload/line").evaluate(userData);
+
+        String sessionId = RenderSessionManager.createRenderSessionContext();
+        assertEquals(3, RenderSessionManager.indexUserDataLines(sessionId, lines));
+        assertTrue(RenderSessionManager.hasUserDataLine(sessionId));
+        assertEquals("first", RenderSessionManager.getCurrentUserDataLine(sessionId).getStringValue());
+        assertEquals("first", RenderSessionManager.nextUserDataLine(sessionId).getStringValue());
+        assertEquals(2, RenderSessionManager.getXmlSequence(sessionId));
+        assertEquals("second", RenderSessionManager.nextUserDataLine(sessionId).getStringValue());
+        assertEquals("third", RenderSessionManager.nextUserDataLine(sessionId).getStringValue());
+        assertFalse(RenderSessionManager.hasUserDataLine(sessionId));
+        exception.expect(IllegalStateException.class);
+        RenderSessionManager.nextUserDataLine(sessionId);
+    }
+
+    @Test
+    public void namedCursorsKeepTheirOwnPosition() throws Exception {
+        XPathEvaluator evaluator = new XPathEvaluator();
+        NodeInfo userData = evaluator.build(new StreamSource(new StringReader("<UserData><payload>"
+                + "<line lineNr=\"1\">first</line><line lineNr=\"2\">second</line><line lineNr=\"3\">third</line>"
+                + "</payload></UserData>")));
+        List lines = evaluator.createExpression("/UserData/payload/line").evaluate(userData);
+
+        String sessionId = RenderSessionManager.createRenderSessionContext();
+        RenderSessionManager.indexUserDataLines(sessionId, lines);
+        assertEquals("first", RenderSessionManager.nextUserDataLine(sessionId).getStringValue());
+        assertEquals("first", RenderSessionManager.nextUserDataLine(sessionId, "inner").getStringValue());
+        assertEquals("second", RenderSessionManager.nextUserDataLine(sessionId, "inner").getStringValue());
+        assertEquals(3, RenderSessionManager.getCursorPosition(sessionId, "inner"));
+        assertEquals(2, RenderSessionManager.getCursorPosition(sessionId, RenderSessionContext.DEFAULT_CURSOR));
+        assertEquals("second", RenderSessionManager.getCurrentUserDataLine(sessionId).getStringValue());
+
+        RenderSessionManager.seekCursor(sessionId, "inner", 3);
+        assertEquals("third", RenderSessionManager.getCurrentUserDataLine(sessionId, "inner").getStringValue());
+        RenderSessionManager.advanceCursor(sessionId, "inner");
+        assertFalse(RenderSessionManager.hasUserDataLine(sessionId, "inner"));
+        RenderSessionManager.resetCursor(sessionId, "inner");
+        assertTrue(RenderSessionManager.hasUserDataLine(sessionId, "inner"));
+        assertEquals(1, RenderSessionManager.getCursorPosition(sessionId, "inner"));
+
+        RenderSessionManager.advanceCursor(sessionId, RenderSessionContext.DEFAULT_CURSOR);
+        assertEquals(3, RenderSessionManager.getXmlSequence(sessionId));
+        exception.expect(IllegalArgumentException.class);
+        RenderSessionManager.seekCursor(sessionId, "inner", 0);
+    }
+
+    @Test
+    public void sortListsAlphabetically() throws Exception {
+        String sessionId = RenderSessionManager.createRenderSessionContext();
+        RenderSessionManager.createList(sessionId, "names");
+        for (String name : new String[]{"Zoe", "Ärger", "Anton", "Zoe", "Berta"}) {
+            RenderSessionManager.addListValue(sessionId, "names", name);
+        }
+        assertEquals(4, RenderSessionManager.distinctListValues(sessionId, "names", "distinct"));
+        assertEquals(4, RenderSessionManager.sortListByText(sessionId, "distinct", "sorted", "de", false));
+        assertEquals("Anton", RenderSessionManager.getListValueAt(sessionId, "sorted", 1));
+        assertEquals("Ärger", RenderSessionManager.getListValueAt(sessionId, "sorted", 2));
+        assertEquals("Zoe", RenderSessionManager.getListValueAt(sessionId, "sorted", 4));
+        RenderSessionManager.sortListByText(sessionId, "sorted", "sorted", "de", true);
+        assertEquals("Zoe", RenderSessionManager.getListValueAt(sessionId, "sorted", 1));
+        assertEquals(Integer.valueOf(5), RenderSessionManager.getListLength(sessionId, "names"));
+        RenderSessionManager.cleanUpRenderSessionContext(sessionId);
+    }
+
+    @Test
+    public void fillListsFromNodeSequences() throws Exception {
+        XPathEvaluator evaluator = new XPathEvaluator();
+        NodeInfo userData = evaluator.build(new StreamSource(new StringReader(
+                "<UserData><name>John</name><name>Jane</name><amount>5</amount></UserData>")));
+        List names = evaluator.createExpression("/UserData/name").evaluate(userData);
+        List amounts = evaluator.createExpression("/UserData/amount").evaluate(userData);
+
+        String sessionId = RenderSessionManager.createRenderSessionContext();
+        assertEquals(2, RenderSessionManager.addListValues(sessionId, "abraxas", names));
+        assertEquals(3, RenderSessionManager.addListValues(sessionId, "abraxas", amounts));
+        assertEquals("Jane", ((Value) RenderSessionManager.getListValueAt(sessionId, "abraxas", 2)).getStringValue());
+        assertEquals("5", ((Value) RenderSessionManager.getListValueAt(sessionId, "abraxas", 3)).getStringValue());
+        assertEquals(1, RenderSessionManager.setListValues(sessionId, "abraxas", amounts));
+        assertEquals(Integer.valueOf(1), RenderSessionManager.getListLength(sessionId, "abraxas"));
+        RenderSessionManager.cleanUpRenderSessionContext(sessionId);
+    }
+
+    @Test
+    public void readDataFileLineByLine() throws Exception {
+        File dataFile = folder.newFile();
+        FileUtils.writeStringToFile(dataFile, "Müller\r\nMeier\r\n", "ISO-8859-1");
+        String sessionId = RenderSessionManager.createRenderSessionContext();
+        RenderSessionManager.openDataFile(sessionId, dataFile.getPath(), "");
+        assertTrue(RenderSessionManager.hasNextLine(sessionId));
+        assertEquals("Müller", RenderSessionManager.peekLine(sessionId));
+        assertEquals("Müller", RenderSessionManager.readNextLine(sessionId));
+        assertEquals("Meier", RenderSessionManager.readNextLine(sessionId));
+        assertFalse(RenderSessionManager.hasNextLine(sessionId));
+        assertEquals(3, RenderSessionManager.getXmlSequence(sessionId));
+        RenderSessionManager.cleanUpRenderSessionContext(sessionId);
+    }
+
+    @Test
+    public void incrementScalarVariable() throws Exception {
+        String sessionId = RenderSessionManager.createRenderSessionContext();
+        RenderSessionManager.createScalarVariable(sessionId, "zähler", 1L);
+        RenderSessionManager.incrementScalarVariable(sessionId, "zähler", 1);
+        RenderSessionManager.incrementScalarVariable(sessionId, "counter", 1);
+        assertEquals(2L, RenderSessionManager.getScalarVariableValue(sessionId, "zähler"));
+        assertEquals(1L, RenderSessionManager.getScalarVariableValue(sessionId, "counter"));
+        RenderSessionManager.cleanUpRenderSessionContext(sessionId);
+    }
+
+    @Test
+    public void convertListElementsToVars() throws Exception {
+        String sessionId = RenderSessionManager.createRenderSessionContext();
+        RenderSessionManager.createList(sessionId, "list");
+        RenderSessionManager.addListValue(sessionId, "list", "John");
+        RenderSessionManager.addListValue(sessionId, "list", "Paul");
+        for (long index = 1; index <= 2; index++) {
+            RenderSessionManager.setScalarVariableValue(sessionId, "zähler", index);
+            RenderSessionManager.setScalarVariableValue(sessionId, "listind", (double) index);
+            RenderSessionManager.setScalarVariableValue(sessionId, "element",
+                    StringUtils.join("#= listelem", index, " list[listind]"));
+            RenderSessionManager.convertListElementsToVars(sessionId);
+        }
+        assertEquals("John", RenderSessionManager.getScalarVariableValue(sessionId, "listelem1"));
+        assertEquals("Paul", RenderSessionManager.getScalarVariableValue(sessionId, "listelem2"));
+        RenderSessionManager.executeMacroCommand(sessionId, "#= first list[1]");
+        assertEquals("John", RenderSessionManager.getScalarVariableValue(sessionId, "first"));
+        RenderSessionManager.cleanUpRenderSessionContext(sessionId);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void convertMalformedListElementCommand() throws Exception {
+        String sessionId = RenderSessionManager.createRenderSessionContext();
+        RenderSessionManager.setScalarVariableValue(sessionId, "element", "#= listelem1 list[listind");
+        try {
+            RenderSessionManager.convertListElementsToVars(sessionId);
+        } finally {
+            RenderSessionManager.cleanUpRenderSessionContext(sessionId);
+        }
+    }
+
+    @Test
+    public void formatListValues() throws Exception {
+        String sessionId = RenderSessionManager.createRenderSessionContext();
+        RenderSessionManager.createList(sessionId, "dates");
+        RenderSessionManager.addListValue(sessionId, "dates", "1.2.2016");
+        RenderSessionManager.createList(sessionId, "amounts");
+        RenderSessionManager.addListValue(sessionId, "amounts", 1234.5d);
+        assertEquals(1, RenderSessionManager.convertListDatesToIso8601Format(sessionId, "dates"));
+        assertEquals(1, RenderSessionManager.formatListNumbers(sessionId, "amounts", 2));
+        assertEquals("2016-02-01", RenderSessionManager.getListValueAt(sessionId, "dates", 1));
+        assertEquals("1.234,50", RenderSessionManager.getListValueAt(sessionId, "amounts", 1));
+
+        // a value failing the conversion leaves the list unchanged
+        RenderSessionManager.addListValue(sessionId, "amounts", "no number");
+        try {
+            RenderSessionManager.formatListNumbers(sessionId, "amounts", 2);
+            fail();
+        } catch (RuntimeException expected) {
+        }
+        assertEquals("1.234,50", RenderSessionManager.getListValueAt(sessionId, "amounts", 1));
+        assertEquals(Integer.valueOf(2), RenderSessionManager.getListLength(sessionId, "amounts"));
+        RenderSessionManager.cleanUpRenderSessionContext(sessionId);
+    }
+
+    @Test
+    public void globalSymbolsAreCopiedOnWrite() throws Exception {
+        String loader = RenderSessionManager.createRenderSessionContext();
+        RenderSessionManager.createList(loader, "postcodes");
+        RenderSessionManager.addListValue(loader, "postcodes", "1010");
+        RenderSessionManager.addListValue(loader, "postcodes", "8010");
+        RenderSessionManager.setScalarVariableValue(loader, "tariff", 42L);
+        try {
+            long version = RenderSessionManager.publishGlobalSymbols(loader);
+            RenderSessionManager.cleanUpRenderSessionContext(loader);
+            assertTrue(RenderSessionManager.hasGlobalSymbols());
+            assertEquals(version, RenderSessionManager.getGlobalSymbolsVersion());
+
+            String first = RenderSessionManager.createRenderSessionContext();
+            String second = RenderSessionManager.createRenderSessionContext();
+            assertEquals("8010", RenderSessionManager.getListValueAt(first, "postcodes", 2));
+            assertEquals(Integer.valueOf(2), RenderSessionManager.getListLength(first, "postcodes"));
+            RenderSessionManager.setListValueAt(first, "postcodes", 1, "1020");
+            RenderSessionManager.addListValue(first, "postcodes", "4020");
+            RenderSessionManager.incrementScalarVariable(first, "tariff", 1);
+            assertEquals("1020", RenderSessionManager.getListValueAt(first, "postcodes", 1));
+            assertEquals(Integer.valueOf(3), RenderSessionManager.getListLength(first, "postcodes"));
+            assertEquals(43L, RenderSessionManager.getScalarVariableValue(first, "tariff"));
+            assertEquals("1010", RenderSessionManager.getListValueAt(second, "postcodes", 1));
+            assertEquals(Integer.valueOf(2), RenderSessionManager.getListLength(second, "postcodes"));
+            assertEquals(42L, RenderSessionManager.getScalarVariableValue(second, "tariff"));
+
+            // a reload is visible to render sessions created afterwards only
+            String reloader = RenderSessionManager.createRenderSessionContext();
+            RenderSessionManager.createList(reloader, "postcodes");
+            RenderSessionManager.addListValue(reloader, "postcodes", "9020");
+            assertTrue(RenderSessionManager.publishGlobalSymbols(reloader) > version);
+            RenderSessionManager.cleanUpRenderSessionContext(reloader);
+            String third = RenderSessionManager.createRenderSessionContext();
+            assertEquals("9020", RenderSessionManager.getListValueAt(third, "postcodes", 1));
+            assertEquals("8010", RenderSessionManager.getListValueAt(second, "postcodes", 2));
+            RenderSessionManager.cleanUpRenderSessionContext(first);
+            RenderSessionManager.cleanUpRenderSessionContext(second);
+            RenderSessionManager.cleanUpRenderSessionContext(third);
+        } finally {
+            RenderSessionManager.clearGlobalSymbols();
+        }
+        assertFalse(RenderSessionManager.hasGlobalSymbols());
+    }
+
+    @Test
+    public void exportAndLoadSymbolSnapshots() throws Exception {
+        String fileName = new File(folder.getRoot(), "symbols.h2as").getPath();
+        String exporter = RenderSessionManager.createRenderSessionContext();
+        RenderSessionManager.createList(exporter, "postcodes");
+        RenderSessionManager.addListValue(exporter, "postcodes", "1010");
+        RenderSessionManager.setScalarVariableValue(exporter, "tariff", 42L);
+        assertTrue(RenderSessionManager.exportSymbolSnapshot(exporter, fileName) > 0);
+        RenderSessionManager.cleanUpRenderSessionContext(exporter);
+
+        String importer = RenderSessionManager.createRenderSessionContext();
+        assertEquals(2, RenderSessionManager.loadSymbolSnapshot(importer, fileName));
+        assertEquals("1010", RenderSessionManager.getListValueAt(importer, "postcodes", 1));
+        assertEquals(42L, RenderSessionManager.getScalarVariableValue(importer, "tariff"));
+        RenderSessionManager.cleanUpRenderSessionContext(importer);
+
+        try {
+            RenderSessionManager.loadGlobalSymbols(fileName);
+            String reader = RenderSessionManager.createRenderSessionContext();
+            assertEquals("1010", RenderSessionManager.getListValueAt(reader, "postcodes", 1));
+            RenderSessionManager.cleanUpRenderSessionContext(reader);
+        } finally {
+            RenderSessionManager.clearGlobalSymbols();
+        }
+    }
+
+    @Test
+    public void renderSessionWithSymbolLayout() throws Exception {
+        assertEquals(3, RenderSessionManager.registerSymbolLayout("letter", "abraxas", "zähler, listind"));
+        assertEquals(3, RenderSessionManager.registerSymbolLayout("letter", "abraxas", "zähler, listind"));
+        String sessionId = RenderSessionManager.createRenderSessionContext("letter");
+        RenderSessionManager.addListValue(sessionId, "abraxas", "John");
+        RenderSessionManager.setScalarVariableValue(sessionId, "zähler", 1L);
+        RenderSessionManager.setScalarVariableValue(sessionId, "lelement", "dynamic");
+        assertEquals("John", RenderSessionManager.getListValueAt(sessionId, "abraxas", 1));
+        assertEquals(1L, RenderSessionManager.getScalarVariableValue(sessionId, "zähler"));
+        assertEquals("dynamic", RenderSessionManager.getScalarVariableValue(sessionId, "lelement"));
+        RenderSessionManager.cleanUpRenderSessionContext(sessionId);
+
+        String fallbackSessionId = RenderSessionManager.createRenderSessionContext("unknown");
+        RenderSessionManager.addListValue(fallbackSessionId, "abraxas", "John");
+        assertEquals("John", RenderSessionManager.getListValueAt(fallbackSessionId, "abraxas", 1));
+        RenderSessionManager.cleanUpRenderSessionContext(fallbackSessionId);
+    }
+
+    @Test
+    public void renderSessionHandle() throws Exception {
+        String handle = RenderSessionManager.createRenderSessionHandle();
+        RenderSessionManager.setScalarVariableValue(handle, "greeting", "Hello");
+        assertEquals("Hello", RenderSessionManager.getScalarVariableValue(handle, "greeting"));
+        RenderSessionManager.incrementXmlSequence(handle);
+        assertEquals(2, RenderSessionManager.getXmlSequence(handle));
+        RenderSessionManager.cleanUpRenderSessionContext(handle);
+        exception.expect(IllegalStateException.class);
+        RenderSessionManager.getXmlSequence(handle);
+    }
+
+    @Test
+    public void dumpCallTrace() throws Exception {
+        String sessionId = RenderSessionManager.createRenderSessionContext();
+        RenderSessionManager.createList(sessionId, "abraxas");
+        RenderSessionManager.addListValue(sessionId, "abraxas", "John");
+        RenderSessionManager.getListValueAt(sessionId, "abraxas", 1);
+        String dump = RenderSessionManager.dumpCallTrace(sessionId);
+        assertTrue(dump.contains("createList('abraxas')"));
+        assertTrue(dump.contains("addListValue('abraxas')"));
+        assertTrue(dump.contains("getListValueAt('abraxas', 1)"));
+        RenderSessionManager.cleanUpRenderSessionContext(sessionId);
+    }
+
+    @Test
+    public void metricsAreExposedViaJmx() throws Exception {
+        String sessionId = RenderSessionManager.createRenderSessionContext();
+        RenderSessionManager.addListValue(sessionId, "abraxas", 1L);
+        ObjectName name = new ObjectName(RenderSessionManager.METRICS_OBJECT_NAME);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertTrue((Long) server.getAttribute(name, "CreatedSessionCount") >= 1);
+        assertTrue((Integer) server.getAttribute(name, "LiveSessionCount") >= 1);
+        assertTrue((Long) server.invoke(name, "getCallCount", new Object[]{"addListValue"},
+                new String[]{String.class.getName()}) >= 1);
+        RenderSessionManager.cleanUpRenderSessionContext(sessionId);
+        assertTrue(RenderSessionManager.getRenderSessionMetrics().getCleanedUpSessionCount() >= 1);
+    }
+
+    @Test
+    public void evictedRenderSessionsAreNotReused() throws Exception {
+        String evicted = RenderSessionManager.createRenderSessionContext();
+        RenderSessionManager.addListValue(evicted, "abraxas", "John");
+        int pooled = RenderSessionManager.getPooledRenderSessionContextCount();
+        assertTrue(RenderSessionManager.reapAbandonedRenderSessionContexts(
+                System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1)) >= 1);
+        assertEquals(pooled, RenderSessionManager.getPooledRenderSessionContextCount());
+
+        // the next render session gets a pooled context of a cleaned up render session, or a new one
+        String sessionId = RenderSessionManager.createRenderSessionContext();
+        assertEquals(Math.max(0, pooled - 1), RenderSessionManager.getPooledRenderSessionContextCount());
+        RenderSessionManager.cleanUpRenderSessionContext(sessionId);
+        assertEquals(Math.max(1, pooled), RenderSessionManager.getPooledRenderSessionContextCount());
+    }
+
     @Test
     public void testConfiguration() throws Exception {
         assertEquals("Hello, World!", RenderSessionManager.testConfiguration());
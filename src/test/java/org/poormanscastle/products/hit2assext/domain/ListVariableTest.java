@@ -0,0 +1,257 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+public class ListVariableTest {
+
+    @Test
+    public void longValuesAreStoredUnboxed() throws Exception {
+        ListVariable list = new ListVariable();
+        for (long value = 0; value < 1000; value++) {
+            list.add(value);
+        }
+        assertEquals(1000, list.size());
+        assertEquals(Long.valueOf(999), list.get(999));
+        assertEquals(Long.valueOf(5), list.set(5, 42L));
+        assertEquals(Long.valueOf(42), list.get(5));
+        assertTrue(list.estimateMemoryFootprint() < 1000 * 8 * 2);
+    }
+
+    @Test
+    public void mixedValuesKeepTheirTypes() throws Exception {
+        ListVariable list = new ListVariable();
+        list.add(1L);
+        list.add(2L);
+        list.add(2.5d);
+        list.add("three");
+        assertEquals(Long.valueOf(1), list.get(0));
+        assertEquals(Long.valueOf(2), list.get(1));
+        assertEquals(Double.valueOf(2.5d), list.get(2));
+        assertEquals("three", list.get(3));
+
+        ListVariable doubles = new ListVariable();
+        doubles.add(1.5d);
+        assertEquals(Double.valueOf(1.5d), doubles.set(0, "one and a half"));
+        assertEquals("one and a half", doubles.get(0));
+    }
+
+    @Test
+    public void addAllAppendsAllValues() throws Exception {
+        ListVariable source = new ListVariable();
+        ListVariable target = new ListVariable();
+        source.add("a");
+        source.add("b");
+        target.add(1L);
+        target.addAll(source);
+        target.addAll(target);
+        assertEquals(6, target.size());
+        assertEquals(Long.valueOf(1), target.get(3));
+        assertEquals("b", target.get(5));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getFromEmptyList() throws Exception {
+        new ListVariable().get(0);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void setBeyondEnd() throws Exception {
+        ListVariable list = new ListVariable();
+        list.ensureCapacity(100);
+        list.add("a");
+        list.set(1, "b");
+    }
+
+    @Test
+    public void largeListsMoveOffHeap() throws Exception {
+        ListVariable list = new ListVariable(100);
+        Object node = new StringBuilder("kept on the heap");
+        for (long value = 0; value < 100; value++) {
+            list.add(value);
+        }
+        assertFalse(list.isOffHeap());
+        list.add("Grüße");
+        list.add("\u20ac 42");
+        list.add(null);
+        list.add(Boolean.TRUE);
+        list.add(node);
+        assertTrue(list.isOffHeap());
+        assertEquals(105, list.size());
+        assertEquals(Long.valueOf(99), list.get(99));
+        assertEquals("Grüße", list.get(100));
+        assertEquals("\u20ac 42", list.get(101));
+        assertNull(list.get(102));
+        assertEquals(Boolean.TRUE, list.get(103));
+        assertSame(node, list.get(104));
+
+        assertEquals(Long.valueOf(5), list.set(5, 2.5d));
+        assertEquals("Grüße", list.set(100, "a considerably longer value than before"));
+        assertSame(node, list.set(104, "replaced"));
+        assertEquals(Double.valueOf(2.5d), list.get(5));
+        assertEquals("a considerably longer value than before", list.get(100));
+        assertEquals("replaced", list.get(104));
+
+        long bytesInUse = OffHeapListStore.getOffHeapBytesInUse();
+        assertTrue(bytesInUse >= OffHeapListStore.CHUNK_SIZE);
+        list.release();
+        assertEquals(0, list.size());
+        assertEquals(bytesInUse - OffHeapListStore.CHUNK_SIZE, OffHeapListStore.getOffHeapBytesInUse());
+    }
+
+    @Test
+    public void replacedOffHeapValuesDoNotGrowTheList() throws Exception {
+        ListVariable list = new ListVariable(1);
+        list.ensureCapacity(10);
+        for (int index = 0; index < 10; index++) {
+            list.add("short");
+        }
+        String longValue = StringUtils.repeat('x', 1000);
+        long bytesInUse = OffHeapListStore.getOffHeapBytesInUse();
+        // each long value leaves the record of the former long value behind, about 5 MiB in total
+        for (int round = 0; round < 1000; round++) {
+            for (int index = 0; index < 10; index++) {
+                list.set(index, round % 2 == 0 ? longValue : "short" + round);
+            }
+        }
+        assertTrue(OffHeapListStore.getOffHeapBytesInUse() - bytesInUse <= 2 * OffHeapListStore.CHUNK_SIZE);
+        for (int index = 0; index < 10; index++) {
+            assertEquals("short999", list.get(index));
+        }
+        list.release();
+        assertEquals(bytesInUse - OffHeapListStore.CHUNK_SIZE, OffHeapListStore.getOffHeapBytesInUse());
+    }
+
+    @Test
+    public void bulkFilledListsStartOffHeap() throws Exception {
+        ListVariable list = new ListVariable(100);
+        list.ensureCapacity(1000);
+        list.add("first");
+        assertTrue(list.isOffHeap());
+        ListVariable copy = new ListVariable(0);
+        copy.addAll(list);
+        assertFalse(copy.isOffHeap());
+        assertEquals("first", copy.get(0));
+        list.release();
+    }
+
+    @Test
+    public void appendedListsAreSharedUntilWritten() throws Exception {
+        ListVariable section = new ListVariable(0);
+        for (long value = 0; value < 100; value++) {
+            section.add(value);
+        }
+        ListVariable result = new ListVariable(0);
+        for (int count = 0; count < 10; count++) {
+            result.addAll(section);
+        }
+        result.addAll(result);
+        assertTrue(result.isRope());
+        assertEquals(2000, result.size());
+        assertEquals(20 * section.getAccountedBytes(), result.getAccountedBytes());
+        for (int index = 0; index < result.size(); index++) {
+            assertEquals(Long.valueOf(index % 100), result.get(index));
+        }
+        assertEquals(Long.valueOf(1234 % 100), result.get(1234));
+
+        // writing to either list leaves the other one unchanged
+        assertEquals(Long.valueOf(5), section.set(5, "five"));
+        assertEquals(Long.valueOf(5), result.get(1005));
+        assertEquals(Long.valueOf(7), result.set(1007, 7.5d));
+        assertEquals(Long.valueOf(7), section.get(7));
+        assertEquals(Long.valueOf(7), result.get(7));
+        result.add("last");
+        section.add("appended to the section");
+        assertEquals(2001, result.size());
+        assertEquals("last", result.get(2000));
+        assertEquals(Double.valueOf(7.5d), result.get(1007));
+
+        ListVariable copy = result.copy();
+        copy.set(0, "first");
+        assertEquals(Long.valueOf(0), result.get(0));
+        assertEquals("first", copy.get(0));
+    }
+
+    @Test
+    public void valueIndexFollowsWritesUntilItIsDropped() throws Exception {
+        ListVariable list = new ListVariable();
+        for (long value = 0; value < 100; value++) {
+            list.add(value % 10);
+        }
+        assertEquals(3, list.indexOf(3L));
+        assertEquals(3, list.indexOf(3.0d));
+        assertEquals(-1, list.indexOf("3"));
+        assertEquals(10, list.count(7L));
+        assertTrue(list.hasValueIndex());
+
+        list.set(3, "three");
+        list.add(3L);
+        assertEquals(13, list.indexOf(3L));
+        assertEquals(3, list.indexOf("three"));
+        assertEquals(10, list.count(3L));
+
+        ListVariable appended = new ListVariable();
+        for (int index = 0; index < ListVariable.MIN_SHARED_APPEND_SIZE; index++) {
+            appended.add("appended");
+        }
+        list.addAll(appended);
+        assertEquals(101, list.indexOf("appended"));
+        assertEquals(ListVariable.MIN_SHARED_APPEND_SIZE, list.count("appended"));
+
+        for (int index = 0; index < list.size(); index++) {
+            list.set(index, "overwritten");
+        }
+        assertFalse(list.hasValueIndex());
+        assertEquals(list.size(), list.count("overwritten"));
+        assertEquals(-1, list.indexOf(3L));
+    }
+
+    @Test
+    public void aggregatesSortsAndDistinctValues() throws Exception {
+        ListVariable longs = new ListVariable();
+        for (long value : new long[]{5, -2, 9, 5, 0}) {
+            longs.add(value);
+        }
+        ListAggregate aggregate = longs.aggregate();
+        assertEquals(5, aggregate.getCount());
+        assertEquals(Long.valueOf(17), aggregate.getSum());
+        assertEquals(Long.valueOf(-2), aggregate.getMin());
+        assertEquals(Long.valueOf(9), aggregate.getMax());
+
+        ListVariable sorted = longs.sortByNumber(true);
+        assertEquals(Long.valueOf(9), sorted.get(0));
+        assertEquals(Long.valueOf(-2), sorted.get(4));
+        ListVariable distinct = longs.distinct();
+        assertEquals(4, distinct.size());
+        assertEquals(Long.valueOf(0), distinct.get(3));
+
+        ListVariable mixed = new ListVariable();
+        mixed.add("10");
+        mixed.add(2.5d);
+        mixed.add(" ");
+        mixed.add(1L);
+        aggregate = mixed.aggregate();
+        assertEquals(3, aggregate.getCount());
+        assertEquals(Double.valueOf(13.5), aggregate.getSum());
+        sorted = mixed.sortByNumber(false);
+        assertEquals(Long.valueOf(1), sorted.get(0));
+        assertEquals("10", sorted.get(2));
+        assertEquals(" ", sorted.get(3));
+
+        mixed.add("eleven");
+        try {
+            mixed.aggregate();
+            fail("eleven is no number");
+        } catch (IllegalArgumentException exception) {
+            assertTrue(exception.getMessage().contains("at index 5 is no number"));
+        }
+    }
+
+}
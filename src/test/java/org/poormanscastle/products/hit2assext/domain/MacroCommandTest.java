@@ -0,0 +1,52 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class MacroCommandTest {
+
+    @Test
+    public void compileOnce() throws Exception {
+        MacroCommand command = MacroCommand.compile("#= listelem1 list[listind]");
+        assertSame(command, MacroCommand.compile("#= listelem1 list[listind]"));
+        assertEquals("listelem1", command.getTarget());
+        assertEquals("list", command.getSourceName());
+    }
+
+    @Test
+    public void executeCommands() throws Exception {
+        RenderSessionContext context = new RenderSessionContextImpl();
+        context.addListVariable("list");
+        context.addListValue("list", "John");
+        context.addListValue("list", "Paul");
+        context.setScalarVariableValue("listind", 2d);
+        assertEquals("Paul", MacroCommand.compile("#= listelem2  list[ listind ]").execute(context));
+        assertEquals("Paul", context.getScalarVariableValue("listelem2"));
+        assertEquals("John", MacroCommand.compile("#= first list[1]").execute(context));
+        assertEquals("John", MacroCommand.compile("#= copy first").execute(context));
+        assertEquals(42L, MacroCommand.compile("#= answer 42").execute(context));
+        assertEquals("a b", MacroCommand.compile("#= text 'a b'").execute(context));
+        assertEquals(CallTrace.NO_INDEX, MacroCommand.compile("#= copy first").resolveIndex(context));
+        assertNull(MacroCommand.compile("#= text 'a b'").getSourceName());
+    }
+
+    @Test
+    public void rejectMalformedCommands() throws Exception {
+        String[] commands = {"", "#=", "listelem1 list[listind]", "#= listelem1", "#= listelem1 list[listind",
+                "#= listelem1 list[]", "#= listelem1 [listind]", "#= listelem1 list[0]", "#= list[1] list[1]"};
+        for (String command : commands) {
+            try {
+                MacroCommand.compile(command);
+                fail(command);
+            } catch (IllegalArgumentException exception) {
+                assertTrue(exception.getMessage().contains("Malformed macro command"));
+            }
+        }
+    }
+
+}
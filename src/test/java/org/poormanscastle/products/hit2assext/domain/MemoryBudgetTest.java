@@ -0,0 +1,93 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+public class MemoryBudgetTest {
+
+    @Test
+    public void sessionBudgetFailsFast() throws Exception {
+        MemoryBudget budget = new MemoryBudget(1000, 0, 0, 0);
+        RenderSessionContext context = RenderSessionContexts.createDefaultRenderSessionContext();
+        context.setMemoryAccount(budget.openAccount());
+        context.addListVariable("list");
+        int size = 0;
+        try {
+            while (true) {
+                context.addListValue("list", "a value of some length");
+                size++;
+            }
+        } catch (IllegalStateException exception) {
+            assertTrue(exception.getMessage().contains("exceeds its memory budget of 1000 bytes"));
+        }
+        assertTrue(size > 0);
+        assertEquals(size, context.getListLength("list"));
+        assertTrue(context.getMemoryAccount().getUsedBytes() <= 1000);
+        assertEquals(1, budget.getRejectedAllocationCount());
+
+        try {
+            context.setListValues("copy", Collections.nCopies(size, "a value of some length"));
+            fail("the copy exceeds the memory budget");
+        } catch (IllegalStateException exception) {
+            assertEquals(-1, context.getListLength("copy"));
+        }
+        // replacing a list only charges the difference
+        assertEquals(size, context.setListValues("list", Collections.nCopies(size, "a value of some length")));
+        context.setListValues("list", Arrays.asList("short"));
+        assertTrue(context.getMemoryAccount().getUsedBytes() < 100);
+        context.setScalarVariableValue("scalar", StringUtils.repeat('x', 200));
+
+        assertEquals(1, budget.getOpenAccountCount());
+        context.release();
+        assertEquals(0, budget.getOpenAccountCount());
+    }
+
+    @Test
+    public void globalBudgetIsSharedByAllRenderSessions() throws Exception {
+        MemoryBudget budget = new MemoryBudget(0, 3 * MemoryBudget.RESERVATION_SIZE, 0, 0);
+        String value = StringUtils.repeat('x', 10000);
+        RenderSessionContext first = RenderSessionContexts.createDefaultRenderSessionContext();
+        first.setMemoryAccount(budget.openAccount());
+        first.setListValues("list", Collections.nCopies(8, value));
+        RenderSessionContext second = RenderSessionContexts.createDefaultRenderSessionContext();
+        second.setMemoryAccount(budget.openAccount());
+        try {
+            second.setListValues("list", Collections.nCopies(8, value));
+            fail("both lists together exceed the global memory budget");
+        } catch (IllegalStateException exception) {
+            assertTrue(exception.getMessage().contains("global memory budget"));
+        }
+        assertTrue(budget.getReservedBytes() >= first.getMemoryAccount().getUsedBytes());
+
+        first.release();
+        assertEquals(8, second.setListValues("list", Collections.nCopies(8, value)));
+        second.release();
+        assertEquals(0, budget.getReservedBytes());
+        assertEquals(0, budget.getOpenAccountCount());
+    }
+
+    @Test
+    public void admissionWaitsForRenderSessionsToEnd() throws Exception {
+        MemoryBudget budget = new MemoryBudget(0, 0, 1, 10);
+        MemoryAccount account = budget.openAccount();
+        try {
+            budget.openAccount();
+            fail("only one render session may be alive");
+        } catch (IllegalStateException exception) {
+            assertTrue(exception.getMessage().contains("maximum of 1 concurrent render sessions"));
+        }
+        assertEquals(1, budget.getRejectedSessionCount());
+        account.close();
+        account.close();
+        budget.openAccount().close();
+        assertEquals(0, budget.getOpenAccountCount());
+    }
+
+}
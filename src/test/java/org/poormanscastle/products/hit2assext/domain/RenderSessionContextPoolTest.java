@@ -0,0 +1,90 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class RenderSessionContextPoolTest {
+
+    @Test
+    public void recycledContextsAreClearedAndGetNewIds() throws Exception {
+        RenderSessionContextPool pool = new RenderSessionContextPool(1);
+        RenderSessionRegistry registry = new RenderSessionRegistry();
+        RenderSessionContext context = pool.acquire(null);
+        String formerUuid = context.getUuid();
+        String formerHandle = registry.register(context);
+        context.addListValue("abraxas", "John");
+        context.setScalarVariableValue("zähler", 5L);
+        context.incrementXmlSequence();
+
+        assertSame(context, registry.remove(formerUuid));
+        assertTrue(pool.recycle(context));
+        assertEquals(1, pool.size());
+
+        RenderSessionContext reused = pool.acquire(null);
+        assertSame(context, reused);
+        assertEquals(1, pool.getReuseCount());
+        assertNotEquals(formerUuid, reused.getUuid());
+        assertEquals(0, reused.getListCount());
+        assertEquals(1, reused.getXmlSequence());
+        assertEquals(0, reused.getCallTrace().getRecordedCallCount());
+
+        // neither the former uuid nor the former handle reach the recycled context
+        registry.register(reused);
+        assertNull(registry.lookup(formerUuid));
+        assertNull(registry.lookup(formerHandle));
+        assertSame(reused, registry.lookup(reused.getUuid()));
+    }
+
+    @Test
+    public void poolIsBounded() throws Exception {
+        RenderSessionContextPool pool = new RenderSessionContextPool(1);
+        assertTrue(pool.recycle(RenderSessionContexts.createDefaultRenderSessionContext()));
+        assertFalse(pool.recycle(RenderSessionContexts.createDefaultRenderSessionContext()));
+        assertEquals(1, pool.size());
+        assertFalse(new RenderSessionContextPool(0).recycle(RenderSessionContexts.createDefaultRenderSessionContext()));
+    }
+
+    @Test
+    public void idsAreUniqueAcrossThreads() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<List<String>>> results = new ArrayList<>();
+        for (int thread = 0; thread < 8; thread++) {
+            results.add(executor.submit(new Callable<List<String>>() {
+                @Override
+                public List<String> call() throws Exception {
+                    List<String> ids = new ArrayList<>();
+                    for (int counter = 0; counter < 5000; counter++) {
+                        ids.add(RenderSessionIds.nextId());
+                    }
+                    return ids;
+                }
+            }));
+        }
+        Set<String> ids = new HashSet<>();
+        for (Future<List<String>> result : results) {
+            ids.addAll(result.get(60, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(8 * 5000, ids.size());
+        UUID.fromString(ids.iterator().next());
+    }
+
+}
@@ -0,0 +1,111 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RenderSessionReaperTest {
+
+    private RenderSessionRegistry registry;
+
+    @Before
+    public void setUp() throws Exception {
+        registry = new RenderSessionRegistry();
+    }
+
+    @Test
+    public void evictsSessionsOlderThanMaxAge() throws Exception {
+        RenderSessionReaper reaper = new RenderSessionReaper(registry, 1000, 0);
+        RenderSessionContext context = RenderSessionContexts.createDefaultRenderSessionContext();
+        registry.register(context);
+        long created = context.getCreationDateTime().getMillis();
+
+        assertEquals(0, reaper.sweep(created + 500));
+        assertSame(context, registry.lookup(context.getUuid()));
+
+        context.touch();
+        assertEquals(1, reaper.sweep(created + 1500));
+        assertNull(registry.lookup(context.getUuid()));
+        assertEquals(1, reaper.getEvictedSessionCount());
+    }
+
+    @Test
+    public void evictsOnlyIdleSessions() throws Exception {
+        RenderSessionReaper reaper = new RenderSessionReaper(registry, 0, 1000);
+        RenderSessionContext idle = RenderSessionContexts.createDefaultRenderSessionContext();
+        RenderSessionContext busy = RenderSessionContexts.createDefaultRenderSessionContext();
+        registry.register(idle);
+        registry.register(busy);
+        long now = System.currentTimeMillis();
+
+        // the first sweep merely takes notice of the sessions
+        assertEquals(0, reaper.sweep(now));
+        busy.touch();
+        assertEquals(0, reaper.sweep(now + 800));
+        busy.touch();
+        assertEquals(1, reaper.sweep(now + 1600));
+
+        assertNull(registry.lookup(idle.getUuid()));
+        assertSame(busy, registry.lookup(busy.getUuid()));
+        assertEquals(1, reaper.getEvictedSessionCount());
+    }
+
+    @Test
+    public void doesNotCountSessionsCleanedUpRegularly() throws Exception {
+        RenderSessionReaper reaper = new RenderSessionReaper(registry, 1000, 1000);
+        RenderSessionContext context = RenderSessionContexts.createDefaultRenderSessionContext();
+        registry.register(context);
+        registry.remove(context.getUuid());
+        assertEquals(0, reaper.sweep(System.currentTimeMillis() + 10000));
+        assertEquals(0, reaper.getEvictedSessionCount());
+    }
+
+    @Test
+    public void doesNotEvictRenderSessionsReusingPooledContexts() throws Exception {
+        RenderSessionReaper reaper = new RenderSessionReaper(registry, 0, 1000);
+        RenderSessionContextPool pool = new RenderSessionContextPool(1);
+        RenderSessionContext former = pool.acquire(null);
+        registry.register(former);
+        former.touch();
+        long now = System.currentTimeMillis();
+        assertEquals(0, reaper.sweep(now));
+        registry.remove(former.getUuid());
+        pool.recycle(former);
+
+        RenderSessionContext current = pool.acquire(null);
+        assertSame(former, current);
+        assertEquals(0, current.getAccessCount());
+        registry.register(current);
+        // the first sweep seeing the new render session must not take over the idle time of the former one
+        assertEquals(0, reaper.sweep(now + 1600));
+        assertSame(current, registry.lookup(current.getUuid()));
+        assertEquals(1, reaper.sweep(now + 3200));
+    }
+
+    @Test
+    public void handsEvictedSessionsToTheEvictionHandler() throws Exception {
+        final List<RenderSessionContext> evicted = new ArrayList<>();
+        RenderSessionReaper reaper = new RenderSessionReaper(registry, 1000, 0,
+                new RenderSessionReaper.EvictionHandler() {
+                    @Override
+                    public void onEvicted(RenderSessionContext context) {
+                        assertNull(registry.lookup(context.getUuid()));
+                        evicted.add(context);
+                    }
+                });
+        RenderSessionContext context = RenderSessionContexts.createDefaultRenderSessionContext();
+        registry.register(context);
+        assertEquals(1, reaper.sweep(context.getCreationTimeMillis() + 1500));
+        assertEquals(Collections.singletonList(context), evicted);
+        assertEquals(0, reaper.sweep(context.getCreationTimeMillis() + 3000));
+        assertEquals(1, evicted.size());
+    }
+
+}
@@ -0,0 +1,189 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Stress tests the RenderSessionRegistry with many threads creating, looking up and cleaning up
+ * render sessions concurrently, like DocBase render threads do.
+ */
+public class RenderSessionRegistryTest {
+
+    private final static int THREADS = 32;
+
+    private final static int SESSIONS_PER_THREAD = 2000;
+
+    @Test
+    public void registerLookupRemoveSingleThreaded() throws Exception {
+        RenderSessionRegistry registry = new RenderSessionRegistry();
+        RenderSessionContext context = RenderSessionContexts.createDefaultRenderSessionContext();
+        registry.register(context);
+        assertSame(context, registry.lookup(context.getUuid()));
+        assertEquals(1, registry.size());
+        assertSame(context, registry.remove(context.getUuid()));
+        assertNull(registry.lookup(context.getUuid()));
+        assertNull(registry.remove(context.getUuid()));
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void compactHandles() throws Exception {
+        RenderSessionRegistry registry = new RenderSessionRegistry(1);
+        RenderSessionContext first = RenderSessionContexts.createDefaultRenderSessionContext();
+        String firstHandle = registry.register(first);
+        assertTrue(firstHandle.startsWith("@"));
+        assertSame(first, registry.lookup(firstHandle));
+        assertSame(first, registry.lookup(first.getUuid()));
+        assertEquals(firstHandle, registry.lookupHandle(first.getUuid()));
+
+        // all slots are taken, the second session can only be referenced by its uuid
+        RenderSessionContext second = RenderSessionContexts.createDefaultRenderSessionContext();
+        assertEquals(second.getUuid(), registry.register(second));
+        assertSame(second, registry.lookup(second.getUuid()));
+
+        assertSame(first, registry.remove(firstHandle));
+        assertNull(registry.lookup(firstHandle));
+        assertNull(registry.lookup(first.getUuid()));
+
+        // the third session reuses the slot, but the stale handle must not resolve to it
+        RenderSessionContext third = RenderSessionContexts.createDefaultRenderSessionContext();
+        String thirdHandle = registry.register(third);
+        assertTrue(thirdHandle.startsWith("@"));
+        assertNull(registry.lookup(firstHandle));
+        assertSame(third, registry.lookup(thirdHandle));
+        assertNull(registry.lookup("@0:x"));
+        assertNull(registry.lookup("@"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void registerTwice() throws Exception {
+        RenderSessionRegistry registry = new RenderSessionRegistry();
+        RenderSessionContext context = RenderSessionContexts.createDefaultRenderSessionContext();
+        registry.register(context);
+        registry.register(context);
+    }
+
+    /**
+     * every thread creates sessions, writes to them, reads them back through the registry while the other
+     * threads keep registering and removing their own sessions, and finally cleans up half of them.
+     * No session may get lost, no session may be visible under a wrong uuid and the final size of the
+     * registry must match exactly.
+     */
+    @Test
+    public void concurrentCreateLookupAndCleanUp() throws Exception {
+        final RenderSessionRegistry registry = new RenderSessionRegistry();
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<List<String>>> results = new ArrayList<>();
+        for (int thread = 0; thread < THREADS; thread++) {
+            final int threadNumber = thread;
+            results.add(executor.submit(new Callable<List<String>>() {
+                @Override
+                public List<String> call() throws Exception {
+                    startSignal.await();
+                    List<String> survivors = new ArrayList<>();
+                    for (int counter = 0; counter < SESSIONS_PER_THREAD; counter++) {
+                        RenderSessionContext context = RenderSessionContexts.createDefaultRenderSessionContext();
+                        String handle = registry.register(context);
+                        context.setScalarVariableValue("owner", threadNumber * SESSIONS_PER_THREAD + counter);
+                        assertSame(context, registry.lookup(handle));
+
+                        RenderSessionContext found = registry.lookup(context.getUuid());
+                        assertSame(context, found);
+                        assertEquals(threadNumber * SESSIONS_PER_THREAD + counter, found.getScalarVariableValue("owner"));
+
+                        if (counter % 2 == 0) {
+                            assertSame(context, registry.remove(context.getUuid()));
+                            assertNull(registry.lookup(context.getUuid()));
+                        } else {
+                            survivors.add(context.getUuid());
+                        }
+                    }
+                    return survivors;
+                }
+            }));
+        }
+        startSignal.countDown();
+        List<String> survivors = new ArrayList<>();
+        for (Future<List<String>> result : results) {
+            survivors.addAll(result.get(60, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(THREADS * SESSIONS_PER_THREAD / 2, survivors.size());
+        assertEquals(survivors.size(), registry.size());
+        assertEquals(survivors.size(), registry.getRenderSessionContexts().size());
+        for (String uuid : survivors) {
+            RenderSessionContext context = registry.lookup(uuid);
+            assertEquals(uuid, context.getUuid());
+        }
+        for (RenderSessionContext context : registry.getRenderSessionContexts()) {
+            assertSame(context, registry.lookup(context.getUuid()));
+        }
+    }
+
+    /**
+     * readers hammer a fixed set of long lived sessions while writers churn through short lived ones.
+     * The readers must always find the long lived sessions.
+     */
+    @Test
+    public void lookupsAreNotDisturbedByConcurrentChurn() throws Exception {
+        final RenderSessionRegistry registry = new RenderSessionRegistry();
+        final List<RenderSessionContext> longLived = new ArrayList<>();
+        for (int counter = 0; counter < 64; counter++) {
+            RenderSessionContext context = RenderSessionContexts.createDefaultRenderSessionContext();
+            registry.register(context);
+            longLived.add(context);
+        }
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int thread = 0; thread < THREADS; thread++) {
+            final boolean reader = thread % 2 == 0;
+            results.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    startSignal.await();
+                    int misses = 0;
+                    for (int counter = 0; counter < SESSIONS_PER_THREAD * 10; counter++) {
+                        if (reader) {
+                            RenderSessionContext expected = longLived.get(counter % longLived.size());
+                            if (registry.lookup(expected.getUuid()) != expected) {
+                                misses++;
+                            }
+                        } else {
+                            RenderSessionContext context = RenderSessionContexts.createDefaultRenderSessionContext();
+                            registry.register(context);
+                            if (!registry.remove(context)) {
+                                misses++;
+                            }
+                        }
+                    }
+                    return misses;
+                }
+            }));
+        }
+        startSignal.countDown();
+        for (Future<Integer> result : results) {
+            assertEquals(Integer.valueOf(0), result.get(60, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(longLived.size(), registry.size());
+    }
+
+}
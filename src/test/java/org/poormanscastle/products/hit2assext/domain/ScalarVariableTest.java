@@ -0,0 +1,61 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.sxpath.XPathEvaluator;
+import net.sf.saxon.value.Value;
+
+public class ScalarVariableTest {
+
+    @Test
+    public void valuesKeepTheirTypes() throws Exception {
+        ScalarVariable variable = new ScalarVariable(5L);
+        assertEquals(Long.valueOf(5), variable.get());
+        variable.set(2.5d);
+        assertEquals(Double.valueOf(2.5d), variable.get());
+        assertEquals(2, variable.getIntValue());
+        variable.set(Boolean.TRUE);
+        assertEquals(Boolean.TRUE, variable.get());
+        variable.set("text");
+        assertEquals("text", variable.get());
+    }
+
+    @Test
+    public void incrementInPlace() throws Exception {
+        ScalarVariable counter = new ScalarVariable("");
+        counter.increment(1);
+        counter.increment(1);
+        assertEquals(Long.valueOf(2), counter.get());
+        ScalarVariable listIndex = new ScalarVariable(1d);
+        listIndex.increment(2);
+        assertEquals(Double.valueOf(3d), listIndex.get());
+        ScalarVariable number = new ScalarVariable(" 41 ");
+        number.increment(1);
+        assertEquals(42, number.getIntValue());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void incrementText() throws Exception {
+        new ScalarVariable("text").increment(1);
+    }
+
+    @Test
+    public void nodesAreAtomizedLazilyAndOnce() throws Exception {
+        NodeInfo line = new XPathEvaluator().build(new StreamSource(new StringReader("<line>John</line>")));
+        ScalarVariable variable = new ScalarVariable(line);
+        Object value = variable.get();
+        assertTrue(value instanceof Value);
+        assertEquals("John", ((Value) value).getStringValue());
+        assertSame(value, variable.get());
+    }
+
+}
@@ -0,0 +1,102 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import net.sf.saxon.value.DecimalValue;
+import net.sf.saxon.value.DoubleValue;
+import net.sf.saxon.value.IntegerValue;
+
+public class SymbolSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private String writeSnapshot() throws Exception {
+        RenderSessionContext context = new RenderSessionContextImpl();
+        context.addListValue("tariffs", 12L);
+        context.addListValue("tariffs", 2.5d);
+        context.addListValue("tariffs", "Grüße €");
+        context.addListValue("tariffs", null);
+        context.addListValue("tariffs", Boolean.FALSE);
+        context.addListVariable("empty");
+        context.setScalarVariableValue("zähler", 7L);
+        String fileName = new File(folder.getRoot(), "symbols.h2as").getPath();
+        assertTrue(context.createSymbolSnapshot().writeTo(fileName) > 0);
+        return fileName;
+    }
+
+    @Test
+    public void writeAndRead() throws Exception {
+        SymbolSnapshot snapshot = SymbolSnapshot.readFrom(writeSnapshot());
+        assertEquals(2, snapshot.getListCount());
+        assertEquals(1, snapshot.getScalarCount());
+        RenderSessionContext context = new RenderSessionContextImpl();
+        snapshot.loadInto(context);
+        assertEquals(Long.valueOf(12), context.getListValueAt("tariffs", 0));
+        assertEquals(Double.valueOf(2.5d), context.getListValueAt("tariffs", 1));
+        assertEquals("Grüße €", context.getListValueAt("tariffs", 2));
+        assertNull(context.getListValueAt("tariffs", 3));
+        assertEquals(Boolean.FALSE, context.getListValueAt("tariffs", 4));
+        assertEquals(0, context.getListLength("empty"));
+        assertEquals(7, context.getScalarVariableIntValue("zähler"));
+    }
+
+    @Test
+    public void numbersKeepTheirType() throws Exception {
+        RenderSessionContext context = new RenderSessionContextImpl();
+        context.addListValue("numbers", 3);
+        context.addListValue("numbers", 1.5f);
+        context.addListValue("numbers", new IntegerValue(42));
+        context.addListValue("numbers", new DoubleValue(0.25d));
+        context.addListValue("numbers", new DecimalValue(new BigDecimal("0.1")));
+        String fileName = new File(folder.getRoot(), "numbers.h2as").getPath();
+        context.createSymbolSnapshot().writeTo(fileName);
+
+        context = new RenderSessionContextImpl();
+        SymbolSnapshot.readFrom(fileName).loadInto(context);
+        assertEquals(Long.valueOf(3), context.getListValueAt("numbers", 0));
+        assertEquals(Double.valueOf(1.5d), context.getListValueAt("numbers", 1));
+        assertEquals(Long.valueOf(42), context.getListValueAt("numbers", 2));
+        assertEquals(Double.valueOf(0.25d), context.getListValueAt("numbers", 3));
+        assertEquals("0.1", context.getListValueAt("numbers", 4));
+    }
+
+    @Test
+    public void rejectCorruptSnapshot() throws Exception {
+        String fileName = writeSnapshot();
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "rw")) {
+            file.seek(20);
+            file.write(file.read() ^ 0xFF);
+        }
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("checksum");
+        SymbolSnapshot.readFrom(fileName);
+    }
+
+    @Test
+    public void rejectUnknownFormatVersion() throws Exception {
+        String fileName = writeSnapshot();
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "rw")) {
+            file.seek(4);
+            file.writeShort(SymbolSnapshot.FORMAT_VERSION + 1);
+        }
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("format version");
+        SymbolSnapshot.readFrom(fileName);
+    }
+
+}
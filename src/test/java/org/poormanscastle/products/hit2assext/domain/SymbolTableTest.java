@@ -0,0 +1,49 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class SymbolTableTest {
+
+    @Test
+    public void layoutSymbolsAndDynamicSymbols() throws Exception {
+        SymbolLayout layout = new SymbolLayout("letter", Arrays.asList("abraxas", "customers", "abraxas"),
+                Collections.<String>emptyList());
+        assertEquals(Arrays.asList("abraxas", "customers"), layout.getListNames());
+        SymbolTable<String> table = new SymbolTable<>(layout.getListSlots());
+        assertNull(table.get("abraxas"));
+        table.put("abraxas", "first");
+        table.put("listelem1", "dynamic");
+        table.put(new String("abraxas"), "second");
+        assertEquals("second", table.get("abraxas"));
+        assertEquals("dynamic", table.get("listelem1"));
+        assertNull(table.get("customers"));
+        assertNull(table.get(null));
+        assertEquals(2, table.size());
+        assertEquals(2, table.toMap().size());
+    }
+
+    @Test
+    public void renderSessionWithLayout() throws Exception {
+        SymbolLayout layout = new SymbolLayout("letter", Collections.singletonList("abraxas"),
+                Arrays.asList("zähler", "listind"));
+        RenderSessionContext context = RenderSessionContexts.createRenderSessionContext(layout);
+        assertSame(layout, context.getSymbolLayout());
+        context.addListValue("abraxas", "John");
+        context.addListValue("dynamic", "Jane");
+        assertEquals("John", context.getListValueAt(" abraxas ", 0));
+        assertEquals("Jane", context.getListValueAt("dynamic", 0));
+        context.setScalarVariableValue("zähler", 1L);
+        context.incrementScalarVariable("zähler", 1);
+        assertEquals(2L, context.getScalarVariableValue("zähler"));
+        assertEquals(2, context.getListCount());
+        assertEquals(2, context.getListValueCount());
+    }
+
+}
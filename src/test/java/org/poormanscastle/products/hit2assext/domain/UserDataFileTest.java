@@ -0,0 +1,66 @@
+package org.poormanscastle.products.hit2assext.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.Charset;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class UserDataFileTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readLinesSeparatedByLfAndCrLf() throws Exception {
+        UserDataFile userDataFile = createUserDataFile("first\r\nsecond\n\nfourth", "ISO-8859-1");
+        assertTrue(userDataFile.hasLine(1));
+        assertEquals("second", userDataFile.getLine(2));
+        assertEquals("first", userDataFile.getLine(1));
+        assertEquals("", userDataFile.getLine(3));
+        assertEquals("fourth", userDataFile.getLine(4));
+        assertFalse(userDataFile.hasLine(5));
+        assertFalse(userDataFile.hasLine(0));
+        assertEquals(4, userDataFile.getLineCount());
+        userDataFile.close();
+    }
+
+    @Test
+    public void trailingLineSeparatorAddsNoLine() throws Exception {
+        UserDataFile userDataFile = createUserDataFile("first\nsecond\n", "ISO-8859-1");
+        assertEquals(2, userDataFile.getLineCount());
+        assertEquals("second", userDataFile.getLine(2));
+        assertEquals(0, createUserDataFile("", "ISO-8859-1").getLineCount());
+    }
+
+    @Test
+    public void decodeHitClouEncodings() throws Exception {
+        assertEquals("Grüße aus Österreich", createUserDataFile("Grüße aus Österreich\n", "ISO-8859-1").getLine(1));
+        assertEquals("Grüße aus Österreich", createUserDataFile("Grüße aus Österreich\n", "IBM850").getLine(1));
+        assertEquals("Grüße € 5", createUserDataFile("Grüße € 5\n", "windows-1252").getLine(1));
+        assertEquals("Grüße € 5", createUserDataFile("﻿Grüße € 5\n", "UTF-8").getLine(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectMultiByteLineBreaks() throws Exception {
+        createUserDataFile("first\nsecond", "UTF-16");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void readBeyondTheLastLine() throws Exception {
+        createUserDataFile("first\nsecond", "ISO-8859-1").getLine(3);
+    }
+
+    private UserDataFile createUserDataFile(String content, String encoding) throws Exception {
+        File file = folder.newFile();
+        FileUtils.writeStringToFile(file, content, Charset.forName(encoding));
+        return new UserDataFile(file.getPath(), encoding);
+    }
+
+}
@@ -0,0 +1,90 @@
+package org.poormanscastle.products.hit2assext.format;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.sxpath.XPathEvaluator;
+
+public class HitClouFormatsTest {
+
+    @Test
+    public void convertDates() throws Exception {
+        assertEquals("2016-10-20", HitClouFormats.convertDateToIso8601("20.10.2016"));
+        assertEquals("2016-01-02", HitClouFormats.convertDateToIso8601("2.1.2016"));
+        assertEquals("2016-01-02", HitClouFormats.convertDateToIso8601("2.1.2016."));
+        assertEquals("20.10.2016", HitClouFormats.convertIso8601DateToGerman("2016-10-20"));
+        assertEquals("02.01.2016", HitClouFormats.convertIso8601DateToGerman("2016-1-2T10:15:00"));
+        for (String date : new String[]{"20.10", "1.2.", "1.2.3.4", "", "2016-10-20"}) {
+            try {
+                HitClouFormats.convertDateToIso8601(date);
+                fail(date);
+            } catch (IllegalArgumentException exception) {
+                // expected
+            }
+        }
+        for (String date : new String[]{"20.10.2016", "2016-10", "2016-10-200", "2016-AB-20"}) {
+            try {
+                HitClouFormats.convertIso8601DateToGerman(date);
+                fail(date);
+            } catch (IllegalArgumentException exception) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void parseAndFormatGermanNumbers() throws Exception {
+        assertEquals(1234.56d, HitClouFormats.parseGermanNumber(" 1.234,56 "), 0d);
+        assertEquals(-0.5d, HitClouFormats.parseGermanNumber("-0,5"), 0d);
+        assertEquals(42d, HitClouFormats.parseGermanNumber("42"), 0d);
+        assertEquals(1.2345678901234567E19d, HitClouFormats.parseGermanNumber("12.345.678.901.234.567.000"), 1e4d);
+        assertEquals("1.234,56", HitClouFormats.formatGermanNumber(1234.555d, 2));
+        assertEquals("-1.234.567", HitClouFormats.formatGermanNumber(-1234567d, 0));
+        assertEquals("0,000", HitClouFormats.formatGermanNumber(-0.0001d, 3));
+        assertEquals("999,0", HitClouFormats.formatGermanNumber(999d, 1));
+        assertEquals("1.000,00 EUR", HitClouFormats.formatGermanCurrency(1000d, "EUR"));
+        assertEquals("0,10", HitClouFormats.formatGermanCurrency(0.1d, ""));
+        for (String number : new String[]{"", ",", "1,2,3", "1,2.3", "12a", ".5"}) {
+            try {
+                HitClouFormats.parseGermanNumber(number);
+                fail(number);
+            } catch (IllegalArgumentException exception) {
+                // expected
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void formatNumberTooLarge() throws Exception {
+        HitClouFormats.formatGermanNumber(1e12d, 9);
+    }
+
+    @Test
+    public void substringAndPadding() throws Exception {
+        assertEquals("Hello", HitClouFormats.substring("Hello, World!", 1, 5));
+        assertEquals("00042", HitClouFormats.leftPad("42", 5, "0"));
+        assertEquals("42   ", HitClouFormats.rightPad("42", 5, ""));
+        assertEquals("123456", HitClouFormats.leftPad("123456", 5, "0"));
+    }
+
+    @Test
+    public void convertNodeSequences() throws Exception {
+        NodeInfo document = new XPathEvaluator().build(new StreamSource(new StringReader(
+                "<rows><row date='1.2.2016' amount='1234.5'/><row date='31.12.2016' amount='7'/></rows>")));
+        List dates = new XPathEvaluator().createExpression("/rows/row/@date").evaluate(document);
+        List amounts = new XPathEvaluator().createExpression("/rows/row/@amount").evaluate(document);
+        assertEquals(Arrays.asList("2016-02-01", "2016-12-31"), HitClouFormats.convertDatesToIso8601(dates));
+        assertEquals(Arrays.asList("1.234,50", "7,00"), HitClouFormats.formatGermanNumbers(amounts, 2));
+        assertEquals(Arrays.asList(1234.5d, 7d), HitClouFormats.parseGermanNumbers(Arrays.asList("1.234,5", "7")));
+    }
+
+}
@@ -0,0 +1,41 @@
+package org.poormanscastle.products.hit2assext.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentiles() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileNanos(50));
+        for (int counter = 0; counter < 990; counter++) {
+            histogram.record(100);
+        }
+        for (int counter = 0; counter < 10; counter++) {
+            histogram.record(100000);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(990 * 100 + 10 * 100000, histogram.getTotalNanos());
+        // percentiles are reported as the upper bound of their power of two bucket
+        assertEquals(128, histogram.getPercentileNanos(50));
+        assertEquals(128, histogram.getPercentileNanos(99));
+        assertEquals(131072, histogram.getPercentileNanos(99.9));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+    }
+
+    @Test
+    public void extremeDurations() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(0);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(3, histogram.getCount());
+        assertEquals(0, histogram.getPercentileNanos(50));
+        assertTrue(histogram.getPercentileNanos(100) > 0);
+    }
+
+}
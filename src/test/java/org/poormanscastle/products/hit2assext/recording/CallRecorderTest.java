@@ -0,0 +1,74 @@
+package org.poormanscastle.products.hit2assext.recording;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.poormanscastle.products.hit2assext.RenderSessionManager;
+import org.poormanscastle.products.hit2assext.domain.ExtensionFunction;
+
+public class CallRecorderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recordedCallsCanBeReadBack() throws Exception {
+        CallRecorder recorder = new CallRecorder(folder.getRoot().getPath());
+        recorder.record("ignored", ExtensionFunction.CREATE_LIST, "list", null, 0, null);
+        recorder.record("session", ExtensionFunction.CREATE_RENDER_SESSION_CONTEXT, null, null, 0, null);
+        recorder.record("session", ExtensionFunction.ADD_LIST_VALUES, "list", null, 0,
+                Arrays.asList("äöü", 17L, 2.5, true, null));
+        recorder.record("session", ExtensionFunction.GET_LIST_VALUE_AT, "list", null, 3, null);
+        recorder.record("session", ExtensionFunction.INCREMENT_SCALAR_VARIABLE, "counter", null, -300, null);
+        recorder.finish("session");
+        recorder.close();
+        assertEquals(1, recorder.getRecordedSessionCount());
+        assertEquals(4, recorder.getRecordedCallCount());
+
+        List<CallRecording> recordings = CallRecording.readAll(folder.getRoot().getPath());
+        assertEquals(1, recordings.size());
+        CallRecording recording = recordings.get(0);
+        assertEquals("session", recording.getName());
+        List<RecordedCall> calls = recording.getCalls();
+        assertEquals(4, calls.size());
+        assertEquals(ExtensionFunction.CREATE_RENDER_SESSION_CONTEXT, calls.get(0).getFunction());
+        assertNull(calls.get(0).getSymbol());
+        assertEquals(ExtensionFunction.ADD_LIST_VALUES, calls.get(1).getFunction());
+        assertEquals("list", calls.get(1).getSymbol());
+        assertEquals(Arrays.asList("äöü", 17L, 2.5, true, null), calls.get(1).getValue());
+        assertEquals("list", calls.get(2).getSymbol());
+        assertEquals(3, calls.get(2).getNumber());
+        assertEquals("counter", calls.get(3).getSymbol());
+        assertEquals(-300, calls.get(3).getNumber());
+    }
+
+    @Test
+    public void renderSessionManagerRecordsRenderSessions() throws Exception {
+        RenderSessionManager.startCallRecording(folder.getRoot().getPath());
+        try {
+            String uuid = RenderSessionManager.createRenderSessionContext();
+            RenderSessionManager.createList(uuid, "names");
+            RenderSessionManager.addListValue(uuid, "names", "Georg");
+            RenderSessionManager.setListValueAt(uuid, "names", 1, "Laura");
+            RenderSessionManager.cleanUpRenderSessionContext(uuid);
+        } finally {
+            RenderSessionManager.stopCallRecording();
+        }
+
+        List<RecordedCall> calls = CallRecording.readAll(folder.getRoot().getPath()).get(0).getCalls();
+        assertEquals(5, calls.size());
+        assertEquals(ExtensionFunction.CREATE_RENDER_SESSION_CONTEXT, calls.get(0).getFunction());
+        assertEquals(ExtensionFunction.ADD_LIST_VALUE, calls.get(2).getFunction());
+        assertEquals("Georg", calls.get(2).getValue());
+        assertEquals(ExtensionFunction.SET_LIST_VALUE_AT, calls.get(3).getFunction());
+        assertEquals("Laura", calls.get(3).getValue());
+        assertEquals(ExtensionFunction.CLEAN_UP_RENDER_SESSION_CONTEXT, calls.get(4).getFunction());
+    }
+
+}
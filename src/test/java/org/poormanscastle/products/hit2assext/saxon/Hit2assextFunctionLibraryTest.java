@@ -0,0 +1,99 @@
+package org.poormanscastle.products.hit2assext.saxon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.util.List;
+
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+import org.poormanscastle.products.hit2assext.RenderSessionManager;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.expr.Expression;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.sxpath.XPathEvaluator;
+import net.sf.saxon.trans.XPathException;
+
+public class Hit2assextFunctionLibraryTest {
+
+    private final static String NAMESPACE = RenderSessionManager.class.getName();
+
+    @Test
+    public void bindsHotFunctionsOnly() throws Exception {
+        Hit2assextFunctionLibrary library = Hit2assextFunctionLibrary.getInstance();
+        assertTrue(library.isAvailable(-1, NAMESPACE, "getListValueAt", 3));
+        assertTrue(library.isAvailable(-1, "java:" + NAMESPACE, "hasUserDataLine", -1));
+        assertFalse(library.isAvailable(-1, NAMESPACE, "getListValueAt", 2));
+        assertFalse(library.isAvailable(-1, NAMESPACE, "testConfiguration", 0));
+        assertFalse(library.isAvailable(-1, "http://example.org/other", "getListValueAt", 3));
+
+        Expression call = library.bind(-1, NAMESPACE, "getXmlSequence", new Expression[1]);
+        assertEquals(NativeFunction.GET_XML_SEQUENCE, ((Hit2assextFunctionCall) call).getFunction());
+        assertNull(library.bind(-1, NAMESPACE, "testConfiguration", new Expression[0]));
+    }
+
+    @Test
+    public void registeredFunctionsWorkLikeTheStaticMethods() throws Exception {
+        Configuration configuration = new Configuration();
+        assertTrue(Hit2assextFunctionLibrary.register(configuration));
+        assertFalse(Hit2assextFunctionLibrary.register(configuration));
+        XPathEvaluator evaluator = evaluator(configuration);
+        NodeInfo document = evaluator.build(new StreamSource(new StringReader(
+                "<UserData><line nr='2'>Georg</line><line nr='1'>Laura</line></UserData>")));
+
+        String uuid = (String) evaluator.createExpression("h:createRenderSessionContext()").evaluateSingle(document);
+        try {
+            evaluator.getStaticContext().declareVariable("uuid").setValue(uuid);
+            evaluator.createExpression("h:createList($uuid, 'names')").evaluate(document);
+            evaluator.createExpression("for $line in /UserData/line return h:addListValue($uuid, 'names', $line)")
+                    .evaluate(document);
+            assertEquals(2L, evaluator.createExpression("h:getListLength($uuid, 'names')").evaluateSingle(document));
+            assertEquals("Laura", evaluator.createExpression("string(h:getListValueAt($uuid, 'names', "
+                    + "/UserData/line[. = 'Georg']/@nr))").evaluateSingle(document));
+            assertEquals(Boolean.TRUE, evaluator.createExpression("h:containsListValue($uuid, 'names', 'Georg')")
+                    .evaluateSingle(document));
+            assertEquals(0L, evaluator.createExpression("h:indexOfListValue($uuid, 'names', 'Hugo')")
+                    .evaluateSingle(document));
+
+            evaluator.createExpression("h:createScalarVariable($uuid, 'counter', 5)").evaluate(document);
+            List results = evaluator.createExpression(
+                    "for $i in 1 to 3 return h:incrementScalarVariable($uuid, 'counter', $i)").evaluate(document);
+            assertTrue(results.isEmpty());
+            assertEquals(11L, evaluator.createExpression("h:getScalarVariableValue($uuid, 'counter')")
+                    .evaluateSingle(document));
+            assertEquals("Hello, World!", evaluator.createExpression("h:testConfiguration()").evaluateSingle(document));
+        } finally {
+            RenderSessionManager.cleanUpRenderSessionContext(uuid);
+        }
+    }
+
+    @Test(expected = XPathException.class)
+    public void failuresAreReportedAsXPathErrors() throws Exception {
+        Configuration configuration = new Configuration();
+        Hit2assextFunctionLibrary.register(configuration);
+        evaluator(configuration).createExpression("h:getListLength('no such session', 'names')").evaluateSingle(
+                new XPathEvaluator(configuration).build(new StreamSource(new StringReader("<UserData/>"))));
+    }
+
+    @Test
+    public void templatesCanBindTheFunctionsThemselves() throws Exception {
+        Configuration configuration = new Configuration();
+        XPathEvaluator evaluator = evaluator(configuration);
+        NodeInfo document = evaluator.build(new StreamSource(new StringReader("<UserData/>")));
+        assertEquals(Boolean.TRUE, evaluator.createExpression("h:bindNativeFunctions()").evaluateSingle(document));
+        assertTrue(Hit2assextFunctionLibrary.isRegistered(configuration));
+        assertEquals(Boolean.FALSE, evaluator.createExpression("h:bindNativeFunctions()").evaluateSingle(document));
+    }
+
+    private static XPathEvaluator evaluator(Configuration configuration) {
+        XPathEvaluator evaluator = new XPathEvaluator(configuration);
+        evaluator.getStaticContext().declareNamespace("h", NAMESPACE);
+        return evaluator;
+    }
+
+}